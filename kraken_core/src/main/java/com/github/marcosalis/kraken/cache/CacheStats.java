@@ -0,0 +1,306 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
+import com.github.marcosalis.kraken.utils.concurrent.StripedCounters;
+import com.google.common.annotations.Beta;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Immutable snapshot of the statistics of a cache (or of a set of caches, see {@link
+ * #plus(CacheStats)}), collected by a {@link Recorder}.
+ *
+ * For each {@link CacheSource}, a <i>hit</i> is a request served by that source and a <i>miss</i>
+ * a request that the source couldn't serve (for {@link CacheSource#NETWORK}, a failed download).
+ * The latency of the hits is collected in a histogram of {@link #LATENCY_BUCKETS} buckets with
+ * power of two bounds in milliseconds (see {@link #getLatencyBucketBoundMillis(int)}).
+ *
+ * The statistics are collected in release builds as well: recording them only costs a few
+ * uncontended atomic increments.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@Immutable
+public final class CacheStats {
+
+    /**
+     * Number of buckets of the latency histograms.
+     */
+    public static final int LATENCY_BUCKETS = 14;
+
+    /* counters layout: per source counters first, then the global ones */
+    private static final int SOURCES = CacheSource.values().length;
+    private static final int HITS = 0;
+    private static final int MISSES = 1;
+    private static final int LATENCY_NANOS = 2;
+    private static final int HISTOGRAM = 3;
+    private static final int SOURCE_COUNTERS = HISTOGRAM + LATENCY_BUCKETS;
+    private static final int EVICTIONS = SOURCES * SOURCE_COUNTERS;
+    private static final int EVICTED_BYTES = EVICTIONS + 1;
+    private static final int DOWNLOADS = EVICTED_BYTES + 1;
+    private static final int DOWNLOADED_BYTES = DOWNLOADS + 1;
+    private static final int DOWNLOAD_NANOS = DOWNLOADED_BYTES + 1;
+    private static final int DECODES = DOWNLOAD_NANOS + 1;
+    private static final int DECODE_NANOS = DECODES + 1;
+    private static final int COUNTERS = DECODE_NANOS + 1;
+
+    /**
+     * Statistics with all counters set to 0.
+     */
+    public static final CacheStats EMPTY = new CacheStats(new long[COUNTERS]);
+
+    private final long[] mCounters;
+
+    private CacheStats(@NonNull long[] counters) {
+        mCounters = counters;
+    }
+
+    /**
+     * Returns the upper bound (exclusive) in milliseconds of a latency histogram bucket: the first
+     * bucket holds the latencies below 1 ms, each following bucket doubles the bound of the
+     * previous one, and the last bucket has no upper bound.
+     *
+     * @param bucket The bucket index
+     * @return The bucket upper bound, or {@link Long#MAX_VALUE} for the last bucket
+     */
+    public static long getLatencyBucketBoundMillis(@IntRange(from = 0, to = LATENCY_BUCKETS - 1) int bucket) {
+        return bucket < LATENCY_BUCKETS - 1 ? 1L << bucket : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of requests served by the passed source.
+     */
+    public long getHitCount(@NonNull CacheSource source) {
+        return mCounters[index(source, HITS)];
+    }
+
+    /**
+     * Returns the number of requests that the passed source couldn't serve.
+     */
+    public long getMissCount(@NonNull CacheSource source) {
+        return mCounters[index(source, MISSES)];
+    }
+
+    /**
+     * Returns the ratio of the requests served by the passed source to all the requests that
+     * reached it, or 1.0 if no request reached it.
+     */
+    public double getHitRate(@NonNull CacheSource source) {
+        final long hits = getHitCount(source);
+        final long requests = hits + getMissCount(source);
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    /**
+     * Returns the average latency in nanoseconds of the requests served by the passed source.
+     */
+    public long getAverageLatencyNanos(@NonNull CacheSource source) {
+        return average(mCounters[index(source, LATENCY_NANOS)], getHitCount(source));
+    }
+
+    /**
+     * Returns the latency histogram of the requests served by the passed source.
+     *
+     * @return A copy of the {@link #LATENCY_BUCKETS} histogram buckets
+     */
+    @NonNull
+    public long[] getLatencyHistogram(@NonNull CacheSource source) {
+        final int from = index(source, HISTOGRAM);
+        return Arrays.copyOfRange(mCounters, from, from + LATENCY_BUCKETS);
+    }
+
+    /**
+     * Returns the number of items evicted from the memory cache.
+     */
+    public long getEvictionCount() {
+        return mCounters[EVICTIONS];
+    }
+
+    /**
+     * Returns the size in bytes of the items evicted from the memory cache.
+     */
+    public long getEvictedBytes() {
+        return mCounters[EVICTED_BYTES];
+    }
+
+    /**
+     * Returns the number of successful downloads.
+     */
+    public long getDownloadCount() {
+        return mCounters[DOWNLOADS];
+    }
+
+    /**
+     * Returns the number of downloaded bytes.
+     */
+    public long getDownloadedBytes() {
+        return mCounters[DOWNLOADED_BYTES];
+    }
+
+    /**
+     * Returns the average duration in nanoseconds of a successful download.
+     */
+    public long getAverageDownloadNanos() {
+        return average(mCounters[DOWNLOAD_NANOS], getDownloadCount());
+    }
+
+    /**
+     * Returns the number of decoded items.
+     */
+    public long getDecodeCount() {
+        return mCounters[DECODES];
+    }
+
+    /**
+     * Returns the average duration in nanoseconds of the decoding of an item.
+     */
+    public long getAverageDecodeNanos() {
+        return average(mCounters[DECODE_NANOS], getDecodeCount());
+    }
+
+    /**
+     * Returns new statistics that sum these and the passed ones.
+     */
+    @NonNull
+    public CacheStats plus(@NonNull CacheStats other) {
+        final long[] counters = new long[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            counters[i] = mCounters[i] + other.mCounters[i];
+        }
+        return new CacheStats(counters);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CacheStats
+                && Arrays.equals(mCounters, ((CacheStats) o).mCounters);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mCounters);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("CacheStats{");
+        for (CacheSource source : CacheSource.values()) {
+            builder.append(source).append(": hits ").append(getHitCount(source))
+                    .append(", misses ").append(getMissCount(source)).append(", avg ms ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(getAverageLatencyNanos(source)))
+                    .append("; ");
+        }
+        return builder.append("evictions ").append(getEvictionCount()).append(", downloaded bytes ")
+                .append(getDownloadedBytes()).append('}').toString();
+    }
+
+    private static int index(@NonNull CacheSource source, int counter) {
+        return source.ordinal() * SOURCE_COUNTERS + counter;
+    }
+
+    private static long average(long total, long count) {
+        return count != 0 ? total / count : 0;
+    }
+
+    /**
+     * Collects the statistics of a cache. All methods are cheap and can be called concurrently
+     * from any thread.
+     */
+    @Beta
+    @ThreadSafe
+    public static final class Recorder {
+
+        private final StripedCounters mCounters = new StripedCounters(COUNTERS);
+
+        /**
+         * Records a request served by the passed source.
+         *
+         * @param source       The {@link CacheSource} that served the request
+         * @param latencyNanos The time spent retrieving the item from the source
+         */
+        public void recordHit(@NonNull CacheSource source, long latencyNanos) {
+            final StripedCounters counters = mCounters;
+            counters.increment(index(source, HITS));
+            counters.add(index(source, LATENCY_NANOS), latencyNanos);
+            counters.increment(index(source, HISTOGRAM + getLatencyBucket(latencyNanos)));
+        }
+
+        /**
+         * Records a request that the passed source couldn't serve.
+         */
+        public void recordMiss(@NonNull CacheSource source) {
+            mCounters.increment(index(source, MISSES));
+        }
+
+        /**
+         * Records the eviction of an item from the memory cache.
+         *
+         * @param bytes The size of the evicted item, or 0 if unknown
+         */
+        public void recordEviction(long bytes) {
+            mCounters.increment(EVICTIONS);
+            mCounters.add(EVICTED_BYTES, bytes);
+        }
+
+        /**
+         * Records a successful download.
+         *
+         * @param bytes The downloaded bytes
+         * @param nanos The download duration
+         */
+        public void recordDownload(long bytes, long nanos) {
+            mCounters.increment(DOWNLOADS);
+            mCounters.add(DOWNLOADED_BYTES, bytes);
+            mCounters.add(DOWNLOAD_NANOS, nanos);
+        }
+
+        /**
+         * Records the decoding of an item.
+         *
+         * @param nanos The decoding duration
+         */
+        public void recordDecode(long nanos) {
+            mCounters.increment(DECODES);
+            mCounters.add(DECODE_NANOS, nanos);
+        }
+
+        /**
+         * Returns a snapshot of the statistics recorded so far.
+         */
+        @NonNull
+        public CacheStats snapshot() {
+            return new CacheStats(mCounters.sumAll());
+        }
+
+        private static int getLatencyBucket(long nanos) {
+            final long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+            return Math.min(64 - Long.numberOfLeadingZeros(millis), LATENCY_BUCKETS - 1);
+        }
+    }
+
+}
@@ -0,0 +1,829 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.marcosalis.kraken.utils.CoreLog;
+import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
+import com.github.marcosalis.kraken.utils.http.HttpValidators;
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * In-memory index of the entries of a file-based disk cache, backed by an append-only journal file
+ * stored in the cache directory.
+ *
+ * Every entry write, read and removal is appended to the journal, so that the index can be rebuilt
+ * when the cache is opened again without accessing each file in the cache. Lookups, misses and
+ * purges are then resolved in memory, without any file system syscall. The index keeps the entries
+ * in access order, from the least to the most recently used.
+ *
+ * The journal is loaded asynchronously when the index is created (calls to the index methods wait
+ * for it to complete) and periodically compacted in background to remove redundant records. If the
+ * journal is missing or corrupted, the index is rebuilt by scanning the cache directory once.
+ * Read records are flushed to the journal in batches (or with the next write or removal), as they
+ * only affect the access order: losing the last few of them is harmless.
+ *
+ * The index can also hold the HTTP cache validators ({@link HttpValidators}) of each entry, so that
+ * an expired entry can be revalidated with a conditional request instead of being downloaded
+ * again.
+ *
+ * Cache keys must be valid file names and can't contain whitespaces.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public class DiskCacheIndex {
+
+    private static final String TAG = DiskCacheIndex.class.getSimpleName();
+
+    /**
+     * Name of the journal file in the cache directory
+     */
+    public static final String JOURNAL_FILE = "journal";
+    /**
+     * Suffix of the temporary files that hold the cache entries while they are being written
+     */
+    public static final String TEMP_FILE_SUFFIX = ".tmp";
+    static final String JOURNAL_FILE_TEMP = "journal.tmp";
+
+    static final String MAGIC = "kraken.DiskCacheIndex";
+    static final String VERSION = "2";
+    /* version 1 journals have no validation records and can still be read */
+    private static final String VERSION_1 = "1";
+
+    private static final String PUT = "PUT";
+    private static final String READ = "READ";
+    private static final String DEL = "DEL";
+    private static final String VAL = "VAL";
+
+    /* placeholder for a missing validator in the journal records */
+    private static final String NO_VALUE = "-";
+
+    /* age after which a temporary file is considered left over by an interrupted write */
+    private static final long STALE_TEMP_FILE_MS = 10 * 60 * 1000;
+
+    /* minimum number of redundant journal records before a compaction */
+    @VisibleForTesting
+    static final int COMPACT_THRESHOLD = 2000;
+
+    /* max number of read records buffered before flushing the journal */
+    @VisibleForTesting
+    static final int READ_FLUSH_BATCH = 64;
+
+    /**
+     * Immutable snapshot of an index entry.
+     */
+    @Immutable
+    public static final class Entry {
+        @NonNull
+        public final String key;
+        /**
+         * Size of the entry in bytes
+         */
+        public final long size;
+        /**
+         * Time of the last write (or validation) of the entry, used to calculate its expiry
+         */
+        public final long updated;
+        /**
+         * Time of the last access to the entry
+         */
+        public final long lastAccess;
+        /**
+         * HTTP validators of the entry content, if known
+         */
+        @Nullable
+        public final HttpValidators validators;
+
+        Entry(@NonNull String key, long size, long updated, long lastAccess) {
+            this(key, size, updated, lastAccess, null);
+        }
+
+        Entry(@NonNull String key, long size, long updated, long lastAccess,
+              @Nullable HttpValidators validators) {
+            this.key = key;
+            this.size = size;
+            this.updated = updated;
+            this.lastAccess = lastAccess;
+            this.validators = validators;
+        }
+
+        /**
+         * Returns whether the entry is expired given the passed expiration.
+         *
+         * @param now          The current time in milliseconds
+         * @param expirationMs The entries validity in milliseconds
+         */
+        public boolean isExpired(long now, long expirationMs) {
+            return updated < now - expirationMs;
+        }
+    }
+
+    private final File mDirectory;
+    private final File mJournalFile;
+    private final Executor mCompactionExecutor;
+    private final CountDownLatch mLoadedLatch = new CountDownLatch(1);
+    /* serializes the journal rewrites, acquired before the index lock */
+    private final Object mCompactionLock = new Object();
+
+    @GuardedBy("this")
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+    @GuardedBy("this")
+    private Writer mJournalWriter;
+    @GuardedBy("this")
+    private long mSize;
+    @GuardedBy("this")
+    private int mRedundantOps;
+    @GuardedBy("this")
+    private boolean mCompactionScheduled;
+    @GuardedBy("this")
+    private int mUnflushedReads;
+    /* records appended while a compaction is in progress, null otherwise */
+    @GuardedBy("this")
+    private List<String> mCompactionRecords;
+
+    /**
+     * Creates the index for the passed cache directory, loading its journal in background.
+     *
+     * @param directory The cache directory
+     * @param executor  The (background) executor used to load and compact the journal
+     */
+    public DiskCacheIndex(@NonNull File directory, @NonNull Executor executor) {
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mCompactionExecutor = executor;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Returns whether the passed file is one of the index journal files.
+     */
+    public static boolean isJournalFile(@NonNull File file) {
+        final String name = file.getName();
+        return JOURNAL_FILE.equals(name) || JOURNAL_FILE_TEMP.equals(name);
+    }
+
+    /**
+     * Returns whether the index contains an entry for the passed key.
+     */
+    public boolean contains(@NonNull String key) {
+        awaitLoaded();
+        synchronized (this) {
+            return mEntries.containsKey(key);
+        }
+    }
+
+    /**
+     * Gets the entry for the passed key, without affecting the access order.
+     */
+    @Nullable
+    public Entry get(@NonNull String key) {
+        awaitLoaded();
+        synchronized (this) {
+            return mEntries.get(key);
+        }
+    }
+
+    /**
+     * Records an access to the entry for the passed key, making it the most recently used.
+     *
+     * @return The accessed entry, or null if the key is not in the index
+     */
+    @Nullable
+    public Entry recordRead(@NonNull String key) {
+        awaitLoaded();
+        final Entry accessed;
+        final boolean compact;
+        synchronized (this) {
+            final Entry entry = mEntries.remove(key);
+            if (entry == null) {
+                return null;
+            }
+            final long now = System.currentTimeMillis();
+            accessed = new Entry(key, entry.size, entry.updated, now, entry.validators);
+            mEntries.put(key, accessed); // move to the most recently used position
+            compact = appendRecord(READ + ' ' + key + ' ' + now, false);
+        }
+        if (compact) {
+            scheduleCompaction();
+        }
+        return accessed;
+    }
+
+    /**
+     * Records the write of a new (or replaced) entry.
+     *
+     * @param key     The entry key
+     * @param size    The entry size in bytes
+     * @param updated The time of the write
+     */
+    public void recordWrite(@NonNull String key, @IntRange(from = 0) long size, long updated) {
+        awaitLoaded();
+        final boolean compact;
+        synchronized (this) {
+            putEntry(new Entry(key, size, updated, updated));
+            compact = appendRecord(PUT + ' ' + key + ' ' + size + ' ' + updated, true);
+        }
+        if (compact) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * Records the validation of an entry: its validators are replaced and its update time set to
+     * the passed value, without affecting the access order.
+     *
+     * @param key        The entry key
+     * @param updated    The new update time of the entry (the write time, or the time of a
+     *                   successful revalidation to restart its expiration)
+     * @param validators The HTTP validators of the entry, or null to remove them
+     * @return The validated entry, or null if the key is not in the index
+     */
+    @Nullable
+    public Entry recordValidation(@NonNull String key, long updated,
+                                  @Nullable HttpValidators validators) {
+        awaitLoaded();
+        final Entry validated;
+        final boolean compact;
+        synchronized (this) {
+            final Entry entry = mEntries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            validated = new Entry(key, entry.size, updated, entry.lastAccess, validators);
+            mEntries.put(key, validated); // replacing a value keeps the access order
+            compact = appendRecord(validationRecord(validated), true);
+        }
+        if (compact) {
+            scheduleCompaction();
+        }
+        return validated;
+    }
+
+    /**
+     * Records the removal of an entry.
+     */
+    public void recordRemove(@NonNull String key) {
+        awaitLoaded();
+        final boolean compact;
+        synchronized (this) {
+            compact = removeEntry(key) != null && appendRecord(DEL + ' ' + key, true);
+        }
+        if (compact) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * Gets a snapshot of the index entries, from the least to the most recently used.
+     */
+    @NonNull
+    public List<Entry> snapshot() {
+        awaitLoaded();
+        synchronized (this) {
+            return new ArrayList<Entry>(mEntries.values());
+        }
+    }
+
+    /**
+     * Gets the least recently used entry.
+     */
+    @Nullable
+    public Entry eldest() {
+        awaitLoaded();
+        synchronized (this) {
+            return mEntries.isEmpty() ? null : mEntries.values().iterator().next();
+        }
+    }
+
+    /**
+     * Returns the total size in bytes of the indexed entries.
+     */
+    public long size() {
+        awaitLoaded();
+        synchronized (this) {
+            return mSize;
+        }
+    }
+
+    /**
+     * Returns the number of indexed entries.
+     */
+    public int count() {
+        awaitLoaded();
+        synchronized (this) {
+            return mEntries.size();
+        }
+    }
+
+    /**
+     * Removes all the entries from the index and resets the journal.
+     */
+    @NotForUIThread
+    public void clear() {
+        awaitLoaded();
+        synchronized (mCompactionLock) {
+            synchronized (this) {
+                mEntries.clear();
+                mSize = 0;
+                writeCompactJournal();
+            }
+        }
+    }
+
+    /**
+     * Synchronously compacts the journal, rewriting it with a single record for each entry.
+     *
+     * The compacted journal is written from a snapshot of the index without holding its lock, so
+     * that the index can still be accessed and modified meanwhile: the records appended during the
+     * compaction are then copied to the new journal before replacing the old one. If the
+     * compaction fails, the old journal is kept.
+     */
+    @NotForUIThread
+    public void compact() {
+        awaitLoaded();
+        synchronized (mCompactionLock) {
+            final List<Entry> entries;
+            synchronized (this) {
+                entries = new ArrayList<Entry>(mEntries.values());
+                mCompactionRecords = new ArrayList<String>();
+            }
+            final File tempJournal = new File(mDirectory, JOURNAL_FILE_TEMP);
+            boolean written = false;
+            try {
+                writeJournal(tempJournal, entries);
+                written = true;
+            } catch (IOException e) {
+                CoreLog.logException(TAG, "Error when compacting journal", e);
+            }
+            synchronized (this) {
+                final List<String> records = mCompactionRecords;
+                mCompactionRecords = null;
+                mCompactionScheduled = false;
+                if (written) {
+                    swapJournal(tempJournal, records);
+                } else {
+                    tempJournal.delete();
+                    if (mJournalWriter == null) {
+                        openWriter(); // the writer failed before the compaction was scheduled
+                    }
+                }
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void putEntry(@NonNull Entry entry) {
+        final Entry old = mEntries.remove(entry.key);
+        mEntries.put(entry.key, entry);
+        if (old != null) {
+            mSize -= old.size;
+            mRedundantOps++;
+        }
+        mSize += entry.size;
+    }
+
+    @GuardedBy("this")
+    @Nullable
+    private Entry removeEntry(@NonNull String key) {
+        final Entry old = mEntries.remove(key);
+        if (old != null) {
+            mSize -= old.size;
+            mRedundantOps += 2;
+        }
+        return old;
+    }
+
+    /**
+     * Appends a record to the journal.
+     *
+     * @param record The journal record
+     * @param flush  true to flush the journal immediately, false to only flush it once enough
+     *               records are buffered
+     * @return true if a compaction must be scheduled (outside the index lock)
+     */
+    @GuardedBy("this")
+    private boolean appendRecord(@NonNull String record, boolean flush) {
+        if (mCompactionRecords != null) {
+            mCompactionRecords.add(record);
+        }
+        if (mJournalWriter != null) {
+            try {
+                mJournalWriter.write(record);
+                mJournalWriter.write('\n');
+                if (flush || ++mUnflushedReads >= READ_FLUSH_BATCH) {
+                    mJournalWriter.flush();
+                    mUnflushedReads = 0;
+                }
+            } catch (IOException e) {
+                CoreLog.logException(TAG, "Error when writing journal", e);
+                closeWriter(); // the journal is rebuilt at the next compaction
+                mRedundantOps = COMPACT_THRESHOLD;
+            }
+        }
+        if (record.startsWith(READ) || record.startsWith(VAL)) {
+            mRedundantOps++;
+        }
+        if (mRedundantOps >= COMPACT_THRESHOLD && mRedundantOps >= mEntries.size()
+                && !mCompactionScheduled) {
+            mCompactionScheduled = true;
+            return true;
+        }
+        return false;
+    }
+
+    private void scheduleCompaction() {
+        mCompactionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    @NotForUIThread
+    private void load() {
+        synchronized (this) {
+            try {
+                if (!readJournal()) {
+                    rebuildFromDirectory();
+                    writeCompactJournal();
+                } else {
+                    openWriter();
+                }
+            } finally {
+                mLoadedLatch.countDown();
+            }
+            deleteStaleTempFiles();
+            if (CoreLog.isEnabled()) {
+                CoreLog.d(TAG, "Index loaded for " + mDirectory.getName() + ": " + mEntries.size()
+                        + " entries, " + mSize + " bytes");
+            }
+        }
+    }
+
+    /**
+     * @return true if the journal was successfully read, false if it's missing or corrupted
+     */
+    @GuardedBy("this")
+    private boolean readJournal() {
+        if (!mJournalFile.exists()) {
+            return false;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile),
+                    Charsets.US_ASCII));
+            if (!MAGIC.equals(reader.readLine())) {
+                return false;
+            }
+            final String version = reader.readLine();
+            if (!VERSION.equals(version) && !VERSION_1.equals(version)) {
+                return false;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                readRecord(line);
+            }
+            return true;
+        } catch (IOException e) {
+            CoreLog.logException(TAG, "Error when reading journal", e);
+        } catch (RuntimeException e) { // corrupted record
+            CoreLog.logException(TAG, "Corrupted journal", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        mEntries.clear();
+        mSize = 0;
+        return false;
+    }
+
+    @GuardedBy("this")
+    private void readRecord(@NonNull String line) {
+        final String[] parts = line.split(" ");
+        final String op = parts[0];
+        final String key = parts[1];
+        if (PUT.equals(op)) {
+            final long size = Long.parseLong(parts[2]);
+            final long updated = Long.parseLong(parts[3]);
+            putEntry(new Entry(key, size, updated, updated));
+        } else if (READ.equals(op)) {
+            final Entry entry = mEntries.remove(key);
+            if (entry != null) {
+                mEntries.put(key, new Entry(key, entry.size, entry.updated,
+                        Long.parseLong(parts[2]), entry.validators));
+            }
+            mRedundantOps++;
+        } else if (VAL.equals(op)) {
+            final Entry entry = mEntries.get(key);
+            if (entry != null) {
+                final String eTag = unescape(parts[3]);
+                final String lastModified = unescape(parts[4]);
+                final HttpValidators validators = eTag != null || lastModified != null
+                        ? new HttpValidators(eTag, lastModified) : null;
+                mEntries.put(key, new Entry(key, entry.size, Long.parseLong(parts[2]),
+                        entry.lastAccess, validators));
+            }
+            mRedundantOps++;
+        } else if (DEL.equals(op)) {
+            removeEntry(key);
+        } else {
+            throw new IllegalStateException("Unknown journal record: " + line);
+        }
+    }
+
+    @GuardedBy("this")
+    private void rebuildFromDirectory() {
+        mEntries.clear();
+        mSize = 0;
+        indexDirectory(mDirectory, 0);
+        if (CoreLog.isEnabled()) {
+            CoreLog.i(TAG, "Index rebuilt from directory " + mDirectory.getName());
+        }
+    }
+
+    /* max depth of the shard directories, see SimpleDiskCache#FLAG_SHARDED */
+    private static final int MAX_SHARD_DEPTH = 2;
+
+    @GuardedBy("this")
+    private void indexDirectory(@NonNull File directory, int depth) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                if (!isJournalFile(file)
+                        && !file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                    final long lastModified = file.lastModified();
+                    putEntry(new Entry(file.getName(), file.length(), lastModified, lastModified));
+                }
+            } else if (depth < MAX_SHARD_DEPTH && file.isDirectory()) {
+                indexDirectory(file, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Deletes the temporary files left over by writes that were interrupted before being committed.
+     * Only the temporary files are accessed.
+     */
+    private void deleteStaleTempFiles() {
+        final File[] tempFiles = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(TEMP_FILE_SUFFIX);
+            }
+        });
+        if (tempFiles != null) {
+            final long staleTime = System.currentTimeMillis() - STALE_TEMP_FILE_MS;
+            for (File file : tempFiles) {
+                if (!JOURNAL_FILE_TEMP.equals(file.getName()) && file.lastModified() < staleTime) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal from the current entries while holding the index lock. If that fails,
+     * the outdated journal is deleted so that the index is rebuilt from the directory next time.
+     */
+    @GuardedBy("this")
+    private void writeCompactJournal() {
+        closeWriter();
+        final File tempJournal = new File(mDirectory, JOURNAL_FILE_TEMP);
+        try {
+            writeJournal(tempJournal, mEntries.values());
+            if (!tempJournal.renameTo(mJournalFile)) {
+                throw new IOException("Journal rename failed");
+            }
+            mRedundantOps = 0;
+        } catch (IOException e) {
+            CoreLog.logException(TAG, "Error when writing journal", e);
+            tempJournal.delete();
+            mJournalFile.delete();
+        }
+        openWriter();
+        mCompactionScheduled = false;
+    }
+
+    /**
+     * Replaces the journal with the passed compacted one and reopens the journal writer. If the
+     * replacement fails, the writer is reopened on the old journal.
+     *
+     * @param tempJournal The compacted journal
+     * @param records     The records appended to the old journal while compacting it
+     */
+    @GuardedBy("this")
+    private void swapJournal(@NonNull File tempJournal, @NonNull List<String> records) {
+        try {
+            appendRecords(tempJournal, records);
+            closeWriter(); // flushes the buffered records to the old journal
+            if (!tempJournal.renameTo(mJournalFile)) {
+                throw new IOException("Journal rename failed");
+            }
+            mRedundantOps = 0;
+        } catch (IOException e) {
+            CoreLog.logException(TAG, "Error when replacing journal", e);
+            tempJournal.delete();
+        }
+        if (mJournalWriter == null) {
+            openWriter();
+        }
+    }
+
+    private static void writeJournal(@NonNull File file, @NonNull Collection<Entry> entries)
+            throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                Charsets.US_ASCII));
+        try {
+            writer.write(MAGIC + '\n' + VERSION + '\n');
+            for (Entry entry : entries) {
+                writer.write(PUT + ' ' + entry.key + ' ' + entry.size + ' ' + entry.updated + '\n');
+                if (entry.validators != null) {
+                    writer.write(validationRecord(entry) + '\n');
+                }
+                if (entry.lastAccess != entry.updated) {
+                    writer.write(READ + ' ' + entry.key + ' ' + entry.lastAccess + '\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void appendRecords(@NonNull File file, @NonNull List<String> records)
+            throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file,
+                true), Charsets.US_ASCII));
+        try {
+            for (String record : records) {
+                writer.write(record);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @NonNull
+    private static String validationRecord(@NonNull Entry entry) {
+        final HttpValidators validators = entry.validators;
+        return VAL + ' ' + entry.key + ' ' + entry.updated + ' '
+                + escape(validators != null ? validators.getETag() : null) + ' '
+                + escape(validators != null ? validators.getLastModified() : null);
+    }
+
+    /**
+     * Escapes a validator for the journal, so that it doesn't contain whitespaces or the
+     * placeholder of a missing value (which, for example, Last-Modified dates always contain).
+     */
+    @NonNull
+    @VisibleForTesting
+    static String escape(@Nullable String value) {
+        if (value == null) {
+            return NO_VALUE;
+        }
+        final StringBuilder builder = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c <= ' ' || c == '%' || c == '-' || c > '~') {
+                if (c > 0xff) { // not a valid header value character
+                    builder.append('?');
+                } else {
+                    builder.append('%').append(Character.forDigit(c >> 4, 16))
+                            .append(Character.forDigit(c & 0xf, 16));
+                }
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    @Nullable
+    @VisibleForTesting
+    static String unescape(@NonNull String value) {
+        if (NO_VALUE.equals(value)) {
+            return null;
+        }
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        final StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '%') {
+                builder.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Opens the journal writer in append mode, if the journal exists. Otherwise the journal is
+     * created by the next compaction.
+     */
+    @GuardedBy("this")
+    private void openWriter() {
+        if (!mJournalFile.exists()) {
+            mRedundantOps = COMPACT_THRESHOLD;
+            return;
+        }
+        try {
+            mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                    mJournalFile, true), Charsets.US_ASCII));
+            mUnflushedReads = 0;
+        } catch (IOException e) {
+            CoreLog.logException(TAG, "Error when opening journal", e);
+            mRedundantOps = COMPACT_THRESHOLD; // retry at the next compaction
+        }
+    }
+
+    @GuardedBy("this")
+    private void closeWriter() {
+        if (mJournalWriter != null) {
+            try {
+                mJournalWriter.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mJournalWriter = null;
+        }
+    }
+
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mLoadedLatch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
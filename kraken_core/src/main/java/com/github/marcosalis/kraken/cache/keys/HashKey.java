@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.keys;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.annotations.Beta;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 128-bit hash key, held as two primitive longs, to be used to index cache entries in memory
+ * without allocating and comparing hash strings.
+ *
+ * Keys are generated with the murmur3 128 bit algorithm ({@link Hashing#murmur3_128()}, seed 0)
+ * over the UTF-16 characters of the input, without any intermediate allocation. The hexadecimal
+ * string representation returned by {@link #toString()} is the same as the one of the equivalent
+ * Guava hash code, so that it can be used for existing disk cache file names: it's only generated
+ * (and cached) when first requested.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@Immutable
+public final class HashKey {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long mH1;
+    private final long mH2;
+    /* lazily initialized, benign data race as for String#hashCode() */
+    @Nullable
+    private String mHex;
+
+    /**
+     * Creates a key from the two halves of a 128-bit hash.
+     *
+     * @param h1 The first 64 bits of the hash
+     * @param h2 The last 64 bits of the hash
+     */
+    public HashKey(long h1, long h2) {
+        mH1 = h1;
+        mH2 = h2;
+    }
+
+    /**
+     * Generates the key of the passed characters.
+     *
+     * @param input The characters to hash
+     * @return The murmur3 128 bit hash key, see the class documentation
+     */
+    @NonNull
+    public static HashKey of(@NonNull CharSequence input) {
+        final int length = input.length();
+        long h1 = 0;
+        long h2 = 0;
+
+        // body: 16 bytes (8 little endian chars) per block
+        final int blockEnd = length - (length & 7);
+        for (int i = 0; i < blockEnd; i += 8) {
+            final long k1 = getLong(input, i);
+            final long k2 = getLong(input, i + 4);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // tail: up to 7 remaining chars
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = blockEnd; i < length; i++) {
+            final long c = input.charAt(i);
+            final int shift = ((i - blockEnd) & 3) << 4;
+            if (i - blockEnd < 4) {
+                k1 |= c << shift;
+            } else {
+                k2 |= c << shift;
+            }
+        }
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+
+        // finalization
+        final long byteLength = (long) length * 2;
+        h1 ^= byteLength;
+        h2 ^= byteLength;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return new HashKey(h1, h2);
+    }
+
+    /**
+     * Parses a key from its string representation.
+     *
+     * @param hex The 32 characters hexadecimal string, as returned by {@link #toString()}
+     * @return The parsed key
+     * @throws IllegalArgumentException if the string is not a valid key representation
+     */
+    @NonNull
+    public static HashKey fromString(@NonNull String hex) {
+        if (hex.length() != 32) {
+            throw new IllegalArgumentException("Invalid hash key: " + hex);
+        }
+        return new HashKey(parseHalf(hex, 0), parseHalf(hex, 16));
+    }
+
+    /**
+     * Returns the first 64 bits of the hash.
+     */
+    public long getH1() {
+        return mH1;
+    }
+
+    /**
+     * Returns the last 64 bits of the hash.
+     */
+    public long getH2() {
+        return mH2;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HashKey)) {
+            return false;
+        }
+        final HashKey other = (HashKey) o;
+        return mH1 == other.mH1 && mH2 == other.mH2;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) mH1; // already well distributed
+    }
+
+    /**
+     * Returns the 32 characters hexadecimal representation of the key, suitable for file names.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        String hex = mHex;
+        if (hex == null) {
+            final char[] chars = new char[32];
+            appendHalf(chars, 0, mH1);
+            appendHalf(chars, 16, mH2);
+            mHex = hex = new String(chars);
+        }
+        return hex;
+    }
+
+    private static long getLong(@NonNull CharSequence input, int index) {
+        return (long) input.charAt(index) | (long) input.charAt(index + 1) << 16
+                | (long) input.charAt(index + 2) << 32 | (long) input.charAt(index + 3) << 48;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /* the hash bytes are in little endian order */
+    private static void appendHalf(@NonNull char[] chars, int offset, long half) {
+        for (int i = 0; i < 8; i++) {
+            final int b = (int) (half >>> (i << 3)) & 0xff;
+            chars[offset + (i << 1)] = HEX_DIGITS[b >>> 4];
+            chars[offset + (i << 1) + 1] = HEX_DIGITS[b & 0xf];
+        }
+    }
+
+    private static long parseHalf(@NonNull String hex, int offset) {
+        long half = 0;
+        for (int i = 0; i < 8; i++) {
+            final int high = Character.digit(hex.charAt(offset + (i << 1)), 16);
+            final int low = Character.digit(hex.charAt(offset + (i << 1) + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hash key: " + hex);
+            }
+            half |= (long) (high << 4 | low) << (i << 3);
+        }
+        return half;
+    }
+
+}
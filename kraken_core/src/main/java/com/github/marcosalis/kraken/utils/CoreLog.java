@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.annotations.Beta;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Debug logging facade for the platform independent classes of the library, which can't use the
+ * Android logging APIs directly.
+ *
+ * Logging is disabled until a {@link Printer} is set with {@link #setPrinter(Printer)}: the
+ * Android library sets one that prints to LogCat when library debugging is active, while tests
+ * running on a plain JVM can set one that prints to the standard output. Check {@link #isEnabled()}
+ * before building expensive log messages.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public final class CoreLog {
+
+    /* same values as the android.util.Log priority constants */
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+
+    /**
+     * Destination of the log messages.
+     */
+    public interface Printer {
+
+        /**
+         * Prints a log message.
+         *
+         * @param priority  The message priority, one of the {@link CoreLog} constants
+         * @param tag       The message tag
+         * @param message   The message
+         * @param throwable The (optional) {@link Throwable} to print the stack trace of
+         */
+        public void println(int priority, @NonNull String tag, @NonNull String message,
+                            @Nullable Throwable throwable);
+    }
+
+    @Nullable
+    private static volatile Printer sPrinter;
+
+    private CoreLog() {
+        // hidden constructor, no instantiation needed
+    }
+
+    /**
+     * Sets the {@link Printer} of the log messages.
+     *
+     * @param printer The printer, or null to disable logging
+     */
+    public static void setPrinter(@Nullable Printer printer) {
+        sPrinter = printer;
+    }
+
+    /**
+     * Returns whether debug logging is enabled.
+     */
+    public static boolean isEnabled() {
+        return sPrinter != null;
+    }
+
+    public static void v(@NonNull String tag, @NonNull String message) {
+        println(VERBOSE, tag, message, null);
+    }
+
+    public static void d(@NonNull String tag, @NonNull String message) {
+        println(DEBUG, tag, message, null);
+    }
+
+    public static void i(@NonNull String tag, @NonNull String message) {
+        println(INFO, tag, message, null);
+    }
+
+    /**
+     * Logs a warning message with the exception stack.
+     *
+     * @param tag       The message tag
+     * @param message   The message
+     * @param throwable The {@link Throwable} to get the stack trace from
+     */
+    public static void logException(@NonNull String tag, @NonNull String message,
+                                    @Nullable Throwable throwable) {
+        if (throwable != null) {
+            println(WARN, tag, message, throwable);
+        }
+    }
+
+    private static void println(int priority, @NonNull String tag, @NonNull String message,
+                                @Nullable Throwable throwable) {
+        final Printer printer = sPrinter;
+        if (printer != null) {
+            printer.println(priority, tag, message, throwable);
+        }
+    }
+
+}
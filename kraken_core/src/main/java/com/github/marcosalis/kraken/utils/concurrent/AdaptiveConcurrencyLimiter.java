@@ -0,0 +1,273 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.concurrent;
+
+import android.support.annotation.IntRange;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Fair concurrency limiter, similar to a {@link java.util.concurrent.Semaphore}, whose number of
+ * permits adapts within bounds to the measured latency of the guarded operations.
+ *
+ * The limiter collects the execution time of the operations in windows of {@link #SAMPLE_WINDOW}
+ * samples. At the end of every window:
+ * <ul>
+ * <li>if the average execution time grew above the baseline by more than {@link
+ * #LATENCY_TOLERANCE}, the operations are contending for the CPU (or have been scheduled on slower
+ * cores) and a permit is removed</li>
+ * <li>otherwise, if any thread had to wait for a permit during the window, a permit is added</li>
+ * </ul>
+ * The baseline is the lowest window average seen so far, slowly drifting towards the recent
+ * averages to follow changes in the workload.
+ *
+ * Usage: call {@link #acquire()} before the operation and pass the returned value to {@link
+ * #release(long)} after it, in a finally block.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * Number of samples collected before adjusting the permits.
+     */
+    public static final int SAMPLE_WINDOW = 16;
+
+    /**
+     * Ratio of the average latency to the baseline above which permits are removed.
+     */
+    public static final float LATENCY_TOLERANCE = 1.5f;
+
+    /* weight of a new window average when drifting the baseline upwards */
+    private static final int BASELINE_DRIFT = 8;
+
+    private final int mMinPermits;
+    private final int mMaxPermits;
+
+    private final ReentrantLock mLock = new ReentrantLock(true);
+    private final Condition mAvailable = mLock.newCondition();
+
+    @GuardedBy("mLock")
+    private int mPermits;
+    @GuardedBy("mLock")
+    private int mInUse;
+    @GuardedBy("mLock")
+    private int mWaiting;
+    @GuardedBy("mLock")
+    private int mSamples;
+    @GuardedBy("mLock")
+    private long mWindowNanos;
+    @GuardedBy("mLock")
+    private boolean mQueuedInWindow;
+    @GuardedBy("mLock")
+    private long mBaselineNanos = -1;
+    @GuardedBy("mLock")
+    private long mLastAverageNanos;
+    @GuardedBy("mLock")
+    private long mTotalWaitNanos;
+    @GuardedBy("mLock")
+    private long mAcquisitions;
+
+    /**
+     * Creates a new limiter.
+     *
+     * @param minPermits     The minimum number of permits
+     * @param maxPermits     The maximum number of permits
+     * @param initialPermits The initial number of permits, within the bounds
+     */
+    public AdaptiveConcurrencyLimiter(@IntRange(from = 1) int minPermits, int maxPermits,
+                                      int initialPermits) {
+        Preconditions.checkArgument(minPermits > 0 && minPermits <= maxPermits,
+                "Invalid permits bounds");
+        Preconditions.checkArgument(initialPermits >= minPermits && initialPermits <= maxPermits,
+                "Invalid initial permits");
+        mMinPermits = minPermits;
+        mMaxPermits = maxPermits;
+        mPermits = initialPermits;
+    }
+
+    /**
+     * Acquires a permit, blocking until one is available.
+     *
+     * @return The acquisition time in nanoseconds, to be passed to {@link #release(long)}
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public long acquire() throws InterruptedException {
+        final long start = System.nanoTime();
+        mLock.lockInterruptibly();
+        try {
+            if (mInUse >= mPermits) {
+                mWaiting++;
+                mQueuedInWindow = true;
+                try {
+                    while (mInUse >= mPermits) {
+                        mAvailable.await();
+                    }
+                } finally {
+                    mWaiting--;
+                }
+            }
+            mInUse++;
+            final long acquired = System.nanoTime();
+            mTotalWaitNanos += acquired - start;
+            mAcquisitions++;
+            return acquired;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Releases a permit and records the execution time of the guarded operation.
+     *
+     * @param acquiredAt The value returned by {@link #acquire()}
+     */
+    public void release(long acquiredAt) {
+        final long elapsed = System.nanoTime() - acquiredAt;
+        mLock.lock();
+        try {
+            mInUse--;
+            addSample(elapsed, false);
+            // the permits may have changed, wake up as many waiters as possible
+            final int available = mPermits - mInUse;
+            for (int i = 0; i < available && i < mWaiting; i++) {
+                mAvailable.signal();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Adds a latency sample and adjusts the permits at the end of a window.
+     *
+     * @param nanos  The execution time of the operation
+     * @param queued true to record that an operation had to wait for a permit
+     */
+    @VisibleForTesting
+    void addSample(long nanos, boolean queued) {
+        mLock.lock();
+        try {
+            mWindowNanos += nanos;
+            mQueuedInWindow |= queued;
+            if (++mSamples < SAMPLE_WINDOW) {
+                return;
+            }
+            final long average = mWindowNanos / mSamples;
+            if (mBaselineNanos < 0 || average < mBaselineNanos) {
+                mBaselineNanos = average;
+            }
+            if (average > mBaselineNanos * LATENCY_TOLERANCE) {
+                mPermits = Math.max(mMinPermits, mPermits - 1);
+                // drift towards the new average, in case the workload got heavier
+                mBaselineNanos += (average - mBaselineNanos) / BASELINE_DRIFT;
+            } else if (mQueuedInWindow) {
+                mPermits = Math.min(mMaxPermits, mPermits + 1);
+            }
+            mLastAverageNanos = average;
+            mSamples = 0;
+            mWindowNanos = 0;
+            mQueuedInWindow = false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current number of permits.
+     */
+    public int getPermits() {
+        mLock.lock();
+        try {
+            return mPermits;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of permits currently acquired.
+     */
+    public int getPermitsInUse() {
+        mLock.lock();
+        try {
+            return mInUse;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of threads currently waiting for a permit.
+     */
+    public int getQueueLength() {
+        mLock.lock();
+        try {
+            return mWaiting;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the average time in nanoseconds spent waiting for a permit since the limiter
+     * creation.
+     */
+    public long getAverageWaitNanos() {
+        mLock.lock();
+        try {
+            return mAcquisitions != 0 ? mTotalWaitNanos / mAcquisitions : 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the average execution time in nanoseconds of the operations in the last complete
+     * sample window, or 0 if no window has completed yet.
+     */
+    public long getAverageLatencyNanos() {
+        mLock.lock();
+        try {
+            return mLastAverageNanos;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        mLock.lock();
+        try {
+            return "permits: " + mPermits + " [" + mMinPermits + "-" + mMaxPermits + "], in use: "
+                    + mInUse + ", waiting: " + mWaiting;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.concurrent;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.annotations.Beta;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Extension of a {@link FutureTask} that runs a callback when it's cancelled, so that tasks which
+ * never get to execute (for example because they're removed from an executor queue) can still
+ * notify their cancellation to whoever waits for their outcome.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public class CancellationAwareFutureTask<V> extends FutureTask<V> {
+
+    @Nullable
+    private final Runnable mOnCancel;
+
+    /**
+     * @param callable The {@link Callable} to execute
+     * @param onCancel The (optional) {@link Runnable} to run in the cancelling thread when the
+     *                 task gets cancelled
+     */
+    public CancellationAwareFutureTask(@NonNull Callable<V> callable, @Nullable Runnable onCancel) {
+        super(callable);
+        mOnCancel = onCancel;
+    }
+
+    @Override
+    protected void done() {
+        if (mOnCancel != null && isCancelled()) {
+            mOnCancel.run();
+        }
+    }
+
+}
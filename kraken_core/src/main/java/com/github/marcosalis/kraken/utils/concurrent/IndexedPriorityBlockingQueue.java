@@ -0,0 +1,691 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.concurrent;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Unbounded {@link BlockingQueue} of tasks backed by an indexed binary heap, used by the {@link
+ * IndexedPriorityThreadPoolExecutor}.
+ *
+ * Tasks are taken in descending order of priority, and in insertion order when their priority is
+ * the same. Every queued task is indexed both by identity and, if it implements {@link Keyed}, by
+ * its key: this allows changing the priority of a queued task in O(log n) time and removing it in
+ * O(log n) time, rather than the linear time needed by a linked queue.
+ *
+ * Tasks implementing {@link Grouped} (for example, the downloads from the same host) can be limited
+ * to a maximum number of concurrently running tasks per group with {@link #setMaxRunningPerGroup(int)}:
+ * a task whose group is saturated is parked (in a per-group heap) when it reaches the head of the
+ * queue, and put back into the heap when a task of the same group completes, so that the executor
+ * threads can run the tasks of other groups in the meantime. The executor must report the start and the completion of
+ * every task with {@link #onTaskStarted(Runnable)} and {@link #onTaskCompleted(Runnable)}.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+class IndexedPriorityBlockingQueue extends AbstractQueue<Runnable> implements
+        BlockingQueue<Runnable> {
+
+    /**
+     * Interface for a task that can be looked up in the queue by key.
+     */
+    interface Keyed {
+        @NonNull
+        Object getKey();
+    }
+
+    /**
+     * Interface for a task that is queued with a priority other than the default 0.
+     */
+    interface Prioritized {
+        long getPriority();
+    }
+
+    /**
+     * Interface for a task that belongs to a group whose running tasks can be limited.
+     */
+    interface Grouped {
+        @Nullable
+        Object getGroup();
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+
+    @GuardedBy("mLock")
+    private final NodeHeap mHeap = new NodeHeap(INITIAL_CAPACITY);
+    @GuardedBy("mLock")
+    private long mSequence;
+    @GuardedBy("mLock")
+    private final IdentityHashMap<Runnable, Node> mNodes = new IdentityHashMap<Runnable, Node>();
+    @GuardedBy("mLock")
+    private final HashMap<Object, Node> mKeys = new HashMap<Object, Node>();
+    @GuardedBy("mLock")
+    private final HashMap<Object, Group> mGroups = new HashMap<Object, Group>();
+    @GuardedBy("mLock")
+    private final IdentityHashMap<Runnable, Running> mRunning = new IdentityHashMap<Runnable, Running>();
+    @GuardedBy("mLock")
+    private int mParked;
+    @GuardedBy("mLock")
+    private int mMaxRunningPerGroup;
+
+    /**
+     * Sets the maximum number of running tasks for each group.
+     *
+     * @param maxRunning The maximum number of running tasks, or 0 for no limits
+     */
+    public void setMaxRunningPerGroup(int maxRunning) {
+        Preconditions.checkArgument(maxRunning >= 0);
+        mLock.lock();
+        try {
+            mMaxRunningPerGroup = maxRunning;
+            for (Group group : mGroups.values()) {
+                unpark(group, group.parked.size);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the maximum number of running tasks for each group, or 0 for no limits.
+     */
+    public int getMaxRunningPerGroup() {
+        mLock.lock();
+        try {
+            return mMaxRunningPerGroup;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Must be called by the executor before running a task. Tasks taken from the queue are already
+     * accounted as running, this only handles the tasks that the executor runs without queuing.
+     */
+    void onTaskStarted(@NonNull Runnable task) {
+        final Object groupId = task instanceof Grouped ? ((Grouped) task).getGroup() : null;
+        if (groupId == null) {
+            return;
+        }
+        mLock.lock();
+        try {
+            Running running = mRunning.get(task);
+            if (running == null) {
+                final Group group = getGroup(groupId);
+                group.running++;
+                running = new Running(group);
+                mRunning.put(task, running);
+            }
+            running.startNanos = System.nanoTime();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Must be called by the executor after running a task, to release its group slot.
+     */
+    void onTaskCompleted(@NonNull Runnable task) {
+        if (!(task instanceof Grouped)) {
+            return;
+        }
+        mLock.lock();
+        try {
+            final Running running = mRunning.remove(task);
+            if (running != null) {
+                final Group group = running.group;
+                group.running--;
+                group.completed++;
+                group.totalNanos += System.nanoTime() - running.startNanos;
+                unpark(group, 1);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the statistics of every group of tasks seen by the queue.
+     */
+    @NonNull
+    HashMap<Object, IndexedPriorityThreadPoolExecutor.GroupStats> getGroupStats() {
+        mLock.lock();
+        try {
+            final HashMap<Object, IndexedPriorityThreadPoolExecutor.GroupStats> stats = new HashMap<Object, IndexedPriorityThreadPoolExecutor.GroupStats>();
+            for (Group group : mGroups.values()) {
+                stats.put(group.id, new IndexedPriorityThreadPoolExecutor.GroupStats(group.queued,
+                        group.running, group.completed, group.completed != 0 ? group.totalNanos
+                        / group.completed : 0));
+            }
+            return stats;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Changes the priority of the queued task with the passed key.
+     *
+     * @param key      The key of the task
+     * @param priority The new priority, higher values are taken first
+     * @return true if the task was found in the queue, false otherwise
+     */
+    public boolean setPriority(@NonNull Object key, long priority) {
+        mLock.lock();
+        try {
+            final Node node = mKeys.get(key); // O(1)
+            if (node == null) {
+                return false;
+            }
+            final long previous = node.priority;
+            node.priority = priority;
+            final NodeHeap heap = node.parked ? node.group.parked : mHeap;
+            if (priority > previous) { // O(log n)
+                heap.siftUp(node.index);
+            } else {
+                heap.siftDown(node.index);
+            }
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(@NonNull Runnable task) {
+        Preconditions.checkNotNull(task);
+        final Object key = task instanceof Keyed ? ((Keyed) task).getKey() : null;
+        final Object groupId = task instanceof Grouped ? ((Grouped) task).getGroup() : null;
+        mLock.lock();
+        try {
+            final Group group = groupId != null ? getGroup(groupId) : null;
+            final Node node = new Node(task, key, group, mSequence++);
+            if (task instanceof Prioritized) {
+                node.priority = ((Prioritized) task).getPriority();
+            }
+            mNodes.put(task, node);
+            if (key != null) {
+                mKeys.put(key, node);
+            }
+            if (group != null) {
+                group.queued++;
+            }
+            if (isSaturated(group)) {
+                park(node);
+            } else {
+                mHeap.insert(node);
+                mNotEmpty.signal();
+            }
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(@NonNull Runnable task, long timeout, @NonNull TimeUnit unit) {
+        return offer(task); // never blocks
+    }
+
+    @Override
+    public void put(@NonNull Runnable task) {
+        offer(task); // never blocks
+    }
+
+    @Override
+    @Nullable
+    public Runnable poll() {
+        mLock.lock();
+        try {
+            return pollRunnable();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    @NonNull
+    public Runnable take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            Runnable task;
+            while ((task = pollRunnable()) == null) {
+                mNotEmpty.await();
+            }
+            return task;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public Runnable poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            Runnable task;
+            while ((task = pollRunnable()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            return task;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public Runnable peek() {
+        mLock.lock();
+        try {
+            if (mHeap.size > 0) {
+                return mHeap.nodes[0].task;
+            }
+            for (Group group : mGroups.values()) {
+                if (group.parked.size > 0) {
+                    return group.parked.nodes[0].task;
+                }
+            }
+            return null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mHeap.size + mParked;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        mLock.lock();
+        try {
+            return mNodes.containsKey(o);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        mLock.lock();
+        try {
+            final Node node = mNodes.get(o); // O(1)
+            if (node == null) {
+                return false;
+            }
+            if (node.parked) {
+                node.group.parked.removeAt(node.index); // O(log n)
+                node.parked = false;
+                mParked--;
+            } else {
+                mHeap.removeAt(node.index); // O(log n)
+            }
+            unindex(node);
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super Runnable> c, int maxElements) {
+        Preconditions.checkArgument(c != this);
+        mLock.lock();
+        try {
+            int drained = 0;
+            while (mHeap.size > 0 && drained < maxElements) {
+                final Node node = mHeap.removeAt(0);
+                unindex(node);
+                c.add(node.task);
+                drained++;
+            }
+            for (Group group : mGroups.values()) {
+                while (group.parked.size > 0 && drained < maxElements) {
+                    final Node node = group.parked.removeAt(group.parked.size - 1);
+                    node.parked = false;
+                    mParked--;
+                    unindex(node);
+                    c.add(node.task);
+                    drained++;
+                }
+            }
+            return drained;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        mLock.lock();
+        try {
+            mHeap.clear();
+            mParked = 0;
+            mNodes.clear();
+            mKeys.clear();
+            for (Group group : mGroups.values()) {
+                group.parked.clear();
+                group.queued = 0;
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queued tasks, in no particular order.
+     */
+    @Override
+    @NonNull
+    public Iterator<Runnable> iterator() {
+        final Runnable[] snapshot;
+        mLock.lock();
+        try {
+            snapshot = new Runnable[mHeap.size + mParked];
+            int i = 0;
+            for (int j = 0; j < mHeap.size; j++) {
+                snapshot[i++] = mHeap.nodes[j].task;
+            }
+            for (Group group : mGroups.values()) {
+                for (int j = 0; j < group.parked.size; j++) {
+                    snapshot[i++] = group.parked.nodes[j].task;
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+        return new Iterator<Runnable>() {
+            private int mCursor;
+            private int mLast = -1;
+
+            @Override
+            public boolean hasNext() {
+                return mCursor < snapshot.length;
+            }
+
+            @Override
+            public Runnable next() {
+                if (mCursor >= snapshot.length) {
+                    throw new NoSuchElementException();
+                }
+                mLast = mCursor++;
+                return snapshot[mLast];
+            }
+
+            @Override
+            public void remove() {
+                Preconditions.checkState(mLast >= 0);
+                IndexedPriorityBlockingQueue.this.remove(snapshot[mLast]);
+                mLast = -1;
+            }
+        };
+    }
+
+    /**
+     * Takes the first task in the heap whose group is not saturated, parking the others.
+     *
+     * @return The task, or null if there are no runnable tasks
+     */
+    @GuardedBy("mLock")
+    @Nullable
+    private Runnable pollRunnable() {
+        while (mHeap.size > 0) {
+            final Node node = mHeap.removeAt(0);
+            final Group group = node.group;
+            if (isSaturated(group)) {
+                park(node);
+                continue;
+            }
+            unindex(node);
+            if (group != null) { // account it as running straight away
+                group.running++;
+                mRunning.put(node.task, new Running(group));
+            }
+            return node.task;
+        }
+        return null;
+    }
+
+    @GuardedBy("mLock")
+    private boolean isSaturated(@Nullable Group group) {
+        return group != null && mMaxRunningPerGroup > 0 && group.running >= mMaxRunningPerGroup;
+    }
+
+    @GuardedBy("mLock")
+    @NonNull
+    private Group getGroup(@NonNull Object groupId) {
+        Group group = mGroups.get(groupId);
+        if (group == null) {
+            group = new Group(groupId);
+            mGroups.put(groupId, group);
+        }
+        return group;
+    }
+
+    @GuardedBy("mLock")
+    private void park(@NonNull Node node) {
+        node.parked = true;
+        node.group.parked.insert(node); // O(log parked)
+        mParked++;
+    }
+
+    /**
+     * Puts back into the heap up to the passed number of parked tasks of a group, in priority
+     * order.
+     */
+    @GuardedBy("mLock")
+    private void unpark(@NonNull Group group, int count) {
+        final NodeHeap parked = group.parked;
+        for (int i = 0; i < count && parked.size > 0; i++) {
+            final Node node = parked.removeAt(0); // O(log parked)
+            node.parked = false;
+            mParked--;
+            mHeap.insert(node);
+            mNotEmpty.signal();
+        }
+    }
+
+    /**
+     * Removes a task that left the queue from the indexes.
+     */
+    @GuardedBy("mLock")
+    private void unindex(@NonNull Node node) {
+        mNodes.remove(node.task);
+        if (node.key != null && mKeys.get(node.key) == node) {
+            mKeys.remove(node.key);
+        }
+        if (node.group != null) {
+            node.group.queued--;
+        }
+    }
+
+    private static final class Node {
+
+        final Runnable task;
+        @Nullable
+        final Object key;
+        @Nullable
+        final Group group;
+        final long sequence;
+        long priority;
+        int index; // in the heap or, if parked, in the heap of its group
+        boolean parked;
+
+        Node(@NonNull Runnable task, @Nullable Object key, @Nullable Group group, long sequence) {
+            this.task = task;
+            this.key = key;
+            this.group = group;
+            this.sequence = sequence;
+        }
+
+        boolean precedes(@NonNull Node other) {
+            return priority > other.priority
+                    || (priority == other.priority && sequence < other.sequence);
+        }
+    }
+
+    /**
+     * Binary heap of nodes, in descending order of priority. The index of each node in the heap is
+     * stored in the node itself, so that it can be removed or reordered in O(log n) time.
+     */
+    private static final class NodeHeap {
+
+        Node[] nodes;
+        int size;
+
+        NodeHeap(int initialCapacity) {
+            nodes = new Node[initialCapacity];
+        }
+
+        void insert(@NonNull Node node) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            node.index = size;
+            nodes[size++] = node;
+            siftUp(node.index);
+        }
+
+        @NonNull
+        Node removeAt(int index) {
+            final Node node = nodes[index];
+            final Node last = nodes[--size];
+            nodes[size] = null;
+            if (index != size) {
+                nodes[index] = last;
+                last.index = index;
+                siftDown(index);
+                if (nodes[index] == last) {
+                    siftUp(index);
+                }
+            }
+            return node;
+        }
+
+        void clear() {
+            Arrays.fill(nodes, 0, size, null);
+            size = 0;
+        }
+
+        void siftUp(int index) {
+            final Node node = nodes[index];
+            while (index > 0) {
+                final int parentIndex = (index - 1) >>> 1;
+                final Node parent = nodes[parentIndex];
+                if (!node.precedes(parent)) {
+                    break;
+                }
+                nodes[index] = parent;
+                parent.index = index;
+                index = parentIndex;
+            }
+            nodes[index] = node;
+            node.index = index;
+        }
+
+        void siftDown(int index) {
+            final Node node = nodes[index];
+            final int half = size >>> 1;
+            while (index < half) {
+                int childIndex = (index << 1) + 1;
+                Node child = nodes[childIndex];
+                final int rightIndex = childIndex + 1;
+                if (rightIndex < size && nodes[rightIndex].precedes(child)) {
+                    childIndex = rightIndex;
+                    child = nodes[childIndex];
+                }
+                if (!child.precedes(node)) {
+                    break;
+                }
+                nodes[index] = child;
+                child.index = index;
+                index = childIndex;
+            }
+            nodes[index] = node;
+            node.index = index;
+        }
+    }
+
+    private static final class Group {
+
+        final Object id;
+        final NodeHeap parked = new NodeHeap(4);
+        int queued;
+        int running;
+        long completed;
+        long totalNanos;
+
+        Group(@NonNull Object id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Running {
+
+        final Group group;
+        long startNanos = System.nanoTime();
+
+        Running(@NonNull Group group) {
+            this.group = group;
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.concurrent;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.marcosalis.kraken.utils.CoreLog;
+import com.google.common.annotations.Beta;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link ThreadPoolExecutor} whose queued tasks carry a mutable priority, backed by an indexed
+ * binary heap queue.
+ *
+ * Tasks submitted with {@link #submitWithKey(Object, Callable, Runnable)} can be looked up by key
+ * in O(1) and reprioritized in O(log n), under a single queue lock: this makes it a drop-in, faster
+ * replacement of {@link ReorderingThreadPoolExecutor} for executors with long queues, where moving a
+ * task requires a linear scan of the queue.
+ *
+ * Queued tasks are executed in descending priority order, and in submission order when their
+ * priority is the same. Tasks start with {@link #PRIORITY_NORMAL}, unless submitted with another
+ * priority such as {@link #PRIORITY_LOW} for background work: {@link #moveToFront(Object)}
+ * gives a task a priority higher than all the previously moved tasks (recency order), while {@link
+ * #moveToBack(Object)} gives it a priority lower than all of them. Callers can also directly set a
+ * priority, for example depending on the visibility of the requesting view, with {@link
+ * #setPriority(Object, long)}.
+ *
+ * Tasks can also be submitted with a group (for example, the host of a download): with {@link
+ * #setMaxRunningPerGroup(int)}, at most the given number of tasks of each group run at the same
+ * time, while the tasks of the other groups keep the executor threads busy. The statistics of each
+ * group can be retrieved with {@link #getGroupStats()}.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public class IndexedPriorityThreadPoolExecutor<K> extends ThreadPoolExecutor implements
+        ReorderableExecutor<K> {
+
+    private static final String TAG = IndexedPriorityThreadPoolExecutor.class.getSimpleName();
+
+    /**
+     * Default priority for the submitted tasks.
+     */
+    public static final long PRIORITY_NORMAL = 0;
+
+    /**
+     * Priority for background tasks, lower than the priority of any task moved with {@link
+     * #moveToBack(Object)}.
+     */
+    public static final long PRIORITY_LOW = Long.MIN_VALUE / 2;
+
+    private final IndexedPriorityBlockingQueue mQueue;
+    private final AtomicLong mReorderings = new AtomicLong();
+
+    public IndexedPriorityThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
+                                             long keepAliveTime, @NonNull TimeUnit unit,
+                                             @NonNull ThreadFactory threadFactory) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit,
+                new IndexedPriorityBlockingQueue(), threadFactory);
+    }
+
+    private IndexedPriorityThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
+                                              long keepAliveTime, @NonNull TimeUnit unit,
+                                              @NonNull IndexedPriorityBlockingQueue queue,
+                                              @NonNull ThreadFactory threadFactory) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, queue, threadFactory);
+        mQueue = queue;
+    }
+
+    @NonNull
+    public <T> Future<T> submitWithKey(@NonNull K key, @NonNull Callable<T> callable) {
+        return submitWithKey(key, callable, null);
+    }
+
+    @NonNull
+    @Override
+    public <T> Future<T> submitWithKey(@NonNull K key, @NonNull Callable<T> callable,
+                                       @Nullable Runnable onCancel) {
+        return submitWithKey(key, callable, onCancel, PRIORITY_NORMAL);
+    }
+
+    /**
+     * Submits a task associated to the passed key with an initial priority.
+     *
+     * @param priority The priority of the task, higher values are executed first
+     * @see #submitWithKey(Object, Callable, Runnable)
+     */
+    @NonNull
+    public <T> Future<T> submitWithKey(@NonNull K key, @NonNull Callable<T> callable,
+                                       @Nullable Runnable onCancel, long priority) {
+        return submitWithKey(key, null, callable, onCancel, priority);
+    }
+
+    /**
+     * Submits a task associated to the passed key and group with an initial priority.
+     *
+     * @param group The group of the task, or null if the task doesn't belong to any group
+     * @see #submitWithKey(Object, Callable, Runnable, long)
+     * @see #setMaxRunningPerGroup(int)
+     */
+    @NonNull
+    public <T> Future<T> submitWithKey(@NonNull K key, @Nullable Object group,
+                                       @NonNull Callable<T> callable, @Nullable Runnable onCancel,
+                                       long priority) {
+        final KeyedFutureTask<K, T> task = new KeyedFutureTask<K, T>(key, group, callable,
+                onCancel, priority);
+        execute(task);
+        return task;
+    }
+
+    /**
+     * Sets the maximum number of tasks of the same group that can run at the same time. The queued
+     * tasks of a saturated group are skipped in favor of the tasks of other groups.
+     *
+     * The core threads are started straight away, so that every task goes through the queue:
+     * a task handed to a new thread bypasses the limit.
+     *
+     * @param maxRunning The maximum number of running tasks per group, or 0 for no limits (default)
+     */
+    public void setMaxRunningPerGroup(int maxRunning) {
+        mQueue.setMaxRunningPerGroup(maxRunning);
+        if (maxRunning > 0) {
+            prestartAllCoreThreads();
+        }
+    }
+
+    /**
+     * Returns the maximum number of running tasks per group, or 0 for no limits.
+     */
+    public int getMaxRunningPerGroup() {
+        return mQueue.getMaxRunningPerGroup();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of every group of tasks submitted to this executor.
+     */
+    @NonNull
+    public Map<Object, GroupStats> getGroupStats() {
+        return Collections.unmodifiableMap(mQueue.getGroupStats());
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        mQueue.onTaskStarted(r);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        mQueue.onTaskCompleted(r);
+        super.afterExecute(r, t);
+    }
+
+    @Override
+    public void moveToFront(@NonNull K key) {
+        if (mQueue.setPriority(key, mReorderings.incrementAndGet()) && CoreLog.isEnabled()) {
+            CoreLog.v(TAG, "Bringing task to front for: " + key);
+        }
+    }
+
+    @Override
+    public void moveToBack(@NonNull K key) {
+        if (mQueue.setPriority(key, -mReorderings.incrementAndGet()) && CoreLog.isEnabled()) {
+            CoreLog.v(TAG, "Moving task to back for: " + key);
+        }
+    }
+
+    /**
+     * Sets the priority of the queued task with the passed key.
+     *
+     * @param key      The key of the task
+     * @param priority The priority to set, higher values are executed first
+     * @return true if the task was still queued, false otherwise
+     */
+    public boolean setPriority(@NonNull K key, long priority) {
+        return mQueue.setPriority(key, priority);
+    }
+
+    /**
+     * Statistics of a group of tasks of the executor.
+     */
+    @Immutable
+    public static final class GroupStats {
+
+        private final int mQueued;
+        private final int mRunning;
+        private final long mCompleted;
+        private final long mAverageNanos;
+
+        GroupStats(int queued, int running, long completed, long averageNanos) {
+            mQueued = queued;
+            mRunning = running;
+            mCompleted = completed;
+            mAverageNanos = averageNanos;
+        }
+
+        /**
+         * Returns the number of queued tasks of the group.
+         */
+        public int getQueued() {
+            return mQueued;
+        }
+
+        /**
+         * Returns the number of running tasks of the group.
+         */
+        public int getRunning() {
+            return mRunning;
+        }
+
+        /**
+         * Returns the number of completed tasks of the group.
+         */
+        public long getCompleted() {
+            return mCompleted;
+        }
+
+        /**
+         * Returns the average execution time of the completed tasks of the group, in nanoseconds.
+         */
+        public long getAverageNanos() {
+            return mAverageNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "queued=" + mQueued + ", running=" + mRunning + ", completed=" + mCompleted
+                    + ", avgMs=" + TimeUnit.NANOSECONDS.toMillis(mAverageNanos);
+        }
+    }
+
+    /**
+     * {@link CancellationAwareFutureTask} that can be looked up by key in the executor queue.
+     */
+    @ThreadSafe
+    private static class KeyedFutureTask<K, V> extends CancellationAwareFutureTask<V> implements
+            IndexedPriorityBlockingQueue.Keyed, IndexedPriorityBlockingQueue.Prioritized,
+            IndexedPriorityBlockingQueue.Grouped {
+
+        private final K mKey;
+        @Nullable
+        private final Object mGroup;
+        private final long mPriority;
+
+        public KeyedFutureTask(@NonNull K key, @Nullable Object group,
+                               @NonNull Callable<V> callable, @Nullable Runnable onCancel,
+                               long priority) {
+            super(callable, onCancel);
+            mKey = key;
+            mGroup = group;
+            mPriority = priority;
+        }
+
+        @Nullable
+        @Override
+        public Object getGroup() {
+            return mGroup;
+        }
+
+        @NonNull
+        @Override
+        public Object getKey() {
+            return mKey;
+        }
+
+        @Override
+        public long getPriority() {
+            return mPriority;
+        }
+    }
+
+}
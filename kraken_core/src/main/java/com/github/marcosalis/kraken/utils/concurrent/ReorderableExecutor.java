@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.concurrent;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.annotations.Beta;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Interface for an {@link Executor} whose tasks are associated to a key, which can be used to
+ * change the execution order of the tasks that are still queued.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+public interface ReorderableExecutor<K> extends Executor {
+
+    /**
+     * Submits a task associated to the passed key, running the passed callback if the task gets
+     * cancelled before or during its execution.
+     *
+     * @param key      The key of the task
+     * @param callable The {@link Callable} to execute
+     * @param onCancel The (optional) {@link Runnable} to run on cancellation
+     * @return The {@link Future} of the task
+     * @see CancellationAwareFutureTask
+     */
+    @NonNull
+    public <T> Future<T> submitWithKey(@NonNull K key, @NonNull Callable<T> callable,
+                                       @Nullable Runnable onCancel);
+
+    /**
+     * Moves the task with the passed key, if it's still queued, to the front of the queue.
+     *
+     * @param key The key of the task
+     */
+    public void moveToFront(@NonNull K key);
+
+    /**
+     * Moves the task with the passed key, if it's still queued, to the back of the queue.
+     *
+     * @param key The key of the task
+     */
+    public void moveToBack(@NonNull K key);
+
+}
@@ -16,13 +16,11 @@
  */
 package com.github.marcosalis.kraken.utils.concurrent;
 
-import android.annotation.TargetApi;
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
-import android.util.Log;
+import android.support.annotation.Nullable;
 
-import com.github.marcosalis.kraken.DroidConfig;
-import com.github.marcosalis.kraken.utils.DroidUtils;
+import com.github.marcosalis.kraken.utils.CoreLog;
 import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
 import com.google.common.annotations.Beta;
 
@@ -31,9 +29,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -53,9 +49,8 @@ import javax.annotation.concurrent.ThreadSafe;
  * order to be able to retrieve them and move them along the queue itself. It is recommended to use
  * a lightweight object as a key type, such as String.
  *
- * {@link #submitWithKey(String, Callable)} and {@link #moveToFront(String)} are effective only from
- * API >= 9 as they use {@link LinkedBlockingDeque}. With API 8 the behavior is exactly the same as
- * a normal executor and {@link #moveToFront(String)} is a no-op.
+ * {@link #moveToFront(Object)} and {@link #moveToBack(Object)} are only effective when the executor
+ * queue is a {@link LinkedBlockingDeque}, otherwise they are a no-op.
  *
  * Note that this executor is specifically developed to be used when task reordering is crucial for
  * performances. In all other cases, expecially in case of very long task queues, {@link
@@ -70,7 +65,8 @@ import javax.annotation.concurrent.ThreadSafe;
  */
 @Beta
 @ThreadSafe
-public class ReorderingThreadPoolExecutor<K> extends ThreadPoolExecutor {
+public class ReorderingThreadPoolExecutor<K> extends ThreadPoolExecutor implements
+        ReorderableExecutor<K> {
 
     private static final String TAG = ReorderingThreadPoolExecutor.class.getSimpleName();
 
@@ -83,8 +79,7 @@ public class ReorderingThreadPoolExecutor<K> extends ThreadPoolExecutor {
      * Creates a {@link ReorderingThreadPoolExecutor}.
      *
      * The passed {@link BlockingQueue} should be a {@link LinkedBlockingDeque}. Use the static
-     * method {@link #createBlockingQueue()} to retrieve a compatible queue depending on the API
-     * level.
+     * method {@link #createBlockingQueue()} to retrieve a compatible queue.
      *
      * @see {@link ThreadPoolExecutor#ThreadPoolExecutor(int, int, long, TimeUnit, BlockingQueue,
      * ThreadFactory)}
@@ -100,64 +95,95 @@ public class ReorderingThreadPoolExecutor<K> extends ThreadPoolExecutor {
     }
 
     @NonNull
-    @TargetApi(9)
     @NotForUIThread
     public <T> Future<T> submitWithKey(@NonNull K key, @NonNull Callable<T> callable) {
-        if (DroidUtils.isMinimumSdkLevel(9)) {
-            // mimics newTaskFor() behavior to provide a custom RunnableFuture
-            final KeyHoldingFutureTask<K, T> runnable = new KeyHoldingFutureTask<K, T>(key,
-                    callable);
-            mMapLock.readLock().lock(); // read lock
-            try {
-                mRunnablesMap.put(key, runnable); // O(1)
-            } finally {
-                mMapLock.readLock().unlock();
-            }
-            execute(runnable);
-            return runnable;
-        } else {
-            return submit(callable);
+        return submitWithKey(key, callable, null);
+    }
+
+    /**
+     * Submits a task associated to the passed key, running the passed callback if the task gets
+     * cancelled before or during its execution.
+     *
+     * @see CancellationAwareFutureTask
+     */
+    @NonNull
+    @NotForUIThread
+    public <T> Future<T> submitWithKey(@NonNull K key, @NonNull Callable<T> callable,
+                                       @Nullable Runnable onCancel) {
+        // mimics newTaskFor() behavior to provide a custom RunnableFuture
+        final KeyHoldingFutureTask<K, T> runnable = new KeyHoldingFutureTask<K, T>(key, callable,
+                onCancel);
+        mMapLock.readLock().lock(); // read lock
+        try {
+            mRunnablesMap.put(key, runnable); // O(1)
+        } finally {
+            mMapLock.readLock().unlock();
         }
+        execute(runnable);
+        return runnable;
     }
 
-    @TargetApi(9)
     @NotForUIThread
     public void moveToFront(@NonNull K key) {
-        if (DroidUtils.isMinimumSdkLevel(9)) {
-            final Runnable runnable;
-            mMapLock.readLock().lock(); // read lock
-            try {
-                runnable = mRunnablesMap.get(key); // O(1)
-            } finally {
-                mMapLock.readLock().unlock();
-            }
-            if (runnable != null) {
-                if (mQueueRef instanceof LinkedBlockingDeque) {
-                    final LinkedBlockingDeque<Runnable> blockingDeque = (LinkedBlockingDeque<Runnable>) mQueueRef;
-                    /*
-					 * the Runnable is removed from the executor queue so it's
-					 * safe to add it back: we don't risk double running it.
-					 * removeLastOccurrence() has linear complexity, however we
-					 * assume that the advantages of bringing the runnable on
-					 * top of the queue overtake this drawback in a reasonably
-					 * small queue.
-					 */
-                    if (blockingDeque.removeLastOccurrence(runnable)) { // O(n)
-                        blockingDeque.offerFirst(runnable); // O(1)
-                        if (DroidConfig.DEBUG) {
-                            Log.v(TAG, "Bringing bitmap task to front for: " + key);
-                        }
+        final Runnable runnable;
+        mMapLock.readLock().lock(); // read lock
+        try {
+            runnable = mRunnablesMap.get(key); // O(1)
+        } finally {
+            mMapLock.readLock().unlock();
+        }
+        if (runnable != null) {
+            if (mQueueRef instanceof LinkedBlockingDeque) {
+                final LinkedBlockingDeque<Runnable> blockingDeque = (LinkedBlockingDeque<Runnable>) mQueueRef;
+                /*
+				 * the Runnable is removed from the executor queue so it's
+				 * safe to add it back: we don't risk double running it.
+				 * removeLastOccurrence() has linear complexity, however we
+				 * assume that the advantages of bringing the runnable on
+				 * top of the queue overtake this drawback in a reasonably
+				 * small queue.
+				 */
+                if (blockingDeque.removeLastOccurrence(runnable)) { // O(n)
+                    blockingDeque.offerFirst(runnable); // O(1)
+                    if (CoreLog.isEnabled()) {
+                        CoreLog.v(TAG, "Bringing bitmap task to front for: " + key);
                     }
                 }
             }
         }
     }
 
+    /**
+     * Moves the task with the passed key, if it's still queued, to the back of the executor queue,
+     * so that all the other queued tasks are executed before it.
+     *
+     * @param key The key of the task
+     */
+    public void moveToBack(@NonNull K key) {
+        final Runnable runnable;
+        mMapLock.readLock().lock(); // read lock
+        try {
+            runnable = mRunnablesMap.get(key); // O(1)
+        } finally {
+            mMapLock.readLock().unlock();
+        }
+        if (runnable != null && mQueueRef instanceof LinkedBlockingDeque) {
+            final LinkedBlockingDeque<Runnable> blockingDeque = (LinkedBlockingDeque<Runnable>) mQueueRef;
+            // as in moveToFront(), re-adding a removed runnable is safe
+            if (blockingDeque.removeFirstOccurrence(runnable)) { // O(n)
+                blockingDeque.offerLast(runnable); // O(1)
+                if (CoreLog.isEnabled()) {
+                    CoreLog.v(TAG, "Moving bitmap task to back for: " + key);
+                }
+            }
+        }
+    }
+
     @CallSuper
     @NotForUIThread
     public void clearKeysMap() {
-        if (DroidConfig.DEBUG) {
-            Log.d(TAG, "Clearing runnables key map, contains " + mRunnablesMap.size() + " keys");
+        if (CoreLog.isEnabled()) {
+            CoreLog.d(TAG, "Clearing runnables key map, contains " + mRunnablesMap.size() + " keys");
         }
         mMapLock.writeLock().lock();
         try {
@@ -210,33 +236,24 @@ public class ReorderingThreadPoolExecutor<K> extends ThreadPoolExecutor {
     }
 
     /**
-     * Factory method that creates a {@link LinkedBlockingDeque}, if the API level is >= 9, or falls
-     * back to a {@link LinkedBlockingQueue}.
+     * Factory method that creates a {@link LinkedBlockingDeque} to be used as the executor queue.
      */
     @NonNull
     public static BlockingQueue<Runnable> createBlockingQueue() {
-        if (DroidUtils.isMinimumSdkLevel(9)) {
-            return getBlockingDeque();
-        } else {
-            return new LinkedBlockingQueue<Runnable>();
-        }
-    }
-
-    @TargetApi(9)
-    private static LinkedBlockingDeque<Runnable> getBlockingDeque() {
         return new LinkedBlockingDeque<Runnable>();
     }
 
     /**
-     * Extension of {@link FutureTask} which just allows setting a key
+     * Extension of {@link CancellationAwareFutureTask} which just allows setting a key
      */
     @ThreadSafe
-    private static class KeyHoldingFutureTask<K, V> extends FutureTask<V> {
+    private static class KeyHoldingFutureTask<K, V> extends CancellationAwareFutureTask<V> {
 
         public final K key;
 
-        public KeyHoldingFutureTask(@NonNull K key, @NonNull Callable<V> callable) {
-            super(callable);
+        public KeyHoldingFutureTask(@NonNull K key, @NonNull Callable<V> callable,
+                                    @Nullable Runnable onCancel) {
+            super(callable, onCancel);
             this.key = key;
         }
     }
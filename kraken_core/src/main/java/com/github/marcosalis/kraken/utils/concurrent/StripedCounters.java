@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.concurrent;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Fixed set of long counters that can be updated concurrently by many threads with little
+ * contention, in the same way as Java 8 <code>LongAdder</code> (not available on Android).
+ *
+ * Every counter is split into a stripe per (power of two) available processor: a thread always
+ * updates the cells of the stripe selected by its id, and the stripes are padded so that they never
+ * share a CPU cache line. Reading a counter sums all its stripes, so it's more expensive than an
+ * update and it isn't an atomic snapshot when updates are concurrent.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public final class StripedCounters {
+
+    /* longs in a 64 bytes cache line */
+    private static final int CACHE_LINE_LONGS = 8;
+
+    private final int mCounters;
+    private final int mStripeLength;
+    private final int mStripeMask;
+    private final AtomicLongArray mCells;
+
+    /**
+     * Creates a new set of counters, all set to 0.
+     *
+     * @param counters The number of counters
+     */
+    public StripedCounters(@IntRange(from = 1) int counters) {
+        Preconditions.checkArgument(counters > 0, "Invalid counters number");
+        final int processors = Math.max(1, Runtime.getRuntime().availableProcessors());
+        final int stripes = Integer.highestOneBit(processors * 2 - 1);
+        mCounters = counters;
+        // round up to whole cache lines, plus a padding line between stripes
+        mStripeLength = ((counters + CACHE_LINE_LONGS - 1) / CACHE_LINE_LONGS + 1)
+                * CACHE_LINE_LONGS;
+        mStripeMask = stripes - 1;
+        mCells = new AtomicLongArray(stripes * mStripeLength);
+    }
+
+    /**
+     * Returns the number of counters.
+     */
+    public int size() {
+        return mCounters;
+    }
+
+    /**
+     * Adds the passed value to a counter.
+     *
+     * @param counter The counter index
+     * @param delta   The value to add
+     */
+    public void add(int counter, long delta) {
+        mCells.addAndGet(stripeOffset() + counter, delta);
+    }
+
+    /**
+     * Increments a counter by one.
+     *
+     * @param counter The counter index
+     */
+    public void increment(int counter) {
+        mCells.incrementAndGet(stripeOffset() + counter);
+    }
+
+    /**
+     * Returns the current value of a counter.
+     *
+     * @param counter The counter index
+     */
+    public long sum(int counter) {
+        long sum = 0;
+        for (int offset = 0; offset < mCells.length(); offset += mStripeLength) {
+            sum += mCells.get(offset + counter);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the current values of all the counters.
+     */
+    @NonNull
+    public long[] sumAll() {
+        final long[] sums = new long[mCounters];
+        for (int offset = 0; offset < mCells.length(); offset += mStripeLength) {
+            for (int i = 0; i < mCounters; i++) {
+                sums[i] += mCells.get(offset + i);
+            }
+        }
+        return sums;
+    }
+
+    private int stripeOffset() {
+        return ((int) Thread.currentThread().getId() & mStripeMask) * mStripeLength;
+    }
+
+}
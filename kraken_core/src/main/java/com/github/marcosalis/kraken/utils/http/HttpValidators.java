@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Cache validators of an HTTP response, its <code>ETag</code> and <code>Last-Modified</code>
+ * headers. When a cached response expires, they can be sent back to the server with a conditional
+ * GET request (see {@link #applyTo(HttpRequest)}): if the content hasn't changed, the server
+ * replies with a <code>304 Not Modified</code> response without a body, and the cached content can
+ * be used for another expiration period.
+ *
+ * The validators are kept as the raw header values, as the server expects them back.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@Immutable
+public final class HttpValidators {
+
+    @Nullable
+    private final String mETag;
+    @Nullable
+    private final String mLastModified;
+
+    /**
+     * Creates the validators of a response. At least one of the values must be not null.
+     *
+     * @param eTag         The value of the ETag header
+     * @param lastModified The value of the Last-Modified header
+     * @throws IllegalArgumentException if both values are null
+     */
+    public HttpValidators(@Nullable String eTag, @Nullable String lastModified) {
+        if (eTag == null && lastModified == null) {
+            throw new IllegalArgumentException("No validators");
+        }
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /**
+     * Gets the validators of an HTTP response.
+     *
+     * @return The validators, or null if the response doesn't have any
+     */
+    @Nullable
+    public static HttpValidators fromResponse(@NonNull HttpResponse response) {
+        final HttpHeaders headers = response.getHeaders();
+        final String eTag = headers.getETag();
+        final String lastModified = headers.getLastModified();
+        if (eTag == null && lastModified == null) {
+            return null;
+        }
+        return new HttpValidators(eTag, lastModified);
+    }
+
+    /**
+     * Returns whether the passed response is a <code>304 Not Modified</code>.
+     */
+    public static boolean isNotModified(@NonNull HttpResponse response) {
+        return response.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED;
+    }
+
+    @Nullable
+    public String getETag() {
+        return mETag;
+    }
+
+    @Nullable
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Makes the passed request conditional, by setting the <code>If-None-Match</code> and
+     * <code>If-Modified-Since</code> headers. The request doesn't throw an exception when the
+     * response is a <code>304 Not Modified</code>.
+     *
+     * @param request The GET request to set the validators into
+     */
+    public void applyTo(@NonNull HttpRequest request) {
+        final HttpHeaders headers = request.getHeaders();
+        if (mETag != null) {
+            headers.setIfNoneMatch(mETag);
+        }
+        if (mLastModified != null) {
+            headers.setIfModifiedSince(mLastModified);
+        }
+        request.setThrowExceptionOnExecuteError(false);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HttpValidators)) {
+            return false;
+        }
+        final HttpValidators other = (HttpValidators) o;
+        return Objects.equal(mETag, other.mETag)
+                && Objects.equal(mLastModified, other.mLastModified);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(mETag, mLastModified);
+    }
+
+    @Override
+    public String toString() {
+        return "ETag: " + mETag + ", Last-Modified: " + mLastModified;
+    }
+
+}
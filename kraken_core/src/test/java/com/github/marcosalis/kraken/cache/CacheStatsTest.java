@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
+
+/**
+ * Unit tests for the {@link CacheStats} class and its {@link CacheStats.Recorder}.
+ * 
+ * @since 2.0
+ * @author Marco Salis
+ */
+public class CacheStatsTest extends TestCase {
+
+	public void testEmpty() {
+		final CacheStats stats = new CacheStats.Recorder().snapshot();
+		assertEquals(CacheStats.EMPTY, stats);
+		for (CacheSource source : CacheSource.values()) {
+			assertEquals(0, stats.getHitCount(source));
+			assertEquals(0, stats.getMissCount(source));
+			assertEquals(1.0, stats.getHitRate(source));
+			assertEquals(0, stats.getAverageLatencyNanos(source));
+		}
+		assertEquals(0, stats.getAverageDownloadNanos());
+	}
+
+	public void testRecordHitsAndMisses() {
+		final CacheStats.Recorder recorder = new CacheStats.Recorder();
+		recorder.recordHit(CacheSource.MEMORY, TimeUnit.MICROSECONDS.toNanos(10));
+		recorder.recordHit(CacheSource.MEMORY, TimeUnit.MICROSECONDS.toNanos(30));
+		recorder.recordMiss(CacheSource.MEMORY);
+		recorder.recordMiss(CacheSource.DISK);
+
+		final CacheStats stats = recorder.snapshot();
+		assertEquals(2, stats.getHitCount(CacheSource.MEMORY));
+		assertEquals(1, stats.getMissCount(CacheSource.MEMORY));
+		assertEquals(2.0 / 3, stats.getHitRate(CacheSource.MEMORY), 0.0001);
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(20),
+				stats.getAverageLatencyNanos(CacheSource.MEMORY));
+		assertEquals(0, stats.getHitCount(CacheSource.DISK));
+		assertEquals(0.0, stats.getHitRate(CacheSource.DISK));
+		assertEquals(0, stats.getMissCount(CacheSource.NETWORK));
+	}
+
+	public void testLatencyHistogram() {
+		final CacheStats.Recorder recorder = new CacheStats.Recorder();
+		recorder.recordHit(CacheSource.DISK, TimeUnit.MICROSECONDS.toNanos(500)); // < 1 ms
+		recorder.recordHit(CacheSource.DISK, TimeUnit.MILLISECONDS.toNanos(1)); // < 2 ms
+		recorder.recordHit(CacheSource.DISK, TimeUnit.MILLISECONDS.toNanos(3)); // < 4 ms
+		recorder.recordHit(CacheSource.DISK, TimeUnit.MINUTES.toNanos(10)); // last bucket
+
+		final long[] histogram = recorder.snapshot().getLatencyHistogram(CacheSource.DISK);
+		assertEquals(CacheStats.LATENCY_BUCKETS, histogram.length);
+		assertEquals(1, histogram[0]);
+		assertEquals(1, histogram[1]);
+		assertEquals(1, histogram[2]);
+		assertEquals(1, histogram[CacheStats.LATENCY_BUCKETS - 1]);
+		assertEquals(1, CacheStats.getLatencyBucketBoundMillis(0));
+		assertEquals(4, CacheStats.getLatencyBucketBoundMillis(2));
+		assertEquals(Long.MAX_VALUE,
+				CacheStats.getLatencyBucketBoundMillis(CacheStats.LATENCY_BUCKETS - 1));
+	}
+
+	public void testDownloadsAndEvictions() {
+		final CacheStats.Recorder recorder = new CacheStats.Recorder();
+		recorder.recordDownload(1000, 200);
+		recorder.recordDownload(3000, 400);
+		recorder.recordDecode(50);
+		recorder.recordEviction(4096);
+
+		final CacheStats stats = recorder.snapshot();
+		assertEquals(2, stats.getDownloadCount());
+		assertEquals(4000, stats.getDownloadedBytes());
+		assertEquals(300, stats.getAverageDownloadNanos());
+		assertEquals(1, stats.getDecodeCount());
+		assertEquals(50, stats.getAverageDecodeNanos());
+		assertEquals(1, stats.getEvictionCount());
+		assertEquals(4096, stats.getEvictedBytes());
+	}
+
+	public void testPlus() {
+		final CacheStats.Recorder first = new CacheStats.Recorder();
+		first.recordHit(CacheSource.NETWORK, 100);
+		first.recordEviction(10);
+		final CacheStats.Recorder second = new CacheStats.Recorder();
+		second.recordHit(CacheSource.NETWORK, 300);
+		second.recordMiss(CacheSource.NETWORK);
+
+		final CacheStats sum = first.snapshot().plus(second.snapshot());
+		assertEquals(2, sum.getHitCount(CacheSource.NETWORK));
+		assertEquals(1, sum.getMissCount(CacheSource.NETWORK));
+		assertEquals(200, sum.getAverageLatencyNanos(CacheSource.NETWORK));
+		assertEquals(1, sum.getEvictionCount());
+		assertEquals(sum, CacheStats.EMPTY.plus(sum));
+	}
+
+	public void testConcurrentRecording() throws InterruptedException {
+		final CacheStats.Recorder recorder = new CacheStats.Recorder();
+		final int threads = 8;
+		final int hits = 10000;
+		final CountDownLatch latch = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < hits; j++) {
+						recorder.recordHit(CacheSource.MEMORY, 1);
+					}
+					latch.countDown();
+				}
+			}).start();
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		final CacheStats stats = recorder.snapshot();
+		assertEquals(threads * hits, stats.getHitCount(CacheSource.MEMORY));
+		assertEquals(threads * hits, stats.getLatencyHistogram(CacheSource.MEMORY)[0]);
+	}
+
+}
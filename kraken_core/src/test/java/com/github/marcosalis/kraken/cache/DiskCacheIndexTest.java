@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+import com.github.marcosalis.kraken.utils.FileUtils;
+import com.github.marcosalis.kraken.utils.http.HttpValidators;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Unit tests for the {@link DiskCacheIndex} class.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+public class DiskCacheIndexTest extends TestCase {
+
+	private static final Executor EXECUTOR = MoreExecutors.sameThreadExecutor();
+
+	private File mCacheDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mCacheDir = Files.createTempDir();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectoryTree(mCacheDir);
+		mCacheDir.delete();
+		super.tearDown();
+	}
+
+	public void testRecordWriteReadRemove() {
+		final DiskCacheIndex index = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		assertEquals(0, index.count());
+		assertFalse(index.contains("key1"));
+
+		index.recordWrite("key1", 100, 1000);
+		index.recordWrite("key2", 50, 2000);
+		assertTrue(index.contains("key1"));
+		assertEquals(150, index.size());
+		assertEquals("key1", index.eldest().key);
+
+		final DiskCacheIndex.Entry read = index.recordRead("key1");
+		assertNotNull(read);
+		assertEquals(1000, read.updated);
+		assertEquals("key2", index.eldest().key);
+		assertNull(index.recordRead("missing"));
+
+		index.recordWrite("key2", 70, 3000); // replace
+		assertEquals(170, index.size());
+		assertEquals(3000, index.get("key2").updated);
+
+		index.recordRemove("key1");
+		assertFalse(index.contains("key1"));
+		assertEquals(70, index.size());
+	}
+
+	public void testReloadFromJournal() {
+		final DiskCacheIndex index = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		index.recordWrite("key1", 100, 1000);
+		index.recordWrite("key2", 200, 2000);
+		index.recordWrite("key3", 300, 3000);
+		index.recordRead("key1");
+		index.recordRemove("key2");
+
+		final DiskCacheIndex reloaded = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		assertEquals(2, reloaded.count());
+		assertEquals(400, reloaded.size());
+		assertFalse(reloaded.contains("key2"));
+		final List<DiskCacheIndex.Entry> entries = reloaded.snapshot();
+		assertEquals("key3", entries.get(0).key);
+		assertEquals("key1", entries.get(1).key);
+	}
+
+	public void testRebuildFromDirectory() throws IOException {
+		Files.write(new byte[10], new File(mCacheDir, "entry1"));
+		Files.write(new byte[20], new File(mCacheDir, "entry2"));
+		Files.write(new byte[30], new File(mCacheDir, "entry3" + DiskCacheIndex.TEMP_FILE_SUFFIX));
+
+		final DiskCacheIndex index = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		assertEquals(2, index.count());
+		assertEquals(30, index.size());
+		assertTrue(new File(mCacheDir, DiskCacheIndex.JOURNAL_FILE).exists());
+	}
+
+	public void testCorruptedJournal() throws IOException {
+		Files.write(new byte[10], new File(mCacheDir, "entry1"));
+		Files.write(DiskCacheIndex.MAGIC + "\n" + DiskCacheIndex.VERSION + "\nPUT entry1 abc\n",
+				new File(mCacheDir, DiskCacheIndex.JOURNAL_FILE), Charsets.US_ASCII);
+
+		final DiskCacheIndex index = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		assertEquals(1, index.count());
+		assertEquals(10, index.get("entry1").size);
+	}
+
+	public void testCompaction() {
+		final DiskCacheIndex index = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		index.recordWrite("key", 10, 1000);
+		for (int i = 0; i < DiskCacheIndex.COMPACT_THRESHOLD; i++) {
+			index.recordRead("key");
+		}
+		// journal compacted to the header and a couple of records
+		final File journal = new File(mCacheDir, DiskCacheIndex.JOURNAL_FILE);
+		assertTrue(journal.length() < 200);
+
+		final DiskCacheIndex reloaded = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		assertEquals(1, reloaded.count());
+		assertEquals(10, reloaded.size());
+	}
+
+	public void testFailedCompactionKeepsJournal() {
+		final DiskCacheIndex index = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		index.recordWrite("key1", 10, 1000);
+		// the compacted journal can't be written
+		final File tempJournal = new File(mCacheDir, DiskCacheIndex.JOURNAL_FILE_TEMP);
+		assertTrue(tempJournal.mkdir());
+		index.compact();
+		index.recordWrite("key2", 20, 2000);
+		tempJournal.delete();
+
+		final DiskCacheIndex reloaded = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		assertEquals(2, reloaded.count());
+		assertEquals(30, reloaded.size());
+	}
+
+	public void testValidators() {
+		final DiskCacheIndex index = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		final HttpValidators validators = new HttpValidators("W/\"a-b c\"",
+				"Wed, 21 Oct 2015 07:28:00 GMT");
+		assertNull(index.recordValidation("missing", 2000, validators));
+		index.recordWrite("key1", 100, 1000);
+		index.recordWrite("key2", 100, 1000);
+		final DiskCacheIndex.Entry validated = index.recordValidation("key1", 5000, validators);
+		assertEquals(5000, validated.updated);
+		assertEquals(validators, validated.validators);
+		assertEquals("key1", index.eldest().key); // access order not affected
+
+		DiskCacheIndex reloaded = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		assertEquals(validators, reloaded.get("key1").validators);
+		assertEquals(5000, reloaded.get("key1").updated);
+		assertNull(reloaded.get("key2").validators);
+
+		// compacted journal keeps the validators, a new write drops them
+		reloaded.compact();
+		reloaded.recordWrite("key1", 100, 6000);
+		assertNull(reloaded.get("key1").validators);
+		reloaded.recordValidation("key2", 1000, new HttpValidators(null, "-"));
+		reloaded = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		assertNull(reloaded.get("key1").validators);
+		assertEquals("-", reloaded.get("key2").validators.getLastModified());
+	}
+
+	public void testValidatorsEscaping() {
+		assertEquals("-", DiskCacheIndex.escape(null));
+		assertNull(DiskCacheIndex.unescape("-"));
+		final String value = "Wed, 21 Oct 2015 %-";
+		final String escaped = DiskCacheIndex.escape(value);
+		assertEquals(-1, escaped.indexOf(' '));
+		assertEquals(value, DiskCacheIndex.unescape(escaped));
+	}
+
+	public void testVersion1Journal() throws IOException {
+		Files.write(DiskCacheIndex.MAGIC + "\n1\nPUT entry1 10 1000\n",
+				new File(mCacheDir, DiskCacheIndex.JOURNAL_FILE), Charsets.US_ASCII);
+		final DiskCacheIndex index = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		assertEquals(1, index.count());
+		assertEquals(1000, index.get("entry1").updated);
+	}
+
+	public void testClear() {
+		final DiskCacheIndex index = new DiskCacheIndex(mCacheDir, EXECUTOR);
+		index.recordWrite("key", 10, 1000);
+		index.clear();
+		assertEquals(0, index.count());
+		assertEquals(0, new DiskCacheIndex(mCacheDir, EXECUTOR).count());
+	}
+
+}
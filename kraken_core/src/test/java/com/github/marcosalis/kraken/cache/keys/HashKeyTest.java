@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.keys;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.github.marcosalis.kraken.utils.HashUtils;
+import com.google.common.hash.Hashing;
+
+/**
+ * Unit tests for the {@link HashKey} class.
+ * 
+ * @since 2.0
+ * @author Marco Salis
+ */
+public class HashKeyTest extends TestCase {
+
+	public void testMatchesGuavaMurmur3() {
+		final Random random = new Random(42);
+		for (int length = 0; length < 64; length++) {
+			final StringBuilder builder = new StringBuilder(length);
+			for (int i = 0; i < length; i++) {
+				builder.append((char) random.nextInt(Character.MAX_VALUE + 1));
+			}
+			final String input = builder.toString();
+			assertEquals(HashUtils.getHash(Hashing.murmur3_128(), input), HashKey.of(input)
+					.toString());
+		}
+		final String url = "http://www.mymockurl.com/images/bitmap.jpg?size=large";
+		assertEquals(HashUtils.getHash(Hashing.murmur3_128(), url), HashKey.of(url).toString());
+	}
+
+	public void testEquality() {
+		final HashKey key = HashKey.of("http://www.mymockurl.com/1");
+		assertEquals(key, HashKey.of("http://www.mymockurl.com/1"));
+		assertEquals(key.hashCode(), HashKey.of("http://www.mymockurl.com/1").hashCode());
+		assertFalse(key.equals(HashKey.of("http://www.mymockurl.com/2")));
+		assertEquals(key, new HashKey(key.getH1(), key.getH2()));
+	}
+
+	public void testFromString() {
+		final HashKey key = HashKey.of("http://www.mymockurl.com/1");
+		assertEquals(key, HashKey.fromString(key.toString()));
+		try {
+			HashKey.fromString("abc");
+			fail("Invalid length accepted");
+		} catch (IllegalArgumentException e) {
+			// success
+		}
+		try {
+			HashKey.fromString("zz" + key.toString().substring(2));
+			fail("Invalid digits accepted");
+		} catch (IllegalArgumentException e) {
+			// success
+		}
+	}
+
+}
@@ -16,7 +16,6 @@
 package com.github.marcosalis.kraken.utils;
 
 import junit.framework.TestCase;
-import android.test.suitebuilder.annotation.SmallTest;
 
 import com.google.common.hash.Hashing;
 
@@ -26,7 +25,6 @@ import com.google.common.hash.Hashing;
  * @since 1.0
  * @author Marco Salis
  */
-@SmallTest
 public class HashUtilsTest extends TestCase {
 
 	protected void setUp() throws Exception {
@@ -21,7 +21,6 @@ import java.util.Collections;
 import java.util.List;
 
 import junit.framework.TestCase;
-import android.test.suitebuilder.annotation.SmallTest;
 
 import com.google.common.collect.ImmutableList;
 
@@ -31,7 +30,6 @@ import com.google.common.collect.ImmutableList;
  * @since 1.0
  * @author Marco Salis
  */
-@SmallTest
 public class JavaUtilsTest extends TestCase {
 
 	protected void setUp() throws Exception {
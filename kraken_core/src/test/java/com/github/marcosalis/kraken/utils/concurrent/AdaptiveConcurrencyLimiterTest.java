@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link AdaptiveConcurrencyLimiter} class.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+public class AdaptiveConcurrencyLimiterTest extends TestCase {
+
+	private AdaptiveConcurrencyLimiter mLimiter;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mLimiter = new AdaptiveConcurrencyLimiter(1, 4, 2);
+	}
+
+	public void testIncreaseWhenQueued() {
+		addWindow(1000, false);
+		assertEquals(2, mLimiter.getPermits());
+		addWindow(1000, true);
+		assertEquals(3, mLimiter.getPermits());
+		addWindow(1000, true);
+		addWindow(1000, true);
+		// upper bound
+		assertEquals(4, mLimiter.getPermits());
+	}
+
+	public void testDecreaseWhenSlower() {
+		addWindow(1000, false);
+		addWindow(2000, true);
+		assertEquals(1, mLimiter.getPermits());
+		addWindow(2000, true);
+		// lower bound
+		assertEquals(1, mLimiter.getPermits());
+		assertEquals(2000, mLimiter.getAverageLatencyNanos());
+	}
+
+	public void testAcquireRelease() throws InterruptedException {
+		final long first = mLimiter.acquire();
+		final long second = mLimiter.acquire();
+		assertEquals(2, mLimiter.getPermitsInUse());
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final Thread waiter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mLimiter.release(mLimiter.acquire());
+					acquired.countDown();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		waiter.start();
+		assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+		assertEquals(1, mLimiter.getQueueLength());
+
+		mLimiter.release(first);
+		assertTrue(acquired.await(1, TimeUnit.SECONDS));
+		mLimiter.release(second);
+		assertEquals(0, mLimiter.getPermitsInUse());
+		assertTrue(mLimiter.getAverageWaitNanos() > 0);
+	}
+
+	private void addWindow(long nanos, boolean queued) {
+		for (int i = 0; i < AdaptiveConcurrencyLimiter.SAMPLE_WINDOW; i++) {
+			mLimiter.addSample(nanos, queued);
+		}
+	}
+
+}
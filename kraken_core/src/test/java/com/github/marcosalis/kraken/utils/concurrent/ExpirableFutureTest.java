@@ -17,10 +17,7 @@ package com.github.marcosalis.kraken.utils.concurrent;
 
 import java.util.concurrent.Callable;
 
-import org.json.JSONObject;
-
-import android.test.AndroidTestCase;
-import android.test.suitebuilder.annotation.MediumTest;
+import junit.framework.TestCase;
 
 /**
  * Unit tests for the abstract {@link ExpirableFutureTask} class.
@@ -28,8 +25,7 @@ import android.test.suitebuilder.annotation.MediumTest;
  * @since 1.0
  * @author Marco Salis
  */
-@MediumTest
-public class ExpirableFutureTest extends AndroidTestCase {
+public class ExpirableFutureTest extends TestCase {
 
 	protected void setUp() throws Exception {
 		super.setUp();
@@ -48,10 +44,10 @@ public class ExpirableFutureTest extends AndroidTestCase {
 		final long expiration = 100; // ms
 
 		// test future expiration
-		ExpirableFutureTask<JSONObject> future = new ExpirableFutureTask<JSONObject>(
-				new Callable<JSONObject>() {
+		ExpirableFutureTask<String> future = new ExpirableFutureTask<String>(
+				new Callable<String>() {
 					@Override
-					public JSONObject call() throws Exception {
+					public String call() throws Exception {
 						return null;
 					}
 				}, expiration);
@@ -60,10 +56,10 @@ public class ExpirableFutureTest extends AndroidTestCase {
 		assertTrue("Future should be expired", future.isExpired());
 
 		// test future validity
-		ExpirableFutureTask<JSONObject> validFuture = new ExpirableFutureTask<JSONObject>(
-				new Callable<JSONObject>() {
+		ExpirableFutureTask<String> validFuture = new ExpirableFutureTask<String>(
+				new Callable<String>() {
 					@Override
-					public JSONObject call() throws Exception {
+					public String call() throws Exception {
 						return null;
 					}
 				}, expiration * 2);
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link IndexedPriorityThreadPoolExecutor} class.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+public class IndexedPriorityThreadPoolExecutorTest extends TestCase {
+
+	private IndexedPriorityThreadPoolExecutor<String> mExecutor;
+	private CountDownLatch mBlocker;
+	private List<String> mExecuted;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mExecutor = new IndexedPriorityThreadPoolExecutor<String>(1, 1, 0L, TimeUnit.MILLISECONDS,
+				Executors.defaultThreadFactory());
+		mBlocker = new CountDownLatch(1);
+		mExecuted = Collections.synchronizedList(new ArrayList<String>());
+		// keep the only thread busy, so that all other tasks are queued
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mBlocker.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mBlocker.countDown();
+		mExecutor.shutdownNow();
+		super.tearDown();
+	}
+
+	public void testSubmissionOrder() throws Exception {
+		final Future<String> last = submit("a", "b", "c");
+		mBlocker.countDown();
+		last.get(1, TimeUnit.SECONDS);
+		assertEquals(list("a", "b", "c"), mExecuted);
+	}
+
+	public void testMoveToFrontAndBack() throws Exception {
+		submit("a", "b", "c", "d");
+		mExecutor.moveToFront("c");
+		mExecutor.moveToFront("d");
+		mExecutor.moveToBack("a");
+		mExecutor.moveToFront("missing");
+		mBlocker.countDown();
+		awaitExecuted(4);
+		// most recently moved first
+		assertEquals(list("d", "c", "b", "a"), mExecuted);
+	}
+
+	public void testSetPriority() throws Exception {
+		submit("a", "b", "c");
+		assertTrue(mExecutor.setPriority("b", 10));
+		assertTrue(mExecutor.setPriority("c", 5));
+		assertFalse(mExecutor.setPriority("missing", 5));
+		mBlocker.countDown();
+		awaitExecuted(3);
+		assertEquals(list("b", "c", "a"), mExecuted);
+	}
+
+	public void testLowPriority() throws Exception {
+		mExecutor.submitWithKey("low", task("low"), null,
+				IndexedPriorityThreadPoolExecutor.PRIORITY_LOW);
+		submit("a", "b");
+		mExecutor.moveToBack("b");
+		mBlocker.countDown();
+		awaitExecuted(3);
+		// low priority tasks run after the tasks moved to the back
+		assertEquals(list("a", "b", "low"), mExecuted);
+	}
+
+	public void testCancelAndRemove() throws Exception {
+		final boolean[] cancelled = new boolean[1];
+		final Future<String> future = mExecutor.submitWithKey("a", task("a"), new Runnable() {
+			@Override
+			public void run() {
+				cancelled[0] = true;
+			}
+		});
+		submit("b");
+		assertEquals(2, mExecutor.getQueue().size());
+		assertTrue(future.cancel(false));
+		assertTrue(cancelled[0]);
+		mExecutor.purge();
+		assertEquals(1, mExecutor.getQueue().size());
+		mBlocker.countDown();
+		awaitExecuted(1);
+		assertEquals(list("b"), mExecuted);
+	}
+
+	public void testMaxRunningPerGroup() throws Exception {
+		final IndexedPriorityThreadPoolExecutor<String> executor = new IndexedPriorityThreadPoolExecutor<String>(
+				2, 2, 0L, TimeUnit.MILLISECONDS, Executors.defaultThreadFactory());
+		executor.setMaxRunningPerGroup(1);
+		final CountDownLatch slowHost = new CountDownLatch(1);
+		try {
+			executor.submitWithKey("slow1", "slow.com", new Callable<String>() {
+				@Override
+				public String call() throws InterruptedException {
+					slowHost.await();
+					mExecuted.add("slow1");
+					return "slow1";
+				}
+			}, null, IndexedPriorityThreadPoolExecutor.PRIORITY_NORMAL);
+			executor.submitWithKey("slow2", "slow.com", task("slow2"), null,
+					IndexedPriorityThreadPoolExecutor.PRIORITY_NORMAL);
+			executor.submitWithKey("fast", "fast.com", task("fast"), null,
+					IndexedPriorityThreadPoolExecutor.PRIORITY_NORMAL);
+			awaitExecuted(1);
+			// the second task of the saturated host waits, the other host is served
+			assertEquals(list("fast"), mExecuted);
+			IndexedPriorityThreadPoolExecutor.GroupStats stats = executor.getGroupStats().get(
+					"slow.com");
+			assertEquals(1, stats.getQueued());
+			assertEquals(1, stats.getRunning());
+			assertEquals(1, executor.getQueue().size());
+
+			slowHost.countDown();
+			awaitExecuted(3);
+			assertEquals(list("fast", "slow1", "slow2"), mExecuted);
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+			stats = executor.getGroupStats().get("slow.com");
+			assertEquals(0, stats.getQueued());
+			assertEquals(0, stats.getRunning());
+			assertEquals(2, stats.getCompleted());
+			assertEquals(1, executor.getGroupStats().get("fast.com").getCompleted());
+		} finally {
+			slowHost.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	public void testMaxRunningPerGroup_parkedPriority() throws Exception {
+		final IndexedPriorityThreadPoolExecutor<String> executor = new IndexedPriorityThreadPoolExecutor<String>(
+				2, 2, 0L, TimeUnit.MILLISECONDS, Executors.defaultThreadFactory());
+		executor.setMaxRunningPerGroup(1);
+		final CountDownLatch slowHost = new CountDownLatch(1);
+		try {
+			executor.submitWithKey("slow1", "slow.com", new Callable<String>() {
+				@Override
+				public String call() throws InterruptedException {
+					slowHost.await();
+					mExecuted.add("slow1");
+					return "slow1";
+				}
+			}, null, IndexedPriorityThreadPoolExecutor.PRIORITY_NORMAL);
+			for (String key : new String[] { "slow2", "slow3", "slow4" }) {
+				executor.submitWithKey(key, "slow.com", task(key), null,
+						IndexedPriorityThreadPoolExecutor.PRIORITY_NORMAL);
+			}
+			Thread.sleep(50); // let the idle thread park the saturated host tasks
+			// parked tasks can still be reordered
+			executor.moveToFront("slow4");
+			slowHost.countDown();
+			awaitExecuted(4);
+			assertEquals(list("slow1", "slow4", "slow2", "slow3"), mExecuted);
+		} finally {
+			slowHost.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	private Future<String> submit(String... keys) {
+		Future<String> future = null;
+		for (String key : keys) {
+			future = mExecutor.submitWithKey(key, task(key));
+		}
+		return future;
+	}
+
+	private Callable<String> task(final String key) {
+		return new Callable<String>() {
+			@Override
+			public String call() {
+				mExecuted.add(key);
+				return key;
+			}
+		};
+	}
+
+	private void awaitExecuted(int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 1000;
+		while (mExecuted.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	private static List<String> list(String... values) {
+		final List<String> list = new ArrayList<String>();
+		Collections.addAll(list, values);
+		return list;
+	}
+
+}
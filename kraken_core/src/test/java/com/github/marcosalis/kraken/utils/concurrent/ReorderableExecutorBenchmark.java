@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.concurrent;
+
+import com.github.marcosalis.kraken.utils.CoreLog;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Benchmark of the {@link ReorderableExecutor} implementations: compares the cost of submitting
+ * keyed tasks and of moving queued tasks to the front of the queue in a
+ * {@link ReorderingThreadPoolExecutor} and an {@link IndexedPriorityThreadPoolExecutor}, with an
+ * increasing number of queued tasks (as during a fast list fling).
+ *
+ * Each measure is the best of a few rounds, to reduce the JIT and GC noise without adding a JMH
+ * dependency to the build. Results are logged through {@link CoreLog} when a printer is set.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+public class ReorderableExecutorBenchmark extends TestCase {
+
+	private static final String TAG = ReorderableExecutorBenchmark.class.getSimpleName();
+
+	private static final int[] QUEUE_SIZES = { 100, 500, 2000 };
+	private static final int ROUNDS = 5;
+
+	private static final Callable<Void> NOOP = new Callable<Void>() {
+		@Override
+		public Void call() {
+			return null;
+		}
+	};
+
+	private interface ExecutorFactory {
+		ThreadPoolExecutor create();
+	}
+
+	private static final ExecutorFactory REORDERING = new ExecutorFactory() {
+		@Override
+		public ThreadPoolExecutor create() {
+			return new ReorderingThreadPoolExecutor<String>(1, 1, 0L, TimeUnit.MILLISECONDS,
+					ReorderingThreadPoolExecutor.createBlockingQueue(),
+					Executors.defaultThreadFactory());
+		}
+	};
+
+	private static final ExecutorFactory INDEXED = new ExecutorFactory() {
+		@Override
+		public ThreadPoolExecutor create() {
+			return new IndexedPriorityThreadPoolExecutor<String>(1, 1, 0L, TimeUnit.MILLISECONDS,
+					Executors.defaultThreadFactory());
+		}
+	};
+
+	public void testReorderingThreadPoolExecutor() throws Exception {
+		for (int size : QUEUE_SIZES) {
+			benchmark(REORDERING, size);
+		}
+	}
+
+	public void testIndexedPriorityThreadPoolExecutor() throws Exception {
+		for (int size : QUEUE_SIZES) {
+			benchmark(INDEXED, size);
+		}
+	}
+
+	public void testMoveToFrontComparison() throws Exception {
+		final int size = QUEUE_SIZES[QUEUE_SIZES.length - 1];
+		final long[] reordering = benchmark(REORDERING, size);
+		final long[] indexed = benchmark(INDEXED, size);
+		// indexed lookup and O(log n) sift against a linear scan of the queue
+		assertTrue("moveToFront: " + indexed[1] + " ns vs " + reordering[1] + " ns",
+				indexed[1] < reordering[1]);
+	}
+
+	/**
+	 * Returns the best submit and moveToFront times, in nanoseconds per operation.
+	 */
+	private static long[] benchmark(ExecutorFactory factory, int size) throws InterruptedException {
+		final long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+		String name = null;
+		for (int i = 0; i < ROUNDS; i++) {
+			final ThreadPoolExecutor pool = factory.create();
+			name = pool.getClass().getSimpleName();
+			final long[] result = run(pool, size);
+			best[0] = Math.min(best[0], result[0]);
+			best[1] = Math.min(best[1], result[1]);
+		}
+		if (CoreLog.isEnabled()) {
+			CoreLog.i(TAG, name + ", " + size + " queued tasks: " + best[0] + " ns/submit, "
+					+ best[1] + " ns/moveToFront");
+		}
+		return best;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long[] run(ThreadPoolExecutor pool, int size) throws InterruptedException {
+		final ReorderableExecutor<String> executor = (ReorderableExecutor<String>) pool;
+		final CountDownLatch blocker = new CountDownLatch(1);
+		try {
+			// keep the only thread busy, so that all tasks are queued
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						blocker.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+
+			final long startSubmit = System.nanoTime();
+			for (int i = 0; i < size; i++) {
+				executor.submitWithKey("key" + i, NOOP, null);
+			}
+			final long submitNs = System.nanoTime() - startSubmit;
+
+			final Random random = new Random(size);
+			final long startMove = System.nanoTime();
+			for (int i = 0; i < size; i++) {
+				executor.moveToFront("key" + random.nextInt(size));
+			}
+			final long moveNs = System.nanoTime() - startMove;
+
+			assertEquals(size, pool.getQueue().size());
+			return new long[] { submitNs / size, moveNs / size };
+		} finally {
+			blocker.countDown();
+			pool.shutdown();
+			pool.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
+
+}
@@ -19,7 +19,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.FutureTask;
 
 import junit.framework.TestCase;
-import android.test.suitebuilder.annotation.SmallTest;
 
 /**
  * Unit tests for the abstract {@link SettableFutureTask} class.
@@ -27,7 +26,6 @@ import android.test.suitebuilder.annotation.SmallTest;
  * @since 1.0
  * @author Marco Salis
  */
-@SmallTest
 public class SettableFutureTaskTest extends TestCase {
 
 	protected void setUp() throws Exception {
@@ -18,6 +18,7 @@ package com.github.marcosalis.kraken.demo;
 import android.annotation.TargetApi;
 import android.app.Application;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.github.marcosalis.kraken.cache.bitmap.BitmapCache;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapCacheBuilder;
@@ -72,12 +73,6 @@ public class KrakenDemoApplication extends DroidApplication {
         DefaultHttpRequestsManager.get().initialize();
 
         // initialize caches
-        final BitmapCacheBuilder builder130 = new BitmapCacheBuilder(this);
-        builder130.maxMemoryCachePercentage(10) //
-                .cacheLogName("BITMAPS_130") //
-                .diskCachePurgeableAfter(DroidUtils.DAY) //
-                .diskCacheDirectoryName("bitmaps130");
-
         final BitmapCacheBuilder builderLarge = new BitmapCacheBuilder(this);
         builderLarge.maxMemoryCachePercentage(25) //
                 .cacheLogName("BITMAPS_LARGE") //
@@ -85,8 +80,18 @@ public class KrakenDemoApplication extends DroidApplication {
                 .diskCacheDirectoryName("bitmaps_large");
 
         // build caches and register them in the manager
+        final BitmapCache largeCache = buildAndRegisterCache(CacheId.BITMAPS_LARGE, builderLarge);
+
+        final BitmapCacheBuilder builder130 = new BitmapCacheBuilder(this);
+        builder130.maxMemoryCachePercentage(10) //
+                .cacheLogName("BITMAPS_130") //
+                .diskCachePurgeableAfter(DroidUtils.DAY) //
+                .diskCacheDirectoryName("bitmaps130");
+        if (largeCache != null) {
+            // thumbnails are scaled down from the large bitmaps when available
+            builder130.deriveVariantsFrom(largeCache);
+        }
         buildAndRegisterCache(CacheId.BITMAPS_130, builder130);
-        buildAndRegisterCache(CacheId.BITMAPS_LARGE, builderLarge);
     }
 
     @Override
@@ -119,12 +124,16 @@ public class KrakenDemoApplication extends DroidApplication {
         return mCachesManager;
     }
 
-    private void buildAndRegisterCache(@NonNull CacheId cacheId, @NonNull BitmapCacheBuilder builder) {
+    @Nullable
+    private BitmapCache buildAndRegisterCache(@NonNull CacheId cacheId,
+                                              @NonNull BitmapCacheBuilder builder) {
         try {
             final BitmapCache cache = builder.build();
             mCachesManager.registerContent(cacheId, cache);
+            return cache;
         } catch (IOException e) {
             LogUtils.logException(e);
+            return null;
         }
     }
 
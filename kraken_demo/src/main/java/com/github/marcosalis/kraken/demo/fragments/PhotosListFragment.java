@@ -156,6 +156,8 @@ public class PhotosListFragment extends ListFragment {
         protected LayoutInflater mInflater;
         protected BitmapSetterBuilder mBitmapSetterBuilder;
         protected Drawable mPlaceholder;
+        /* target size of the decoded bitmaps in pixels, 0 for the original size */
+        protected int mTargetSize;
 
         public PhotosAdapter(Context context, int resource, List<Photo> objects) {
             super(context, resource, objects);
@@ -170,8 +172,11 @@ public class PhotosListFragment extends ListFragment {
         protected void setBitmapAnimated(@NonNull ViewHolder holder, @NonNull Photo photo) {
             final String photoUrl = photo.getPhotoUrl();
             if (photoUrl != null) {
-                mBitmapSetterBuilder.setAsync(photoUrl) //
-                        .placeholder(mPlaceholder) //
+                mBitmapSetterBuilder.setAsync(photoUrl);
+                if (mTargetSize > 0) {
+                    mBitmapSetterBuilder.targetSize(mTargetSize, mTargetSize);
+                }
+                mBitmapSetterBuilder.placeholder(mPlaceholder) //
                         .animate(AnimationMode.NOT_IN_MEMORY) //
                         .into(holder.imageView);
             } else {
@@ -187,12 +192,16 @@ public class PhotosListFragment extends ListFragment {
 
     private static class SmallPhotosAdapter extends PhotosAdapter {
 
+        private static final int SMALL_PHOTO_SIZE_DP = 130;
+
         public SmallPhotosAdapter(Context context, List<Photo> objects) {
             super(context, -1, objects);
             final BitmapCache cache = (BitmapCache) KrakenDemoApplication.get().getCache(
                     CacheId.BITMAPS_130);
             mBitmapSetterBuilder = cache.newBitmapSetterBuilder(true);
             mPlaceholder = context.getResources().getDrawable(R.drawable.ic_launcher);
+            final float density = context.getResources().getDisplayMetrics().density;
+            mTargetSize = (int) (SMALL_PHOTO_SIZE_DP * density);
         }
 
         @Override
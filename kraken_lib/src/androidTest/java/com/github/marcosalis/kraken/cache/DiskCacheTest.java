@@ -17,6 +17,8 @@ package com.github.marcosalis.kraken.cache;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.content.Context;
 import android.test.AndroidTestCase;
@@ -27,6 +29,8 @@ import android.util.Log;
 import com.github.marcosalis.kraken.utils.FileUtils;
 import com.github.marcosalis.kraken.utils.StorageUtils;
 import com.github.marcosalis.kraken.utils.StorageUtils.CacheLocation;
+import com.github.marcosalis.kraken.utils.http.HttpValidators;
+import com.google.common.io.Files;
 
 /**
  * Unit tests for the {@link SimpleDiskCache} class.
@@ -205,6 +209,132 @@ public class DiskCacheTest extends AndroidTestCase {
 		Log.e(TAG, "After touchFile():" + touchFile.lastModified());
 	}
 
+	/**
+	 * Test for {@link SimpleDiskCache#trimToSize(long)}
+	 */
+	public void testTrimToSize() throws IOException {
+		final SimpleDiskCache<String> cache = new SimpleDiskCache<String>(getContext(),
+				TEST_LOCATION, TEST_FOLDER, false, SimpleDiskCache.FLAG_INDEXED);
+		for (String key : new String[] { "key1", "key2", "key3" }) {
+			final File temp = cache.createTempFile(key);
+			Files.write(new byte[100], temp);
+			assertTrue(cache.commitTempFile(temp, key));
+		}
+		cache.onEntryRead("key1"); // key2 is now the least recently used
+		cache.trimToSize(250);
+
+		assertFalse(cache.hasEntry("key2"));
+		assertFalse(new File(mCacheDir, "key2").exists());
+		assertTrue(cache.hasEntry("key1"));
+		assertTrue(cache.hasEntry("key3"));
+		assertEquals(200, cache.mIndex.size());
+	}
+
+	public void testEvictionAndDerivedEntries() throws IOException {
+		final List<String> evicted = new ArrayList<String>();
+		final SimpleDiskCache<String> cache = new SimpleDiskCache<String>(getContext(),
+				TEST_LOCATION, TEST_FOLDER, false, SimpleDiskCache.FLAG_INDEXED) {
+			@Override
+			protected String getLockKey(String key) {
+				return key.endsWith(".d") ? key.substring(0, key.length() - 2) : key;
+			}
+
+			@Override
+			protected void onEntryEvicted(String key) {
+				evicted.add(key);
+			}
+		};
+		File temp = cache.createTempFile("key1");
+		Files.write(new byte[100], temp);
+		assertTrue(cache.commitTempFile(temp, "key1"));
+		final long timestamp = cache.getEntryTimestamp("key1");
+
+		// the derived entry is only committed if its source is unchanged
+		temp = cache.createTempFile("key1.d");
+		Files.write(new byte[100], temp);
+		assertFalse(cache.commitDerivedTempFile(temp, "key1.d", "key1", timestamp - 1));
+		assertFalse(temp.exists());
+		temp = cache.createTempFile("key1.d");
+		Files.write(new byte[100], temp);
+		assertTrue(cache.commitDerivedTempFile(temp, "key1.d", "key1", timestamp));
+
+		cache.trimToSize(100);
+		assertEquals(1, evicted.size());
+		assertEquals("key1", evicted.get(0));
+	}
+
+	public void testRevalidate() throws IOException {
+		final SimpleDiskCache<String> cache = new SimpleDiskCache<String>(getContext(),
+				TEST_LOCATION, TEST_FOLDER, false, SimpleDiskCache.FLAG_INDEXED);
+		final HttpValidators validators = new HttpValidators("\"v1\"", null);
+		assertFalse(cache.setValidators("key", validators));
+		final File temp = cache.createTempFile("key");
+		Files.write(new byte[100], temp);
+		assertTrue(cache.commitTempFile(temp, "key"));
+		final long written = cache.getEntryTimestamp("key");
+		// an expired entry without validators can't be revalidated
+		assertFalse(cache.isStale("key", -1));
+
+		assertTrue(cache.setValidators("key", validators));
+		assertEquals(validators, cache.getValidators("key"));
+		assertEquals(written, cache.getEntryTimestamp("key"));
+		assertTrue(cache.isStale("key", -1));
+		assertFalse(cache.isStale("key", 60 * 1000));
+
+		// a not modified response restarts the entry expiration
+		final long revalidation = System.currentTimeMillis();
+		assertTrue(cache.revalidate("key", null));
+		assertTrue(cache.getEntryTimestamp("key") >= revalidation);
+		assertEquals(validators, cache.getValidators("key"));
+		final HttpValidators updated = new HttpValidators("\"v1\"", "Wed, 21 Oct 2015 GMT");
+		assertTrue(cache.revalidate("key", updated));
+		assertEquals(updated, cache.getValidators("key"));
+
+		assertTrue(cache.deleteEntry("key"));
+		assertNull(cache.getValidators("key"));
+		assertFalse(cache.revalidate("key", null));
+	}
+
+	public void testShardedLayout() throws Exception {
+		assertTrue(mCacheDir.mkdirs());
+		final File flatFile = new File(mCacheDir, "ab01");
+		Files.write(new byte[10], flatFile);
+
+		final SimpleDiskCache<String> cache = new SimpleDiskCache<String>(getContext(),
+				TEST_LOCATION, TEST_FOLDER, false, SimpleDiskCache.FLAG_SHARDED);
+		final File shardedFile = cache.getShardedFile("ab01");
+		assertEquals(new File(new File(new File(mCacheDir, "a"), "b"), "ab01"), shardedFile);
+		// wait for the migration to complete
+		SimpleDiskCache.PURGE_EXECUTOR.submit(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}).get();
+		assertFalse(flatFile.exists());
+		assertTrue(shardedFile.exists());
+		assertTrue(cache.hasEntry("ab01"));
+
+		final File temp = cache.createTempFile("cd02");
+		Files.write(new byte[10], temp);
+		assertTrue(cache.commitTempFile(temp, "cd02"));
+		assertTrue(cache.getShardedFile("cd02").exists());
+
+		assertTrue(cache.cleanCacheDir());
+		assertFalse(shardedFile.exists());
+		assertFalse(cache.hasEntry("cd02"));
+	}
+
+	public void testSetMaxBytes_notIndexed() {
+		final SimpleDiskCache<String> cache = createDiskCache(getContext(), false);
+		boolean thrown = false;
+		try {
+			cache.setMaxBytes(1024);
+		} catch (IllegalStateException e) {
+			thrown = true;
+		}
+		assertTrue("Exception on non indexed cache not thrown", thrown);
+	}
+
 	private static SimpleDiskCache<String> createDiskCache(Context context,
 			boolean allowLocationFallback) {
 		SimpleDiskCache<String> cache = null;
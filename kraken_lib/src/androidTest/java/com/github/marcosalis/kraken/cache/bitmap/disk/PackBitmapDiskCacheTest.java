@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.disk;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.github.marcosalis.kraken.cache.SimpleDiskCache;
+import com.github.marcosalis.kraken.cache.bitmap.internal.DefaultBitmapDecoder;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Unit tests for the {@link PackBitmapDiskCache} class.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+@MediumTest
+public class PackBitmapDiskCacheTest extends AndroidTestCase {
+
+	private static final String TEST_FOLDER = "pack_test";
+
+	private PackBitmapDiskCache mDiskCache;
+	private byte[] mImage;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDiskCache = createCache();
+		final InputStream is = getContext().getAssets().open("droid.jpg");
+		try {
+			mImage = ByteStreams.toByteArray(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDiskCache.clear();
+		super.tearDown();
+	}
+
+	public void testPutGet() throws IOException {
+		assertNull(mDiskCache.get("missing"));
+
+		assertTrue(mDiskCache.put("bytes", mImage));
+		assertTrue(mDiskCache.put("stream", new ByteArrayInputStream(mImage)));
+		final Bitmap bytes = mDiskCache.get("bytes");
+		final Bitmap stream = mDiskCache.get("stream");
+		assertNotNull(bytes);
+		assertNotNull(stream);
+		assertEquals(bytes.getWidth(), stream.getWidth());
+
+		final Bitmap sampled = mDiskCache.get("bytes", bytes.getWidth() / 4,
+				bytes.getHeight() / 4);
+		assertNotNull(sampled);
+		assertTrue(sampled.getWidth() < bytes.getWidth());
+	}
+
+	public void testRemove() {
+		assertTrue(mDiskCache.put("key", mImage));
+		assertTrue(mDiskCache.remove("key"));
+		assertNull(mDiskCache.get("key"));
+	}
+
+	public void testReload() throws IOException {
+		assertTrue(mDiskCache.put("key1", mImage));
+		assertTrue(mDiskCache.put("key2", mImage));
+		assertTrue(mDiskCache.remove("key1"));
+
+		final PackBitmapDiskCache reloaded = createCache();
+		assertNull(reloaded.get("key1"));
+		assertNotNull(reloaded.get("key2"));
+	}
+
+	public void testCompaction() throws IOException {
+		// each segment holds a single entry
+		mDiskCache = new PackBitmapDiskCache(getContext(), TEST_FOLDER, new DefaultBitmapDecoder(),
+				SimpleDiskCache.MIN_EXPIRE_IN_SEC, mImage.length);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(mDiskCache.put("key" + i, mImage));
+		}
+		assertEquals(4, mDiskCache.segmentCount());
+		assertTrue(mDiskCache.remove("key0"));
+		assertTrue(mDiskCache.remove("key1"));
+		assertTrue(mDiskCache.remove("key2"));
+		final long sizeBefore = mDiskCache.size();
+
+		mDiskCache.compact();
+		assertTrue(mDiskCache.size() < sizeBefore);
+		assertNull(mDiskCache.get("key0"));
+		assertNotNull(mDiskCache.get("key3"));
+	}
+
+	private PackBitmapDiskCache createCache() throws IOException {
+		return new PackBitmapDiskCache(getContext(), TEST_FOLDER, new DefaultBitmapDecoder(),
+				SimpleDiskCache.MIN_EXPIRE_IN_SEC);
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.disk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.github.marcosalis.kraken.cache.SimpleDiskCache;
+import com.github.marcosalis.kraken.cache.bitmap.internal.DefaultBitmapDecoder;
+import com.github.marcosalis.kraken.utils.BitmapUtils;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Throughput benchmark of the disk cache hits of {@link SimpleBitmapDiskCache} with an increasing
+ * number of concurrent reader threads. Results are logged: with per-key locks, the throughput
+ * should scale with the number of threads up to the device cores.
+ * 
+ * Also compares the reload latency of thumbnails stored in the raw pixels format against the
+ * decoding of the compressed entries.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+@LargeTest
+public class SimpleBitmapDiskCacheBenchmark extends AndroidTestCase {
+
+	private static final String TAG = "SimpleBitmapDiskCacheBenchmark";
+
+	private static final int KEYS = 32;
+	private static final int READS_PER_THREAD = 64;
+	private static final int[] THREADS = { 1, 2, 4, 8 };
+	private static final int THUMBNAIL_SIZE = 128;
+	private static final int RELOADS = 64;
+
+	private SimpleBitmapDiskCache mDiskCache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDiskCache = new SimpleBitmapDiskCache(getContext(), "bitmap_benchmark",
+				new DefaultBitmapDecoder(), SimpleDiskCache.MIN_EXPIRE_IN_SEC);
+		final InputStream is = getContext().getAssets().open("droid.jpg");
+		final byte[] image;
+		try {
+			image = ByteStreams.toByteArray(is);
+		} finally {
+			is.close();
+		}
+		for (int i = 0; i < KEYS; i++) {
+			assertTrue(mDiskCache.put("benchmark_" + i, image));
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDiskCache.clear();
+		super.tearDown();
+	}
+
+	public void testDiskHitThroughput() throws Exception {
+		for (int threads : THREADS) {
+			final long start = System.nanoTime();
+			final int reads = runReaders(threads);
+			final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			final float throughput = reads * 1000f / Math.max(elapsedMs, 1);
+			Log.i(TAG, threads + " threads: " + reads + " hits in " + elapsedMs + "ms ("
+					+ throughput + " hits/s)");
+		}
+	}
+
+	public void testRawReloadLatency() throws Exception {
+		final String key = "benchmark_0";
+		final long compressedNs = measureReloads(key, false);
+		// sampled decodings can be bigger than the target size
+		mDiskCache.setRawPixelsMaxBytes(BitmapUtils.getSize(THUMBNAIL_SIZE * 4,
+				THUMBNAIL_SIZE * 4));
+		// the first read stores the raw pixels
+		assertNotNull(mDiskCache.get(key, THUMBNAIL_SIZE, THUMBNAIL_SIZE));
+		final long rawNs = measureReloads(key, true);
+		Log.i(TAG, "thumbnail reload: compressed " + TimeUnit.NANOSECONDS.toMicros(compressedNs)
+				+ "us, raw " + TimeUnit.NANOSECONDS.toMicros(rawNs) + "us");
+	}
+
+	/**
+	 * Returns the average latency in nanoseconds of the reloads of a thumbnail.
+	 */
+	private long measureReloads(String key, boolean raw) {
+		assertEquals(raw, mDiskCache.hasRawEntry(key));
+		final long start = System.nanoTime();
+		for (int i = 0; i < RELOADS; i++) {
+			assertNotNull(mDiskCache.get(key, THUMBNAIL_SIZE, THUMBNAIL_SIZE));
+		}
+		return (System.nanoTime() - start) / RELOADS;
+	}
+
+	private int runReaders(int threads) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Integer>> results = new ArrayList<Future<Integer>>(threads);
+			for (int t = 0; t < threads; t++) {
+				final int offset = t;
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						int hits = 0;
+						for (int i = 0; i < READS_PER_THREAD; i++) {
+							final String key = "benchmark_" + ((i + offset) % KEYS);
+							if (mDiskCache.get(key) != null) {
+								hits++;
+							}
+						}
+						return hits;
+					}
+				}));
+			}
+			int reads = 0;
+			for (Future<Integer> result : results) {
+				reads += result.get();
+			}
+			assertEquals(threads * READS_PER_THREAD, reads);
+			return reads;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -15,7 +15,9 @@
  */
 package com.github.marcosalis.kraken.cache.bitmap.disk;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 import android.graphics.Bitmap;
@@ -27,6 +29,7 @@ import android.test.suitebuilder.annotation.MediumTest;
 import com.github.marcosalis.kraken.cache.SimpleDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.internal.DefaultBitmapDecoder;
 import com.github.marcosalis.kraken.utils.BitmapUtils;
+import com.github.marcosalis.kraken.utils.http.LimitedInputStream;
 
 /**
  * Unit tests for the {@link SimpleBitmapDiskCache} class.
@@ -89,6 +92,35 @@ public class SimpleBitmapDiskCacheTest extends AndroidTestCase {
 		assertSameSize(mTestBitmapCropped, bitmapCropped);
 	}
 
+	public void testPutBitmap_Stream() throws IOException {
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		mTestBitmap.compress(CompressFormat.PNG, 0, bos);
+		final InputStream stream = new ByteArrayInputStream(bos.toByteArray());
+		assertTrue(mDiskCache.put("test_put_stream", stream));
+		final Bitmap bitmap = mDiskCache.getBitmap("test_put_stream");
+		assertNotNull(bitmap);
+		assertSameSize(mTestBitmap, bitmap);
+
+		// a failed stream must not leave a partial entry
+		final InputStream limited = new LimitedInputStream(new ByteArrayInputStream(
+				bos.toByteArray()), 16);
+		try {
+			mDiskCache.put("test_put_stream_fail", limited);
+			fail("Stream size limit not enforced");
+		} catch (IOException e) {
+			// expected
+		}
+		assertNull(mDiskCache.getBitmap("test_put_stream_fail"));
+	}
+
+	public void testGetBitmap_Sampled() {
+		mDiskCache.put("test_bitmap_sampled", mTestBitmap);
+		final Bitmap bitmap = mDiskCache.get("test_bitmap_sampled", mTestBitmap.getWidth() / 4,
+				mTestBitmap.getHeight() / 4);
+		assertNotNull(bitmap);
+		assertTrue(bitmap.getWidth() < mTestBitmap.getWidth());
+	}
+
 	public void testPutBitmapStringBitmap() {
 		// test first insertion
 		mDiskCache.put("test_put_bitmap", mTestBitmap);
@@ -111,6 +143,44 @@ public class SimpleBitmapDiskCacheTest extends AndroidTestCase {
 		assertTrue(mDiskCache.remove("test_put_bitmap"));
 	}
 
+	public void testRawPixels() {
+		mDiskCache.setRawPixelsMaxBytes(BitmapUtils.getSize(mTestBitmap));
+		mDiskCache.put("test_raw", mTestBitmap);
+		assertFalse(mDiskCache.hasRawEntry("test_raw"));
+
+		// the first read stores the raw pixels, the second one loads them
+		final Bitmap decoded = mDiskCache.getBitmap("test_raw");
+		assertNotNull(decoded);
+		assertTrue(mDiskCache.hasRawEntry("test_raw"));
+		final Bitmap raw = mDiskCache.getBitmap("test_raw");
+		assertNotNull(raw);
+		assertTrue(decoded.sameAs(raw));
+		// opaque bitmaps stay opaque, so that they're drawn without blending
+		assertEquals(decoded.hasAlpha(), raw.hasAlpha());
+
+		// a different target size decodes the compressed entry again
+		final Bitmap sampled = mDiskCache.get("test_raw", mTestBitmap.getWidth() / 4,
+				mTestBitmap.getHeight() / 4);
+		assertTrue(sampled.getWidth() < mTestBitmap.getWidth());
+		// ...without replacing the raw pixels stored for the first one
+		assertTrue(mDiskCache.hasRawEntry("test_raw"));
+		assertTrue(decoded.sameAs(mDiskCache.getBitmap("test_raw")));
+
+		// overwriting or removing the bitmap deletes its raw pixels
+		mDiskCache.put("test_raw", mTestBitmapCropped);
+		assertFalse(mDiskCache.hasRawEntry("test_raw"));
+		assertSameSize(mTestBitmapCropped, mDiskCache.getBitmap("test_raw"));
+		assertTrue(mDiskCache.remove("test_raw"));
+		assertFalse(mDiskCache.hasRawEntry("test_raw"));
+	}
+
+	public void testRawPixels_Threshold() {
+		mDiskCache.setRawPixelsMaxBytes(BitmapUtils.getSize(mTestBitmap) - 1);
+		mDiskCache.put("test_raw_big", mTestBitmap);
+		assertNotNull(mDiskCache.getBitmap("test_raw_big"));
+		assertFalse(mDiskCache.hasRawEntry("test_raw_big"));
+	}
+
 	private static void assertSameSize(Bitmap expected, Bitmap actual) {
 		assertEquals(BitmapUtils.getSize(expected), BitmapUtils.getSize(actual));
 	}
@@ -19,21 +19,26 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.widget.ImageView;
 
 import com.github.marcosalis.kraken.cache.AccessPolicy;
+import com.github.marcosalis.kraken.cache.CacheStats;
 import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
 import com.github.marcosalis.kraken.cache.SecondLevelCache.ClearMode;
 import com.github.marcosalis.kraken.cache.SimpleDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapCache;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnBitmapSetListener;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnSuccessfulBitmapRetrievalListener;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.PreviewBitmapSetter;
 import com.github.marcosalis.kraken.cache.bitmap.disk.SimpleBitmapDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapLruCache;
 import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
+import com.github.marcosalis.kraken.cache.keys.PreviewCacheUrlKey;
 import com.github.marcosalis.kraken.cache.keys.SimpleCacheUrlKey;
 import com.github.marcosalis.kraken.testing.framework.TestAssertsWrapper;
 import com.github.marcosalis.kraken.utils.DroidUtils;
@@ -51,6 +56,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -74,7 +80,7 @@ public class BitmapCacheImplTest extends AndroidTestCase {
 		final InputStream is = context.getAssets().open("droid.jpg");
 		mTestBitmap = BitmapFactory.decodeStream(is);
 
-		final BitmapLruCache<String> memCache = new BitmapLruCache<String>(
+		final BitmapLruCache<HashKey> memCache = new BitmapLruCache<HashKey>(
 				DroidUtils.getApplicationMemoryClass(mContext) / 10, "test");
 		final DefaultBitmapDecoder decoder = new DefaultBitmapDecoder();
 		final SimpleBitmapDiskCache diskCache = new SimpleBitmapDiskCache(mContext,
@@ -130,6 +136,46 @@ public class BitmapCacheImplTest extends AndroidTestCase {
 		assertBitmapRetrieved(mCache, mCacheKey, AccessPolicy.CACHE_ONLY, CacheSource.MEMORY);
 	}
 
+	public void testGetBitmapAsync_future() throws Exception {
+		final OnSuccessfulBitmapRetrievalListener listener = new OnSuccessfulBitmapRetrievalListener() {
+			@Override
+			public void onBitmapRetrieved(@NonNull CacheUrlKey key, @NonNull Bitmap bitmap,
+					@NonNull CacheSource source) {
+			}
+		};
+		final Future<Bitmap> network = mCache.getBitmapAsync(mCacheKey, AccessPolicy.NORMAL,
+				listener);
+		// the future completes with the downloaded bitmap
+		assertNotNull(network.get(2000, TimeUnit.MILLISECONDS));
+		final Future<Bitmap> memory = mCache.getBitmapAsync(mCacheKey, AccessPolicy.NORMAL,
+				listener);
+		assertNotNull(memory.get(2000, TimeUnit.MILLISECONDS));
+	}
+
+	public void testGetBitmapAsync_stats() throws Exception {
+		final OnSuccessfulBitmapRetrievalListener listener = new OnSuccessfulBitmapRetrievalListener() {
+			@Override
+			public void onBitmapRetrieved(@NonNull CacheUrlKey key, @NonNull Bitmap bitmap,
+					@NonNull CacheSource source) {
+			}
+		};
+		assertNotNull(mCache.getBitmapAsync(mCacheKey, AccessPolicy.NORMAL, listener).get(2000,
+				TimeUnit.MILLISECONDS));
+		// a cold load records exactly one outcome per stage
+		final CacheStats stats = mCache.getStats();
+		assertEquals(0, stats.getHitCount(CacheSource.MEMORY));
+		assertEquals(1, stats.getMissCount(CacheSource.MEMORY));
+		assertEquals(0, stats.getHitCount(CacheSource.DISK));
+		assertEquals(1, stats.getMissCount(CacheSource.DISK));
+		assertEquals(1, stats.getHitCount(CacheSource.NETWORK));
+		assertEquals(0, stats.getMissCount(CacheSource.NETWORK));
+	}
+
+	public void testPreloadBitmap_future() throws Exception {
+		assertNotNull(mCache.preloadBitmap(mCacheKey).get(2000, TimeUnit.MILLISECONDS));
+		assertBitmapRetrieved(mCache, mCacheKey, AccessPolicy.CACHE_ONLY, CacheSource.MEMORY);
+	}
+
 	public void testSetBitmapAsync_noPlaceholder() throws InterruptedException {
 		assertBitmapSet(mImgView, mCache, mCacheKey, CacheSource.NETWORK);
 		assertBitmapSet(mImgView, mCache, mCacheKey, CacheSource.MEMORY);
@@ -137,6 +183,41 @@ public class BitmapCacheImplTest extends AndroidTestCase {
 		assertBitmapSet(mImgView, mCache, mCacheKey, CacheSource.DISK);
 	}
 
+	public void testSetBitmapAsync_preview() throws InterruptedException {
+		final CacheUrlKey previewKey = new SimpleCacheUrlKey(
+				"http://www.mymockurl.com/bitmapTest_preview.jpg");
+		final CountDownLatch previewLatch = new CountDownLatch(1);
+		final CountDownLatch fullLatch = new CountDownLatch(1);
+		final PreviewBitmapSetter setter = new PreviewBitmapSetter() {
+			@Override
+			public void onPreviewRetrieved(@NonNull CacheUrlKey key, @NonNull Bitmap preview) {
+				if (key.hash().equals(previewKey.hash())) {
+					previewLatch.countDown();
+				}
+			}
+
+			@Override
+			public void onBitmapRetrieved(@NonNull CacheUrlKey key, @NonNull Bitmap bitmap,
+					@NonNull CacheSource source) {
+				fullLatch.countDown();
+			}
+
+			@Override
+			public void onBitmapRetrievalFailed(@NonNull CacheUrlKey key, Exception e) {
+			}
+
+			@Override
+			public void setPlaceholder(Drawable drawable) {
+			}
+		};
+		mCache.setBitmapAsync(new PreviewCacheUrlKey(mCacheKey, previewKey),
+				AccessPolicy.NORMAL, setter, null);
+		assertTrue(previewLatch.await(1000, TimeUnit.MILLISECONDS));
+		assertTrue(fullLatch.await(1000, TimeUnit.MILLISECONDS));
+		// the preview is cached with its own key
+		assertBitmapRetrieved(mCache, previewKey, AccessPolicy.CACHE_ONLY, CacheSource.MEMORY);
+	}
+
 	public void testSetBitmapAsync_placeholder() {
 		// TODO
 	}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.internal;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnBitmapRetrievalListener;
+import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.SimpleCacheUrlKey;
+
+/**
+ * Unit tests for the {@link BitmapLoadTable} and {@link BitmapLoad} classes.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+@SmallTest
+public class BitmapLoadTableTest extends AndroidTestCase {
+
+	private BitmapLoadTable mTable;
+	private CacheUrlKey mKey;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mTable = new BitmapLoadTable(1);
+		mKey = new SimpleCacheUrlKey("http://www.example.com/image.jpg");
+	}
+
+	public void testSingleFlight() throws Exception {
+		final CountingListener listener = new CountingListener();
+		assertNull(mTable.join(mKey, listener, true, false));
+
+		final BitmapLoad load = new BitmapLoad(mKey.hashKey(), true);
+		assertTrue(load.subscribe(mKey, listener, true, false));
+		assertTrue(mTable.register(load));
+		assertFalse(mTable.register(new BitmapLoad(mKey.hashKey(), true)));
+		assertSame(load, mTable.join(mKey, listener, true, false));
+		assertSame(load, mTable.join(mKey, null, false, false));
+
+		final Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+		mTable.complete(load, bitmap, CacheSource.DISK, null);
+		assertSame(bitmap, load.get());
+		assertEquals(2, listener.retrieved.get());
+		// completed loads are released from the table
+		assertEquals(0, mTable.size());
+		assertNull(mTable.join(mKey, listener, true, false));
+	}
+
+	public void testCacheOnlyMiss() throws Exception {
+		final CountingListener listener = new CountingListener();
+		final BitmapLoad load = new BitmapLoad(mKey.hashKey(), false);
+		assertTrue(load.subscribe(mKey, listener, false, false));
+		assertTrue(mTable.register(load));
+
+		assertFalse(load.onCacheMiss());
+		// network requests can't join a load that won't download
+		assertNull(mTable.join(mKey, listener, true, false));
+		assertEquals(0, mTable.size());
+
+		load.complete(null, null, null);
+		assertNull(load.get());
+		assertEquals(1, listener.failed.get());
+	}
+
+	public void testNetworkJoinBeforeMiss() {
+		final BitmapLoad load = new BitmapLoad(mKey.hashKey(), false);
+		assertTrue(mTable.register(load));
+		assertSame(load, mTable.join(mKey, null, true, false));
+		assertTrue(load.onCacheMiss());
+	}
+
+	public void testReplace() {
+		final BitmapLoad load = new BitmapLoad(mKey.hashKey(), true);
+		assertTrue(mTable.register(load));
+		final BitmapLoad refresh = new BitmapLoad(mKey.hashKey(), true);
+		mTable.replace(refresh);
+		// completing the replaced load doesn't release the new one
+		mTable.complete(load, null, null, null);
+		assertSame(refresh, mTable.join(mKey, null, true, false));
+	}
+
+	public void testUnsubscribe_cancelsQueuedStage() {
+		final CountingListener listener = new CountingListener();
+		final BitmapLoad load = new BitmapLoad(mKey.hashKey(), true);
+		assertTrue(load.subscribe(mKey, listener, true, false));
+		final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, null);
+		load.setTask(task, false, false);
+
+		load.unsubscribe(listener);
+		assertTrue(task.isCancelled());
+		assertFalse(load.onStageStarted());
+		// cancelled loads can't be joined anymore
+		assertFalse(load.subscribe(mKey, listener, true, false));
+	}
+
+	public void testUnsubscribe_keepsRunningStage() {
+		final CountingListener listener = new CountingListener();
+		final BitmapLoad load = new BitmapLoad(mKey.hashKey(), true);
+		assertTrue(load.subscribe(mKey, listener, true, false));
+		assertTrue(load.onStageStarted());
+
+		load.unsubscribe(listener);
+		// the running stage completes, but no download is started
+		assertFalse(load.onCacheMiss());
+		assertEquals(0, listener.failed.get());
+	}
+
+	public void testUnsubscribe_sharedLoad() {
+		final CountingListener listener1 = new CountingListener();
+		final CountingListener listener2 = new CountingListener();
+		final BitmapLoad load = new BitmapLoad(mKey.hashKey(), true);
+		assertTrue(load.subscribe(mKey, listener1, true, false));
+		assertTrue(load.subscribe(mKey, listener2, true, false));
+		assertTrue(load.onStageStarted());
+
+		load.unsubscribe(listener1);
+		assertTrue(load.onCacheMiss());
+		load.complete(null, null, null);
+		assertEquals(0, listener1.failed.get());
+		assertEquals(1, listener2.failed.get());
+	}
+
+	public void testRequest_cancelOneOfTwo() throws Exception {
+		final CountingListener listener1 = new CountingListener();
+		final CountingListener listener2 = new CountingListener();
+		final BitmapLoad load = new BitmapLoad(mKey.hashKey(), true);
+		assertTrue(load.subscribe(mKey, listener1, true, false));
+		assertTrue(load.subscribe(mKey, listener2, true, false));
+		final BitmapRequest request1 = new BitmapRequest(load, listener1);
+		final BitmapRequest request2 = new BitmapRequest(load, listener2);
+		assertTrue(load.onStageStarted());
+
+		// cancelling a request only unsubscribes its listener
+		assertTrue(request1.cancel(false));
+		assertTrue(request1.isCancelled());
+		assertFalse(load.isCancelled());
+		assertTrue(load.onCacheMiss());
+
+		final Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+		load.complete(bitmap, CacheSource.NETWORK, null);
+		assertFalse(request2.isCancelled());
+		assertSame(bitmap, request2.get());
+		assertEquals(0, listener1.retrieved.get());
+		assertEquals(1, listener2.retrieved.get());
+	}
+
+	public void testLowPriority_prefetch() {
+		final CountingListener prefetch = new CountingListener();
+		final CountingListener visible = new CountingListener();
+		final BitmapLoad load = new BitmapLoad(mKey.hashKey(), true);
+		assertTrue(load.subscribe(mKey, prefetch, true, true));
+		assertTrue(load.isLowPriority());
+		assertTrue(load.subscribe(mKey, visible, true, false));
+		assertFalse(load.isLowPriority());
+
+		// unsubscribing the prefetch doesn't affect the visible request
+		load.unsubscribe(prefetch);
+		assertFalse(load.isLowPriority());
+		load.unsubscribe(visible);
+		assertTrue(load.isLowPriority());
+	}
+
+	private static class CountingListener implements OnBitmapRetrievalListener {
+
+		final AtomicInteger retrieved = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+
+		@Override
+		public void onBitmapRetrieved(@NonNull CacheUrlKey key, @NonNull Bitmap bitmap,
+				@NonNull CacheSource source) {
+			retrieved.incrementAndGet();
+		}
+
+		@Override
+		public void onBitmapRetrievalFailed(@NonNull CacheUrlKey key, @Nullable Exception e) {
+			failed.incrementAndGet();
+		}
+	}
+
+}
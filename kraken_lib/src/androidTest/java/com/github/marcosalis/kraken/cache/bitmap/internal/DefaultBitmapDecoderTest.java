@@ -29,6 +29,7 @@ import android.test.AndroidTestCase;
 
 import com.github.marcosalis.kraken.utils.DroidUtils;
 import com.github.marcosalis.kraken.utils.StorageUtils;
+import com.github.marcosalis.kraken.utils.concurrent.AdaptiveConcurrencyLimiter;
 
 /**
  * Unit tests for the {@link DefaultBitmapDecoder} class.
@@ -86,15 +87,46 @@ public class DefaultBitmapDecoderTest extends AndroidTestCase {
 		assertAvailablePermits();
 	}
 
+	public void testDecodeSampled() throws IOException {
+		final Context context = getContext();
+		final InputStream is = context.getAssets().open("droid.jpg");
+		final Bitmap bitmap = BitmapFactory.decodeStream(is);
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bitmap.compress(CompressFormat.PNG, 0, bos);
+		final byte[] bitmapData = bos.toByteArray();
+
+		final int reqWidth = bitmap.getWidth() / 4;
+		final int reqHeight = bitmap.getHeight() / 4;
+		final Bitmap sampled = mDecoder.decodeSampled(bitmapData, reqWidth, reqHeight);
+		assertNotNull(sampled);
+		assertTrue(sampled.getWidth() < bitmap.getWidth());
+		assertTrue(sampled.getWidth() >= reqWidth);
+		assertAvailablePermits();
+
+		// no target size, full decoding
+		final Bitmap full = mDecoder.decodeSampled(bitmapData, 0, 0);
+		assertNotNull(full);
+		assertEquals(bitmap.getWidth(), full.getWidth());
+
+		assertNull(mDecoder.decodeSampled(new byte[] { 1, 2, 3 }, reqWidth, reqHeight));
+		assertAvailablePermits();
+	}
+
 	public void testCalcMaxDecodingCores() {
 		final int decodingCores = DefaultBitmapDecoder.calcMaxDecodingCores();
 		assertTrue(decodingCores > 0);
 		assertTrue(decodingCores <= DroidUtils.CPU_CORES);
 	}
 
-	private static void assertAvailablePermits() {
-		assertEquals(DefaultBitmapDecoder.calcMaxDecodingCores(),
-				DefaultBitmapDecoder.getAvailablePermits());
+	public void testDecodeLimiter() {
+		final AdaptiveConcurrencyLimiter limiter = mDecoder.getDecodeLimiter();
+		assertEquals(DefaultBitmapDecoder.calcMaxDecodingCores(), limiter.getPermits());
+		// every decoder has its own limiter
+		assertNotSame(limiter, new DefaultBitmapDecoder().getDecodeLimiter());
+	}
+
+	private void assertAvailablePermits() {
+		assertEquals(0, mDecoder.getDecodeLimiter().getPermitsInUse());
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.memory;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.widget.ImageView;
+
+import com.github.marcosalis.kraken.utils.BitmapUtils;
+
+/**
+ * Unit tests for the {@link BitmapPool} class.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+@SmallTest
+public class BitmapPoolTest extends AndroidTestCase {
+
+	private static final int SIZE = 32;
+
+	private BitmapPool mPool;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// room for two bitmaps
+		mPool = new BitmapPool(BitmapUtils.getSize(SIZE, SIZE) * 2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mPool.clear();
+		super.tearDown();
+	}
+
+	public void testPutGet() {
+		final Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		assertTrue(mPool.put(bitmap));
+		assertEquals(BitmapUtils.getSize(bitmap), mPool.size());
+
+		assertNull(mPool.get(SIZE, SIZE * 2));
+		assertEquals(1, mPool.missCount());
+		assertSame(bitmap, mPool.get(SIZE, SIZE));
+		assertEquals(1, mPool.hitCount());
+		assertEquals(0, mPool.size());
+		assertNull(mPool.get(SIZE, SIZE));
+	}
+
+	public void testPutRejected() {
+		final Bitmap immutable = Bitmap.createBitmap(new int[SIZE * SIZE], SIZE, SIZE,
+				Bitmap.Config.ARGB_8888);
+		assertFalse(mPool.put(immutable));
+		final Bitmap rgb565 = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.RGB_565);
+		assertFalse(mPool.put(rgb565));
+		final Bitmap tooLarge = Bitmap.createBitmap(SIZE * 4, SIZE * 4, Bitmap.Config.ARGB_8888);
+		assertFalse(mPool.put(tooLarge));
+		assertEquals(0, mPool.size());
+	}
+
+	public void testDisplayedNotPooled() {
+		final Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		final ImageView view = new ImageView(getContext());
+		BitmapPool.onBitmapDisplayed(view, bitmap);
+		assertTrue(BitmapPool.isDisplayed(bitmap));
+		assertFalse(mPool.put(bitmap));
+
+		BitmapPool.onBitmapDisplayed(view, null);
+		assertFalse(BitmapPool.isDisplayed(bitmap));
+		assertTrue(mPool.put(bitmap));
+	}
+
+	public void testDisplayedByTwoViews() {
+		final Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		final Bitmap other = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		final ImageView view1 = new ImageView(getContext());
+		final ImageView view2 = new ImageView(getContext());
+		BitmapPool.onBitmapDisplayed(view1, bitmap);
+		BitmapPool.onBitmapDisplayed(view2, bitmap);
+
+		BitmapPool.onBitmapDisplayed(view1, other);
+		assertTrue(BitmapPool.isDisplayed(bitmap));
+		assertTrue(BitmapPool.isDisplayed(other));
+
+		BitmapPool.onBitmapDisplayed(view2, null);
+		assertFalse(BitmapPool.isDisplayed(bitmap));
+		BitmapPool.onBitmapDisplayed(view1, null);
+		assertFalse(BitmapPool.isDisplayed(other));
+	}
+
+	public void testTrimToMaxSize() {
+		final Bitmap first = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		final Bitmap second = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		final Bitmap third = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		assertTrue(mPool.put(first));
+		assertTrue(mPool.put(second));
+		assertTrue(mPool.put(third));
+		assertEquals(mPool.maxSize(), mPool.size());
+
+		// the eldest bitmap was dropped
+		final Bitmap pooled1 = mPool.get(SIZE, SIZE);
+		final Bitmap pooled2 = mPool.get(SIZE, SIZE);
+		assertNotSame(first, pooled1);
+		assertNotSame(first, pooled2);
+		assertNull(mPool.get(SIZE, SIZE));
+	}
+
+	public void testClear() {
+		assertTrue(mPool.put(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888)));
+		mPool.clear();
+		assertEquals(0, mPool.size());
+		assertNull(mPool.get(SIZE, SIZE));
+	}
+
+}
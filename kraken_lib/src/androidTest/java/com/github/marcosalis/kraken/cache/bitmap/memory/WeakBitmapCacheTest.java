@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.memory;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.github.marcosalis.kraken.cache.ContentCache.OnEntryRemovedListener;
+import com.github.marcosalis.kraken.utils.BitmapUtils;
+
+/**
+ * Unit tests for the {@link WeakBitmapCache} class and its use as a {@link BitmapLruCache} second
+ * tier.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+@SmallTest
+public class WeakBitmapCacheTest extends AndroidTestCase {
+
+	private static final int SIZE = 32;
+
+	private WeakBitmapCache<String> mWeakCache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mWeakCache = new WeakBitmapCache<String>();
+	}
+
+	public void testPutRemove() {
+		final Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		mWeakCache.put("key", bitmap);
+		assertEquals(1, mWeakCache.size());
+		assertSame(bitmap, mWeakCache.remove("key"));
+		assertEquals(1, mWeakCache.hitCount());
+		assertNull(mWeakCache.remove("key"));
+		assertEquals(1, mWeakCache.missCount());
+
+		final Bitmap recycled = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		mWeakCache.put("recycled", recycled);
+		recycled.recycle();
+		assertNull(mWeakCache.remove("recycled"));
+	}
+
+	public void testSecondTierRevival() {
+		// room for a single bitmap
+		final BitmapLruCache<String> cache = new BitmapLruCache<String>(
+				BitmapUtils.getSize(SIZE, SIZE), "test", mWeakCache);
+		// the cache owner moves the evicted bitmaps into the second tier
+		cache.setOnEntryRemovedListener(new OnEntryRemovedListener<String, Bitmap>() {
+			@Override
+			public void onEntryRemoved(boolean evicted, String key, Bitmap value) {
+				if (evicted) {
+					mWeakCache.put(key, value);
+				}
+			}
+		});
+		final Bitmap first = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		final Bitmap second = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+		cache.put("first", first);
+		cache.put("second", second); // evicts the first bitmap
+		assertEquals(1, mWeakCache.size());
+
+		// the first bitmap is still referenced here, so it's revived
+		assertSame(first, cache.get("first"));
+		assertSame(second, mWeakCache.remove("second"));
+
+		cache.clear();
+		assertEquals(0, mWeakCache.size());
+	}
+
+}
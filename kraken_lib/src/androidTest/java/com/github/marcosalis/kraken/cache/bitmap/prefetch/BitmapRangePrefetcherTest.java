@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.prefetch;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.Future;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.widget.ImageView;
+
+import com.github.marcosalis.kraken.cache.AccessPolicy;
+import com.github.marcosalis.kraken.cache.CacheStats;
+import com.github.marcosalis.kraken.cache.SecondLevelCache.ClearMode;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapSetterBuilder;
+import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.SimpleCacheUrlKey;
+import com.google.common.util.concurrent.SettableFuture;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link BitmapRangePrefetcher} class.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+@SmallTest
+public class BitmapRangePrefetcherTest extends TestCase {
+
+	private static final int ITEM_COUNT = 100;
+
+	private PrefetchRecorder mCache;
+	private BitmapRangePrefetcher mPrefetcher;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mCache = new PrefetchRecorder();
+		mPrefetcher = new BitmapRangePrefetcher(mCache, new BitmapRangePrefetcher.KeyProvider() {
+			@Nullable
+			@Override
+			public CacheUrlKey getPrefetchKey(int position) {
+				return key(position);
+			}
+		});
+		mPrefetcher.setLookAhead(3);
+	}
+
+	public void testForwardWindow() {
+		mPrefetcher.onVisibleRangeChanged(0, 4, ITEM_COUNT);
+		assertPrefetched(5, 6, 7);
+
+		// scrolling down slides the window and cancels what's left behind
+		mPrefetcher.onVisibleRangeChanged(2, 6, ITEM_COUNT);
+		assertPrefetched(5, 6, 7, 8, 9);
+		assertCancelled(5, 6);
+		assertActive(7, 8, 9);
+	}
+
+	public void testDirectionChange() {
+		mPrefetcher.onVisibleRangeChanged(10, 14, ITEM_COUNT);
+		mPrefetcher.onVisibleRangeChanged(9, 13, ITEM_COUNT);
+		// scrolling up prefetches the items above, nearest first
+		assertActive(8, 7, 6);
+		assertCancelled(15, 16, 17);
+	}
+
+	public void testListBounds() {
+		mPrefetcher.onVisibleRangeChanged(95, 98, ITEM_COUNT);
+		assertPrefetched(99);
+		mPrefetcher.onVisibleRangeChanged(0, 4, 5);
+		assertActive();
+	}
+
+	public void testCancelAll() {
+		mPrefetcher.onVisibleRangeChanged(0, 4, ITEM_COUNT);
+		mPrefetcher.cancelAll();
+		assertCancelled(5, 6, 7);
+		assertActive();
+	}
+
+	private void assertPrefetched(int... positions) {
+		assertEquals(positions.length, mCache.prefetches.size());
+		int i = 0;
+		for (String hash : mCache.prefetches.keySet()) {
+			assertEquals(key(positions[i++]).hash(), hash);
+		}
+	}
+
+	private void assertCancelled(int... positions) {
+		for (int position : positions) {
+			assertTrue(mCache.prefetches.get(key(position).hash()).isCancelled());
+		}
+	}
+
+	private void assertActive(int... positions) {
+		int active = 0;
+		for (Future<Bitmap> prefetch : mCache.prefetches.values()) {
+			if (!prefetch.isCancelled()) {
+				active++;
+			}
+		}
+		assertEquals(positions.length, active);
+		for (int position : positions) {
+			assertFalse(mCache.prefetches.get(key(position).hash()).isCancelled());
+		}
+	}
+
+	private static CacheUrlKey key(int position) {
+		return new SimpleCacheUrlKey("http://www.mymockurl.com/" + position);
+	}
+
+	/**
+	 * Fake {@link BitmapCache} that records the requested prefetches.
+	 */
+	private static class PrefetchRecorder implements BitmapCache {
+
+		final LinkedHashMap<String, SettableFuture<Bitmap>> prefetches = new LinkedHashMap<String, SettableFuture<Bitmap>>();
+
+		@NonNull
+		@Override
+		public Future<Bitmap> preloadBitmap(@NonNull CacheUrlKey key) {
+			final SettableFuture<Bitmap> future = SettableFuture.create();
+			prefetches.put(key.hash(), future);
+			return future;
+		}
+
+		@NonNull
+		@Override
+		public BitmapSetterBuilder newBitmapSetterBuilder(boolean allowReuse) {
+			throw new UnsupportedOperationException();
+		}
+
+		@NonNull
+		@Override
+		public Future<Bitmap> getBitmapAsync(@NonNull CacheUrlKey key,
+				@NonNull AccessPolicy policy, @NonNull OnBitmapRetrievalListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setBitmapAsync(@NonNull String url, @NonNull ImageView view) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setBitmapAsync(@NonNull CacheUrlKey key, @NonNull ImageView view) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setBitmapAsync(@NonNull CacheUrlKey key, @NonNull AccessPolicy policy,
+				@NonNull BitmapSetter setter, @Nullable Drawable placeholder) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void clearMemoryCache() {
+		}
+
+		@Override
+		public void clearDiskCache(ClearMode mode) {
+		}
+
+		@Override
+		public void scheduleClearDiskCache() {
+		}
+
+		@Override
+		public void clearCache() {
+		}
+
+		@NonNull
+		@Override
+		public CacheStats getStats() {
+			return CacheStats.EMPTY;
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.threading;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for the {@link BitmapDeliveryDispatcher} class.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+@SmallTest
+public class BitmapDeliveryDispatcherTest extends AndroidTestCase {
+
+	private BitmapDeliveryDispatcher mDispatcher;
+	private Bitmap mBitmap;
+	private List<String> mDelivered;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDispatcher = BitmapDeliveryDispatcher.getInstance();
+		mBitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+		mDelivered = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDispatcher.setMaxDeliveriesPerFrame(
+				BitmapDeliveryDispatcher.DEFAULT_MAX_DELIVERIES_PER_FRAME);
+		super.tearDown();
+	}
+
+	public void testCoalesceAndDropStale() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(2);
+		final Object target1 = new Object();
+		final Object target2 = new Object();
+		// dispatch everything within the same UI thread message, before any frame
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mDispatcher.dispatch(new TestDelivery("old", target1, "key", true, latch));
+				mDispatcher.dispatch(new TestDelivery("stale", target2, "key", false, latch));
+				mDispatcher.dispatch(new TestDelivery("new", target1, "key", true, latch));
+				mDispatcher.dispatch(new TestDelivery("untargeted", null, "key", true, latch));
+			}
+		});
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertEquals(2, mDelivered.size());
+		assertTrue(mDelivered.contains("new"));
+		assertTrue(mDelivered.contains("untargeted"));
+	}
+
+	public void testLateDeliveryForOtherKey() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final Object target = new Object();
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mDispatcher.dispatch(new TestDelivery("current", target, "keyB", true, latch));
+				// late delivery for the content the target was previously bound to
+				mDispatcher.dispatch(new TestDelivery("late", target, "keyA", false, latch));
+			}
+		});
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertEquals(1, mDelivered.size());
+		assertEquals("current", mDelivered.get(0));
+	}
+
+	public void testMaxDeliveriesPerFrame() throws InterruptedException {
+		mDispatcher.setMaxDeliveriesPerFrame(2);
+		final int deliveries = 7;
+		final CountDownLatch latch = new CountDownLatch(deliveries);
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < deliveries; i++) {
+					mDispatcher.dispatch(new TestDelivery("delivery" + i, new Object(), "key",
+							true, latch));
+				}
+			}
+		});
+		// all deliveries are eventually applied, in order, across multiple frames
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < deliveries; i++) {
+			assertEquals("delivery" + i, mDelivered.get(i));
+		}
+	}
+
+	private static void runOnUiThread(Runnable runnable) {
+		new Handler(Looper.getMainLooper()).post(runnable);
+	}
+
+	private class TestDelivery implements BitmapDeliveryDispatcher.Delivery {
+
+		private final String mName;
+		private final Object mTarget;
+		private final Object mKey;
+		private final boolean mValid;
+		private final CountDownLatch mLatch;
+
+		TestDelivery(String name, Object target, Object key, boolean valid,
+				CountDownLatch latch) {
+			mName = name;
+			mTarget = target;
+			mKey = key;
+			mValid = valid;
+			mLatch = latch;
+		}
+
+		@Nullable
+		@Override
+		public Object getTarget() {
+			return mTarget;
+		}
+
+		@Nullable
+		@Override
+		public Object getKey() {
+			return mKey;
+		}
+
+		@NonNull
+		@Override
+		public Bitmap getBitmap() {
+			return mBitmap;
+		}
+
+		@Override
+		public boolean isValid() {
+			return mValid;
+		}
+
+		@Override
+		public void deliver() {
+			mDelivered.add(mName);
+			mLatch.countDown();
+		}
+	}
+
+}
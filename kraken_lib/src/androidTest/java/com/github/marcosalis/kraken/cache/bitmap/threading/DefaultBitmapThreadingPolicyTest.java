@@ -21,7 +21,7 @@ import android.os.Process;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
-import com.github.marcosalis.kraken.utils.concurrent.ReorderingThreadPoolExecutor;
+import com.github.marcosalis.kraken.utils.concurrent.IndexedPriorityThreadPoolExecutor;
 
 /**
  * Unit tests for the {@link DefaultBitmapThreadingPolicy} class.
@@ -48,6 +48,7 @@ public class DefaultBitmapThreadingPolicyTest extends AndroidTestCase {
 	public void testGetBitmapDiskExecutor() {
 		final ThreadPoolExecutor executor = mPolicy.getBitmapDiskExecutor();
 		assertNotNull(executor);
+		assertTrue(executor instanceof IndexedPriorityThreadPoolExecutor);
 		assertEquals(DefaultBitmapThreadingPolicy.getDefaultDiskExecutorSize(),
 				executor.getCorePoolSize());
 	}
@@ -55,7 +56,7 @@ public class DefaultBitmapThreadingPolicyTest extends AndroidTestCase {
 	public void testGetBitmapDownloader() {
 		final ThreadPoolExecutor executor = mPolicy.getBitmapDownloader();
 		assertNotNull(executor);
-		assertTrue(executor instanceof ReorderingThreadPoolExecutor);
+		assertTrue(executor instanceof IndexedPriorityThreadPoolExecutor);
 		assertEquals(DefaultBitmapThreadingPolicy.getDefaultDownloaderSize(),
 				executor.getCorePoolSize());
 	}
@@ -65,6 +66,7 @@ public class DefaultBitmapThreadingPolicyTest extends AndroidTestCase {
 		final int expectedPriority = Process.THREAD_PRIORITY_LOWEST;
 		final ThreadPoolExecutor executor = DefaultBitmapThreadingPolicy.buildDefaultDiskExecutor(
 				expectedSize, expectedPriority);
+		assertTrue(executor instanceof IndexedPriorityThreadPoolExecutor);
 		assertEquals(expectedSize, executor.getCorePoolSize());
 	}
 
@@ -73,8 +75,13 @@ public class DefaultBitmapThreadingPolicyTest extends AndroidTestCase {
 		final int expectedPriority = Process.THREAD_PRIORITY_LOWEST;
 		final ThreadPoolExecutor executor = DefaultBitmapThreadingPolicy.buildDefaultDownloader(
 				expectedSize, expectedPriority);
-		assertTrue(executor instanceof ReorderingThreadPoolExecutor);
+		assertTrue(executor instanceof IndexedPriorityThreadPoolExecutor);
 		assertEquals(expectedSize, executor.getCorePoolSize());
+		// the downloads per host are only limited on demand
+		assertEquals(0, ((IndexedPriorityThreadPoolExecutor<?>) executor).getMaxRunningPerGroup());
+		final IndexedPriorityThreadPoolExecutor<?> limited = DefaultBitmapThreadingPolicy
+				.buildDefaultDownloader(expectedSize, expectedPriority, 2);
+		assertEquals(2, limited.getMaxRunningPerGroup());
 	}
 
 }
\ No newline at end of file
@@ -16,9 +16,12 @@
 package com.github.marcosalis.kraken.cache.internal.loaders;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
@@ -250,6 +253,84 @@ public class DiskContentLoaderTest extends AndroidTestCase {
 		assertNull("Not null model from disk cache when refreshing", diskModel);
 	}
 
+	/**
+	 * Test
+	 * {@link DiskContentLoader#load(AccessPolicy, CacheableRequest, ContentUpdateCallback)}
+	 * with {@link AccessPolicy#STALE_WHILE_REVALIDATE}
+	 * 
+	 * @throws Exception
+	 */
+	public void testLoad_AccessPolicy_StaleWhileRevalidate() throws Exception {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		final Executor executor = new Executor() {
+			@Override
+			public void execute(@NonNull Runnable command) {
+				tasks.add(command);
+			}
+		};
+		final DiskContentLoader<MockJsonModel> loader = new DiskContentLoader<MockJsonModel>(
+				mMemCache, mDiskCache, MOCK_CACHE_EXP, new MockRequestHandler(),
+				new MockConnectionMonitor(), executor);
+		final MockJsonModel newModel = new MockJsonModel();
+		CacheableRequest<MockJsonModel> newModelRequest = new MockCacheableRequest() {
+			@Override
+			public MockJsonModel execute() throws Exception {
+				return newModel;
+			}
+		};
+		final List<MockJsonModel> updates = new ArrayList<MockJsonModel>();
+		ContentUpdateCallback<MockJsonModel> callback = new ContentUpdateCallback<MockJsonModel>() {
+			@Override
+			public void onContentUpdated(MockJsonModel content) {
+				updates.add(content);
+			}
+		};
+
+		/** test valid model in cache used */
+		mMemCache.put("mock_hash", buildExpiringFuture());
+		assertSame(MOCK_MODEL, loader.load(AccessPolicy.STALE_WHILE_REVALIDATE,
+				newModelRequest, callback));
+		assertTrue("Valid model revalidated", tasks.isEmpty());
+
+		/** test stale model returned and revalidated in background */
+		Thread.sleep(MOCK_CACHE_EXP * 2); // expire cache entry
+		assertSame("Stale model not returned", MOCK_MODEL,
+				loader.load(AccessPolicy.STALE_WHILE_REVALIDATE, newModelRequest, callback));
+		assertSame(MOCK_MODEL,
+				loader.load(AccessPolicy.STALE_WHILE_REVALIDATE, newModelRequest, callback));
+		assertEquals("Revalidation not scheduled once", 1, tasks.size());
+		assertTrue(updates.isEmpty());
+		tasks.remove(0).run();
+		assertEquals(1, updates.size());
+		assertSame("Revalidated model not notified", newModel, updates.get(0));
+		assertSame(newModel, mMemCache.get("mock_hash").get());
+
+		/** test stale model from disk cache */
+		mMemCache.remove("mock_hash");
+		mDiskCache.put("mock_hash", MOCK_MODEL); // never expires
+		assertSame(MOCK_MODEL, loader.load(AccessPolicy.STALE_WHILE_REVALIDATE,
+				newModelRequest, callback));
+		assertTrue("Fresh disk model revalidated", tasks.isEmpty());
+
+		/** test revalidated model equal to the stale one not notified */
+		updates.clear();
+		mDiskCache.remove("mock_hash");
+		mMemCache.put("mock_hash", buildExpiringFuture());
+		Thread.sleep(MOCK_CACHE_EXP * 2); // expire cache entry
+		assertSame(MOCK_MODEL, loader.load(AccessPolicy.STALE_WHILE_REVALIDATE,
+				new MockCacheableRequest(), callback));
+		assertEquals(1, tasks.size());
+		tasks.remove(0).run();
+		assertTrue("Unchanged model notified", updates.isEmpty());
+
+		/** test no revalidation executor */
+		Thread.sleep(MOCK_CACHE_EXP * 2); // expire cache entry
+		mDiskCache.remove("mock_hash");
+		MockJsonModel model = loadWithCustomRequest(AccessPolicy.STALE_WHILE_REVALIDATE,
+				newModelRequest);
+		assertSame("Stale model used without executor", newModel, model);
+	}
+
 	/*
 	 * Test utility methods
 	 */
@@ -387,6 +468,12 @@ public class DiskContentLoaderTest extends AndroidTestCase {
 			return MOCK_MODEL;
 		}
 
+		@Override
+		public MockJsonModel execute(HttpRequestsManager connManager,
+				ConditionalExecution execution) throws Exception {
+			return MOCK_MODEL;
+		}
+
 		@Override
 		protected void configRequest(HttpRequest request) {
 			// do nothing here
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.keys;
+
+import java.util.HashMap;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.github.marcosalis.kraken.utils.HashUtils;
+import com.google.common.hash.Hashing;
+
+/**
+ * Benchmark of the creation of a bitmap cache key and of the following memory cache lookup, as
+ * done for every item in an adapter getView(): compares the previous hexadecimal string keys
+ * generated through Guava with the {@link HashKey} of a {@link SimpleCacheUrlKey}. Results are
+ * logged.
+ *
+ * @since 2.0
+ * @author Marco Salis
+ */
+@LargeTest
+public class CacheUrlKeyBenchmark extends AndroidTestCase {
+
+	private static final String TAG = "CacheUrlKeyBenchmark";
+
+	private static final int URLS = 500;
+	private static final int ROUNDS = 20;
+	private static final int WARMUP_ROUNDS = 5;
+
+	private String[] mUrls;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mUrls = new String[URLS];
+		for (int i = 0; i < URLS; i++) {
+			mUrls[i] = "http://farm" + (i % 9) + ".staticflickr.com/" + (1000 + i) + "/"
+					+ (8000000000L + i * 7919L) + "_a1b2c3d4e5_q.jpg";
+		}
+	}
+
+	public void testStringKeys() {
+		final HashMap<String, Object> cache = new HashMap<String, Object>();
+		for (int i = 0; i < URLS; i += 2) { // half of the lookups are hits
+			cache.put(HashUtils.getHash(Hashing.murmur3_128(), mUrls[i]), this);
+		}
+		long elapsedNs = 0;
+		int hits = 0;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+			final long start = System.nanoTime();
+			for (String url : mUrls) {
+				if (cache.get(HashUtils.getHash(Hashing.murmur3_128(), url)) != null) {
+					hits++;
+				}
+			}
+			if (round >= WARMUP_ROUNDS) {
+				elapsedNs += System.nanoTime() - start;
+			}
+		}
+		assertEquals((WARMUP_ROUNDS + ROUNDS) * URLS / 2, hits);
+		log("String keys", elapsedNs);
+	}
+
+	public void testHashKeys() {
+		final HashMap<HashKey, Object> cache = new HashMap<HashKey, Object>();
+		for (int i = 0; i < URLS; i += 2) { // half of the lookups are hits
+			cache.put(new SimpleCacheUrlKey(mUrls[i]).hashKey(), this);
+		}
+		long elapsedNs = 0;
+		int hits = 0;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+			final long start = System.nanoTime();
+			for (String url : mUrls) {
+				if (cache.get(new SimpleCacheUrlKey(url).hashKey()) != null) {
+					hits++;
+				}
+			}
+			if (round >= WARMUP_ROUNDS) {
+				elapsedNs += System.nanoTime() - start;
+			}
+		}
+		assertEquals((WARMUP_ROUNDS + ROUNDS) * URLS / 2, hits);
+		log("HashKey keys", elapsedNs);
+	}
+
+	private static void log(String name, long elapsedNs) {
+		Log.i(TAG, name + ": " + (elapsedNs / (ROUNDS * URLS)) + " ns/getView key");
+	}
+
+}
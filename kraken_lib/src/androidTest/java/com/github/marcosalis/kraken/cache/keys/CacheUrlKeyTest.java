@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.keys;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.github.marcosalis.kraken.utils.HashUtils;
+import com.google.common.hash.Hashing;
+
+/**
+ * Unit tests for the {@link CacheUrlKey} implementations.
+ * 
+ * @since 2.0
+ * @author Marco Salis
+ */
+@SmallTest
+public class CacheUrlKeyTest extends TestCase {
+
+	public void testHashKeys() {
+		final String url = "http://www.mymockurl.com/images/bitmap.jpg";
+		final SimpleCacheUrlKey key = new SimpleCacheUrlKey(url);
+		assertEquals(HashUtils.getHash(Hashing.murmur3_128(), url), key.hash());
+		assertEquals(key.hash(), key.hashKey().toString());
+		assertSame(key.hashKey(), new SizedCacheUrlKey(key, 100, 100).hashKey());
+	}
+
+}
@@ -89,6 +89,17 @@ public class BitmapUtilsTest extends AndroidTestCase {
 		assertEquals(1, sampleSize);
 	}
 
+	public void testScaleDownToFit() {
+		final Bitmap bitmap = Bitmap.createBitmap(400, 200, Bitmap.Config.ARGB_8888);
+		// the smaller side must still cover the target
+		final Bitmap scaled = BitmapUtils.scaleDownToFit(bitmap, 100, 100);
+		assertEquals(200, scaled.getWidth());
+		assertEquals(100, scaled.getHeight());
+		// never scale up, or without a target size
+		assertSame(bitmap, BitmapUtils.scaleDownToFit(bitmap, 800, 800));
+		assertSame(bitmap, BitmapUtils.scaleDownToFit(bitmap, 0, 0));
+	}
+
 	public void testIsPowerOfTwo() {
 		assertTrue(BitmapUtils.isPowerOfTwo(1));
 		assertTrue(BitmapUtils.isPowerOfTwo(2));
@@ -47,6 +47,14 @@ public enum AccessPolicy {
     /**
      * Refresh the cache data, and return the updated content if any.
      */
-    REFRESH;
+    REFRESH,
+
+    /**
+     * Return the cached content immediately, even if it's expired, and refresh it in background if
+     * needed: the refreshed content is notified through the content update callback, if any.<br>
+     * If there is a total cache miss, download the content from the server as with {@link
+     * #NORMAL}.
+     */
+    STALE_WHILE_REVALIDATE;
 
 }
\ No newline at end of file
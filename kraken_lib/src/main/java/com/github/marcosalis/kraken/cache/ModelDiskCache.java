@@ -38,6 +38,10 @@ import javax.annotation.concurrent.NotThreadSafe;
 /**
  * Disk cache that stores a POJO/DTO object into its JSON representation in text files.
  *
+ * An indexed model cache (see {@link SimpleDiskCache#FLAG_INDEXED}) can be bounded in size with
+ * {@link #setMaxBytes(long)}: the least recently used models are evicted when the cache grows over
+ * the limit.
+ *
  * TODO: use {@link JsonFactory} instead of Jackson's {@link ObjectMapper}
  *
  * @author Marco Salis
@@ -74,7 +78,20 @@ public class ModelDiskCache<V> extends SimpleDiskCache<V> {
      */
     public ModelDiskCache(@NonNull Context context, @NonNull ObjectMapper mapper,
                           @NonNull String subFolder, @NonNull Class<V> modelClass) throws IOException {
-        super(context, CacheLocation.INTERNAL, PATH + File.separator + subFolder, true);
+        this(context, mapper, subFolder, modelClass, 0);
+    }
+
+    /**
+     * Builds a {@link ModelDiskCache} with the passed options.
+     *
+     * @param flags The disk cache options, see {@link SimpleDiskCache#FLAG_INDEXED}
+     * @throws IOException
+     * @see #ModelDiskCache(Context, ObjectMapper, String, Class)
+     */
+    public ModelDiskCache(@NonNull Context context, @NonNull ObjectMapper mapper,
+                          @NonNull String subFolder, @NonNull Class<V> modelClass, int flags)
+            throws IOException {
+        super(context, CacheLocation.INTERNAL, PATH + File.separator + subFolder, true, flags);
         mModelClass = modelClass;
         mObjectMapper = mapper;
         if (DroidConfig.DEBUG) {
@@ -90,26 +107,19 @@ public class ModelDiskCache<V> extends SimpleDiskCache<V> {
      */
     @Nullable
     public V get(@NonNull String key) {
-        File jsonFile = new File(mCacheLocation, key);
-        if (!jsonFile.exists()) {
-            return null;
-        }
-        try {
-            return mObjectMapper.readValue(jsonFile, mModelClass);
-        } catch (IOException e) {
-            LogUtils.logException(TAG, "Exception when reading " + key, e);
-            jsonFile.delete(); // try to delete damaged file
+        if (!hasEntry(key)) {
             return null;
         }
+        return readModel(key);
     }
 
     /**
      * Gets an item from the disk cache only if it is not expired.
      *
-     * <b>Note on expiration:</b> This method uses the {@link File#lastModified()} method to check
-     * if the cache item is expired. Sometimes in Android this value is rounded to the second, so
-     * using very small expiration times can result in a cache miss even if the item would be
-     * valid.
+     * <b>Note on expiration:</b> If the cache is not indexed, this method uses the {@link
+     * File#lastModified()} method to check if the cache item is expired. Sometimes in Android this
+     * value is rounded to the second, so using very small expiration times can result in a cache
+     * miss even if the item would be valid.
      *
      * @param key        The cache item key (must be not null)
      * @param expiration The validity of the item from its modification in milliseconds, or {@link
@@ -118,19 +128,14 @@ public class ModelDiskCache<V> extends SimpleDiskCache<V> {
      */
     @Nullable
     public V get(@NonNull String key, long expiration) {
-        File jsonFile = new File(mCacheLocation, key);
-        if (!jsonFile.exists()) {
+        final long timestamp = getEntryTimestamp(key);
+        if (timestamp == 0) { // missing entry
             return null;
         }
         final boolean noExpire = expiration == Long.MAX_VALUE;
-        if (noExpire || (jsonFile.lastModified() + expiration) > System.currentTimeMillis()) {
-            try { // the item is still valid, try parsing it
-                return mObjectMapper.readValue(jsonFile, mModelClass);
-            } catch (IOException e) { // something wrong happened
-                LogUtils.logException(TAG, "Exception when reading " + key, e);
-                jsonFile.delete(); // try to delete damaged file
-                return null;
-            }
+        if (noExpire || (timestamp + expiration) > System.currentTimeMillis()) {
+            // the item is still valid, try parsing it
+            return readModel(key);
         }
         return null;
     }
@@ -145,15 +150,19 @@ public class ModelDiskCache<V> extends SimpleDiskCache<V> {
     public boolean put(@NonNull String key, @NonNull V model) {
         Preconditions.checkNotNull(key);
         Preconditions.checkNotNull(model);
-        // don't care if the file already exist, it will be replaced
-        File jsonFile = new File(mCacheLocation, key);
+        File tempFile = null;
         try {
-            mObjectMapper.writeValue(jsonFile, model);
+            tempFile = createTempFile(key);
+            mObjectMapper.writeValue(tempFile, model);
         } catch (IOException e) {
             LogUtils.logException(TAG, "Exception when writing " + key, e);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
             return false;
         }
-        return true;
+        // don't care if the entry already exist, it will be replaced
+        return commitTempFile(tempFile, key);
     }
 
     /**
@@ -164,8 +173,20 @@ public class ModelDiskCache<V> extends SimpleDiskCache<V> {
      */
     public boolean remove(@NonNull String key) {
         Preconditions.checkNotNull(key);
-        File jsonFile = new File(mCacheLocation, key);
-        return jsonFile.delete();
+        return deleteEntry(key);
+    }
+
+    @Nullable
+    private V readModel(@NonNull String key) {
+        try {
+            final V model = mObjectMapper.readValue(getEntryFile(key), mModelClass);
+            onEntryRead(key);
+            return model;
+        } catch (IOException e) { // something wrong happened
+            LogUtils.logException(TAG, "Exception when reading " + key, e);
+            deleteEntry(key); // try to delete damaged file
+            return null;
+        }
     }
 
     @Override
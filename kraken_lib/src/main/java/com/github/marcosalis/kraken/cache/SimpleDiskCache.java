@@ -20,20 +20,37 @@ import android.content.Context;
 import android.os.Process;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
 
+import com.github.marcosalis.kraken.DroidConfig;
 import com.github.marcosalis.kraken.utils.DroidUtils;
 import com.github.marcosalis.kraken.utils.StorageUtils;
 import com.github.marcosalis.kraken.utils.StorageUtils.CacheLocation;
+import com.github.marcosalis.kraken.utils.android.LogUtils;
 import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
 import com.github.marcosalis.kraken.utils.concurrent.PriorityThreadFactory;
+import com.github.marcosalis.kraken.utils.http.HttpValidators;
 import com.google.common.annotations.Beta;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Striped;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -47,9 +64,24 @@ import javax.annotation.concurrent.ThreadSafe;
  * cache.
  *
  * <p> <strong>Purge policy:</strong><br> Purge elements with access date older than a set value
- * (recommended 2 days or less to avoid filling the device memory up). Files read for a cache hit
- * are modified in their last modified date to implement a basic LRU file cache and avoid deleting
- * recently used items.
+ * (recommended 2 days or less to avoid filling the device memory up). Indexed caches can also be
+ * bounded in size with {@link #setMaxBytes(long)}, evicting the least recently used entries: the
+ * access order of the entries is tracked by the index, and hit files are never modified.
+ *
+ * <p> <strong>Indexed engine:</strong><br> When created with {@link #FLAG_INDEXED}, the cache keeps
+ * a {@link DiskCacheIndex} of its entries, backed by a journal file, so that lookups, misses and
+ * purges are resolved in memory without any per-file stat syscall or directory scan. Subclasses
+ * must access their entries through the protected entry methods to keep the index consistent.
+ *
+ * <p> <strong>Revalidation:</strong><br> Indexed caches can store the HTTP validators of each
+ * entry (see {@link #setValidators(String, HttpValidators)}): when an expired entry is requested,
+ * the caller can send a conditional request and, if the content hasn't changed, just extend the
+ * entry expiration with {@link #revalidate(String, HttpValidators)}.
+ *
+ * <p> <strong>Sharded layout:</strong><br> When created with {@link #FLAG_SHARDED}, the entries are
+ * stored into two levels of sub-directories selected by the first characters of their key, so that
+ * directory lookups and listings stay fast with tens of thousands of entries. Existing entries of
+ * the flat layout are migrated in background, and are still found while the migration runs.
  *
  * <p> <b>Notes:</b><br> - {@link File#setLastModified(long)} doesn't work properly on all Android
  * devices, so the purge policy should not delete items with a strict policy.<br> - File I/O is not
@@ -64,6 +96,8 @@ import javax.annotation.concurrent.ThreadSafe;
 @ThreadSafe
 public class SimpleDiskCache<V> implements SecondLevelCache<String, V> {
 
+    private static final String TAG = SimpleDiskCache.class.getSimpleName();
+
     /**
      * Minimum expiration that can be set to a disk cache entry before it can get deleted (used to
      * speed up setting of last modification date by avoiding calling I/O write OS methods when
@@ -76,12 +110,62 @@ public class SimpleDiskCache<V> implements SecondLevelCache<String, V> {
      */
     public static final long DEFAULT_EXPIRE_IN_SEC = DroidUtils.DAY * 2;
 
+    /**
+     * Suffix of the temporary files that hold the cache entries while they are being written
+     */
+    protected static final String TEMP_FILE_SUFFIX = DiskCacheIndex.TEMP_FILE_SUFFIX;
+
+    /**
+     * Flag to enable the journaled {@link DiskCacheIndex} for a disk cache
+     */
+    public static final int FLAG_INDEXED = 1;
+    /**
+     * Flag to store the disk cache entries into a two-level sharded directory layout
+     */
+    public static final int FLAG_SHARDED = 1 << 1;
+
+    /* number of entry lock stripes, large enough to make contention between disk threads rare */
+    private static final int ENTRY_LOCK_STRIPES = 64;
+
+    /**
+     * Expired entries of an indexed cache that have HTTP validators are kept by the purges for
+     * this many times the expiration, so that they can still be revalidated with a conditional
+     * request instead of being downloaded again
+     */
+    public static final int VALIDATED_EXPIRATION_FACTOR = 2;
+
     protected static final ExecutorService PURGE_EXECUTOR = Executors
             .newSingleThreadExecutor(new PriorityThreadFactory(
                     "SimpleDiskCache purge executor thread", Process.THREAD_PRIORITY_BACKGROUND));
 
+    /* executor to walk the shards of a sharded cache in parallel when purging */
+    private static final ThreadPoolExecutor SHARD_WALK_EXECUTOR;
+
+    static {
+        final int walkers = Math.max(1, Math.min(DroidUtils.CPU_CORES, 4));
+        SHARD_WALK_EXECUTOR = new ThreadPoolExecutor(walkers, walkers, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new PriorityThreadFactory(
+                "SimpleDiskCache shard walk thread", Process.THREAD_PRIORITY_BACKGROUND));
+        // purges are rare, don't keep idle threads around
+        SHARD_WALK_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     @NonNull
     protected final File mCacheLocation;
+    @Nullable
+    protected final DiskCacheIndex mIndex;
+
+    /* per-key locks for the cache entries, see getEntryLock() */
+    private final Striped<ReadWriteLock> mEntryLocks = Striped.readWriteLock(ENTRY_LOCK_STRIPES);
+    /* held in shared mode by commits, in exclusive mode when the whole cache is cleaned */
+    private final ReadWriteLock mClearLock = new ReentrantReadWriteLock();
+
+    private volatile long mMaxBytes;
+    private final AtomicBoolean mTrimScheduled = new AtomicBoolean(false);
+
+    private final boolean mSharded;
+    /* true while the flat entries of a sharded cache are being moved into their shards */
+    private volatile boolean mMigrating;
 
     /**
      * Constructor for a disk cache that performs directory creation and initialization of the
@@ -98,6 +182,20 @@ public class SimpleDiskCache<V> implements SecondLevelCache<String, V> {
      */
     protected SimpleDiskCache(@NonNull Context context, @NonNull CacheLocation location,
                               @NonNull String subFolder, boolean allowLocationFallback) throws IOException {
+        this(context, location, subFolder, allowLocationFallback, 0);
+    }
+
+    /**
+     * Constructor for a disk cache that performs directory creation and initialization of the
+     * passed location, with the passed option flags.
+     *
+     * @param flags The disk cache options, a combination of the FLAG_* constants or 0
+     * @throws IOException if the cache cannot be created
+     * @see #SimpleDiskCache(Context, CacheLocation, String, boolean)
+     */
+    protected SimpleDiskCache(@NonNull Context context, @NonNull CacheLocation location,
+                              @NonNull String subFolder, boolean allowLocationFallback, int flags)
+            throws IOException {
         final File cacheRoot = StorageUtils.getAppCacheDir(context, location, true);
         if (cacheRoot != null) {
             mCacheLocation = new File(cacheRoot.getAbsolutePath() + File.separator + subFolder);
@@ -108,6 +206,57 @@ public class SimpleDiskCache<V> implements SecondLevelCache<String, V> {
         } else {
             throw new IOException("Disk cache location cannot be found");
         }
+        if ((flags & FLAG_INDEXED) != 0) {
+            mIndex = new DiskCacheIndex(mCacheLocation, PURGE_EXECUTOR);
+        } else {
+            mIndex = null;
+        }
+        mSharded = (flags & FLAG_SHARDED) != 0;
+        if (mSharded) {
+            scheduleShardMigration();
+        }
+    }
+
+    /**
+     * Returns whether this disk cache uses a {@link DiskCacheIndex}.
+     */
+    public final boolean isIndexed() {
+        return mIndex != null;
+    }
+
+    /**
+     * Returns whether this disk cache uses the sharded directory layout.
+     */
+    public final boolean isSharded() {
+        return mSharded;
+    }
+
+    /**
+     * Sets the maximum size of this disk cache. When a write pushes the cache over the budget, the
+     * least recently used entries are deleted in background until the cache fits again.
+     *
+     * @param maxBytes The maximum size in bytes of the cache entries, or 0 for no limit
+     * @throws IllegalStateException if the cache wasn't created with {@link #FLAG_INDEXED}
+     */
+    public final void setMaxBytes(@IntRange(from = 0) long maxBytes) {
+        Preconditions.checkArgument(maxBytes >= 0);
+        Preconditions.checkState(mIndex != null, "Size bounded cache must be indexed");
+        mMaxBytes = maxBytes;
+        if (maxBytes > 0) { // the index could still be loading, don't wait for it here
+            PURGE_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    scheduleTrimIfNeeded();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the maximum size of this disk cache in bytes, or 0 if there is no limit.
+     */
+    public final long getMaxBytes() {
+        return mMaxBytes;
     }
 
     @Override
@@ -187,28 +336,428 @@ public class SimpleDiskCache<V> implements SecondLevelCache<String, V> {
         }
     }
 
+    /**
+     * Creates a new temporary file in the cache directory where the entry for the passed key can be
+     * written before being committed with {@link #commitTempFile(File, String)}. Writing into a
+     * temporary file doesn't require any lock, and readers never see a partially written entry.
+     *
+     * @param key The cache entry key
+     * @return The created temporary file
+     * @throws IOException if the file couldn't be created
+     */
+    @NonNull
+    @NotForUIThread
+    protected final File createTempFile(@NonNull String key) throws IOException {
+        final String prefix = key.length() >= 3 ? key : "tmp" + key;
+        return File.createTempFile(prefix, TEMP_FILE_SUFFIX, mCacheLocation);
+    }
+
+    /**
+     * Atomically replaces the entry for the passed key with the content of a temporary file
+     * created with {@link #createTempFile(String)}. The temporary file is deleted on failure.
+     *
+     * @param tempFile The written temporary file
+     * @param key      The cache entry key
+     * @return true if the entry was successfully committed, false otherwise
+     */
+    @NotForUIThread
+    protected boolean commitTempFile(@NonNull File tempFile, @NonNull String key) {
+        return commit(tempFile, key, null, 0);
+    }
+
+    /**
+     * Commits a temporary file holding content derived from another entry (the source), like
+     * {@link #commitTempFile(File, String)}, unless the source entry has been replaced after the
+     * passed timestamp. The check and the commit are atomic, as the two entries must share the
+     * same lock (see {@link #getLockKey(String)}).
+     *
+     * @param tempFile        The written temporary file
+     * @param key             The cache entry key
+     * @param sourceKey       The key of the source entry
+     * @param sourceTimestamp The timestamp of the source entry the content was derived from, see
+     *                        {@link #getEntryTimestamp(String)}
+     * @return true if the entry was successfully committed, false otherwise
+     */
+    @NotForUIThread
+    protected final boolean commitDerivedTempFile(@NonNull File tempFile, @NonNull String key,
+                                                  @NonNull String sourceKey, long sourceTimestamp) {
+        Preconditions.checkArgument(getLockKey(key).equals(getLockKey(sourceKey)),
+                "Entries must share the same lock");
+        return commit(tempFile, key, sourceKey, sourceTimestamp);
+    }
+
+    @NotForUIThread
+    private boolean commit(@NonNull File tempFile, @NonNull String key,
+                           @Nullable String sourceKey, long sourceTimestamp) {
+        final long size = tempFile.length();
+        final boolean committed;
+        final Lock clearLock = mClearLock.readLock();
+        final Lock lock = getEntryLock(key).writeLock();
+        clearLock.lock(); // don't commit while the cache is being cleaned
+        lock.lock();
+        try {
+            if (sourceKey != null && getEntryTimestamp(sourceKey) != sourceTimestamp) {
+                committed = false; // the source entry has been replaced
+            } else {
+                final File entryFile = getEntryFile(key);
+                boolean renamed = tempFile.renameTo(entryFile);
+                if (!renamed && mSharded) { // the shard directory could be missing
+                    entryFile.getParentFile().mkdirs();
+                    renamed = tempFile.renameTo(entryFile);
+                }
+                committed = renamed;
+                if (committed && mIndex != null) {
+                    mIndex.recordWrite(key, size, System.currentTimeMillis());
+                }
+            }
+        } finally {
+            lock.unlock();
+            clearLock.unlock();
+        }
+        if (committed) {
+            scheduleTrimIfNeeded();
+            return true;
+        }
+        if (!tempFile.delete()) {
+            tempFile.deleteOnExit();
+        }
+        return false;
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache size is below the passed value. Only
+     * supported for indexed caches.
+     *
+     * @param maxBytes The maximum size in bytes of the cache
+     */
+    @NotForUIThread
+    @VisibleForTesting
+    protected final void trimToSize(@IntRange(from = 0) long maxBytes) {
+        Preconditions.checkState(mIndex != null, "Cache not indexed");
+        DiskCacheIndex.Entry eldest;
+        while (mIndex.size() > maxBytes && (eldest = mIndex.eldest()) != null) {
+            final Lock lock = getEntryLock(eldest.key).writeLock();
+            lock.lock(); // don't race with a commit of the same entry
+            try {
+                final File file = getEntryFile(eldest.key);
+                if (!file.delete() && file.exists() && DroidConfig.DEBUG) {
+                    Log.w(TAG, "Evicted entry not deleted: " + eldest.key);
+                }
+                // always remove from the index to make progress
+                mIndex.recordRemove(eldest.key);
+            } finally {
+                lock.unlock();
+            }
+            onEntryEvicted(eldest.key);
+        }
+    }
+
+    /**
+     * Called after an entry has been evicted by {@link #trimToSize(long)} or deleted by a purge,
+     * so that subclasses can delete the entries that depend on it. Does nothing by default.
+     *
+     * @param key The evicted entry key
+     */
+    @NotForUIThread
+    protected void onEntryEvicted(@NonNull String key) {
+    }
+
+    private void scheduleTrimIfNeeded() {
+        final long maxBytes = mMaxBytes;
+        if (maxBytes > 0 && mIndex != null && mIndex.size() > maxBytes && mTrimScheduled.compareAndSet(false, true)) {
+            PURGE_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // reset before trimming so that concurrent writes aren't missed
+                    mTrimScheduled.set(false);
+                    final long currentMaxBytes = mMaxBytes;
+                    if (currentMaxBytes > 0) {
+                        trimToSize(currentMaxBytes);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets the lock for the entry with the passed key. Subclasses must hold its read lock while
+     * reading an entry file, and the write lock to modify or delete it, so that operations on
+     * different keys can be executed in parallel.
+     *
+     * Locks are striped: different keys can share the same lock, so never acquire more than one
+     * entry lock at the same time. Entries whose keys are mapped to the same key by {@link
+     * #getLockKey(String)} always share the same lock.
+     */
+    @NonNull
+    protected final ReadWriteLock getEntryLock(@NonNull String key) {
+        return mEntryLocks.get(getLockKey(key));
+    }
+
+    /**
+     * Returns the key whose lock guards the entry with the passed key. Subclasses can override
+     * this so that related entries can be modified together under a single lock. The default
+     * implementation returns the passed key.
+     */
+    @NonNull
+    protected String getLockKey(@NonNull String key) {
+        return key;
+    }
+
+    /**
+     * Gets the file that holds the entry for the passed key.
+     */
+    @NonNull
+    protected final File getEntryFile(@NonNull String key) {
+        if (mSharded) {
+            final File shardedFile = getShardedFile(key);
+            if (mMigrating && !shardedFile.exists()) {
+                // the entry could still be in the flat layout
+                final File flatFile = new File(mCacheLocation, key);
+                if (flatFile.exists()) {
+                    return flatFile;
+                }
+            }
+            return shardedFile;
+        }
+        return new File(mCacheLocation, key);
+    }
+
+    /**
+     * Gets the file of an entry in the sharded layout, where the first two characters of the key
+     * (the hex digits of its hash, for the cache URL keys) select a two-level shard directory.
+     */
+    @NonNull
+    @VisibleForTesting
+    final File getShardedFile(@NonNull String key) {
+        final int hash = key.hashCode();
+        final char first = key.length() > 0 ? shardChar(key.charAt(0), hash) : '0';
+        final char second = key.length() > 1 ? shardChar(key.charAt(1), hash >>> 4) : '0';
+        return new File(mCacheLocation, new StringBuilder(key.length() + 4).append(first)
+                .append(File.separatorChar).append(second).append(File.separatorChar).append(key)
+                .toString());
+    }
+
+    private static char shardChar(char c, int fallbackHash) {
+        if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')) {
+            return c;
+        }
+        // not an hex digit, use the key hash to select a shard
+        return Character.forDigit(fallbackHash & 0xf, 16);
+    }
+
+    private void scheduleShardMigration() {
+        mMigrating = true;
+        PURGE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                migrateToShards();
+            }
+        });
+    }
+
+    /**
+     * Moves the entries of the flat layout into their shards.
+     */
+    @NotForUIThread
+    private void migrateToShards() {
+        int migrated = 0;
+        final File[] files = mCacheLocation.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String key = file.getName();
+                if (!file.isFile() || DiskCacheIndex.isJournalFile(file)
+                        || key.endsWith(TEMP_FILE_SUFFIX)) {
+                    continue;
+                }
+                final Lock lock = getEntryLock(key).writeLock();
+                lock.lock();
+                try {
+                    final File shardedFile = getShardedFile(key);
+                    if (shardedFile.exists()) { // a newer version was already written
+                        file.delete();
+                    } else {
+                        shardedFile.getParentFile().mkdirs();
+                        if (file.renameTo(shardedFile)) {
+                            migrated++;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        mMigrating = false;
+        if (DroidConfig.DEBUG && migrated > 0) {
+            Log.i(TAG, "Migrated " + migrated + " entries to shards in " + mCacheLocation.getName());
+        }
+    }
+
+    /**
+     * Returns whether the cache holds an entry for the passed key. When the cache is indexed, this
+     * doesn't access the file system.
+     */
+    @NotForUIThread
+    protected final boolean hasEntry(@NonNull String key) {
+        if (mIndex != null) {
+            return mIndex.contains(key);
+        }
+        return getEntryFile(key).exists();
+    }
+
+    /**
+     * Gets the time of the last write of the entry for the passed key.
+     *
+     * @return The entry timestamp in milliseconds, or 0 if the entry doesn't exist
+     */
+    @NotForUIThread
+    protected final long getEntryTimestamp(@NonNull String key) {
+        if (mIndex != null) {
+            final DiskCacheIndex.Entry entry = mIndex.get(key);
+            return entry != null ? entry.updated : 0;
+        }
+        return getEntryFile(key).lastModified();
+    }
+
+    /**
+     * Returns whether the entry for the passed key is stale: it's expired, but it has validators
+     * and can be revalidated with a conditional request (see {@link #revalidate(String,
+     * HttpValidators)}) rather than downloaded again. Only indexed caches hold stale entries.
+     *
+     * @param key          The cache entry key
+     * @param expirationMs The validity of the entries in milliseconds
+     */
+    @NotForUIThread
+    public final boolean isStale(@NonNull String key, long expirationMs) {
+        if (mIndex != null) {
+            final DiskCacheIndex.Entry entry = mIndex.get(key);
+            return entry != null && entry.validators != null
+                    && entry.isExpired(System.currentTimeMillis(), expirationMs);
+        }
+        return false;
+    }
+
+    /**
+     * Gets the HTTP validators of the content of the entry for the passed key, see {@link
+     * #setValidators(String, HttpValidators)}.
+     *
+     * @return The validators, or null if the entry doesn't exist, has no validators or the cache is
+     * not indexed
+     */
+    @Nullable
+    @NotForUIThread
+    public final HttpValidators getValidators(@NonNull String key) {
+        if (mIndex != null) {
+            final DiskCacheIndex.Entry entry = mIndex.get(key);
+            return entry != null ? entry.validators : null;
+        }
+        return null;
+    }
+
+    /**
+     * Stores the HTTP validators of the response the entry for the passed key was downloaded from,
+     * so that it can be revalidated with a conditional request when it expires. Validators are only
+     * stored by indexed caches, and discarded when the entry is replaced.
+     *
+     * @param key        The cache entry key
+     * @param validators The validators of the entry content
+     * @return true if the validators were stored, false otherwise
+     */
+    @NotForUIThread
+    public final boolean setValidators(@NonNull String key, @NonNull HttpValidators validators) {
+        if (mIndex != null) {
+            final DiskCacheIndex.Entry entry = mIndex.get(key);
+            return entry != null
+                    && mIndex.recordValidation(key, entry.updated, validators) != null;
+        }
+        return false;
+    }
+
+    /**
+     * Must be called when the server confirms (with a <code>304 Not Modified</code> response) that
+     * the content of an expired entry is still valid: the expiration of the entry restarts from
+     * now, as if it was just downloaded. Only supported by indexed caches.
+     *
+     * @param key        The cache entry key
+     * @param validators The (possibly updated) validators of the response, or null to keep the
+     *                   current ones
+     * @return true if the entry was revalidated, false if it doesn't exist anymore
+     */
+    @NotForUIThread
+    public final boolean revalidate(@NonNull String key, @Nullable HttpValidators validators) {
+        if (mIndex != null) {
+            final DiskCacheIndex.Entry entry = mIndex.get(key);
+            if (entry == null) {
+                return false;
+            }
+            return mIndex.recordValidation(key, System.currentTimeMillis(),
+                    validators != null ? validators : entry.validators) != null;
+        }
+        return false;
+    }
+
+    /**
+     * Must be called by subclasses after a cache hit for the passed key.
+     */
+    @NotForUIThread
+    protected final void onEntryRead(@NonNull String key) {
+        if (mIndex != null) {
+            mIndex.recordRead(key);
+        }
+    }
+
+    /**
+     * Deletes the entry for the passed key (if any).
+     *
+     * @return true if the entry doesn't exist anymore, false otherwise
+     */
+    @NotForUIThread
+    protected final boolean deleteEntry(@NonNull String key) {
+        final Lock lock = getEntryLock(key).writeLock();
+        lock.lock();
+        try {
+            final File file = getEntryFile(key);
+            final boolean deleted = file.delete() || !file.exists();
+            if (mIndex != null && deleted) {
+                mIndex.recordRemove(key);
+            }
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Delete all files in the given directory (ignoring sub-directories).<br> Do NOT call from the
      * UI thread.
      *
+     * No entry can be committed while the directory and the index are being cleaned.
+     *
      * @param dir The directory to clean up
      */
     @NotForUIThread
     @VisibleForTesting
     synchronized final boolean cleanCacheDir() {
-        boolean success = true;
-        if (mCacheLocation.exists()) {
-            final File[] files = mCacheLocation.listFiles();
-            if (files != null) {
-                // iterate over files in the directory
-                for (File f : files) {
-                    if (f.isFile()) { // ignore sub dirs
-                        success = success && f.delete();
+        final AtomicBoolean success = new AtomicBoolean(true);
+        final Lock clearLock = mClearLock.writeLock();
+        clearLock.lock(); // entries committed meanwhile would be left out of the index
+        try {
+            if (mCacheLocation.exists()) {
+                visitEntryFiles(new EntryFileVisitor() {
+                    @Override
+                    public void visit(@NonNull File file) {
+                        if (!file.delete()) {
+                            success.set(false);
+                        }
                     }
-                }
+                });
+            }
+            if (mIndex != null) {
+                mIndex.clear();
             }
+        } finally {
+            clearLock.unlock();
         }
-        return success;
+        return success.get();
     }
 
     /**
@@ -216,7 +765,8 @@ public class SimpleDiskCache<V> implements SecondLevelCache<String, V> {
      * sub-directories).
      *
      * Note: this operation is time-consuming and should be done from a dedicated thread, if
-     * possible when the application is not running.
+     * possible when the application is not running. Indexed entries that have validators are kept
+     * longer, see {@link #VALIDATED_EXPIRATION_FACTOR}.
      *
      * @param dir          The directory to clean
      * @param olderThanSec The max "age" from the current time for the file to be kept (in seconds)
@@ -226,11 +776,106 @@ public class SimpleDiskCache<V> implements SecondLevelCache<String, V> {
     synchronized final void cleanCacheDir(@IntRange(from = 0) long olderThanSec) {
         final long now = System.currentTimeMillis();
         final long expirationMs = olderThanSec * 1000;
+        if (mIndex != null) { // no need to list and stat the files
+            for (DiskCacheIndex.Entry entry : mIndex.snapshot()) {
+                if (isPurgeable(entry, now, expirationMs)
+                        && deleteIfPurgeable(entry.key, now, expirationMs)) {
+                    onEntryEvicted(entry.key);
+                }
+            }
+            return;
+        }
+        visitEntryFiles(new EntryFileVisitor() {
+            @Override
+            public void visit(@NonNull File file) {
+                if (deleteIfExpired(file, now, expirationMs)) {
+                    onEntryEvicted(file.getName());
+                }
+            }
+        });
+    }
+
+    private static boolean isPurgeable(@NonNull DiskCacheIndex.Entry entry, long now,
+                                       long expirationMs) {
+        final long entryExpirationMs = entry.validators != null
+                ? expirationMs * VALIDATED_EXPIRATION_FACTOR : expirationMs;
+        return entry.isExpired(now, entryExpirationMs);
+    }
+
+    /**
+     * Deletes an indexed entry found expired in a snapshot of the index, only if it's still expired
+     * under its lock: an entry rewritten in the meantime is fresh and must be kept.
+     *
+     * @return true if the entry was deleted, false otherwise
+     */
+    @NotForUIThread
+    private boolean deleteIfPurgeable(@NonNull String key, long now, long expirationMs) {
+        final Lock lock = getEntryLock(key).writeLock();
+        lock.lock();
+        try {
+            final DiskCacheIndex.Entry current = mIndex.get(key);
+            if (current == null || !isPurgeable(current, now, expirationMs)) {
+                return false; // already removed, or rewritten after the snapshot
+            }
+            final File file = getEntryFile(key);
+            final boolean deleted = file.delete() || !file.exists();
+            if (deleted) {
+                mIndex.recordRemove(key);
+            }
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* callback for visitEntryFiles(), can be called concurrently */
+    private interface EntryFileVisitor {
+        void visit(@NonNull File file);
+    }
+
+    /**
+     * Visits all the entry (and temporary) files of the cache, excluding the index journal. The
+     * shards of a sharded cache are walked in parallel.
+     */
+    @NotForUIThread
+    private void visitEntryFiles(@NonNull final EntryFileVisitor visitor) {
         final File[] files = mCacheLocation.listFiles();
-        if (files != null) {
-            for (File f : files) { // iterate over files
-                if (f.isFile()) { // ignore sub dirs
-                    deleteIfExpired(f, now, expirationMs);
+        if (files == null) {
+            return;
+        }
+        final List<Future<?>> shardWalks = new ArrayList<Future<?>>();
+        for (final File file : files) {
+            if (file.isFile()) {
+                if (!DiskCacheIndex.isJournalFile(file)) {
+                    visitor.visit(file);
+                }
+            } else if (mSharded && file.isDirectory()) {
+                shardWalks.add(SHARD_WALK_EXECUTOR.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        visitShard(file, visitor);
+                    }
+                }));
+            }
+        }
+        for (Future<?> shardWalk : shardWalks) {
+            try {
+                Futures.getUnchecked(shardWalk);
+            } catch (RuntimeException e) {
+                LogUtils.logException(TAG, "Exception when walking shard", e);
+            }
+        }
+    }
+
+    private static void visitShard(@NonNull File shard, @NonNull EntryFileVisitor visitor) {
+        final File[] subShards = shard.listFiles();
+        if (subShards != null) {
+            for (File subShard : subShards) {
+                final File[] files = subShard.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        visitor.visit(file);
+                    }
                 }
             }
         }
@@ -245,7 +890,10 @@ public class SimpleDiskCache<V> implements SecondLevelCache<String, V> {
      *
      * @param file The {@link File} to "touch" if necessary
      * @return true if the file has been "touched", false otherwise
+     * @deprecated Use an indexed cache (see {@link #FLAG_INDEXED}) and {@link
+     * #onEntryRead(String)}, which track the access order without modifying the files
      */
+    @Deprecated
     @NotForUIThread
     protected static synchronized final boolean touchFile(@NonNull File file) {
         final long now = System.currentTimeMillis();
@@ -27,6 +27,8 @@ import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
 import com.github.marcosalis.kraken.cache.proxies.ContentProxy;
 import com.google.common.annotations.Beta;
 
+import java.util.concurrent.Future;
+
 /**
  * Public interface to access a {@link Bitmap}s cache.
  *
@@ -38,6 +40,11 @@ import com.google.common.annotations.Beta;
 @Beta
 public interface BitmapCache extends ContentProxy {
 
+    /**
+     * Default maximum size, in bytes, of a downloaded bitmap.
+     */
+    public static final long DEFAULT_MAX_DOWNLOAD_BYTES = 8 * 1024 * 1024;
+
     /**
      * Callback interface to retrieve the result of a Bitmap loading from a {@link BitmapCache}.
      *
@@ -87,6 +94,27 @@ public interface BitmapCache extends ContentProxy {
         public void setPlaceholder(@Nullable Drawable drawable);
     }
 
+    /**
+     * Extension of {@link BitmapSetter} that can display a low resolution preview of the bitmap
+     * while the full one is being loaded. See {@link com.github.marcosalis.kraken.cache.keys.PreviewCacheUrlKey}.
+     *
+     * @since 2.0
+     */
+    @Beta
+    public interface PreviewBitmapSetter extends BitmapSetter {
+
+        /**
+         * Called when the preview of the bitmap has been retrieved. Implementations must ignore
+         * the preview if the full bitmap has already been set.
+         *
+         * The method can be executed in an internal pool thread, not in the caller thread.
+         *
+         * @param key     The {@link CacheUrlKey} of the preview bitmap
+         * @param preview The retrieved preview Bitmap
+         */
+        public void onPreviewRetrieved(@NonNull CacheUrlKey key, @NonNull Bitmap preview);
+    }
+
     /**
      * Simple {@link OnBitmapRetrievalListener} implementation to retrieve a successful retrieval of
      * a bitmap.
@@ -145,18 +173,29 @@ public interface BitmapCache extends ContentProxy {
      * @param policy   The {@link AccessPolicy} to use
      * @param listener {@link OnBitmapRetrievalListener} to get the bitmap if successfully
      *                 retrieved
+     * @return A {@link Future} that completes with the retrieved bitmap, including bitmaps that
+     * need to be downloaded, or with null if the retrieval failed
      * @throws IllegalArgumentException if policy is {@link AccessPolicy#PRE_FETCH}
      */
-    public void getBitmapAsync(@NonNull CacheUrlKey key, @NonNull AccessPolicy policy,
-                               @NonNull OnBitmapRetrievalListener listener);
+    @NonNull
+    public Future<Bitmap> getBitmapAsync(@NonNull CacheUrlKey key, @NonNull AccessPolicy policy,
+                                         @NonNull OnBitmapRetrievalListener listener);
 
     /**
      * Preloads a bitmap into the cache for future use. Does nothing if the bitmap is already in one
      * of the caches.
      *
+     * Prefetches are executed with a lower priority than the other requests, and they can be
+     * cancelled through the returned {@link Future}: the bitmap load is only stopped if no other
+     * request needs it. See {@link com.github.marcosalis.kraken.cache.bitmap.prefetch.BitmapRangePrefetcher}
+     * to prefetch the bitmaps of a list.
+     *
      * @param key The {@link CacheUrlKey} of the bitmap
+     * @return A {@link Future} that completes with the preloaded bitmap, or with null if the
+     * retrieval failed
      */
-    public void preloadBitmap(@NonNull CacheUrlKey key);
+    @NonNull
+    public Future<Bitmap> preloadBitmap(@NonNull CacheUrlKey key);
 
     /**
      * Asynchronously sets the retrieved bitmap into the passed image view.
@@ -185,6 +224,10 @@ public interface BitmapCache extends ContentProxy {
      *
      * Use {@link #setBitmapAsync(CacheUrlKey, ImageView)} if custom parameters are not needed.
      *
+     * If the key is a {@link com.github.marcosalis.kraken.cache.keys.PreviewCacheUrlKey} and the
+     * setter a {@link PreviewBitmapSetter}, the preview is loaded along with the full bitmap when
+     * this is not available in memory, and delivered first if it's retrieved earlier.
+     *
      * @param key         The {@link CacheUrlKey} of the bitmap
      * @param policy      The {@link AccessPolicy} to use
      * @param setter      A {@link BitmapSetter} for the image view
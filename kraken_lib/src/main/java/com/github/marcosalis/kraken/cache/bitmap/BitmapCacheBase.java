@@ -18,8 +18,8 @@ package com.github.marcosalis.kraken.cache.bitmap;
 
 import android.app.Application;
 import android.graphics.Bitmap;
-import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.github.marcosalis.kraken.DroidConfig;
@@ -27,12 +27,19 @@ import com.github.marcosalis.kraken.cache.ContentCache.OnEntryRemovedListener;
 import com.github.marcosalis.kraken.cache.bitmap.internal.BitmapLoader;
 import com.github.marcosalis.kraken.cache.bitmap.threading.BitmapThreadingPolicy;
 import com.github.marcosalis.kraken.cache.bitmap.threading.DefaultBitmapThreadingPolicy;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
 import com.github.marcosalis.kraken.cache.proxies.ContentProxyBase;
 import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
-import com.github.marcosalis.kraken.utils.concurrent.Memoizer;
+import com.github.marcosalis.kraken.utils.concurrent.CancellationAwareFutureTask;
+import com.github.marcosalis.kraken.utils.concurrent.IndexedPriorityThreadPoolExecutor;
+import com.github.marcosalis.kraken.utils.concurrent.ReorderableExecutor;
 import com.github.marcosalis.kraken.utils.concurrent.ReorderingThreadPoolExecutor;
 import com.google.common.annotations.Beta;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -58,7 +65,7 @@ import javax.annotation.concurrent.Immutable;
 @Beta
 @Immutable
 public abstract class BitmapCacheBase extends ContentProxyBase implements BitmapCache,
-        OnEntryRemovedListener<String, Bitmap> {
+        OnEntryRemovedListener<HashKey, Bitmap> {
 
     private static final String TAG = BitmapCacheBase.class.getSimpleName();
 
@@ -89,6 +96,25 @@ public abstract class BitmapCacheBase extends ContentProxyBase implements Bitmap
         return mThreadingPolicy.getBitmapDiskExecutor().submit(callable);
     }
 
+    /**
+     * Executes a callable task in the bitmap disk executor thread pool, running the passed
+     * callback if the task gets cancelled (see {@link #clearBitmapExecutors()}).
+     *
+     * @param key         The key associated to the submitted task
+     * @param callable    The {@link Callable} to execute
+     * @param onCancel    The (optional) {@link Runnable} to run on cancellation
+     * @param lowPriority true to execute the task after all the normal priority tasks, if the
+     *                    executor supports it (see {@link IndexedPriorityThreadPoolExecutor})
+     */
+    @NonNull
+    public static synchronized final Future<Bitmap> submitInExecutor(@NonNull HashKey key,
+                                                                     @NonNull Callable<Bitmap> callable,
+                                                                     @Nullable Runnable onCancel,
+                                                                     boolean lowPriority) {
+        return submitWithKey(mThreadingPolicy.getBitmapDiskExecutor(), key, null, callable,
+                onCancel, lowPriority);
+    }
+
     /**
      * Executes a runnable task in the bitmap downloader thread pool.
      *
@@ -110,22 +136,63 @@ public abstract class BitmapCacheBase extends ContentProxyBase implements Bitmap
     }
 
     /**
-     * Executes a callable task in the bitmap downloader thread pool.
+     * Executes a callable task in the bitmap downloader thread pool, running the passed callback
+     * if the task gets cancelled (see {@link #clearBitmapExecutors()}). The task is accounted to
+     * the passed host, whose concurrent downloads can be limited by the executor (see {@link
+     * IndexedPriorityThreadPoolExecutor#setMaxRunningPerGroup(int)}).
      *
-     * @param key      The key associated to the submitted task
-     * @param callable The {@link Callable} to execute
+     * @param key         The key associated to the submitted task
+     * @param host        The host the bitmap is downloaded from, or null if unknown
+     * @param callable    The {@link Callable} to execute
+     * @param onCancel    The (optional) {@link Runnable} to run on cancellation
+     * @param lowPriority true to execute the task after all the normal priority tasks, if the
+     *                    executor supports it (see {@link IndexedPriorityThreadPoolExecutor})
+     */
+    public static synchronized final Future<Bitmap> submitInDownloader(@NonNull HashKey key,
+                                                                       @Nullable String host,
+                                                                       @NonNull Callable<Bitmap> callable,
+                                                                       @Nullable Runnable onCancel,
+                                                                       boolean lowPriority) {
+        return submitWithKey(mThreadingPolicy.getBitmapDownloader(), key, host, callable,
+                onCancel, lowPriority);
+    }
+
+    /**
+     * Returns the statistics of the downloads of each host (queued and running downloads, average
+     * download time), or an empty map if the downloader doesn't track them.
      */
+    @NonNull
     @SuppressWarnings("unchecked")
-    public static synchronized final Future<Bitmap> submitInDownloader(@NonNull String key,
-                                                                       @NonNull Callable<Bitmap> callable) {
+    public static synchronized final Map<Object, IndexedPriorityThreadPoolExecutor.GroupStats> getDownloaderHostStats() {
         final ThreadPoolExecutor executor = mThreadingPolicy.getBitmapDownloader();
-        if (executor instanceof ReorderingThreadPoolExecutor) {
-            return ((ReorderingThreadPoolExecutor<String>) executor).submitWithKey(key, callable);
+        if (executor instanceof IndexedPriorityThreadPoolExecutor) {
+            return ((IndexedPriorityThreadPoolExecutor<HashKey>) executor).getGroupStats();
+        }
+        return Collections.emptyMap();
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private static Future<Bitmap> submitWithKey(@NonNull ThreadPoolExecutor executor,
+                                                @NonNull HashKey key,
+                                                @Nullable String group,
+                                                @NonNull Callable<Bitmap> callable,
+                                                @Nullable Runnable onCancel,
+                                                boolean lowPriority) {
+        if (executor instanceof IndexedPriorityThreadPoolExecutor) {
+            return ((IndexedPriorityThreadPoolExecutor<HashKey>) executor).submitWithKey(key, group,
+                    callable, onCancel, lowPriority ? IndexedPriorityThreadPoolExecutor.PRIORITY_LOW
+                            : IndexedPriorityThreadPoolExecutor.PRIORITY_NORMAL);
+        } else if (executor instanceof ReorderableExecutor) {
+            return ((ReorderableExecutor<HashKey>) executor).submitWithKey(key, callable, onCancel);
         } else {
             if (DroidConfig.DEBUG) {
-                Log.v(TAG, "Not using instance of ReorderingThreadPoolExecutor for downloader");
+                Log.v(TAG, "Not using instance of ReorderableExecutor for " + key);
             }
-            return executor.submit(callable);
+            final CancellationAwareFutureTask<Bitmap> task = new CancellationAwareFutureTask<Bitmap>(
+                    callable, onCancel);
+            executor.execute(task);
+            return task;
         }
     }
 
@@ -133,30 +200,63 @@ public abstract class BitmapCacheBase extends ContentProxyBase implements Bitmap
      * Attempts to prioritize a bitmap download by moving to the top of the executor queue the task
      * with the passed key, if it exists.
      *
-     * @param key The string key corresponding to the bitmap
+     * @param key The key corresponding to the bitmap
      */
     @NotForUIThread
     @SuppressWarnings("unchecked")
-    public static synchronized final void moveDownloadToFront(@NonNull String key) {
+    public static synchronized final void moveDownloadToFront(@NonNull HashKey key) {
         final ThreadPoolExecutor executor = mThreadingPolicy.getBitmapDownloader();
-        if (executor instanceof ReorderingThreadPoolExecutor) {
-            ((ReorderingThreadPoolExecutor<String>) executor).moveToFront(key);
+        if (executor instanceof ReorderableExecutor) {
+            ((ReorderableExecutor<HashKey>) executor).moveToFront(key);
         } else {
             if (DroidConfig.DEBUG) {
-                Log.v(TAG, "Not using instance of ReorderingThreadPoolExecutor for downloader");
+                Log.v(TAG, "Not using instance of ReorderableExecutor for downloader");
             }
         }
     }
 
     /**
-     * Remove all not-running tasks from all static bitmap executors.
+     * Deprioritizes a bitmap download by moving to the back of the executor queue the task with
+     * the passed key, if it exists.
+     *
+     * @param key The key corresponding to the bitmap
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized final void moveDownloadToBack(@NonNull HashKey key) {
+        final ThreadPoolExecutor executor = mThreadingPolicy.getBitmapDownloader();
+        if (executor instanceof ReorderableExecutor) {
+            ((ReorderableExecutor<HashKey>) executor).moveToBack(key);
+        }
+    }
+
+    /**
+     * Prioritizes the queued tasks of a bitmap load, both in the disk executor and in the
+     * downloader, by moving to the top of the executor queues the tasks with the passed key.
+     *
+     * @param key The key corresponding to the bitmap
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized final void moveLoadToFront(@NonNull HashKey key) {
+        final ThreadPoolExecutor diskExecutor = mThreadingPolicy.getBitmapDiskExecutor();
+        if (diskExecutor instanceof ReorderableExecutor) {
+            ((ReorderableExecutor<HashKey>) diskExecutor).moveToFront(key);
+        }
+        final ThreadPoolExecutor downloader = mThreadingPolicy.getBitmapDownloader();
+        if (downloader instanceof ReorderableExecutor) {
+            ((ReorderableExecutor<HashKey>) downloader).moveToFront(key);
+        }
+    }
+
+    /**
+     * Remove all not-running tasks from all static bitmap executors. The removed tasks are
+     * cancelled, so that the futures waiting for them complete.
      */
     @NotForUIThread
     public static synchronized final void clearBitmapExecutors() {
         final ThreadPoolExecutor diskExecutor = mThreadingPolicy.getBitmapDiskExecutor();
         final ThreadPoolExecutor bitmapDownloader = mThreadingPolicy.getBitmapDownloader();
-        diskExecutor.getQueue().clear();
-        bitmapDownloader.getQueue().clear();
+        cancelQueuedTasks(diskExecutor);
+        cancelQueuedTasks(bitmapDownloader);
         if (bitmapDownloader instanceof ReorderingThreadPoolExecutor) {
             ((ReorderingThreadPoolExecutor<?>) bitmapDownloader).clearKeysMap();
         }
@@ -171,31 +271,14 @@ public abstract class BitmapCacheBase extends ContentProxyBase implements Bitmap
         }
     }
 
-    /**
-     * {@link Memoizer} used for loading Bitmaps from the cache.
-     */
-    private final Memoizer<String, Bitmap> mBitmapMemoizer;
-
-    protected BitmapCacheBase() {
-        final int concurrencyLevel = mThreadingPolicy.getBitmapDownloader().getCorePoolSize();
-        mBitmapMemoizer = new Memoizer<String, Bitmap>(concurrencyLevel);
-    }
-
-    @Override
-    public void onEntryRemoved(boolean evicted, String key, Bitmap value) {
-        // remove evicted bitmaps from the downloads memoizer to allow GC
-        mBitmapMemoizer.remove(key);
-    }
-
-    @NonNull
-    protected final Memoizer<String, Bitmap> getMemoizer() {
-        return mBitmapMemoizer;
-    }
-
-    @Override
-    @CallSuper
-    public void clearMemoryCache() {
-        mBitmapMemoizer.clear();
+    private static void cancelQueuedTasks(@NonNull ThreadPoolExecutor executor) {
+        final List<Runnable> drained = new ArrayList<Runnable>();
+        executor.getQueue().drainTo(drained);
+        for (Runnable runnable : drained) {
+            if (runnable instanceof Future) {
+                ((Future<?>) runnable).cancel(false);
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -21,16 +21,21 @@ import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.github.marcosalis.kraken.cache.DiskCacheIndex;
 import com.github.marcosalis.kraken.cache.EmptyMemoryCache;
 import com.github.marcosalis.kraken.cache.SecondLevelCache.ClearMode;
 import com.github.marcosalis.kraken.cache.SimpleDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.disk.BitmapDiskCache;
+import com.github.marcosalis.kraken.cache.bitmap.disk.PackBitmapDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.disk.SimpleBitmapDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.internal.BitmapCacheFactory;
 import com.github.marcosalis.kraken.cache.bitmap.internal.DefaultBitmapDecoder;
 import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapLruCache;
 import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapMemoryCache;
+import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapPool;
+import com.github.marcosalis.kraken.cache.bitmap.memory.WeakBitmapCache;
 import com.github.marcosalis.kraken.cache.bitmap.threading.BitmapThreadingPolicy;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
 import com.github.marcosalis.kraken.utils.DroidUtils;
 import com.github.marcosalis.kraken.utils.http.DefaultHttpRequestsManager;
 import com.google.api.client.http.HttpRequestFactory;
@@ -62,8 +67,11 @@ import javax.annotation.concurrent.NotThreadSafe;
  * (recommended) threading policy, that sizes executors depending on the number of device CPU cores,
  * can be overridden by calling <code>{@link BitmapCacheBase#setThreadingPolicy(BitmapThreadingPolicy)}</code>
  *
- * <p> <b>TODO list:</b> <ul> <li>Save into caches a resampled/resized version of a Bitmap</li>
- * <li>Allow selection and use of other disk/memory cache policies (LFU?)</li> <li>Effective
+ * <p> Bitmaps can be decoded into a down-sampled version by requesting them with a {@link
+ * com.github.marcosalis.kraken.cache.keys.SizedCacheUrlKey} or through {@link
+ * BitmapSetterBuilder#targetSize(int, int)}.
+ *
+ * <p> <b>TODO list:</b> <ul> <li>Allow selection and use of other disk/memory cache policies (LFU?)</li> <li>Effective
  * automatic disk cache purge policy implementation</li> <li>Allow custom pre/post processing of the
  * downloaded bitmap</li> </ul>
  *
@@ -81,16 +89,24 @@ public class BitmapCacheBuilder {
     // first level cache config
     boolean memoryCacheEnabled = true;
     int memoryCacheMaxBytes;
+    boolean memoryCacheWeakTier;
 
     // disk cache config
     boolean diskCacheEnabled = true;
     String diskCacheDirectory;
     long purgeableAfterSeconds;
+    int diskCacheFlags;
+    long diskCacheMaxBytes;
+    boolean diskCachePacked;
+    int diskCacheRawPixelsMaxBytes;
 
     // other config
     String cacheLogName = "BitmapCache";
     HttpRequestFactory requestFactory;
     BitmapDecoder bitmapDecoder;
+    BitmapPool bitmapPool;
+    long maxDownloadBytes = BitmapCache.DEFAULT_MAX_DOWNLOAD_BYTES;
+    BitmapCache variantSource;
 
     public BitmapCacheBuilder(@NonNull Context context) {
         this.context = context;
@@ -139,6 +155,43 @@ public class BitmapCacheBuilder {
         return this;
     }
 
+    /**
+     * Enables a second tier for the memory cache that holds the evicted bitmaps under weak
+     * references (see {@link WeakBitmapCache}), so that a bitmap that is still referenced after
+     * being evicted (for example, because it's still displayed) can be retrieved again without a
+     * disk decoding. The second tier doesn't count towards the memory cache size limit.
+     *
+     * Only effective when the memory cache is enabled. When a {@link #bitmapPool(BitmapPool)} is
+     * set, only the evicted bitmaps that are not pooled are kept in the second tier.
+     *
+     * @return This builder
+     */
+    @NonNull
+    public BitmapCacheBuilder enableWeakMemoryTier() {
+        memoryCacheWeakTier = true;
+        return this;
+    }
+
+    /**
+     * Sets another bitmap cache, built with this builder class, that holds larger variants of the
+     * same images (for example, a grid thumbnails cache and a full screen images cache). When a
+     * bitmap is not in this cache, it's derived from the larger variant in the source cache memory
+     * (scaled down to the requested target size, if any) or disk cache before being downloaded,
+     * and put into this cache memory.
+     *
+     * The source cache bitmaps must be stored with the same key hash, so that a {@link
+     * com.github.marcosalis.kraken.cache.keys.SizedCacheUrlKey} for this cache matches the plain
+     * key of the source one.
+     *
+     * @param source The {@link BitmapCache} that holds the larger variants
+     * @return This builder
+     */
+    @NonNull
+    public BitmapCacheBuilder deriveVariantsFrom(@NonNull BitmapCache source) {
+        variantSource = Preconditions.checkNotNull(source);
+        return this;
+    }
+
     @NonNull
     public BitmapCacheBuilder disableDiskCache() {
         diskCacheEnabled = false;
@@ -182,6 +235,99 @@ public class BitmapCacheBuilder {
         return this;
     }
 
+    /**
+     * Enables the journaled {@link DiskCacheIndex} for the disk cache, so that disk cache lookups
+     * and purges don't need to access the file system for each entry. The index journal is stored
+     * in the disk cache directory.
+     *
+     * Calling this method automatically enables the disk cache.
+     *
+     * @return This builder
+     */
+    @NonNull
+    public BitmapCacheBuilder diskCacheIndexed() {
+        diskCacheEnabled = true;
+        diskCacheFlags |= SimpleDiskCache.FLAG_INDEXED;
+        return this;
+    }
+
+    /**
+     * Enables the sharded directory layout for the disk cache, recommended for caches holding a
+     * large number of bitmaps. Bitmaps already stored with the flat layout are migrated in
+     * background. See {@link SimpleDiskCache#FLAG_SHARDED}.
+     *
+     * Calling this method automatically enables the disk cache.
+     *
+     * @return This builder
+     */
+    @NonNull
+    public BitmapCacheBuilder diskCacheSharded() {
+        diskCacheEnabled = true;
+        diskCacheFlags |= SimpleDiskCache.FLAG_SHARDED;
+        return this;
+    }
+
+    /**
+     * Uses a {@link PackBitmapDiskCache} as disk cache, which appends the bitmaps to a few segment
+     * files instead of storing each of them in its own file. Recommended for caches of small
+     * thumbnails only.
+     *
+     * The options of the file-per-entry cache ({@link #diskCacheIndexed()}, {@link
+     * #diskCacheSharded()}, {@link #diskCacheMaxBytes(long)} and {@link #diskCacheRawPixels(int)})
+     * are ignored by the pack cache.
+     *
+     * Calling this method automatically enables the disk cache.
+     *
+     * @return This builder
+     */
+    @NonNull
+    public BitmapCacheBuilder diskCachePacked() {
+        diskCacheEnabled = true;
+        diskCachePacked = true;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of the disk cache in bytes. The least recently used bitmaps are deleted
+     * in background when the cache grows over this size. This is independent from the items
+     * expiration set with {@link #diskCachePurgeableAfter(long)}.
+     *
+     * Calling this method automatically enables the disk cache and its index, see {@link
+     * #diskCacheIndexed()}.
+     *
+     * @param maxBytes The maximum disk cache size in bytes
+     * @return This builder
+     */
+    @NonNull
+    public BitmapCacheBuilder diskCacheMaxBytes(@IntRange(from = 1) long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0);
+        diskCacheIndexed();
+        diskCacheMaxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Enables the raw pixels entries of the disk cache for the bitmaps whose decoded pixels size is
+     * not bigger than the passed value: they are reloaded through a memory mapped copy of their
+     * pixels instead of being decoded again. See {@link SimpleBitmapDiskCache#setRawPixelsMaxBytes(int)}.
+     *
+     * Recommended for caches of small thumbnails only, as raw entries take much more disk space
+     * than the compressed ones. Ignored by the pack cache ({@link #diskCachePacked()}).
+     *
+     * Calling this method automatically enables the disk cache.
+     *
+     * @param maxBytes The maximum size in bytes of the decoded pixels of a bitmap (for example,
+     *                 {@code BitmapUtils.getSize(200, 200)})
+     * @return This builder
+     */
+    @NonNull
+    public BitmapCacheBuilder diskCacheRawPixels(@IntRange(from = 1) int maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0);
+        diskCacheEnabled = true;
+        diskCacheRawPixelsMaxBytes = maxBytes;
+        return this;
+    }
+
     /**
      * Sets a custom {@link HttpRequestFactory} for downloading the bitmaps.
      *
@@ -196,6 +342,22 @@ public class BitmapCacheBuilder {
         return this;
     }
 
+    /**
+     * Sets the maximum size of a downloaded bitmap. Downloads whose content is larger than this
+     * are aborted, to avoid that an unexpectedly huge response fills the memory or the disk.
+     *
+     * Defaults to {@link BitmapCache#DEFAULT_MAX_DOWNLOAD_BYTES} if not set.
+     *
+     * @param maxBytes The maximum download size in bytes
+     * @return This builder
+     */
+    @NonNull
+    public BitmapCacheBuilder maxDownloadBytes(@IntRange(from = 1) long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0);
+        maxDownloadBytes = maxBytes;
+        return this;
+    }
+
     /**
      * Sets a custom {@link BitmapDecoder} for the bitmap cache.
      *
@@ -207,6 +369,25 @@ public class BitmapCacheBuilder {
         return this;
     }
 
+    /**
+     * Sets a {@link BitmapPool} that receives the bitmaps evicted from the memory cache, so that
+     * they can be reused for new decodings. The same pool can be shared by multiple caches.
+     *
+     * If no custom decoder is set with {@link #bitmapDecoder(BitmapDecoder)}, a {@link
+     * DefaultBitmapDecoder} that reuses the pooled bitmaps is used.
+     *
+     * <b>Warning:</b> only set a pool when the cache bitmaps are displayed exclusively through the
+     * cache bitmap setters, see {@link BitmapPool}.
+     *
+     * @param pool The bitmap pool
+     * @return This builder
+     */
+    @NonNull
+    public BitmapCacheBuilder bitmapPool(@NonNull BitmapPool pool) {
+        bitmapPool = pool;
+        return this;
+    }
+
     /**
      * Sets an optional cache logging name. Only useful for debugging and cache statistics.
      *
@@ -233,10 +414,11 @@ public class BitmapCacheBuilder {
         setConfigDefaults();
 
         final BitmapDecoder decoder = getBitmapDecoder();
-        final BitmapMemoryCache<String> memoryCache = buildMemoryCache();
+        final BitmapMemoryCache<HashKey> memoryCache = buildMemoryCache();
         final BitmapDiskCache diskCache = buildDiskCache(decoder);
         final HttpRequestFactory factory = getRequestFactory();
-        return BitmapCacheFactory.buildDefaultBitmapCache(memoryCache, diskCache, factory, decoder);
+        return BitmapCacheFactory.buildDefaultBitmapCache(memoryCache, diskCache, factory, decoder,
+                bitmapPool, maxDownloadBytes, variantSource);
     }
 
     private void checkMandatoryValuesConsistency() {
@@ -259,9 +441,11 @@ public class BitmapCacheBuilder {
     }
 
     @NonNull
-    private BitmapMemoryCache<String> buildMemoryCache() {
+    private BitmapMemoryCache<HashKey> buildMemoryCache() {
         if (memoryCacheEnabled) {
-            return new BitmapLruCache<String>(memoryCacheMaxBytes, cacheLogName);
+            final WeakBitmapCache<HashKey> secondTier = memoryCacheWeakTier
+                    ? new WeakBitmapCache<HashKey>() : null;
+            return new BitmapLruCache<HashKey>(memoryCacheMaxBytes, cacheLogName, secondTier);
         } else {
             return new EmptyBitmapMemoryCache(cacheLogName);
         }
@@ -269,9 +453,19 @@ public class BitmapCacheBuilder {
 
     @Nullable
     private BitmapDiskCache buildDiskCache(@NonNull BitmapDecoder decoder) throws IOException {
-        if (diskCacheEnabled) {
-            return new SimpleBitmapDiskCache(context, diskCacheDirectory, decoder,
+        if (diskCacheEnabled && diskCachePacked) {
+            return new PackBitmapDiskCache(context, diskCacheDirectory, decoder,
                     purgeableAfterSeconds);
+        } else if (diskCacheEnabled) {
+            final SimpleBitmapDiskCache diskCache = new SimpleBitmapDiskCache(context,
+                    diskCacheDirectory, decoder, purgeableAfterSeconds, diskCacheFlags);
+            if (diskCacheMaxBytes > 0) {
+                diskCache.setMaxBytes(diskCacheMaxBytes);
+            }
+            if (diskCacheRawPixelsMaxBytes > 0) {
+                diskCache.setRawPixelsMaxBytes(diskCacheRawPixelsMaxBytes);
+            }
+            return diskCache;
         }
         return null;
     }
@@ -289,6 +483,8 @@ public class BitmapCacheBuilder {
     private BitmapDecoder getBitmapDecoder() {
         if (bitmapDecoder != null) {
             return bitmapDecoder;
+        } else if (bitmapPool != null) {
+            return new DefaultBitmapDecoder(bitmapPool);
         } else {
             return DEFAULT_DECODER;
         }
@@ -297,8 +493,8 @@ public class BitmapCacheBuilder {
     /**
      * {@link EmptyMemoryCache} implementation for bitmap memory caches.
      */
-    private static class EmptyBitmapMemoryCache extends EmptyMemoryCache<String, Bitmap> implements
-            BitmapMemoryCache<String> {
+    private static class EmptyBitmapMemoryCache extends EmptyMemoryCache<HashKey, Bitmap> implements
+            BitmapMemoryCache<HashKey> {
         public EmptyBitmapMemoryCache(String cacheLogName) {
             super(cacheLogName);
         }
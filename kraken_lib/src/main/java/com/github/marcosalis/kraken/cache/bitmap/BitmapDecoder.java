@@ -17,6 +17,7 @@ package com.github.marcosalis.kraken.cache.bitmap;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -33,7 +34,8 @@ import java.io.InputStream;
  * concurrent decodings if necessary.
  *
  * The optional passed {@link BitmapFactory.Options} instance can also be used to impose size limits
- * to the decoded bitmaps or decode a scaled version of the bitmap.
+ * to the decoded bitmaps or decode a scaled version of the bitmap. The {@code decodeSampled()}
+ * methods take care of decoding a down-sampled version of the bitmap for a given target size.
  *
  * All implementations must be thread-safe.
  *
@@ -73,4 +75,30 @@ public interface BitmapDecoder {
     @Nullable
     public Bitmap decode(@NonNull String pathName, @Nullable BitmapFactory.Options options);
 
+    /**
+     * Decodes a down-sampled Bitmap from the passed byte array: the image bounds are probed first,
+     * and the sample size is then calculated to get as close as possible to the requested size.
+     *
+     * @param data      The byte array containing the bitmap to decode
+     * @param reqWidth  The target width, or 0 to decode the bitmap at its full size
+     * @param reqHeight The target height, or 0 to decode the bitmap at its full size
+     * @return The decoded Bitmap or null if there was an error
+     */
+    @Nullable
+    public Bitmap decodeSampled(@NonNull byte[] data, @IntRange(from = 0) int reqWidth,
+                                @IntRange(from = 0) int reqHeight);
+
+    /**
+     * Decodes a down-sampled Bitmap from the passed file path. See {@link #decodeSampled(byte[],
+     * int, int)}.
+     *
+     * @param pathName  Complete path name for the file to be decoded
+     * @param reqWidth  The target width, or 0 to decode the bitmap at its full size
+     * @param reqHeight The target height, or 0 to decode the bitmap at its full size
+     * @return The decoded Bitmap or null if there was an error
+     */
+    @Nullable
+    public Bitmap decodeSampled(@NonNull String pathName, @IntRange(from = 0) int reqWidth,
+                                @IntRange(from = 0) int reqHeight);
+
 }
\ No newline at end of file
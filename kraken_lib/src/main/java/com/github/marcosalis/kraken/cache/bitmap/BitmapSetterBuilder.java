@@ -16,6 +16,7 @@
 package com.github.marcosalis.kraken.cache.bitmap;
 
 import android.graphics.drawable.Drawable;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.view.View;
@@ -27,7 +28,9 @@ import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnBitmapSetListener
 import com.github.marcosalis.kraken.cache.bitmap.internal.BitmapAnimatedAsyncSetter;
 import com.github.marcosalis.kraken.cache.bitmap.internal.BitmapAsyncSetter;
 import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.PreviewCacheUrlKey;
 import com.github.marcosalis.kraken.cache.keys.SimpleCacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.SizedCacheUrlKey;
 import com.google.api.client.util.Preconditions;
 import com.google.common.annotations.Beta;
 
@@ -57,6 +60,7 @@ import javax.annotation.concurrent.NotThreadSafe;
  * builder to start the asynchronous request: <code><pre>
  * builder.setAsync("http://www.example.com/image.jpg")
  * 	.placeholder(placeholderDrawable)
+ * 	.preview("http://www.example.com/image_tiny.jpg")
  * 	.policy(AccessPolicy.NORMAL)
  * 	.animate(AnimationMode.NOT_IN_MEMORY)
  * 	.listener(new OnBitmapSetListener() {
@@ -81,6 +85,9 @@ public final class BitmapSetterBuilder {
     private HashMap<String, CacheUrlKey> mKeysCache;
 
     private CacheUrlKey mKey;
+    private int mTargetWidth;
+    private int mTargetHeight;
+    private CacheUrlKey mPreviewKey;
     private AccessPolicy mPolicy = AccessPolicy.NORMAL;
     private AnimationMode mAnimationMode = AnimationMode.NEVER;
     private Drawable mPlaceholder;
@@ -150,6 +157,51 @@ public final class BitmapSetterBuilder {
         return this;
     }
 
+    /**
+     * Sets the target size of the bitmap, usually the size of the view that displays it. When set,
+     * the bitmap is decoded into a down-sampled version as close as possible to the target size to
+     * reduce memory consumption and decoding time. See {@link SizedCacheUrlKey}.
+     *
+     * @param width  The target width in pixels
+     * @param height The target height in pixels
+     * @return This builder for call chaining
+     */
+    @NonNull
+    public BitmapSetterBuilder targetSize(@IntRange(from = 1) int width,
+                                          @IntRange(from = 1) int height) {
+        Preconditions.checkArgument(width > 0 && height > 0);
+        mTargetWidth = width;
+        mTargetHeight = height;
+        return this;
+    }
+
+    /**
+     * Sets the URL of a low resolution preview of the bitmap (for example, a tiny thumbnail of the
+     * same image). When the bitmap is not in the memory cache, the preview is loaded along with it
+     * and set into the view until the full bitmap is available. See {@link PreviewCacheUrlKey}.
+     *
+     * @param url The URL string of the preview
+     * @return This builder for call chaining
+     */
+    @NonNull
+    public BitmapSetterBuilder preview(@NonNull String url) {
+        mPreviewKey = getKeyFromCacheOrCreate(url);
+        return this;
+    }
+
+    /**
+     * Sets the {@link CacheUrlKey} of a low resolution preview of the bitmap.
+     *
+     * @param key The {@link CacheUrlKey} of the preview
+     * @return This builder for call chaining
+     * @see #preview(String)
+     */
+    @NonNull
+    public BitmapSetterBuilder preview(@NonNull CacheUrlKey key) {
+        mPreviewKey = key;
+        return this;
+    }
+
     /**
      * Sets a temporary placeholder to be set into the view when the requested bitmap is not in the
      * memory cache.
@@ -214,11 +266,12 @@ public final class BitmapSetterBuilder {
     public void into(@NonNull ImageView view) {
         checkParameters();
 
+        final CacheUrlKey key = getRequestKey();
         // build setter
-        final BitmapSetter setter = getBitmapSetter(view);
+        final BitmapSetter setter = getBitmapSetter(key, view);
 
         // start the asynchronous retrieval
-        mCache.setBitmapAsync(mKey, mPolicy, setter, mPlaceholder);
+        mCache.setBitmapAsync(key, mPolicy, setter, mPlaceholder);
         reset();
     }
 
@@ -236,6 +289,9 @@ public final class BitmapSetterBuilder {
      */
     public void reset() {
         mKey = null;
+        mTargetWidth = 0;
+        mTargetHeight = 0;
+        mPreviewKey = null;
         mPolicy = AccessPolicy.NORMAL;
         mAnimationMode = AnimationMode.NEVER;
         mPlaceholder = null;
@@ -259,11 +315,23 @@ public final class BitmapSetterBuilder {
     }
 
     @NonNull
-    private BitmapSetter getBitmapSetter(@NonNull ImageView view) {
+    private CacheUrlKey getRequestKey() {
+        CacheUrlKey key = mKey;
+        if (mTargetWidth > 0 && mTargetHeight > 0) {
+            key = new SizedCacheUrlKey(key, mTargetWidth, mTargetHeight);
+        }
+        if (mPreviewKey != null) {
+            key = new PreviewCacheUrlKey(key, mPreviewKey);
+        }
+        return key;
+    }
+
+    @NonNull
+    private BitmapSetter getBitmapSetter(@NonNull CacheUrlKey key, @NonNull ImageView view) {
         if (mAnimationMode == AnimationMode.NEVER) {
-            return new BitmapAsyncSetter(mKey, view, mListener);
+            return new BitmapAsyncSetter(key, view, mListener);
         } else {
-            return new BitmapAnimatedAsyncSetter(mKey, view, mAnimationMode, mListener, -1);
+            return new BitmapAnimatedAsyncSetter(key, view, mAnimationMode, mListener, -1);
         }
     }
 
@@ -16,6 +16,7 @@
 package com.github.marcosalis.kraken.cache.bitmap.disk;
 
 import android.graphics.Bitmap;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -23,6 +24,9 @@ import com.github.marcosalis.kraken.cache.SecondLevelCache;
 import com.github.marcosalis.kraken.utils.DroidUtils;
 import com.google.common.annotations.Beta;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * Public interface for a bitmap disk cache. Include methods to retrieve, store and remove bitmaps
  * from the cache.
@@ -49,6 +53,19 @@ public interface BitmapDiskCache extends SecondLevelCache<String, Bitmap> {
     @Nullable
     public Bitmap get(@NonNull String key);
 
+    /**
+     * Gets a down-sampled {@link Bitmap} from the disk cache, decoding it as close as possible to
+     * the requested size.
+     *
+     * @param key       The cache item key
+     * @param reqWidth  The target width, or 0 to decode the bitmap at its full size
+     * @param reqHeight The target height, or 0 to decode the bitmap at its full size
+     * @return The cached bitmap, null if not present or an error occurred
+     */
+    @Nullable
+    public Bitmap get(@NonNull String key, @IntRange(from = 0) int reqWidth,
+                      @IntRange(from = 0) int reqHeight);
+
     /**
      * Puts a byte array representing a bitmap into the disk cache.
      *
@@ -62,6 +79,20 @@ public interface BitmapDiskCache extends SecondLevelCache<String, Bitmap> {
      */
     public boolean put(@NonNull String key, @NonNull byte[] image);
 
+    /**
+     * Puts the content of a stream representing a bitmap into the disk cache while it's being read,
+     * without buffering it in memory. Implementations must ensure that a partially written entry
+     * is never visible to readers.
+     *
+     * @param key    The cache item key
+     * @param stream The stream of the encoded image (not closed by this method)
+     * @return true if successful, false if the entry couldn't be created: the stream is not consumed
+     * in this case
+     * @throws IOException if an error occurred while reading the stream or writing the entry, or
+     *                     if the entry couldn't be committed after consuming the stream
+     */
+    public boolean put(@NonNull String key, @NonNull InputStream stream) throws IOException;
+
     /**
      * Compresses a {@link Bitmap} and puts it into the disk cache.
      *
@@ -0,0 +1,866 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.disk;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.os.Process;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.github.marcosalis.kraken.DroidConfig;
+import com.github.marcosalis.kraken.cache.SimpleDiskCache;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapDecoder;
+import com.github.marcosalis.kraken.utils.StorageUtils;
+import com.github.marcosalis.kraken.utils.StorageUtils.CacheLocation;
+import com.github.marcosalis.kraken.utils.android.LogUtils;
+import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
+import com.github.marcosalis.kraken.utils.concurrent.PriorityThreadFactory;
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link BitmapDiskCache} implementation that appends the encoded bitmaps to a small number of
+ * segment ("pack") files instead of creating a file for each entry, which wastes file system blocks
+ * and inode operations for small thumbnails.
+ *
+ * Each record is made of a header (magic, key, timestamp and data length) followed by the encoded
+ * image; removals are appended as tombstone records. An in-memory offset index, rebuilt at startup
+ * by scanning the segments, maps each key to its data, which is read with positional {@link
+ * FileChannel} reads. Space taken by removed, replaced and expired entries is reclaimed in
+ * background by compacting the old segments when they're mostly garbage.
+ *
+ * Only use this cache for small bitmaps: writes are serialized, and entries are read in memory
+ * before being decoded.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public class PackBitmapDiskCache implements BitmapDiskCache {
+
+    private static final String TAG = PackBitmapDiskCache.class.getSimpleName();
+
+    private static final String PATH = "bitmap_pack";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".pack";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    @VisibleForTesting
+    static final int RECORD_MAGIC = 0x6b726b31;
+    private static final int TOMBSTONE = -1;
+    /* magic, key length, timestamp and data length */
+    private static final int HEADER_FIXED_BYTES = 4 + 2 + 8 + 4;
+
+    /**
+     * Default maximum size of a segment file in bytes
+     */
+    public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+    /* minimum ratio of garbage in the old segments to trigger a compaction */
+    private static final float COMPACT_GARBAGE_RATIO = 0.5f;
+
+    private static final CompressFormat DEFAULT_COMPRESS_FORMAT = CompressFormat.JPEG;
+    private static final int DEFAULT_COMPRESS_QUALITY = 85;
+
+    private static final ExecutorService PACK_EXECUTOR = Executors
+            .newSingleThreadExecutor(new PriorityThreadFactory(
+                    "PackBitmapDiskCache executor thread", Process.THREAD_PRIORITY_BACKGROUND));
+
+    /**
+     * A segment file, appended to only when it's the active (last) segment.
+     */
+    private static final class Segment {
+        final int id;
+        final File file;
+        final RandomAccessFile randomAccessFile;
+        final FileChannel channel;
+        @GuardedBy("mAppendLock")
+        long size;
+        @GuardedBy("mAppendLock")
+        long liveBytes;
+
+        Segment(int id, @NonNull File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            channel = randomAccessFile.getChannel();
+        }
+
+        void close() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Location of an entry data in a segment.
+     */
+    private static final class Location {
+        final Segment segment;
+        final long offset;
+        final int length;
+        final long timestamp;
+        final int recordLength;
+
+        Location(@NonNull Segment segment, long offset, int length, long timestamp,
+                 int recordLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+            this.recordLength = recordLength;
+        }
+    }
+
+    private final File mDirectory;
+    private final BitmapDecoder mBitmapDecoder;
+    private final long mItemExpirationSec;
+    private final int mSegmentBytes;
+
+    private final CountDownLatch mLoadedLatch = new CountDownLatch(1);
+    private final AtomicBoolean mCompactionScheduled = new AtomicBoolean(false);
+
+    /* serializes all the writes to the segments and the index */
+    private final ReentrantLock mAppendLock = new ReentrantLock();
+    /* guards the index: reads hold the read lock while reading from a segment */
+    private final ReentrantReadWriteLock mIndexLock = new ReentrantReadWriteLock();
+
+    @GuardedBy("mIndexLock")
+    private final HashMap<String, Location> mIndex = new HashMap<String, Location>();
+    @GuardedBy("mIndexLock")
+    private final TreeMap<Integer, Segment> mSegments = new TreeMap<Integer, Segment>();
+    @GuardedBy("mAppendLock")
+    private Segment mActiveSegment;
+
+    /**
+     * Builds a {@link PackBitmapDiskCache} in the passed sub-folder. Note that the {@link
+     * CacheLocation#EXTERNAL} cache is always used. If no external caches are present, it falls
+     * back to the internal one.
+     *
+     * @param context       The context to retrieve the cache location
+     * @param subFolder     The relative path to the cache folder where to store the cache (the
+     *                      folder is created if it doesn't exist)
+     * @param decoder       The {@link BitmapDecoder} to use for decoding
+     * @param purgeAfterSec Expiration time, in seconds, for the items in disk cache
+     * @throws IOException if the cache cannot be created
+     */
+    public PackBitmapDiskCache(@NonNull Context context, @NonNull String subFolder,
+                               @NonNull BitmapDecoder decoder, @IntRange(from = 0) long purgeAfterSec)
+            throws IOException {
+        this(context, subFolder, decoder, purgeAfterSec, DEFAULT_SEGMENT_BYTES);
+    }
+
+    @VisibleForTesting
+    PackBitmapDiskCache(@NonNull Context context, @NonNull String subFolder,
+                        @NonNull BitmapDecoder decoder, @IntRange(from = 0) long purgeAfterSec,
+                        @IntRange(from = 1) int segmentBytes) throws IOException {
+        Preconditions.checkArgument(purgeAfterSec >= SimpleDiskCache.MIN_EXPIRE_IN_SEC);
+        Preconditions.checkArgument(segmentBytes > 0);
+        final File cacheRoot = StorageUtils.getAppCacheDir(context, CacheLocation.EXTERNAL, true);
+        if (cacheRoot == null) {
+            throw new IOException("Disk cache location cannot be found");
+        }
+        mDirectory = new File(cacheRoot, PATH + File.separator + subFolder);
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Disk cache location cannot be created");
+        }
+        mBitmapDecoder = decoder;
+        mItemExpirationSec = purgeAfterSec;
+        mSegmentBytes = segmentBytes;
+        PACK_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+        if (DroidConfig.DEBUG) {
+            Log.d(TAG, "Pack disk cache created at: " + mDirectory.getAbsolutePath());
+        }
+    }
+
+    @Override
+    @Nullable
+    @NotForUIThread
+    public Bitmap get(@NonNull String key) {
+        return get(key, 0, 0);
+    }
+
+    @Override
+    @Nullable
+    @NotForUIThread
+    public Bitmap get(@NonNull String key, @IntRange(from = 0) int reqWidth,
+                      @IntRange(from = 0) int reqHeight) {
+        Preconditions.checkNotNull(key);
+        final byte[] data = readEntry(key);
+        if (data == null) {
+            return null; // cache miss
+        }
+        final Bitmap bitmap = mBitmapDecoder.decodeSampled(data, reqWidth, reqHeight);
+        if (bitmap == null) { // damaged entry
+            if (DroidConfig.DEBUG) {
+                Log.w(TAG, "Damaged cache entry: " + key);
+            }
+            remove(key);
+        }
+        return bitmap;
+    }
+
+    @Override
+    @NotForUIThread
+    public boolean put(@NonNull String key, @NonNull byte[] image) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(image);
+        awaitLoaded();
+        mAppendLock.lock();
+        try {
+            appendEntry(key, System.currentTimeMillis(), ByteBuffer.wrap(image), null, image.length);
+            return true;
+        } catch (IOException e) {
+            LogUtils.logException(TAG, "Exception when writing " + key, e);
+            return false;
+        } finally {
+            mAppendLock.unlock();
+            scheduleCompactionIfNeeded();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * As writes to the segments are serialized, the stream is first written into a temporary file
+     * (so that a slow download doesn't block other writes), and then appended to the segment.
+     */
+    @Override
+    @NotForUIThread
+    public boolean put(@NonNull String key, @NonNull InputStream stream) throws IOException {
+        Preconditions.checkNotNull(key);
+        awaitLoaded(); // the loading can clean up the temporary files of the directory
+        final File tempFile;
+        try {
+            tempFile = File.createTempFile("pack", TEMP_FILE_SUFFIX, mDirectory);
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            final FileOutputStream fos = new FileOutputStream(tempFile);
+            try {
+                ByteStreams.copy(stream, fos);
+            } finally {
+                fos.close();
+            }
+            final RandomAccessFile source = new RandomAccessFile(tempFile, "r");
+            try {
+                final long length = source.length();
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Entry too large");
+                }
+                mAppendLock.lock();
+                try {
+                    appendEntry(key, System.currentTimeMillis(), null, source.getChannel(),
+                            (int) length);
+                } finally {
+                    mAppendLock.unlock();
+                }
+            } finally {
+                source.close();
+            }
+        } finally {
+            if (!tempFile.delete() && DroidConfig.DEBUG) {
+                Log.w(TAG, "Temp file not deleted: " + tempFile.getName());
+            }
+        }
+        scheduleCompactionIfNeeded();
+        return true;
+    }
+
+    @Override
+    @NotForUIThread
+    public boolean put(@NonNull String key, @NonNull Bitmap bitmap) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        if (!bitmap.compress(DEFAULT_COMPRESS_FORMAT, DEFAULT_COMPRESS_QUALITY, bos)) {
+            return false;
+        }
+        return put(key, bos.toByteArray());
+    }
+
+    @Override
+    @NotForUIThread
+    public boolean remove(@NonNull String key) {
+        Preconditions.checkNotNull(key);
+        awaitLoaded();
+        mAppendLock.lock();
+        try {
+            removeEntry(key);
+            return true;
+        } catch (IOException e) {
+            LogUtils.logException(TAG, "Exception when removing " + key, e);
+            return false;
+        } finally {
+            mAppendLock.unlock();
+            scheduleCompactionIfNeeded();
+        }
+    }
+
+    @Override
+    @NotForUIThread
+    public void clear() {
+        awaitLoaded();
+        mAppendLock.lock();
+        mIndexLock.writeLock().lock();
+        try {
+            for (Segment segment : mSegments.values()) {
+                segment.close();
+                if (!segment.file.delete() && DroidConfig.DEBUG) {
+                    Log.w(TAG, "Segment not deleted: " + segment.file.getName());
+                }
+            }
+            mSegments.clear();
+            mIndex.clear();
+            mActiveSegment = null;
+        } finally {
+            mIndexLock.writeLock().unlock();
+            mAppendLock.unlock();
+        }
+    }
+
+    @Override
+    public void scheduleClear() {
+        PACK_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                clear();
+            }
+        });
+    }
+
+    @Override
+    @NotForUIThread
+    public void clear(@NonNull ClearMode mode) {
+        switch (mode) {
+            case ALL:
+                clear();
+                break;
+            case EVICT_OLD:
+                clearOld();
+                break;
+        }
+    }
+
+    /**
+     * Removes the expired entries from the cache. Their space is reclaimed by the following
+     * segments compaction.
+     */
+    @NotForUIThread
+    public void clearOld() {
+        awaitLoaded();
+        final long expiredBefore = System.currentTimeMillis() - mItemExpirationSec * 1000;
+        mAppendLock.lock();
+        try {
+            final List<String> expired = new ArrayList<String>();
+            for (Map.Entry<String, Location> entry : mIndex.entrySet()) {
+                if (entry.getValue().timestamp < expiredBefore) {
+                    expired.add(entry.getKey());
+                }
+            }
+            for (String key : expired) {
+                removeEntry(key);
+            }
+        } catch (IOException e) {
+            LogUtils.logException(TAG, "Exception when purging", e);
+        } finally {
+            mAppendLock.unlock();
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * Returns the total size in bytes of the segment files.
+     */
+    public long size() {
+        awaitLoaded();
+        mAppendLock.lock();
+        try {
+            long size = 0;
+            for (Segment segment : mSegments.values()) {
+                size += segment.size;
+            }
+            return size;
+        } finally {
+            mAppendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of segment files.
+     */
+    @VisibleForTesting
+    int segmentCount() {
+        awaitLoaded();
+        mIndexLock.readLock().lock();
+        try {
+            return mSegments.size();
+        } finally {
+            mIndexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Synchronously compacts the old segments if they're mostly garbage, moving their live entries
+     * into the active segment and deleting them.
+     *
+     * The live entries are read from the old segments without holding the append lock, which is
+     * only taken to append each entry (if its location didn't change in the meantime) and to
+     * finally delete the old segments, so that puts are never blocked for the whole compaction.
+     */
+    @NotForUIThread
+    @VisibleForTesting
+    void compact() {
+        awaitLoaded();
+        final int activeId;
+        final List<Segment> oldSegments;
+        final List<Map.Entry<String, Location>> liveEntries = new ArrayList<Map.Entry<String, Location>>();
+        mAppendLock.lock();
+        try {
+            mCompactionScheduled.set(false);
+            if (!needsCompaction()) {
+                return;
+            }
+            activeId = mActiveSegment.id;
+            oldSegments = new ArrayList<Segment>(mSegments.headMap(activeId).values());
+            for (Map.Entry<String, Location> entry : mIndex.entrySet()) {
+                if (entry.getValue().segment.id < activeId) {
+                    liveEntries.add(new AbstractMap.SimpleImmutableEntry<String, Location>(entry));
+                }
+            }
+        } finally {
+            mAppendLock.unlock();
+        }
+        try {
+            int moved = 0;
+            for (Map.Entry<String, Location> entry : liveEntries) {
+                // sealed segments are never written, they can be read without locking
+                final Location location = entry.getValue();
+                final ByteBuffer data = ByteBuffer.allocate(location.length);
+                readFully(location.segment.channel, data, location.offset);
+                data.flip();
+                mAppendLock.lock();
+                try {
+                    if (mIndex.get(entry.getKey()) == location) { // not replaced or removed
+                        appendEntry(entry.getKey(), location.timestamp, data, null,
+                                location.length);
+                        moved++;
+                    }
+                } finally {
+                    mAppendLock.unlock();
+                }
+            }
+            mAppendLock.lock();
+            try {
+                if (!canDeleteSegments(oldSegments, activeId)) {
+                    return; // cleared in the meantime, or entries left behind
+                }
+                // all the old segments can go, including their tombstones
+                mIndexLock.writeLock().lock();
+                try {
+                    for (Segment segment : oldSegments) {
+                        mSegments.remove(segment.id);
+                        segment.close();
+                        if (!segment.file.delete() && DroidConfig.DEBUG) {
+                            Log.w(TAG, "Segment not deleted: " + segment.file.getName());
+                        }
+                    }
+                } finally {
+                    mIndexLock.writeLock().unlock();
+                }
+            } finally {
+                mAppendLock.unlock();
+            }
+            if (DroidConfig.DEBUG) {
+                Log.i(TAG, "Compacted " + oldSegments.size() + " segments, " + moved
+                        + " live entries moved");
+            }
+        } catch (IOException e) {
+            LogUtils.logException(TAG, "Exception when compacting", e);
+        }
+    }
+
+    /**
+     * Returns whether the compacted segments are still part of the cache and no entry of the index
+     * is located in them anymore.
+     */
+    @GuardedBy("mAppendLock")
+    private boolean canDeleteSegments(@NonNull List<Segment> oldSegments, int activeId) {
+        for (Segment segment : oldSegments) {
+            if (mSegments.get(segment.id) != segment) {
+                return false;
+            }
+        }
+        for (Location location : mIndex.values()) {
+            if (location.segment.id < activeId) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Only the garbage of the sealed (old) segments is considered, as the compaction can't reclaim
+     * the garbage of the active segment.
+     */
+    @GuardedBy("mAppendLock")
+    private boolean needsCompaction() {
+        if (mActiveSegment == null) {
+            return false;
+        }
+        long oldBytes = 0;
+        long garbageBytes = 0;
+        for (Segment segment : mSegments.values()) {
+            if (segment != mActiveSegment) {
+                oldBytes += segment.size;
+                garbageBytes += segment.size - segment.liveBytes;
+            }
+        }
+        return oldBytes > 0 && garbageBytes >= mSegmentBytes / 2
+                && garbageBytes >= oldBytes * COMPACT_GARBAGE_RATIO;
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        final boolean needsCompaction;
+        mAppendLock.lock();
+        try {
+            needsCompaction = needsCompaction();
+        } finally {
+            mAppendLock.unlock();
+        }
+        if (needsCompaction && mCompactionScheduled.compareAndSet(false, true)) {
+            PACK_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+
+    @Nullable
+    private byte[] readEntry(@NonNull String key) {
+        awaitLoaded();
+        mIndexLock.readLock().lock();
+        try {
+            final Location location = mIndex.get(key);
+            if (location == null) {
+                return null;
+            }
+            final byte[] data = new byte[location.length];
+            readFully(location.segment.channel, ByteBuffer.wrap(data), location.offset);
+            return data;
+        } catch (IOException e) {
+            LogUtils.logException(TAG, "Exception when reading " + key, e);
+            return null;
+        } finally {
+            mIndexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends an entry record to the active segment and publishes it into the index. The data is
+     * read either from the passed buffer or from the passed channel.
+     */
+    @GuardedBy("mAppendLock")
+    private void appendEntry(@NonNull String key, long timestamp, @Nullable ByteBuffer data,
+                             @Nullable FileChannel source, int length) throws IOException {
+        final ByteBuffer header = buildHeader(key, timestamp, length);
+        final int recordLength = header.remaining() + length;
+        final Segment segment = getActiveSegment(recordLength);
+        final long position = segment.size;
+        final long dataOffset = position + header.remaining();
+        writeFully(segment.channel, header, position);
+        if (data != null) {
+            writeFully(segment.channel, data, dataOffset);
+        } else if (source != null) {
+            long transferred = 0;
+            while (transferred < length) {
+                final long count = segment.channel.transferFrom(source, dataOffset + transferred,
+                        length - transferred);
+                if (count <= 0) {
+                    throw new EOFException("Entry source truncated");
+                }
+                transferred += count;
+            }
+        }
+        segment.size += recordLength;
+        segment.liveBytes += recordLength;
+
+        mIndexLock.writeLock().lock();
+        try {
+            final Location old = mIndex.put(key, new Location(segment, dataOffset, length,
+                    timestamp, recordLength));
+            if (old != null) {
+                old.segment.liveBytes -= old.recordLength;
+            }
+        } finally {
+            mIndexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a tombstone record for the passed key, if it's in the index, and removes it.
+     */
+    @GuardedBy("mAppendLock")
+    private void removeEntry(@NonNull String key) throws IOException {
+        if (!mIndex.containsKey(key)) {
+            return;
+        }
+        final ByteBuffer header = buildHeader(key, System.currentTimeMillis(), TOMBSTONE);
+        final int recordLength = header.remaining();
+        final Segment segment = getActiveSegment(recordLength);
+        writeFully(segment.channel, header, segment.size);
+        segment.size += recordLength;
+
+        mIndexLock.writeLock().lock();
+        try {
+            final Location old = mIndex.remove(key);
+            if (old != null) {
+                old.segment.liveBytes -= old.recordLength;
+            }
+        } finally {
+            mIndexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the segment to append a record to, creating a new one if the active segment is full.
+     */
+    @GuardedBy("mAppendLock")
+    @NonNull
+    private Segment getActiveSegment(int recordLength) throws IOException {
+        Segment active = mActiveSegment;
+        if (active == null || (active.size > 0 && active.size + recordLength > mSegmentBytes)) {
+            final int id = active != null ? active.id + 1 : 0;
+            active = new Segment(id, new File(mDirectory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+            active.randomAccessFile.setLength(0);
+            mIndexLock.writeLock().lock();
+            try {
+                mSegments.put(id, active);
+            } finally {
+                mIndexLock.writeLock().unlock();
+            }
+            mActiveSegment = active;
+        }
+        return active;
+    }
+
+    @NonNull
+    private static ByteBuffer buildHeader(@NonNull String key, long timestamp, int length) {
+        final byte[] keyBytes = key.getBytes(Charsets.UTF_8);
+        Preconditions.checkArgument(keyBytes.length <= 0xffff, "Key too long");
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_FIXED_BYTES + keyBytes.length);
+        header.putInt(RECORD_MAGIC);
+        header.putShort((short) keyBytes.length);
+        header.put(keyBytes);
+        header.putLong(timestamp);
+        header.putInt(length);
+        header.flip();
+        return header;
+    }
+
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer,
+                                   long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer,
+                                  long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("Segment truncated");
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Rebuilds the index by scanning all the segments in order.
+     */
+    @NotForUIThread
+    private void load() {
+        mAppendLock.lock();
+        try {
+            final TreeMap<Integer, File> segmentFiles = new TreeMap<Integer, File>();
+            final File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    final Integer id = parseSegmentId(file.getName());
+                    if (id != null) {
+                        segmentFiles.put(id, file);
+                    } else if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                        file.delete(); // left over by an interrupted put
+                    }
+                }
+            }
+            for (Map.Entry<Integer, File> entry : segmentFiles.entrySet()) {
+                try {
+                    final Segment segment = new Segment(entry.getKey(), entry.getValue());
+                    mSegments.put(segment.id, segment);
+                    scanSegment(segment);
+                    mActiveSegment = segment;
+                } catch (IOException e) {
+                    LogUtils.logException(TAG, "Exception when opening segment", e);
+                }
+            }
+            if (DroidConfig.DEBUG) {
+                Log.d(TAG, "Loaded " + mIndex.size() + " entries from " + mSegments.size()
+                        + " segments");
+            }
+        } finally {
+            mAppendLock.unlock();
+            mLoadedLatch.countDown();
+        }
+    }
+
+    @GuardedBy("mAppendLock")
+    private void scanSegment(@NonNull Segment segment) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(segment.file)));
+        long offset = 0;
+        try {
+            while (true) {
+                final int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    break; // end of segment
+                }
+                if (magic != RECORD_MAGIC) {
+                    throw new IOException("Corrupted record");
+                }
+                final byte[] keyBytes = new byte[in.readUnsignedShort()];
+                in.readFully(keyBytes);
+                final String key = new String(keyBytes, Charsets.UTF_8);
+                final long timestamp = in.readLong();
+                final int length = in.readInt();
+                final int headerLength = HEADER_FIXED_BYTES + keyBytes.length;
+                if (length == TOMBSTONE) {
+                    final Location old = mIndex.remove(key);
+                    if (old != null) {
+                        old.segment.liveBytes -= old.recordLength;
+                    }
+                    offset += headerLength;
+                } else {
+                    skipFully(in, length);
+                    final int recordLength = headerLength + length;
+                    final Location old = mIndex.put(key, new Location(segment,
+                            offset + headerLength, length, timestamp, recordLength));
+                    if (old != null) {
+                        old.segment.liveBytes -= old.recordLength;
+                    }
+                    segment.liveBytes += recordLength;
+                    offset += recordLength;
+                }
+            }
+        } catch (IOException e) { // truncated or corrupted tail, drop it
+            LogUtils.logException(TAG, "Segment " + segment.id + " truncated at " + offset, e);
+            segment.randomAccessFile.setLength(offset);
+        } finally {
+            in.close();
+        }
+        segment.size = offset;
+    }
+
+    private static void skipFully(@NonNull DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException("Record truncated");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    @Nullable
+    private static Integer parseSegmentId(@NonNull String fileName) {
+        if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+            try {
+                return Integer.valueOf(fileName.substring(SEGMENT_PREFIX.length(),
+                        fileName.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mLoadedLatch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
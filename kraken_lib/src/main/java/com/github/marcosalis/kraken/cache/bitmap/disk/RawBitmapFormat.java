@@ -0,0 +1,182 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.disk;
+
+import android.graphics.Bitmap;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
+import com.google.common.annotations.Beta;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Disk format that stores the decoded pixels of a {@link Bitmap}, so that it can be reloaded with
+ * a plain memory copy instead of decoding a compressed image.
+ *
+ * The file starts with a fixed size header (magic number, format version, bitmap configuration and
+ * flags, size and row bytes of the bitmap and target size it was decoded for) followed by the
+ * pixels as written by {@link Bitmap#copyPixelsToBuffer(java.nio.Buffer)}, rows padding included. Only {@link Bitmap.Config#ARGB_8888} and
+ * {@link Bitmap.Config#RGB_565} bitmaps are supported.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@Immutable
+final class RawBitmapFormat {
+
+    static final int MAGIC = 0x6b727078; // "krpx"
+    static final byte VERSION = 2;
+
+    /* magic, version, config, flags, padding, width, height, row bytes, target width, height */
+    static final int HEADER_BYTES = 4 + 1 + 1 + 1 + 1 + 5 * 4;
+
+    private static final byte CONFIG_ARGB_8888 = 0;
+    private static final byte CONFIG_RGB_565 = 1;
+
+    private static final byte FLAG_HAS_ALPHA = 1;
+
+    private RawBitmapFormat() {
+        // no instantiation needed
+    }
+
+    /**
+     * Returns whether the passed bitmap can be stored with this format.
+     */
+    static boolean isSupported(@NonNull Bitmap bitmap) {
+        final Bitmap.Config config = bitmap.getConfig();
+        return config == Bitmap.Config.ARGB_8888 || config == Bitmap.Config.RGB_565;
+    }
+
+    /**
+     * Returns the size in bytes of the pixels of a bitmap in this format, rows padding included.
+     */
+    static int getPixelBytes(@NonNull Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Writes the pixels of a bitmap into the passed file.
+     *
+     * @param bitmap    The bitmap to write, see {@link #isSupported(Bitmap)}
+     * @param reqWidth  The target width the bitmap was decoded for, or 0
+     * @param reqHeight The target height the bitmap was decoded for, or 0
+     * @param file      The file to write
+     * @throws IOException if the file couldn't be written
+     */
+    @NotForUIThread
+    static void write(@NonNull Bitmap bitmap, @IntRange(from = 0) int reqWidth,
+                      @IntRange(from = 0) int reqHeight, @NonNull File file) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + getPixelBytes(bitmap));
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(bitmap.getConfig() == Bitmap.Config.RGB_565 ? CONFIG_RGB_565 : CONFIG_ARGB_8888);
+        buffer.put(bitmap.hasAlpha() ? FLAG_HAS_ALPHA : 0);
+        buffer.put((byte) 0); // padding
+        buffer.putInt(bitmap.getWidth());
+        buffer.putInt(bitmap.getHeight());
+        buffer.putInt(bitmap.getRowBytes());
+        buffer.putInt(reqWidth);
+        buffer.putInt(reqHeight);
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+
+        final FileOutputStream fos = new FileOutputStream(file);
+        try {
+            final FileChannel channel = fos.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Reads a bitmap from a file in this format through a memory mapping of the file. The header
+     * is read and checked first, so that files stored for another target size or damaged are never
+     * mapped.
+     *
+     * @param file      The file to read
+     * @param reqWidth  The requested target width, or 0
+     * @param reqHeight The requested target height, or 0
+     * @return The bitmap, or null if it was stored for a different target size
+     * @throws IOException if the file couldn't be read or is not in a valid format
+     */
+    @Nullable
+    @NotForUIThread
+    static Bitmap read(@NonNull File file, @IntRange(from = 0) int reqWidth,
+                       @IntRange(from = 0) int reqHeight) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Truncated raw bitmap: " + file.getName());
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.get() != VERSION) {
+                throw new IOException("Unknown raw bitmap format: " + file.getName());
+            }
+            final boolean rgb565 = header.get() == CONFIG_RGB_565;
+            final boolean hasAlpha = (header.get() & FLAG_HAS_ALPHA) != 0;
+            header.get(); // padding
+            final int width = header.getInt();
+            final int height = header.getInt();
+            final int rowBytes = header.getInt();
+            if (header.getInt() != reqWidth || header.getInt() != reqHeight) {
+                return null; // decoded for another target size
+            }
+            if (width <= 0 || height <= 0 || rowBytes < width * (rgb565 ? 2 : 4)) {
+                throw new IOException("Invalid raw bitmap size: " + file.getName());
+            }
+            // same definition as getPixelBytes(), the rows can be padded
+            final long pixelBytes = (long) rowBytes * height;
+            if (length - HEADER_BYTES != pixelBytes) {
+                throw new IOException("Truncated raw bitmap: " + file.getName());
+            }
+            final Bitmap bitmap = Bitmap.createBitmap(width, height, rgb565
+                    ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+            if (bitmap.getRowBytes() != rowBytes) {
+                // the pixels layout doesn't match, the entry must be rewritten on this device
+                bitmap.recycle();
+                throw new IOException("Incompatible raw bitmap rows: " + file.getName());
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES, pixelBytes);
+            bitmap.copyPixelsFromBuffer(buffer);
+            bitmap.setHasAlpha(hasAlpha);
+            return bitmap;
+        } finally {
+            raf.close();
+        }
+    }
+
+}
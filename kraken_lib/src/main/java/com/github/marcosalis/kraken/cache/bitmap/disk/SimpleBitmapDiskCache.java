@@ -28,14 +28,19 @@ import com.github.marcosalis.kraken.DroidConfig;
 import com.github.marcosalis.kraken.cache.SimpleDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapDecoder;
 import com.github.marcosalis.kraken.utils.StorageUtils.CacheLocation;
+import com.github.marcosalis.kraken.utils.android.LogUtils;
 import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
 import com.google.common.annotations.Beta;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.Lock;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -43,9 +48,20 @@ import javax.annotation.concurrent.ThreadSafe;
  * Base implementation of a {@link Bitmap} disk cache. The bitmaps are stored in the disk as byte
  * streams and decoded back to a {@link Bitmap} object when they are retrieved from the cache.
  *
- * No size constraints are imposed, the purge methods are in charge of keeping the cache size
- * reasonable, make sure to implement a policy to call them frequently enough to keep the disk space
- * occupation reasonable and always when the device storage is running out of space.
+ * No size constraints are imposed unless the cache is indexed and {@link #setMaxBytes(long)} is
+ * set, the purge methods are in charge of keeping the cache size reasonable, make sure to implement
+ * a policy to call them frequently enough to keep the disk space occupation reasonable and always
+ * when the device storage is running out of space.
+ *
+ * Entries are written into temporary files and atomically renamed, and accesses are guarded by
+ * per-key striped locks: reads and writes of different bitmaps run in parallel.
+ *
+ * When enabled with {@link #setRawPixelsMaxBytes(int)}, the decoded pixels of the small bitmaps
+ * are also stored in a raw format (see {@link RawBitmapFormat}) the first time they're read, in an
+ * entry alongside the compressed one. Subsequent reads for the same target size load the pixels
+ * from a memory mapping of the raw entry, which is much faster than decoding the compressed image.
+ * Only the pixels decoded for the first requested target size are stored, and they're deleted
+ * together with the compressed entry when it's replaced, removed or evicted.
  *
  * @author Marco Salis
  * @since 1.0
@@ -61,8 +77,12 @@ public class SimpleBitmapDiskCache extends SimpleDiskCache<Bitmap> implements Bi
     private static final Bitmap.CompressFormat DEFAULT_COMPRESS_FORMAT = CompressFormat.JPEG;
     private static final int DEFAULT_COMPRESS_QUALITY = 85;
 
+    /* suffix of the keys of the entries holding the raw pixels of a bitmap */
+    private static final String RAW_KEY_SUFFIX = ".px";
+
     private final BitmapDecoder mBitmapDecoder;
     private final long mItemExpirationSec;
+    private volatile int mRawPixelsMaxBytes;
 
     /**
      * Builds a {@link SimpleBitmapDiskCache} in the passed sub-folder. Note that the {@link
@@ -79,7 +99,20 @@ public class SimpleBitmapDiskCache extends SimpleDiskCache<Bitmap> implements Bi
      */
     public SimpleBitmapDiskCache(@NonNull Context context, @NonNull String subFolder,
                                  @NonNull BitmapDecoder decoder, @IntRange(from = 0) long purgeAfterSec) throws IOException {
-        super(context, CacheLocation.EXTERNAL, PATH + File.separator + subFolder, true);
+        this(context, subFolder, decoder, purgeAfterSec, 0);
+    }
+
+    /**
+     * Builds a {@link SimpleBitmapDiskCache} in the passed sub-folder with the passed options.
+     *
+     * @param flags The disk cache options, see {@link SimpleDiskCache#FLAG_INDEXED}
+     * @throws IOException if the cache cannot be created
+     * @see #SimpleBitmapDiskCache(Context, String, BitmapDecoder, long)
+     */
+    public SimpleBitmapDiskCache(@NonNull Context context, @NonNull String subFolder,
+                                 @NonNull BitmapDecoder decoder, @IntRange(from = 0) long purgeAfterSec,
+                                 int flags) throws IOException {
+        super(context, CacheLocation.EXTERNAL, PATH + File.separator + subFolder, true, flags);
         Preconditions.checkArgument(purgeAfterSec >= MIN_EXPIRE_IN_SEC);
         mBitmapDecoder = decoder;
         mItemExpirationSec = purgeAfterSec >= MIN_EXPIRE_IN_SEC ? purgeAfterSec : MIN_EXPIRE_IN_SEC;
@@ -88,11 +121,49 @@ public class SimpleBitmapDiskCache extends SimpleDiskCache<Bitmap> implements Bi
         }
     }
 
+    /**
+     * Enables storing the decoded pixels of the bitmaps whose pixels size is not bigger than the
+     * passed value, to reload them without decoding. Raw entries take much more disk space than
+     * compressed ones: only use for small thumbnails.
+     *
+     * @param maxBytes The maximum size in bytes of the pixels of a bitmap to store them, or 0 to
+     *                 disable raw entries
+     */
+    public final void setRawPixelsMaxBytes(@IntRange(from = 0) int maxBytes) {
+        Preconditions.checkArgument(maxBytes >= 0);
+        mRawPixelsMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the maximum size in bytes of the pixels of a bitmap stored in the raw format, or 0
+     * if raw entries are disabled.
+     */
+    public final int getRawPixelsMaxBytes() {
+        return mRawPixelsMaxBytes;
+    }
+
+    /**
+     * Returns whether the entry for the passed key is expired and must be revalidated with a
+     * conditional request before being used, see {@link SimpleDiskCache#isStale(String, long)}.
+     * Stale entries are still returned by the get methods.
+     */
+    @NotForUIThread
+    public final boolean isStale(@NonNull String key) {
+        return isStale(key, mItemExpirationSec * 1000);
+    }
+
     @Override
     @Nullable
     @NotForUIThread
     public Bitmap get(@NonNull String key) {
-        return getBitmap(key);
+        return getBitmap(key, 0, 0);
+    }
+
+    @Override
+    @Nullable
+    @NotForUIThread
+    public Bitmap get(@NonNull String key, int reqWidth, int reqHeight) {
+        return getBitmap(key, reqWidth, reqHeight);
     }
 
     @Override
@@ -101,6 +172,12 @@ public class SimpleBitmapDiskCache extends SimpleDiskCache<Bitmap> implements Bi
         return putBitmap(key, image);
     }
 
+    @Override
+    @NotForUIThread
+    public boolean put(@NonNull String key, @NonNull InputStream stream) throws IOException {
+        return putBitmap(key, stream);
+    }
+
     @Override
     @NotForUIThread
     public boolean put(@NonNull String key, @NonNull Bitmap bitmap) {
@@ -109,17 +186,14 @@ public class SimpleBitmapDiskCache extends SimpleDiskCache<Bitmap> implements Bi
 
     @Override
     @NotForUIThread
-    public synchronized boolean remove(@NonNull String key) {
-        final File bitmapFile = new File(mCacheLocation, key);
-        if (bitmapFile.exists()) { // existing cache item
-            return bitmapFile.delete();
-        }
-        return true;
+    public boolean remove(@NonNull String key) {
+        deleteRawEntry(key);
+        return deleteEntry(key);
     }
 
     @Override
     @NotForUIThread
-    public synchronized final void clearOld() {
+    public final void clearOld() {
         purge(mItemExpirationSec);
     }
 
@@ -133,28 +207,161 @@ public class SimpleBitmapDiskCache extends SimpleDiskCache<Bitmap> implements Bi
      */
     @Nullable
     @NotForUIThread
-    protected synchronized final Bitmap getBitmap(@NonNull String fileName) {
+    protected final Bitmap getBitmap(@NonNull String fileName) {
+        return getBitmap(fileName, 0, 0);
+    }
+
+    /**
+     * Loads a Bitmap from cache reading and decoding it from the file system if present, sampling
+     * it down to the requested size.
+     *
+     * @param fileName
+     * @param reqWidth  The target width, or 0 to decode the bitmap at its full size
+     * @param reqHeight The target height, or 0 to decode the bitmap at its full size
+     * @return The loaded {@link Bitmap}, null if not found or an error occurred while decoding the
+     * bitmap
+     * @throws IllegalArgumentException if fileName is null
+     */
+    @Nullable
+    @NotForUIThread
+    protected final Bitmap getBitmap(@NonNull String fileName, @IntRange(from = 0) int reqWidth,
+                                     @IntRange(from = 0) int reqHeight) {
         Preconditions.checkNotNull(fileName);
-        final File bitmapFile = new File(mCacheLocation, fileName);
-        if (bitmapFile.exists()) { // existing cache item
+        if (!hasEntry(fileName)) {
+            return null; // cache miss
+        }
+        final boolean rawEnabled = mRawPixelsMaxBytes > 0;
+        if (rawEnabled) {
+            final Bitmap raw = getRawBitmap(fileName, reqWidth, reqHeight);
+            if (raw != null) {
+                onEntryRead(fileName);
+                return raw;
+            }
+        }
+        final long timestamp = rawEnabled ? getEntryTimestamp(fileName) : 0;
+        final Bitmap bitmap;
+        final Lock lock = getEntryLock(fileName).readLock();
+        lock.lock(); // decodings of different entries can run in parallel
+        try {
             // decode file content into a Bitmap
-            final Bitmap bitmap = mBitmapDecoder.decode(bitmapFile.getAbsolutePath(), null);
-
-            if (bitmap == null) { // file is damaged, delete it
-                if (!bitmapFile.delete()) {
-                    if (DroidConfig.DEBUG) {
-                        Log.w(TAG, "Damaged cache entry: " + fileName);
-                    }
+            bitmap = mBitmapDecoder.decodeSampled(getEntryFile(fileName).getAbsolutePath(),
+                    reqWidth, reqHeight);
+        } finally {
+            lock.unlock();
+        }
+        if (bitmap == null) { // file is damaged (or missing), delete it
+            if (!deleteEntry(fileName)) {
+                if (DroidConfig.DEBUG) {
+                    Log.w(TAG, "Damaged cache entry: " + fileName);
                 }
-            } else {
-                /*
-				 * This is a cache hit, we don't "touch" the file as the
-				 * download date defines the expiration.
-				 */
             }
-            return bitmap;
         } else {
-            return null; // cache miss or errors while decoding the file
+            /*
+             * This is a cache hit, we don't "touch" the file as the
+             * download date defines the expiration: only the access
+             * order is recorded when the cache is indexed.
+             */
+            onEntryRead(fileName);
+            // an existing raw entry for another target size is never replaced, to avoid
+            // rewriting it at every read when the bitmap is requested for different sizes
+            if (rawEnabled && RawBitmapFormat.isSupported(bitmap)
+                    && RawBitmapFormat.getPixelBytes(bitmap) <= mRawPixelsMaxBytes
+                    && !hasRawEntry(fileName)) {
+                putRawBitmap(fileName, bitmap, reqWidth, reqHeight, timestamp);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Loads the raw pixels of a bitmap previously decoded for the same target size, if any.
+     */
+    @Nullable
+    @NotForUIThread
+    private Bitmap getRawBitmap(@NonNull String fileName, int reqWidth, int reqHeight) {
+        final String rawKey = fileName + RAW_KEY_SUFFIX;
+        if (!hasEntry(rawKey)) {
+            return null;
+        }
+        Bitmap bitmap = null;
+        boolean damaged = false;
+        final Lock lock = getEntryLock(rawKey).readLock();
+        lock.lock();
+        try {
+            bitmap = RawBitmapFormat.read(getEntryFile(rawKey), reqWidth, reqHeight);
+        } catch (IOException e) {
+            damaged = true;
+        } catch (OutOfMemoryError e) {
+            LogUtils.logException(e);
+        } finally {
+            lock.unlock();
+        }
+        if (damaged) {
+            deleteEntry(rawKey);
+        } else if (bitmap != null) {
+            onEntryRead(rawKey);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Stores the raw pixels of a bitmap decoded from the compressed entry that was written at the
+     * passed timestamp, unless the entry has been replaced in the meantime. The check and the
+     * commit are atomic, as the two entries share the same lock (see {@link #getLockKey(String)}).
+     */
+    @NotForUIThread
+    private void putRawBitmap(@NonNull String fileName, @NonNull Bitmap bitmap, int reqWidth,
+                              int reqHeight, long timestamp) {
+        final String rawKey = fileName + RAW_KEY_SUFFIX;
+        File tempFile = null;
+        try {
+            tempFile = createTempFile(rawKey);
+            RawBitmapFormat.write(bitmap, reqWidth, reqHeight, tempFile);
+        } catch (IOException e) {
+            deleteTempFile(tempFile);
+            return;
+        }
+        // the temporary file is deleted if the pixels are stale
+        if (commitDerivedTempFile(tempFile, rawKey, fileName, timestamp) && DroidConfig.DEBUG) {
+            Log.v(TAG, "Raw pixels stored for: " + fileName);
+        }
+    }
+
+    /**
+     * Raw entries share the lock of their compressed entry.
+     */
+    @NonNull
+    @Override
+    protected final String getLockKey(@NonNull String key) {
+        return key.endsWith(RAW_KEY_SUFFIX)
+                ? key.substring(0, key.length() - RAW_KEY_SUFFIX.length()) : key;
+    }
+
+    /**
+     * Deletes the raw entry of an evicted compressed entry.
+     */
+    @Override
+    @NotForUIThread
+    protected final void onEntryEvicted(@NonNull String key) {
+        if (!key.endsWith(RAW_KEY_SUFFIX)) {
+            deleteRawEntry(key);
+        }
+    }
+
+    @VisibleForTesting
+    final boolean hasRawEntry(@NonNull String fileName) {
+        return hasEntry(fileName + RAW_KEY_SUFFIX);
+    }
+
+    /**
+     * Deletes the raw pixels entry of a bitmap, if any, when its compressed entry is replaced or
+     * removed.
+     */
+    @NotForUIThread
+    private void deleteRawEntry(@NonNull String fileName) {
+        final String rawKey = fileName + RAW_KEY_SUFFIX;
+        if (hasEntry(rawKey)) {
+            deleteEntry(rawKey);
         }
     }
 
@@ -167,17 +374,55 @@ public class SimpleBitmapDiskCache extends SimpleDiskCache<Bitmap> implements Bi
      * @throws IllegalArgumentException if fileName or image are null
      */
     @NotForUIThread
-    protected synchronized final boolean putBitmap(@NonNull String fileName, @NonNull byte[] image) {
+    protected final boolean putBitmap(@NonNull String fileName, @NonNull byte[] image) {
+        File tempFile = null;
         try {
-            File bitmapFile = new File(mCacheLocation, fileName);
-            // if the cache entry already exists, replace it
-            if (bitmapFile.exists() && !bitmapFile.delete()) {
-                return false; // cannot delete old file
-            }
-            Files.write(image, bitmapFile);
+            tempFile = createTempFile(fileName);
+            Files.write(image, tempFile);
         } catch (IOException e) {
+            deleteTempFile(tempFile);
             return false;
         }
+        // if the cache entry already exists, replace it
+        return commitBitmap(tempFile, fileName);
+    }
+
+    /**
+     * Save the content of a stream containing an image into the file system putting it in the
+     * cache. The stream is written into a temporary file which is atomically renamed when
+     * complete.
+     *
+     * @param fileName The name of the file to store
+     * @param stream   The stream containing an image
+     * @return true if successful, false if the temporary file couldn't be created (the stream is
+     * not consumed in that case)
+     * @throws IOException if the stream couldn't be read or written, or the written entry couldn't
+     *                     be committed
+     */
+    @NotForUIThread
+    protected final boolean putBitmap(@NonNull String fileName, @NonNull InputStream stream)
+            throws IOException {
+        final File tempFile;
+        try {
+            tempFile = createTempFile(fileName);
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            final FileOutputStream fos = new FileOutputStream(tempFile);
+            try {
+                ByteStreams.copy(stream, fos);
+            } finally {
+                fos.close();
+            }
+        } catch (IOException e) {
+            deleteTempFile(tempFile);
+            throw e;
+        }
+        if (!commitBitmap(tempFile, fileName)) {
+            // the stream has been consumed, so false can't be returned here
+            throw new IOException("Unable to commit entry " + fileName);
+        }
         return true;
     }
 
@@ -191,21 +436,38 @@ public class SimpleBitmapDiskCache extends SimpleDiskCache<Bitmap> implements Bi
      * @param bitmap   The Bitmap to store
      * @return true if successful, false otherwise
      */
-    protected synchronized final boolean putBitmap(@NonNull String fileName, @NonNull Bitmap bitmap) {
+    @NotForUIThread
+    protected final boolean putBitmap(@NonNull String fileName, @NonNull Bitmap bitmap) {
+        File tempFile = null;
         try {
-            final File bitmapFile = new File(mCacheLocation, fileName);
-            // if the cache entry already exists, replace it
-            if (bitmapFile.exists() && !bitmapFile.delete()) {
-                return false;
+            tempFile = createTempFile(fileName);
+            final FileOutputStream fos = new FileOutputStream(tempFile);
+            try {
+                bitmap.compress(DEFAULT_COMPRESS_FORMAT, DEFAULT_COMPRESS_QUALITY, fos);
+                fos.flush();
+            } finally {
+                fos.close();
             }
-            final FileOutputStream fos = new FileOutputStream(bitmapFile);
-            bitmap.compress(DEFAULT_COMPRESS_FORMAT, DEFAULT_COMPRESS_QUALITY, fos);
-            fos.flush();
-            fos.close();
         } catch (IOException e) {
+            deleteTempFile(tempFile);
             return false;
         }
-        return true;
+        return commitBitmap(tempFile, fileName);
+    }
+
+    private boolean commitBitmap(@NonNull File tempFile, @NonNull String fileName) {
+        if (commitTempFile(tempFile, fileName)) {
+            // the raw pixels of the previous bitmap are stale
+            deleteRawEntry(fileName);
+            return true;
+        }
+        return false;
+    }
+
+    private static void deleteTempFile(@Nullable File tempFile) {
+        if (tempFile != null && !tempFile.delete() && DroidConfig.DEBUG) {
+            Log.w(TAG, "Temp file not deleted: " + tempFile.getName());
+        }
     }
 
-}
\ No newline at end of file
+}
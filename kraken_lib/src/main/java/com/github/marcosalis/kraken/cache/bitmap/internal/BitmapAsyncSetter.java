@@ -19,8 +19,6 @@ package com.github.marcosalis.kraken.cache.bitmap.internal;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -30,9 +28,12 @@ import android.widget.ImageView;
 import com.github.marcosalis.kraken.DroidConfig;
 import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapCache;
-import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.BitmapSetter;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnBitmapSetListener;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.PreviewBitmapSetter;
+import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapPool;
+import com.github.marcosalis.kraken.cache.bitmap.threading.BitmapDeliveryDispatcher;
 import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
 import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
 import com.google.common.annotations.Beta;
 
@@ -41,26 +42,29 @@ import java.lang.ref.SoftReference;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
- * <p> Callback class that extends {@link BitmapSetter}, to use with a {@link BitmapCache} to set
- * the bitmap to an {@link ImageView} if this is still existing and attached to an Activity, either
- * synchronously from the UI thread or asynchronously after querying a disk cache or the network
- * from another thread.
+ * <p> Callback class that extends {@link PreviewBitmapSetter}, to use with a {@link BitmapCache}
+ * to set the bitmap to an {@link ImageView} if this is still existing and attached to an Activity,
+ * either synchronously from the UI thread or asynchronously after querying a disk cache or the
+ * network from another thread.
  *
  * <p> In order to ensure that the ImageView still refers to the requested bitmap (= it hasn't been
  * recycled, for example), the setter constructors set the tag of the view ({@link
- * ImageView#setTag(Object)}) to the {@link CacheUrlKey} hash. Do not reset the tag or the bitmap
- * won't be set.
+ * ImageView#setTag(Object)}) to the {@link CacheUrlKey} hash key. Do not reset the tag or the
+ * bitmap won't be set.
  *
  * <p> The references to the passed {@link ImageView} and listener are {@link SoftReference}, so
  * that it's possible to safely pass an object that retains a {@link Context} to this object
  * constructors.
  *
+ * <p> A preview of the bitmap is set into the view as it is, without animations, and only until
+ * the full bitmap is set.
+ *
  * @author Marco Salis
  * @since 1.0
  */
 @Beta
 @ThreadSafe
-public class BitmapAsyncSetter implements BitmapSetter {
+public class BitmapAsyncSetter implements PreviewBitmapSetter {
 
     /**
      * Low-level debug mode for bitmap debugging (disabled by default).
@@ -69,11 +73,6 @@ public class BitmapAsyncSetter implements BitmapSetter {
 
     private static final String TAG = BitmapAsyncSetter.class.getSimpleName();
 
-    /**
-     * Private UI-thread created handler used to post to image views
-     */
-    private static final Handler mHandler = new Handler(Looper.getMainLooper());
-
     private final CacheUrlKey mCacheKey;
     /* we only use soft references to avoid possible memory leaks */
     private final SoftReference<ImageView> mImageView;
@@ -99,7 +98,7 @@ public class BitmapAsyncSetter implements BitmapSetter {
     public BitmapAsyncSetter(@NonNull CacheUrlKey key, @NonNull ImageView imgView,
                              @Nullable OnBitmapSetListener listener) {
         mCacheKey = key;
-        imgView.setTag(key.hash()); // set view tag for identification
+        imgView.setTag(key.hashKey()); // set view tag for identification
         mImageView = new SoftReference<ImageView>(imgView);
         if (listener != null) {
             mListener = new SoftReference<OnBitmapSetListener>(listener);
@@ -108,11 +107,21 @@ public class BitmapAsyncSetter implements BitmapSetter {
         }
     }
 
+    /**
+     * Returns the {@link ImageView} this setter refers to, or null if it has been already used or
+     * garbage collected.
+     */
+    @Nullable
+    ImageView getImageView() {
+        return mImageView.get();
+    }
+
     @Override
     public void setPlaceholder(@Nullable Drawable drawable) {
         final ImageView view = mImageView.get();
         if (view != null) {
             view.setImageDrawable(drawable);
+            BitmapPool.onBitmapDisplayed(view, null);
         }
     }
 
@@ -126,6 +135,7 @@ public class BitmapAsyncSetter implements BitmapSetter {
         final ImageView view = mImageView.get();
         if (view != null) {
             setImageBitmap(view, bitmap, CacheSource.MEMORY);
+            BitmapPool.onBitmapDisplayed(view, bitmap);
             if (mListener != null) { // notify caller
                 final OnBitmapSetListener listener = mListener.get();
                 if (listener != null) {
@@ -144,6 +154,13 @@ public class BitmapAsyncSetter implements BitmapSetter {
         setBitmapAsync(bitmap, source);
     }
 
+    @Override
+    public void onPreviewRetrieved(@NonNull CacheUrlKey key, @NonNull Bitmap preview) {
+        if (mImageView.get() != null) {
+            BitmapDeliveryDispatcher.getInstance().dispatch(new PreviewDelivery(this, preview));
+        }
+    }
+
     @Override
     public void onBitmapRetrievalFailed(@NonNull CacheUrlKey key, @Nullable Exception e) {
         // TODO: handle placeholder setting when the bitmap loading fails?
@@ -151,7 +168,8 @@ public class BitmapAsyncSetter implements BitmapSetter {
 
     /**
      * Asynchronous callback to use from other threads for asynchronously attempting to set a {@link
-     * Bitmap} to an {@link ImageView} if this is not null and image tags match.
+     * Bitmap} to an {@link ImageView} if this is not null and image tags match. The bitmap is
+     * delivered through the {@link BitmapDeliveryDispatcher}.
      *
      * @param bitmap The {@link Bitmap} image to set
      * @param source The {@link CacheSource} of the bitmap
@@ -160,48 +178,154 @@ public class BitmapAsyncSetter implements BitmapSetter {
     @NotForUIThread
     protected synchronized void setBitmapAsync(@NonNull Bitmap bitmap,
                                                @NonNull final CacheSource source) {
-        // do not pass this reference to the runnable
         final ImageView view = mImageView.get();
         if (view != null) {
-            final SoftReference<Bitmap> bitmapRef = new SoftReference<Bitmap>(bitmap);
-
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    final ImageView innerViewRef = mImageView.get();
-                    // clears soft reference to avoid this being called twice
-                    mImageView.clear();
-                    final Bitmap bitmap = bitmapRef.get();
-                    if (innerViewRef != null) { // context still valid
-                        if (bitmap != null) { // bitmap not GC'd yet
-                            final Object tag = innerViewRef.getTag();
-                            if (tag != null && tag.equals(mCacheKey.hash())) {
-                                setImageBitmap(innerViewRef, bitmap, source);
-                                if (mListener != null) { // notify caller
-                                    final OnBitmapSetListener listener = mListener.get();
-                                    if (listener != null) {
-                                        listener.onBitmapSet(mCacheKey, bitmap, source);
-                                        mListener.clear();
-                                    }
-                                }
-                            } else if (BITMAP_DEBUG) { // debugging
-                                Log.v(TAG, "Runnable: view tag not matching: " + mCacheKey.getUrl());
-                            }
-                        } else if (BITMAP_DEBUG) { // debugging
-                            Log.v(TAG, "Runnable: null bitmap reference: " + mCacheKey.getUrl());
-                        }
-                    } else if (BITMAP_DEBUG) { // debugging
-                        Log.d(TAG, "Runnable: null image view: " + mCacheKey.getUrl());
-                    }
-                    // remove runnable from the handler queue
-                    mHandler.removeCallbacks(this);
-                }
-            });
+            BitmapDeliveryDispatcher.getInstance().dispatch(new SetterDelivery(this, bitmap,
+                    source));
         } else if (BITMAP_DEBUG) { // debugging
             Log.d(TAG, "Async: null image view: " + mCacheKey.getUrl());
         }
     }
 
+    /**
+     * Returns whether the image view is still valid and refers to the requested bitmap.
+     */
+    private boolean isViewValid() {
+        final ImageView view = mImageView.get();
+        if (view != null) {
+            final Object tag = view.getTag();
+            return tag != null && tag.equals(mCacheKey.hashKey());
+        } else if (BITMAP_DEBUG) { // debugging
+            Log.d(TAG, "Delivery: null image view: " + mCacheKey.getUrl());
+        }
+        return false;
+    }
+
+    /**
+     * Sets a bitmap delivered by the {@link BitmapDeliveryDispatcher} from the UI thread.
+     */
+    private void deliverBitmap(@NonNull Bitmap bitmap, @NonNull CacheSource source) {
+        final ImageView view = mImageView.get();
+        // clears soft reference to avoid this being called twice
+        mImageView.clear();
+        if (view != null) { // context still valid
+            final Object tag = view.getTag();
+            if (tag != null && tag.equals(mCacheKey.hashKey())) {
+                setImageBitmap(view, bitmap, source);
+                BitmapPool.onBitmapDisplayed(view, bitmap);
+                if (mListener != null) { // notify caller
+                    final OnBitmapSetListener listener = mListener.get();
+                    if (listener != null) {
+                        listener.onBitmapSet(mCacheKey, bitmap, source);
+                        mListener.clear();
+                    }
+                }
+            } else if (BITMAP_DEBUG) { // debugging
+                Log.v(TAG, "Delivery: view tag not matching: " + mCacheKey.getUrl());
+            }
+        }
+    }
+
+    /**
+     * Sets a preview delivered by the {@link BitmapDeliveryDispatcher} from the UI thread, unless
+     * the full bitmap has already been set (and the view reference cleared).
+     */
+    private void deliverPreview(@NonNull Bitmap preview) {
+        final ImageView view = mImageView.get();
+        if (view != null) {
+            view.setImageBitmap(preview);
+            BitmapPool.onBitmapDisplayed(view, preview);
+        }
+    }
+
+    /**
+     * {@link BitmapDeliveryDispatcher.Delivery} of a bitmap to the image view of a setter.
+     */
+    private static class SetterDelivery implements BitmapDeliveryDispatcher.Delivery {
+
+        private final BitmapAsyncSetter mSetter;
+        private final Bitmap mBitmap;
+        private final CacheSource mSource;
+
+        SetterDelivery(@NonNull BitmapAsyncSetter setter, @NonNull Bitmap bitmap,
+                       @NonNull CacheSource source) {
+            mSetter = setter;
+            mBitmap = bitmap;
+            mSource = source;
+        }
+
+        @Nullable
+        @Override
+        public Object getTarget() {
+            return mSetter.mImageView.get();
+        }
+
+        @Nullable
+        @Override
+        public Object getKey() {
+            return mSetter.mCacheKey.hashKey();
+        }
+
+        @NonNull
+        @Override
+        public Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        @Override
+        public boolean isValid() {
+            return mSetter.isViewValid();
+        }
+
+        @Override
+        public void deliver() {
+            mSetter.deliverBitmap(mBitmap, mSource);
+        }
+    }
+
+    /**
+     * {@link BitmapDeliveryDispatcher.Delivery} of a preview to the image view of a setter. It has
+     * no target, so that it's never coalesced with the delivery of the full bitmap.
+     */
+    private static class PreviewDelivery implements BitmapDeliveryDispatcher.Delivery {
+
+        private final BitmapAsyncSetter mSetter;
+        private final Bitmap mPreview;
+
+        PreviewDelivery(@NonNull BitmapAsyncSetter setter, @NonNull Bitmap preview) {
+            mSetter = setter;
+            mPreview = preview;
+        }
+
+        @Nullable
+        @Override
+        public Object getTarget() {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Object getKey() {
+            return mSetter.mCacheKey.hashKey();
+        }
+
+        @NonNull
+        @Override
+        public Bitmap getBitmap() {
+            return mPreview;
+        }
+
+        @Override
+        public boolean isValid() {
+            return mSetter.isViewValid();
+        }
+
+        @Override
+        public void deliver() {
+            mSetter.deliverPreview(mPreview);
+        }
+    }
+
     /**
      * Method that effectively sets a bitmap image for the passed {@link ImageView}. The default
      * implementation just calls {@link ImageView#setImageBitmap(Bitmap)}, override to provide
@@ -22,13 +22,22 @@ import com.github.marcosalis.kraken.cache.bitmap.BitmapCache;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapDecoder;
 import com.github.marcosalis.kraken.cache.bitmap.disk.BitmapDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapMemoryCache;
+import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapPool;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
 
 /**
  * Internal utility class containing static methods to build the default implementations of {@link
  * BitmapCache}s and their components.
  *
+ * <b>Note:</b> since version 2.0, bitmap memory caches are indexed by {@link HashKey} rather than
+ * by the hexadecimal hash {@link String} of the URLs. The former {@code BitmapMemoryCache<String>}
+ * overloads can't coexist with the new ones (they have the same erasure), so memory caches built
+ * for the 1.x methods must be created with the {@link HashKey} type parameter instead. The disk
+ * cache file names, {@link HashKey#toString()}, are unchanged.
+ *
  * @author Marco Salis
  * @since 1.0
  */
@@ -44,10 +53,43 @@ public class BitmapCacheFactory {
      * components.
      */
     @NonNull
-    public static BitmapCache buildDefaultBitmapCache(@NonNull BitmapMemoryCache<String> cache,
+    public static BitmapCache buildDefaultBitmapCache(@NonNull BitmapMemoryCache<HashKey> cache,
                                                       @Nullable BitmapDiskCache diskCache, @NonNull HttpRequestFactory factory,
                                                       @NonNull BitmapDecoder decoder) {
-        return new BitmapCacheImpl(cache, diskCache, factory, decoder);
+        return buildDefaultBitmapCache(cache, diskCache, factory, decoder, null,
+                BitmapCache.DEFAULT_MAX_DOWNLOAD_BYTES);
+    }
+
+    /**
+     * Builds an instance of the default {@link BitmapCache} implementation given the passed
+     * components, putting the evicted bitmaps into the passed (optional) {@link BitmapPool} and
+     * limiting the size of the downloaded bitmaps to maxDownloadBytes.
+     */
+    @NonNull
+    public static BitmapCache buildDefaultBitmapCache(@NonNull BitmapMemoryCache<HashKey> cache,
+                                                      @Nullable BitmapDiskCache diskCache, @NonNull HttpRequestFactory factory,
+                                                      @NonNull BitmapDecoder decoder, @Nullable BitmapPool pool,
+                                                      long maxDownloadBytes) {
+        return new BitmapCacheImpl(cache, diskCache, factory, decoder, pool, maxDownloadBytes);
+    }
+
+    /**
+     * Builds an instance of the default {@link BitmapCache} implementation as for {@link
+     * #buildDefaultBitmapCache(BitmapMemoryCache, BitmapDiskCache, HttpRequestFactory,
+     * BitmapDecoder, BitmapPool, long)}, deriving the missing bitmaps from the larger variants held
+     * by the passed (optional) source cache.
+     *
+     * @throws IllegalArgumentException if the variant source is not a default implementation
+     */
+    @NonNull
+    public static BitmapCache buildDefaultBitmapCache(@NonNull BitmapMemoryCache<HashKey> cache,
+                                                      @Nullable BitmapDiskCache diskCache, @NonNull HttpRequestFactory factory,
+                                                      @NonNull BitmapDecoder decoder, @Nullable BitmapPool pool,
+                                                      long maxDownloadBytes, @Nullable BitmapCache variantSource) {
+        Preconditions.checkArgument(variantSource == null
+                || variantSource instanceof BitmapCacheImpl, "Unsupported variant source");
+        return new BitmapCacheImpl(cache, diskCache, factory, decoder, pool, maxDownloadBytes,
+                (BitmapCacheImpl) variantSource);
     }
 
 }
\ No newline at end of file
@@ -29,14 +29,22 @@ import com.github.marcosalis.kraken.cache.bitmap.BitmapCacheBase;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapDecoder;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapSetterBuilder;
 import com.github.marcosalis.kraken.cache.bitmap.disk.BitmapDiskCache;
+import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapLruCache;
 import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapMemoryCache;
+import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapPool;
+import com.github.marcosalis.kraken.cache.bitmap.memory.WeakBitmapCache;
 import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
+import com.github.marcosalis.kraken.cache.keys.PreviewCacheUrlKey;
 import com.github.marcosalis.kraken.cache.keys.SimpleCacheUrlKey;
+import com.github.marcosalis.kraken.utils.BitmapUtils;
+import com.github.marcosalis.kraken.utils.DroidUtils;
 import com.github.marcosalis.kraken.utils.concurrent.SettableFutureTask;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.common.annotations.Beta;
 import com.google.common.base.Preconditions;
 
+import java.util.WeakHashMap;
 import java.util.concurrent.Future;
 
 /**
@@ -48,18 +56,56 @@ import java.util.concurrent.Future;
 @Beta
 class BitmapCacheImpl extends BitmapCacheBase {
 
-    private final BitmapMemoryCache<String> mMemoryCache;
+    private final BitmapMemoryCache<HashKey> mMemoryCache;
     @Nullable
     private final BitmapDiskCache mDiskCache;
+    @Nullable
+    private final BitmapPool mBitmapPool;
+    @Nullable
+    private final WeakBitmapCache<HashKey> mSecondTier;
     private final BitmapLoader.Config mLoaderConfig;
+    /* active request for each image view, only accessed from the UI thread */
+    private final WeakHashMap<ImageView, ViewRequest> mViewRequests;
 
-    BitmapCacheImpl(@NonNull BitmapMemoryCache<String> cache, @Nullable BitmapDiskCache diskCache,
+    BitmapCacheImpl(@NonNull BitmapMemoryCache<HashKey> cache, @Nullable BitmapDiskCache diskCache,
                     @NonNull HttpRequestFactory factory, @NonNull BitmapDecoder decoder) {
+        this(cache, diskCache, factory, decoder, null, DEFAULT_MAX_DOWNLOAD_BYTES);
+    }
+
+    BitmapCacheImpl(@NonNull BitmapMemoryCache<HashKey> cache, @Nullable BitmapDiskCache diskCache,
+                    @NonNull HttpRequestFactory factory, @NonNull BitmapDecoder decoder,
+                    @Nullable BitmapPool pool, long maxDownloadBytes) {
+        this(cache, diskCache, factory, decoder, pool, maxDownloadBytes, null);
+    }
+
+    /**
+     * Creates a bitmap cache that, on a miss, derives the requested bitmap from the larger variant
+     * of the same image held by the variant source cache, if any, before downloading it.
+     */
+    BitmapCacheImpl(@NonNull BitmapMemoryCache<HashKey> cache, @Nullable BitmapDiskCache diskCache,
+                    @NonNull HttpRequestFactory factory, @NonNull BitmapDecoder decoder,
+                    @Nullable BitmapPool pool, long maxDownloadBytes,
+                    @Nullable BitmapCacheImpl variantSource) {
         mMemoryCache = cache;
         cache.setOnEntryRemovedListener(this);
         mDiskCache = diskCache;
-        mLoaderConfig = new BitmapLoader.Config(getMemoizer(), mMemoryCache, mDiskCache, factory,
-                decoder);
+        mBitmapPool = pool;
+        // pooled bitmaps can be overwritten, so only the others get into the second tier
+        mSecondTier = cache instanceof BitmapLruCache ? ((BitmapLruCache<HashKey>) cache)
+                .getSecondTier() : null;
+        final int concurrencyLevel = DroidUtils.getCpuBoundPoolSize();
+        if (variantSource != null) {
+            // variants can only be shared when none of the caches recycles its evicted bitmaps
+            final boolean shareBitmaps = pool == null && variantSource.mBitmapPool == null;
+            mLoaderConfig = new BitmapLoader.Config(new BitmapLoadTable(concurrencyLevel),
+                    mMemoryCache, mDiskCache, factory, decoder, maxDownloadBytes,
+                    getStatsRecorder(), variantSource.mMemoryCache, variantSource.mDiskCache, shareBitmaps);
+        } else {
+            mLoaderConfig = new BitmapLoader.Config(new BitmapLoadTable(concurrencyLevel),
+                    mMemoryCache, mDiskCache, factory, decoder, maxDownloadBytes,
+                    getStatsRecorder());
+        }
+        mViewRequests = new WeakHashMap<ImageView, ViewRequest>();
     }
 
     @NonNull
@@ -69,30 +115,35 @@ class BitmapCacheImpl extends BitmapCacheBase {
     }
 
     @Override
-    public void getBitmapAsync(@NonNull CacheUrlKey key, @NonNull AccessPolicy policy,
-                               @NonNull OnBitmapRetrievalListener listener) {
+    @NonNull
+    public Future<Bitmap> getBitmapAsync(@NonNull CacheUrlKey key, @NonNull AccessPolicy policy,
+                                         @NonNull OnBitmapRetrievalListener listener) {
         Preconditions.checkArgument(policy != AccessPolicy.PRE_FETCH, "Can't prefetch here");
         final boolean isRefresh = policy == AccessPolicy.REFRESH;
 
         if (isRefresh) {
-            BitmapLoader.executeDownload(mLoaderConfig, key, policy, listener);
+            return new BitmapRequest(BitmapLoader.executeDownload(mLoaderConfig, getLoadKey(key),
+                    policy, listener), listener);
         } else {
             final Future<Bitmap> future = getBitmapFromMemory(key, listener);
             if (future != null) {
                 // cache hit at memory level, we can avoid further overhead of
                 // executing tasks as an optimization
+                return future;
             } else {
-                final BitmapLoader loader = new BitmapLoader(mLoaderConfig, key, policy, listener);
-                BitmapCacheBase.submitInExecutor(loader);
+                return new BitmapRequest(BitmapLoader.load(mLoaderConfig, getLoadKey(key), policy,
+                        listener), listener);
             }
         }
     }
 
     @Override
-    public void preloadBitmap(@NonNull CacheUrlKey key) {
-        final BitmapLoader loader = new BitmapLoader(mLoaderConfig, key, AccessPolicy.PRE_FETCH,
-                null);
-        BitmapCacheBase.submitInExecutor(loader);
+    @NonNull
+    public Future<Bitmap> preloadBitmap(@NonNull CacheUrlKey key) {
+        final PrefetchRequest request = new PrefetchRequest();
+        request.setLoad(BitmapLoader.load(mLoaderConfig, getLoadKey(key), AccessPolicy.PRE_FETCH,
+                request));
+        return request;
     }
 
     @Override
@@ -120,6 +171,10 @@ class BitmapCacheImpl extends BitmapCacheBase {
      * <b>This needs to be called from the UI thread</b>, as the image setting is asynchronous
      * except in the case we already have the image available in the memory cache.
      *
+     * If the setter is a {@link BitmapAsyncSetter}, the request is tracked for its image view: a
+     * new request for the same view (for example when a list item is recycled) cancels the queued
+     * work of the previous one, unless other requests still need it.
+     *
      * @param key         The {@link CacheUrlKey} of the image to retrieve
      * @param policy      The {@link AccessPolicy} to use, can be one of {@link
      *                    AccessPolicy#NORMAL}, {@link AccessPolicy#CACHE_ONLY} or {@link
@@ -137,29 +192,82 @@ class BitmapCacheImpl extends BitmapCacheBase {
         Preconditions.checkArgument(policy != AccessPolicy.PRE_FETCH, "Can't prefetch here");
         final boolean isRefresh = policy == AccessPolicy.REFRESH;
 
-        final Future<Bitmap> future;
-        if (!isRefresh && (future = getBitmapFromMemory(key, setter)) != null) {
-            // cache hit at the very first attempt, no other actions needed
-            return future;
-        } else {
-            // set temporary placeholder
-            if (placeholder != null) {
-                setter.setPlaceholder(placeholder);
-            }
-            if (!isRefresh) {
-                final BitmapLoader loader = new BitmapLoader(mLoaderConfig, key, policy, setter);
-                return BitmapCacheBase.submitInExecutor(loader);
+        final ImageView view = setter instanceof BitmapAsyncSetter ? ((BitmapAsyncSetter) setter)
+                .getImageView() : null;
+        final ViewRequest previous = view != null ? mViewRequests.remove(view) : null;
+        try {
+            Future<Bitmap> future;
+            if (!isRefresh && (future = getBitmapFromMemory(key, setter)) != null) {
+                // cache hit at the very first attempt, no other actions needed
+                return future;
             } else {
-                return BitmapLoader.executeDownload(mLoaderConfig, key, policy, setter);
+                // set temporary placeholder
+                if (placeholder != null) {
+                    setter.setPlaceholder(placeholder);
+                }
+                final CacheUrlKey previewKey = PreviewCacheUrlKey.getPreviewKey(key);
+                final CacheUrlKey loadKey = getLoadKey(key);
+                BitmapLoad previewLoad = null;
+                PreviewListener previewListener = null;
+                if (previewKey != null && setter instanceof PreviewBitmapSetter) {
+                    // start loading the preview first, it's usually much quicker
+                    previewListener = new PreviewListener((PreviewBitmapSetter) setter);
+                    previewLoad = loadPreview(previewKey, policy, previewListener);
+                }
+                final BitmapLoad load;
+                if (!isRefresh) {
+                    load = BitmapLoader.load(mLoaderConfig, loadKey, policy, setter);
+                } else {
+                    load = BitmapLoader.executeDownload(mLoaderConfig, loadKey, policy, setter);
+                }
+                if (view != null) {
+                    mViewRequests.put(view, new ViewRequest(load, setter, previewLoad,
+                            previewListener));
+                }
+                return new BitmapRequest(load, setter);
+            }
+        } finally {
+            // release the previous request only now, as the new one could share its load
+            if (previous != null) {
+                previous.release();
             }
         }
     }
 
+    /**
+     * Returns the key to pass to the loader: the preview decorator is only handled by the cache.
+     */
+    @NonNull
+    private static CacheUrlKey getLoadKey(@NonNull CacheUrlKey key) {
+        return key instanceof PreviewCacheUrlKey ? ((PreviewCacheUrlKey) key).getKey() : key;
+    }
+
+    /**
+     * Loads the preview of a bitmap, delivering it to the passed listener.
+     *
+     * @return The {@link BitmapLoad} of the preview, or null if it was in the memory cache
+     */
+    @Nullable
+    private BitmapLoad loadPreview(@NonNull CacheUrlKey previewKey, @NonNull AccessPolicy policy,
+                                   @NonNull PreviewListener listener) {
+        final Bitmap preview = mMemoryCache.get(previewKey.hashKey());
+        if (preview != null) {
+            listener.onBitmapRetrieved(previewKey, preview, CacheSource.MEMORY);
+            return null;
+        }
+        // a preview is never worth a refresh
+        final AccessPolicy previewPolicy = policy == AccessPolicy.REFRESH ? AccessPolicy.NORMAL
+                : policy;
+        return BitmapLoader.load(mLoaderConfig, previewKey, previewPolicy, listener);
+    }
+
     @Nullable
     private Future<Bitmap> getBitmapFromMemory(@NonNull CacheUrlKey key,
                                                @NonNull OnBitmapRetrievalListener listener) {
+        final long start = System.nanoTime();
         final Bitmap bitmap;
-        if ((bitmap = mMemoryCache.get(key.hash())) != null) {
+        if ((bitmap = mMemoryCache.get(key.hashKey())) != null) {
+            getStatsRecorder().recordHit(CacheSource.MEMORY, System.nanoTime() - start);
             if (listener instanceof BitmapAsyncSetter) {
                 ((BitmapAsyncSetter) listener).setBitmapSync(bitmap);
             } else {
@@ -167,13 +275,27 @@ class BitmapCacheImpl extends BitmapCacheBase {
             }
             return SettableFutureTask.fromResult(bitmap);
         }
+        getStatsRecorder().recordMiss(CacheSource.MEMORY);
         return null;
     }
 
+    @Override
+    public void onEntryRemoved(boolean evicted, HashKey key, Bitmap value) {
+        if (evicted) {
+            getStatsRecorder().recordEviction(BitmapUtils.getSize(value));
+            // make the evicted bitmap available for reuse, or give it a second chance
+            if ((mBitmapPool == null || !mBitmapPool.put(value)) && mSecondTier != null) {
+                mSecondTier.put(key, value);
+            }
+        }
+    }
+
     @Override
     public void clearMemoryCache() {
-        super.clearMemoryCache();
         mMemoryCache.clear();
+        if (mBitmapPool != null) {
+            mBitmapPool.clear();
+        }
     }
 
     @Override
@@ -190,4 +312,55 @@ class BitmapCacheImpl extends BitmapCacheBase {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * The load requested for an image view by a setter, and the load of its preview, if any.
+     */
+    private static class ViewRequest {
+
+        final BitmapLoad load;
+        final BitmapSetter setter;
+        @Nullable
+        final BitmapLoad previewLoad;
+        @Nullable
+        final PreviewListener previewListener;
+
+        ViewRequest(@NonNull BitmapLoad load, @NonNull BitmapSetter setter,
+                    @Nullable BitmapLoad previewLoad, @Nullable PreviewListener previewListener) {
+            this.load = load;
+            this.setter = setter;
+            this.previewLoad = previewLoad;
+            this.previewListener = previewListener;
+        }
+
+        void release() {
+            load.unsubscribe(setter);
+            if (previewLoad != null) {
+                previewLoad.unsubscribe(previewListener);
+            }
+        }
+    }
+
+    /**
+     * Delivers a retrieved preview to its {@link PreviewBitmapSetter}.
+     */
+    private static class PreviewListener implements OnBitmapRetrievalListener {
+
+        private final PreviewBitmapSetter mSetter;
+
+        PreviewListener(@NonNull PreviewBitmapSetter setter) {
+            mSetter = setter;
+        }
+
+        @Override
+        public void onBitmapRetrieved(@NonNull CacheUrlKey key, @NonNull Bitmap bitmap,
+                                      @NonNull CacheSource source) {
+            mSetter.onPreviewRetrieved(key, bitmap);
+        }
+
+        @Override
+        public void onBitmapRetrievalFailed(@NonNull CacheUrlKey key, @Nullable Exception e) {
+            // the placeholder stays until the full bitmap is set
+        }
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.internal;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnBitmapRetrievalListener;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCacheBase;
+import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
+import com.google.common.annotations.Beta;
+import com.google.common.util.concurrent.AbstractFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * In-flight load of a bitmap through all the cache stages (memory, disk and network), shared by
+ * all the concurrent requests for the same key that are registered in a {@link BitmapLoadTable}.
+ *
+ * Every request subscribes its listener to the load, which gets notified once with the load
+ * outcome. The load also acts as a {@link java.util.concurrent.Future} that completes with the
+ * retrieved bitmap, or null if the retrieval failed. As it's shared, the load is never returned to
+ * the callers of the cache, which get a {@link BitmapRequest} that can be cancelled on its own.
+ *
+ * Listeners can be unsubscribed when they're not interested in the outcome anymore (see {@link
+ * #unsubscribe(OnBitmapRetrievalListener)}): when no request is left, the load cancels its queued
+ * stage, while a running stage is always completed so that its result still reaches the caches.
+ *
+ * Loads only requested by prefetches (see {@link BitmapCache#preloadBitmap(CacheUrlKey)}) execute
+ * their stages with a low priority, and get prioritized as soon as a visible request joins them.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+class BitmapLoad extends AbstractFuture<Bitmap> {
+
+    final HashKey key;
+
+    @GuardedBy("this")
+    private final List<Subscriber> mSubscribers = new ArrayList<Subscriber>(2);
+    @GuardedBy("this")
+    private int mRequests;
+    @GuardedBy("this")
+    private int mVisibleRequests;
+    @GuardedBy("this")
+    @Nullable
+    private Future<?> mTask;
+    @GuardedBy("this")
+    private boolean mDownloading;
+    @GuardedBy("this")
+    private boolean mLowPriorityTask;
+    @GuardedBy("this")
+    private boolean mRunning;
+    @GuardedBy("this")
+    private boolean mCancelled;
+    @GuardedBy("this")
+    private boolean mNetworkAllowed;
+    @GuardedBy("this")
+    private boolean mNetworkDenied;
+    @GuardedBy("this")
+    private boolean mCompleted;
+
+    /**
+     * Creates a new load.
+     *
+     * @param key     The hash key of the bitmap
+     * @param network true if any of the subscribers allows downloading the bitmap
+     */
+    BitmapLoad(@NonNull HashKey key, boolean network) {
+        this.key = key;
+        mNetworkAllowed = network;
+    }
+
+    /**
+     * Subscribes a request to this load. A visible (non-prefetch) request prioritizes the queued
+     * stage of a load that has only been requested by prefetches so far.
+     *
+     * @param urlKey   The {@link CacheUrlKey} of the request
+     * @param listener The (optional) listener to notify with the outcome
+     * @param network  true if the request allows downloading the bitmap
+     * @param prefetch true if the request is a prefetch
+     * @return true if the request was subscribed, false if the load is already completed or can
+     * no longer satisfy the request
+     */
+    boolean subscribe(@NonNull CacheUrlKey urlKey, @Nullable OnBitmapRetrievalListener listener,
+                      boolean network, boolean prefetch) {
+        final boolean prioritize;
+        synchronized (this) {
+            if (mCompleted || mCancelled || (network && mNetworkDenied)) {
+                return false;
+            }
+            mRequests++;
+            mNetworkAllowed |= network;
+            if (listener != null) {
+                mSubscribers.add(new Subscriber(urlKey, listener, prefetch));
+            }
+            if (!prefetch) {
+                mVisibleRequests++;
+            }
+            prioritize = !prefetch && mLowPriorityTask;
+            if (prioritize) {
+                mLowPriorityTask = false;
+            }
+        }
+        if (prioritize) {
+            BitmapCacheBase.moveLoadToFront(key);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the next stage of this load must be executed with a low priority, because
+     * only prefetches requested it.
+     */
+    synchronized boolean isLowPriority() {
+        return mVisibleRequests == 0;
+    }
+
+    /**
+     * Unsubscribes a listener from this load. If no other request is subscribed, the queued stage
+     * of the load is cancelled, otherwise a queued download is moved to the back of the downloader
+     * queue to make room for the requests of other listeners.
+     *
+     * @param listener The listener to unsubscribe
+     */
+    void unsubscribe(@NonNull OnBitmapRetrievalListener listener) {
+        final Future<?> task;
+        final boolean cancel;
+        synchronized (this) {
+            final Subscriber subscriber;
+            if (mCompleted || (subscriber = removeSubscriber(listener)) == null) {
+                return;
+            }
+            mRequests--;
+            if (!subscriber.prefetch) {
+                mVisibleRequests--;
+            }
+            cancel = mRequests == 0 && !mRunning;
+            if (cancel) {
+                mCancelled = true;
+            } else if (mRunning || !mDownloading || subscriber.prefetch) {
+                return; // nothing to cancel or deprioritize
+            }
+            task = mTask;
+        }
+        if (cancel) {
+            if (task != null) {
+                task.cancel(false);
+            } // otherwise, the stage completes the load when started
+        } else {
+            BitmapCacheBase.moveDownloadToBack(key);
+        }
+    }
+
+    @GuardedBy("this")
+    @Nullable
+    private Subscriber removeSubscriber(@NonNull OnBitmapRetrievalListener listener) {
+        for (int i = 0; i < mSubscribers.size(); i++) {
+            if (mSubscribers.get(i).listener == listener) {
+                return mSubscribers.remove(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the task that executes the current stage of the load. If the task was submitted with a
+     * low priority but a visible request subscribed in the meantime, the task is prioritized.
+     *
+     * @param task        The {@link Future} of the stage task
+     * @param download    true if the stage is the bitmap download
+     * @param lowPriority true if the task was submitted with a low priority
+     */
+    void setTask(@NonNull Future<?> task, boolean download, boolean lowPriority) {
+        final boolean prioritize;
+        synchronized (this) {
+            if (mDownloading && !download) {
+                return; // the disk stage already handed off to the download
+            }
+            mTask = task;
+            mDownloading = download;
+            prioritize = lowPriority && mVisibleRequests > 0;
+            mLowPriorityTask = lowPriority && !prioritize;
+        }
+        if (prioritize) {
+            BitmapCacheBase.moveLoadToFront(key);
+        }
+    }
+
+    /**
+     * Called by a stage task when it starts executing.
+     *
+     * @return false if the load has been cancelled, in which case the task must not do any work
+     */
+    synchronized boolean onStageStarted() {
+        if (mCancelled) {
+            return false;
+        }
+        mRunning = true;
+        return true;
+    }
+
+    /**
+     * Called when the bitmap is in neither the memory nor the disk cache.
+     *
+     * @return true if the bitmap must be downloaded, false if no subscriber allows it or all the
+     * requests have been unsubscribed, in which case no other network requests can subscribe this
+     * load anymore
+     */
+    synchronized boolean onCacheMiss() {
+        if (!mNetworkAllowed || mRequests == 0) {
+            mNetworkDenied = true;
+            return false;
+        }
+        mRunning = false; // the download is queued
+        return true;
+    }
+
+    /**
+     * Completes the load and notifies all the subscribers. Only the first call has any effect.
+     * Use {@link BitmapLoadTable#complete(BitmapLoad, Bitmap, CacheSource, Exception)} to also
+     * release the load from its table.
+     */
+    void complete(@Nullable Bitmap bitmap, @Nullable CacheSource source,
+                  @Nullable Exception exception) {
+        final Subscriber[] subscribers;
+        synchronized (this) {
+            if (mCompleted) {
+                return;
+            }
+            mCompleted = true;
+            subscribers = mSubscribers.toArray(new Subscriber[mSubscribers.size()]);
+            mSubscribers.clear(); // avoid leaks
+        }
+        set(bitmap);
+        for (Subscriber subscriber : subscribers) {
+            if (bitmap != null) {
+                subscriber.listener.onBitmapRetrieved(subscriber.key, bitmap, source);
+            } else {
+                subscriber.listener.onBitmapRetrievalFailed(subscriber.key, exception);
+            }
+        }
+    }
+
+    private static class Subscriber {
+
+        final CacheUrlKey key;
+        final OnBitmapRetrievalListener listener;
+        final boolean prefetch;
+
+        Subscriber(@NonNull CacheUrlKey key, @NonNull OnBitmapRetrievalListener listener,
+                   boolean prefetch) {
+            this.key = key;
+            this.listener = listener;
+            this.prefetch = prefetch;
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.internal;
+
+import android.graphics.Bitmap;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnBitmapRetrievalListener;
+import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Table of the in-flight {@link BitmapLoad}s of a bitmap cache, which guarantees that concurrent
+ * requests for the same key share a single load through the memory, disk and network stages.
+ *
+ * Loads are only kept in the table while they're in progress: they're released as soon as they
+ * complete, so the table never grows beyond the number of pending requests.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+class BitmapLoadTable {
+
+    private static final int INIT_TABLE_SIZE = 16;
+
+    private final ConcurrentHashMap<HashKey, BitmapLoad> mLoads;
+
+    /**
+     * Creates a new table.
+     *
+     * @param concurrencyLevel The estimated number of threads that concurrently update the table
+     */
+    BitmapLoadTable(@IntRange(from = 1) int concurrencyLevel) {
+        mLoads = new ConcurrentHashMap<HashKey, BitmapLoad>(INIT_TABLE_SIZE, 0.75f,
+                concurrencyLevel);
+    }
+
+    /**
+     * Subscribes a request to the in-flight load for its key, if any.
+     *
+     * @return The joined {@link BitmapLoad}, or null if there is no in-flight load that can
+     * satisfy the request
+     * @see BitmapLoad#subscribe(CacheUrlKey, OnBitmapRetrievalListener, boolean, boolean)
+     */
+    @Nullable
+    BitmapLoad join(@NonNull CacheUrlKey key, @Nullable OnBitmapRetrievalListener listener,
+                    boolean network, boolean prefetch) {
+        final HashKey hash = key.hashKey();
+        final BitmapLoad load = mLoads.get(hash);
+        if (load != null) {
+            if (load.subscribe(key, listener, network, prefetch)) {
+                return load;
+            }
+            // completed or unable to download: release it from the table
+            mLoads.remove(hash, load);
+        }
+        return null;
+    }
+
+    /**
+     * Registers a new load if there is no other in-flight load for the same key.
+     *
+     * @return true if the load was registered and must be started by the caller
+     */
+    boolean register(@NonNull BitmapLoad load) {
+        return mLoads.putIfAbsent(load.key, load) == null;
+    }
+
+    /**
+     * Registers a new load, replacing any in-flight load for the same key. Used to refresh a
+     * bitmap: the replaced load still completes, but new requests join the passed load.
+     */
+    void replace(@NonNull BitmapLoad load) {
+        mLoads.put(load.key, load);
+    }
+
+    /**
+     * Releases a load from the table and completes it.
+     *
+     * @see BitmapLoad#complete(Bitmap, CacheSource, Exception)
+     */
+    void complete(@NonNull BitmapLoad load, @Nullable Bitmap bitmap, @Nullable CacheSource source,
+                  @Nullable Exception exception) {
+        // release before completing, so that late requests start a new load
+        mLoads.remove(load.key, load);
+        load.complete(bitmap, source, exception);
+    }
+
+    @VisibleForTesting
+    int size() {
+        return mLoads.size();
+    }
+
+}
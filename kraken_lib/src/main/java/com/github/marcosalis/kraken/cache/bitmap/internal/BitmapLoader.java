@@ -17,33 +17,41 @@
 package com.github.marcosalis.kraken.cache.bitmap.internal;
 
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.github.marcosalis.kraken.DroidConfig;
 import com.github.marcosalis.kraken.cache.AccessPolicy;
+import com.github.marcosalis.kraken.cache.CacheStats;
 import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
+import com.github.marcosalis.kraken.cache.SimpleDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnBitmapRetrievalListener;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapCacheBase;
 import com.github.marcosalis.kraken.cache.bitmap.BitmapDecoder;
 import com.github.marcosalis.kraken.cache.bitmap.disk.BitmapDiskCache;
+import com.github.marcosalis.kraken.cache.bitmap.disk.SimpleBitmapDiskCache;
 import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapLruCache;
 import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapMemoryCache;
 import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
-import com.github.marcosalis.kraken.utils.DroidUtils;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
+import com.github.marcosalis.kraken.cache.keys.SizedCacheUrlKey;
+import com.github.marcosalis.kraken.utils.BitmapUtils;
 import com.github.marcosalis.kraken.utils.android.LogUtils;
-import com.github.marcosalis.kraken.utils.concurrent.Memoizer;
 import com.github.marcosalis.kraken.utils.http.ByteArrayDownloader;
+import com.github.marcosalis.kraken.utils.http.HttpValidators;
+import com.github.marcosalis.kraken.utils.http.StreamDownloader;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.common.annotations.Beta;
-import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 
 import java.io.IOException;
-import java.util.Set;
+import java.io.InputStream;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -55,8 +63,30 @@ import javax.annotation.concurrent.NotThreadSafe;
  * request is {@link AccessPolicy#PRE_FETCH}, the retrieved image is only downloaded and put in the
  * memory cache if necessary.
  *
- * FIXME: some tests showed that, very rarely, a race condition occurs for which two threads can get
- * to download the same bitmap twice: investigate this
+ * Concurrent requests for the same bitmap are single-flighted through the {@link BitmapLoadTable}
+ * of the cache: only the first request starts a {@link BitmapLoad}, which goes through the memory,
+ * disk and network stages, while the others subscribe to it. This way, any number of concurrent
+ * requests for a key costs a single disk decode or download.
+ *
+ * When the cache derives its bitmaps from another cache that holds larger variants of the same
+ * images, a load that misses both the memory and disk caches looks for the variant in the other
+ * cache's memory (scaling it down to the target size of the key) and disk caches before
+ * downloading it.
+ *
+ * When the bitmap is downloaded again while an entry for it is still in an indexed disk cache (for
+ * example, when refreshing it), the download is conditional to the HTTP validators stored with the
+ * entry: if the server replies that the image hasn't been modified, the entry expiration is
+ * extended and the bitmap is decoded from it. Expired entries that have validators are kept by
+ * the disk cache for this purpose: they're treated as stale by the disk stage and revalidated
+ * before being used, unless the load can't access the network.
+ *
+ * The stages of a load only requested with {@link AccessPolicy#PRE_FETCH} are submitted with a low
+ * priority, so that they never delay the loads of visible bitmaps.
+ *
+ * The result of the whole load, including the network download when the bitmap is not cached, is
+ * delivered through the {@link Future} returned by {@link #load(Config, CacheUrlKey, AccessPolicy,
+ * OnBitmapRetrievalListener)}. The value returned by {@link #call()} only represents the cache
+ * lookup.
  *
  * @author Marco Salis
  * @since 1.0
@@ -71,45 +101,73 @@ public class BitmapLoader implements Callable<Bitmap> {
      */
     @Immutable
     static class Config {
-        public final Memoizer<String, Bitmap> downloadsCache;
-        public final BitmapMemoryCache<String> memoryCache;
+        public final BitmapLoadTable loads;
+        public final BitmapMemoryCache<HashKey> memoryCache;
         public final BitmapDiskCache diskCache;
         public final HttpRequestFactory requestFactory;
         public final BitmapDecoder bitmapDecoder;
+        public final long maxDownloadBytes;
+        @Nullable
+        public final BitmapMemoryCache<HashKey> sourceMemoryCache;
+        @Nullable
+        public final BitmapDiskCache sourceDiskCache;
+        public final boolean shareSourceBitmaps;
+        public final CacheStats.Recorder stats;
 
         /**
          * Creates a {@link BitmapLoader} immutable configuration.
          *
-         * @param downloads The {@link CacheMemoizer} used to retrieve cached items
+         * @param loads     The {@link BitmapLoadTable} that holds the in-flight loads
          * @param cache     The {@link BitmapLruCache} where bitmaps in memory are stored
          * @param diskCache The (optional) {@link BitmapDiskCache} where bitmaps saved on disk are
          *                  handled
          * @param factory   The {@link HttpRequestFactory} to download the bitmap
          * @param decoder   The {@link BitmapDecoder} to use for decoding
+         * @param maxBytes  The maximum size of a downloaded bitmap in bytes
+         * @param stats     The {@link CacheStats.Recorder} of the cache
+         */
+        public Config(@NonNull BitmapLoadTable loads,
+                      @NonNull BitmapMemoryCache<HashKey> memoryCache,
+                      @Nullable BitmapDiskCache diskCache, @NonNull HttpRequestFactory requestFactory,
+                      @NonNull BitmapDecoder decoder, long maxBytes,
+                      @NonNull CacheStats.Recorder stats) {
+            this(loads, memoryCache, diskCache, requestFactory, decoder, maxBytes, stats, null,
+                    null, false);
+        }
+
+        /**
+         * Creates a {@link BitmapLoader} immutable configuration that derives the missing bitmaps
+         * from the larger variants held by the caches of another bitmap cache.
+         *
+         * @param sourceMemoryCache The (optional) memory cache that holds the larger variants
+         * @param sourceDiskCache   The (optional) disk cache that holds the larger variants
+         * @param shareBitmaps      true if a variant that doesn't need scaling can be shared
+         *                          between the caches, false to copy it (when bitmaps are pooled)
+         * @see #Config(BitmapLoadTable, BitmapMemoryCache, BitmapDiskCache, HttpRequestFactory,
+         * BitmapDecoder, long, CacheStats.Recorder)
          */
-        public Config(@NonNull Memoizer<String, Bitmap> downloadsCache,
-                      @NonNull BitmapMemoryCache<String> memoryCache,
+        public Config(@NonNull BitmapLoadTable loads,
+                      @NonNull BitmapMemoryCache<HashKey> memoryCache,
                       @Nullable BitmapDiskCache diskCache, @NonNull HttpRequestFactory requestFactory,
-                      @NonNull BitmapDecoder decoder) {
-            this.downloadsCache = downloadsCache;
+                      @NonNull BitmapDecoder decoder, long maxBytes,
+                      @NonNull CacheStats.Recorder stats,
+                      @Nullable BitmapMemoryCache<HashKey> sourceMemoryCache,
+                      @Nullable BitmapDiskCache sourceDiskCache, boolean shareBitmaps) {
+            this.loads = loads;
             this.memoryCache = memoryCache;
             this.diskCache = diskCache;
             this.requestFactory = requestFactory;
             this.bitmapDecoder = decoder;
+            this.maxDownloadBytes = maxBytes;
+            this.sourceMemoryCache = sourceMemoryCache;
+            this.sourceDiskCache = sourceDiskCache;
+            this.shareSourceBitmaps = shareBitmaps;
+            this.stats = stats;
         }
     }
 
-    static {
-        final int concurrency = DroidUtils.getCpuBoundPoolSize();
-        final ConcurrentHashMap<String, Boolean> map = new ConcurrentHashMap<String, Boolean>(128,
-                0.75f, concurrency);
-        // addAll() is NOT thread-safe in this set
-        loaderDownloadedItems = Sets.newSetFromMap(map);
-    }
-
     private static final String TAG = BitmapLoader.class.getSimpleName();
 
-    static final Set<String> loaderDownloadedItems;
     // for logging purposes only
     static final AtomicLong downloaderTimer = new AtomicLong();
     static final AtomicInteger downloaderCounter = new AtomicInteger();
@@ -119,175 +177,288 @@ public class BitmapLoader implements Callable<Bitmap> {
     private final BitmapLoader.Config mLoaderConfig;
     private final CacheUrlKey mKey;
     private final AccessPolicy mPolicy;
-    private OnBitmapRetrievalListener mBitmapCallback;
+    private final BitmapLoad mLoad;
 
     /**
      * Instantiates a {@link BitmapLoader}.
      *
-     * @param config   The {@link BitmapLoader#Config} for this loader
-     * @param key      The {@link CacheUrlKey} to retrieve the bitmap
-     * @param policy   The {@link AccessPolicy} to load the bitmap
-     * @param callback {@link OnBitmapRetrievalListener} for the image (can be null)
+     * @param config The {@link BitmapLoader#Config} for this loader
+     * @param key    The {@link CacheUrlKey} to retrieve the bitmap
+     * @param policy The {@link AccessPolicy} to load the bitmap
+     * @param load   The {@link BitmapLoad} to complete
      */
-    BitmapLoader(@NonNull BitmapLoader.Config config, @NonNull CacheUrlKey key,
-                 @NonNull AccessPolicy policy, @Nullable OnBitmapRetrievalListener callback) {
+    private BitmapLoader(@NonNull BitmapLoader.Config config, @NonNull CacheUrlKey key,
+                         @NonNull AccessPolicy policy, @NonNull BitmapLoad load) {
         mLoaderConfig = config;
         mKey = key;
         mPolicy = policy;
-        mBitmapCallback = callback;
+        mLoad = load;
+    }
+
+    /**
+     * Loads a bitmap, joining the in-flight load for the same key if there is one, or submitting a
+     * new one in the bitmap disk executor.
+     *
+     * @param config   The {@link BitmapLoader#Config} to use
+     * @param key      The {@link CacheUrlKey} to retrieve the bitmap
+     * @param policy   The {@link AccessPolicy} to load the bitmap, can't be {@link
+     *                 AccessPolicy#REFRESH}
+     * @param callback {@link OnBitmapRetrievalListener} for the image (can be null)
+     * @return A {@link Future} that completes with the loaded bitmap when it's retrieved from the
+     * caches or downloaded, or with null if the load failed
+     */
+    @NonNull
+    static BitmapLoad load(@NonNull BitmapLoader.Config config, @NonNull CacheUrlKey key,
+                           @NonNull AccessPolicy policy,
+                           @Nullable OnBitmapRetrievalListener callback) {
+        final BitmapLoadTable loads = config.loads;
+        final boolean network = policy != AccessPolicy.CACHE_ONLY;
+        final boolean prefetch = policy == AccessPolicy.PRE_FETCH;
+        while (true) {
+            BitmapLoad load = loads.join(key, callback, network, prefetch);
+            if (load != null) {
+                return load;
+            }
+            load = new BitmapLoad(key.hashKey(), network);
+            load.subscribe(key, callback, network, prefetch);
+            if (loads.register(load)) {
+                final BitmapLoader loader = new BitmapLoader(config, key, policy, load);
+                final boolean lowPriority = load.isLowPriority();
+                try {
+                    load.setTask(BitmapCacheBase.submitInExecutor(load.key, loader,
+                            new CancellationCallback(loads, load), lowPriority), false,
+                            lowPriority);
+                } catch (RuntimeException e) { // rejected
+                    loads.complete(load, null, null, e);
+                    throw e;
+                }
+                return load;
+            }
+            // another request registered a load in the meantime, join it
+        }
     }
 
     @Override
     @Nullable
     public Bitmap call() {
-        // TODO: refactor this
-        final BitmapMemoryCache<String> memoryCache = mLoaderConfig.memoryCache;
+        final BitmapMemoryCache<HashKey> memoryCache = mLoaderConfig.memoryCache;
         final BitmapDiskCache diskCache = mLoaderConfig.diskCache;
-        final String key = mKey.hash();
+        final HashKey key = mKey.hashKey();
+        final CacheStats.Recorder stats = mLoaderConfig.stats;
 
         Bitmap bitmap = null;
         CacheSource source = null;
+        boolean downloading = false;
+        boolean stale = false;
 
         try {
-            if (mPolicy != AccessPolicy.REFRESH) {
-                // 1- check memory cache again
-                if ((bitmap = memoryCache.get(key)) != null) {
-                    // memory cache hit
-                    source = CacheSource.MEMORY;
+            if (!mLoad.onStageStarted()) {
+                return null; // all requests were cancelled
+            }
+            /*
+             * 1- check memory cache again: the memory stats are recorded by the lookup of the
+             * request, so the (rare) hits of this check aren't counted
+             */
+            if ((bitmap = memoryCache.get(key)) != null) {
+                // memory cache hit
+                source = CacheSource.MEMORY;
+                return bitmap;
+            }
+
+            /*
+             * 2- check disk caches: the disk stage records a single outcome, which only is a miss
+             * when neither the disk cache nor the one of the larger variants (if any) have it
+             */
+            boolean diskLookup = false;
+            long diskNanos = 0;
+            if (diskCache != null) {
+                diskLookup = true;
+                final long startDisk = System.nanoTime();
+                if (isStale(diskCache, mKey)) {
+                    stale = true; // revalidate the entry with a conditional download
+                } else if ((bitmap = getFromDisk(diskCache, mKey)) != null) {
+                    // disk cache hit, put it into memory cache
+                    source = CacheSource.DISK;
+                    stats.recordHit(CacheSource.DISK, System.nanoTime() - startDisk);
+                    // use put(key, bitmap) for debugging
+                    memoryCache.putIfAbsent(key, bitmap);
                     return bitmap;
                 }
-
-                // 2- check disk cache
-                if (diskCache != null) {
-                    if ((bitmap = diskCache.get(key)) != null) {
-                        // disk cache hit, put it into memory cache
-                        source = CacheSource.DISK;
-                        // use put(key, bitmap) for debugging
-                        memoryCache.putIfAbsent(key, bitmap);
-                        return bitmap;
-                    }
+                diskNanos = System.nanoTime() - startDisk;
+            }
+            // 3- derive the bitmap from a larger variant cached elsewhere, if any
+            final BitmapMemoryCache<HashKey> sourceMemoryCache = mLoaderConfig.sourceMemoryCache;
+            if (sourceMemoryCache != null && (bitmap = sourceMemoryCache.get(key)) != null
+                    && (bitmap = scaleVariant(bitmap)) != null) {
+                // the memory stats of the request already counted a miss, only record the disk one
+                source = CacheSource.MEMORY;
+                if (diskLookup) {
+                    stats.recordMiss(CacheSource.DISK);
+                }
+                memoryCache.putIfAbsent(key, bitmap);
+                return bitmap;
+            }
+            final BitmapDiskCache sourceDiskCache = mLoaderConfig.sourceDiskCache;
+            if (sourceDiskCache != null) {
+                diskLookup = true;
+                final long startDisk = System.nanoTime();
+                if ((bitmap = getFromDisk(sourceDiskCache, mKey)) != null) {
+                    // decoded down-sampled, no further scaling needed
+                    source = CacheSource.DISK;
+                    stats.recordHit(CacheSource.DISK, diskNanos + System.nanoTime() - startDisk);
+                    memoryCache.putIfAbsent(key, bitmap);
+                    return bitmap;
                 }
             }
+            if (diskLookup) {
+                stats.recordMiss(CacheSource.DISK);
+            }
             /*
-			 * 3- Memory and disk cache miss, execute GET request to retrieve
-			 * image.
+			 * 4- Memory and disk cache miss, execute GET request to retrieve
+			 * image if any of the subscribed requests allows it.
 			 * 
 			 * We delegate the task to another, separated executor to download
 			 * images to avoid blocking delivery of cached images to the UI
 			 */
-            if (mPolicy != AccessPolicy.CACHE_ONLY) {
-                executeDownload(mLoaderConfig, mKey, mPolicy, mBitmapCallback);
+            if (mLoad.onCacheMiss()) {
+                // the download task completes the load
+                submitDownload(mLoaderConfig, mKey, mLoad);
+                downloading = true;
+            } else if (stale && (bitmap = getFromDisk(diskCache, mKey)) != null) {
+                // can't be revalidated, a stale bitmap is better than none (already a disk miss)
+                source = CacheSource.DISK;
+                memoryCache.putIfAbsent(key, bitmap);
+                return bitmap;
             }
-			/*
-			 * FIXME: returning null here means that bitmaps coming from the
-			 * network don't get returned in the Future representing this task
-			 * completion.
-			 */
             return null;
         } finally {
-            if (mBitmapCallback != null) {
-                // notify success or failure to callback
-                if (bitmap != null) {
-                    mBitmapCallback.onBitmapRetrieved(mKey, bitmap, source);
-                } else if (mPolicy == AccessPolicy.CACHE_ONLY) {
-                    mBitmapCallback.onBitmapRetrievalFailed(mKey, null);
-                }
-                mBitmapCallback = null; // avoid leaks
+            if (!downloading) {
+                mLoaderConfig.loads.complete(mLoad, bitmap, source, null);
             }
         }
     }
 
-    @NonNull
-    static Future<Bitmap> executeDownload(@NonNull BitmapLoader.Config config,
-                                          @NonNull CacheUrlKey key, @NonNull AccessPolicy policy,
-                                          @Nullable OnBitmapRetrievalListener callback) {
-        final MemoizerCallable memoizer = new MemoizerCallable(config, key, policy, callback);
-        final String hash = key.hash();
-        // attempt prioritizing the download task if already in queue
-        BitmapCacheBase.moveDownloadToFront(hash);
-        // submit new memoizer task to downloder executor
-        return BitmapCacheBase.submitInDownloader(hash, memoizer);
+    /**
+     * Scales a larger variant of the requested bitmap down to the target size of the key.
+     *
+     * @return The scaled bitmap, or null if it couldn't be allocated
+     */
+    @Nullable
+    private Bitmap scaleVariant(@NonNull Bitmap variant) {
+        try {
+            final Bitmap scaled = BitmapUtils.scaleDownToFit(variant,
+                    SizedCacheUrlKey.getTargetWidth(mKey), SizedCacheUrlKey.getTargetHeight(mKey));
+            if (scaled == variant && !mLoaderConfig.shareSourceBitmaps) {
+                // a pooled bitmap can be overwritten when evicted from either cache
+                final Bitmap.Config config = variant.getConfig();
+                return variant.copy(config != null ? config : Bitmap.Config.ARGB_8888, false);
+            }
+            if (DroidConfig.DEBUG && scaled != variant) {
+                Log.v(TAG, mKey.hash() + " derived from a larger variant");
+            }
+            return scaled;
+        } catch (OutOfMemoryError e) {
+            LogUtils.logException(e);
+            return null;
+        }
     }
 
     /**
-     * Memoizer-related task. It uses the {@link CacheMemoizer} item to check whether there is
-     * another running and unfinished task for the Bitmap we want to download from the server.
+     * Executes the download of a bitmap in the downloader executor, bypassing the memory and disk
+     * caches. The download replaces any in-flight load for the same key.
      *
-     * This computation gets executed through the {@link BitmapCacheBase#submitInDownloader(String,
-     * Callable)} method.
+     * @return A {@link Future} that completes with the downloaded bitmap, or with null if the
+     * download failed
      */
-    @NotThreadSafe
-    private static class MemoizerCallable implements Callable<Bitmap> {
+    @NonNull
+    static BitmapLoad executeDownload(@NonNull BitmapLoader.Config config,
+                                      @NonNull CacheUrlKey key, @NonNull AccessPolicy policy,
+                                      @Nullable OnBitmapRetrievalListener callback) {
+        final BitmapLoad load = new BitmapLoad(key.hashKey(), true);
+        load.subscribe(key, callback, true, false);
+        config.loads.replace(load);
+        submitDownload(config, key, load);
+        return load;
+    }
+
+    private static void submitDownload(@NonNull BitmapLoader.Config config,
+                                       @NonNull CacheUrlKey key, @NonNull BitmapLoad load) {
+        final DownloadTask task = new DownloadTask(config, key, load);
+        final HashKey hash = key.hashKey();
+        final boolean lowPriority = load.isLowPriority();
+        if (!lowPriority) {
+            // attempt prioritizing the download task if already in queue
+            BitmapCacheBase.moveDownloadToFront(hash);
+        }
+        // submit new download task to downloder executor
+        try {
+            load.setTask(BitmapCacheBase.submitInDownloader(hash, Uri.parse(key.getUrl())
+                    .getHost(), task, new CancellationCallback(config.loads, load), lowPriority),
+                    true, lowPriority);
+        } catch (RuntimeException e) { // rejected
+            config.loads.complete(load, null, null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Completes a load with null when its task is cancelled before being executed.
+     */
+    @Immutable
+    private static class CancellationCallback implements Runnable {
+
+        private final BitmapLoadTable mLoads;
+        private final BitmapLoad mLoad;
+
+        public CancellationCallback(@NonNull BitmapLoadTable loads, @NonNull BitmapLoad load) {
+            mLoads = loads;
+            mLoad = load;
+        }
+
+        @Override
+        public void run() {
+            mLoads.complete(mLoad, null, null, null);
+        }
+    }
+
+    /**
+     * Network stage of a {@link BitmapLoad}, executed through the {@link
+     * BitmapCacheBase#submitInDownloader(HashKey, String, Callable, Runnable, boolean)} method. It
+     * completes the load with the downloaded bitmap, or with null on failure.
+     */
+    @Immutable
+    private static class DownloadTask implements Callable<Bitmap> {
 
         private final BitmapLoader.Config mLoaderConfig;
         private final CacheUrlKey mKey;
-        private final AccessPolicy mPolicy;
-        private OnBitmapRetrievalListener mBitmapCallback;
+        private final BitmapLoad mLoad;
 
-        public MemoizerCallable(@NonNull BitmapLoader.Config config, @NonNull CacheUrlKey key,
-                                @NonNull AccessPolicy policy, @Nullable OnBitmapRetrievalListener callback) {
+        public DownloadTask(@NonNull BitmapLoader.Config config, @NonNull CacheUrlKey key,
+                            @NonNull BitmapLoad load) {
             mLoaderConfig = config;
             mKey = key;
-            mPolicy = policy;
-            mBitmapCallback = callback;
+            mLoad = load;
         }
 
         @Override
         @Nullable
-        public Bitmap call() throws InterruptedException {
-            final BitmapMemoryCache<String> memoryCache = mLoaderConfig.memoryCache;
-            final BitmapDiskCache diskCache = mLoaderConfig.diskCache;
-            final String key = mKey.hash();
-
+        public Bitmap call() {
             Bitmap bitmap = null;
-            CacheSource source = null;
             Exception exception = null;
-
             try {
-                if (loaderDownloadedItems.contains(key) && mPolicy != AccessPolicy.REFRESH) {
-					/*
-					 * Bitmap already downloaded, we need to check the disk
-					 * cache again. This is a race condition due to the fact
-					 * that we don't block on the FutureTask that checks the
-					 * memory/disk cache at first. This caveat only occurs in
-					 * the unlikely circumnstances that a bitmap is requested
-					 * many times before the memoizer has been called.
-					 */
-                    if (diskCache != null) {
-                        if ((bitmap = diskCache.get(key)) != null) {
-                            if (DroidConfig.DEBUG) {
-                                Log.w(TAG, "MemoizerCallable: restored bitmap from disk! - " + key);
-                            }
-                            // disk cache hit, put it into memory cache
-                            memoryCache.putIfAbsent(key, bitmap);
-                            // and call back to the listener
-                            source = CacheSource.DISK;
-                            return bitmap;
-                        }
-                    }
+                if (!mLoad.onStageStarted()) {
+                    return null; // all requests were cancelled
                 }
-
                 final DownloaderCallable downloader = new DownloaderCallable(mLoaderConfig, mKey);
-                bitmap = mLoaderConfig.downloadsCache.execute(key, downloader);
-                source = CacheSource.NETWORK;
+                bitmap = downloader.call();
                 return bitmap;
-            } catch (InterruptedException e) {
-                exception = e;
-                throw e;
             } catch (Exception e) {
                 exception = e;
+                mLoaderConfig.stats.recordMiss(CacheSource.NETWORK);
                 LogUtils.logException(e);
                 return null; // something unexpected happened, can do nothing
             } finally {
-                if (mBitmapCallback != null) {
-                    // notify success or failure to callback
-                    if (bitmap != null) {
-                        mBitmapCallback.onBitmapRetrieved(mKey, bitmap, source);
-                    } else {
-                        mBitmapCallback.onBitmapRetrievalFailed(mKey, exception);
-                    }
-                    mBitmapCallback = null; // avoid leaks
-                }
+                mLoaderConfig.loads.complete(mLoad, bitmap, CacheSource.NETWORK, exception);
             }
         }
     }
@@ -311,56 +482,76 @@ public class BitmapLoader implements Callable<Bitmap> {
         @Override
         @Nullable
         public Bitmap call() throws IOException {
-            final BitmapMemoryCache<String> memoryCache = mLoaderConfig.memoryCache;
+            final BitmapMemoryCache<HashKey> memoryCache = mLoaderConfig.memoryCache;
             final BitmapDiskCache diskCache = mLoaderConfig.diskCache;
             final String key = mKey.hash();
             final String url = mKey.getUrl();
+            final CacheStats.Recorder stats = mLoaderConfig.stats;
             Bitmap bitmap = null;
 
-            long startDownload = 0;
-            if (DroidConfig.DEBUG) {
-                startDownload = System.currentTimeMillis();
-            }
+            final long startDownload = System.nanoTime();
 
             final HttpRequestFactory factory = mLoaderConfig.requestFactory;
-            final byte[] imageBytes = ByteArrayDownloader.downloadByteArray(factory, url);
-
-            long endDownload = 0;
-            if (DroidConfig.DEBUG) {
-                endDownload = System.currentTimeMillis();
+            final long maxBytes = mLoaderConfig.maxDownloadBytes;
+            boolean downloaded;
+            byte[] imageBytes = null;
+            long downloadedBytes = 0;
+            if (diskCache != null) {
+                // stream the response straight into the disk cache
+                final DiskCacheContentHandler handler = new DiskCacheContentHandler(diskCache, key);
+                // revalidate the cached entry (if any) rather than downloading it again
+                final HttpValidators validators = diskCache instanceof SimpleDiskCache
+                        ? ((SimpleDiskCache<?>) diskCache).getValidators(key) : null;
+                final Boolean stored = StreamDownloader.download(factory, url, maxBytes,
+                        validators, handler);
+                downloaded = stored != null;
+                imageBytes = handler.imageBytes;
+                downloadedBytes = handler.contentBytes;
+            } else {
+                imageBytes = ByteArrayDownloader.downloadByteArray(factory, url, maxBytes);
+                downloaded = imageBytes != null;
+                downloadedBytes = downloaded ? imageBytes.length : 0;
             }
-            if (imageBytes != null) { // download successful
-                // TODO: pass bitmap options here
-                bitmap = mLoaderConfig.bitmapDecoder.decode(imageBytes, null);
 
-                if (bitmap != null) { // decoding successful
+            final long endDownload = System.nanoTime();
+            if (downloaded) { // download successful
+                stats.recordDownload(downloadedBytes, endDownload - startDownload);
+                // decode the bitmap down-sampled to the target size, if any
+                if (imageBytes != null) {
+                    bitmap = mLoaderConfig.bitmapDecoder.decodeSampled(imageBytes,
+                            SizedCacheUrlKey.getTargetWidth(mKey), SizedCacheUrlKey.getTargetHeight(mKey));
+                } else { // decode from the disk cache entry
+                    bitmap = getFromDisk(diskCache, mKey);
+                }
 
-                    if (!loaderDownloadedItems.add(key)) {
-                        // bitmap was already downloaded, maybe refresh action?
-                        LogUtils.log(Log.WARN, TAG, "Downloading " + key + " bitmap twice: " + url);
-                    }
+                if (bitmap != null) { // decoding successful
+                    final long endDecoding = System.nanoTime();
+                    stats.recordDecode(endDecoding - endDownload);
+                    stats.recordHit(CacheSource.NETWORK, endDecoding - startDownload);
 
                     if (DroidConfig.DEBUG) { // debugging
-                        final long endDecoding = System.currentTimeMillis();
                         // logging download statistics
-                        final long downloadTime = endDownload - startDownload;
+                        final long downloadTime = TimeUnit.NANOSECONDS.toMillis(endDownload
+                                - startDownload);
                         downloaderTimer.addAndGet(downloadTime);
                         downloaderCounter.incrementAndGet();
                         Log.d(TAG, key + " download took ms " + downloadTime);
-                        Log.v(TAG, key + " decoding took ms " + (endDecoding - endDownload));
+                        Log.v(TAG, key + " decoding took ms "
+                                + TimeUnit.NANOSECONDS.toMillis(endDecoding - endDownload));
                     } // end debugging
 
                     // save downloaded bitmap in caches
-                    memoryCache.put(key, bitmap);
-
-					/*
-					 * Note: the bitmap retrieval callback is not executed
-					 * before saving to disk cache anymore. Verify if this can
-					 * have significant performance impacts.
-					 */
-                    saveIntoDiskCache(diskCache, key, imageBytes);
+                    memoryCache.put(mKey.hashKey(), bitmap);
+
+                    if (imageBytes != null) {
+                        // the disk cache entry couldn't be streamed, try again from memory
+                        saveIntoDiskCache(diskCache, key, imageBytes);
+                    }
+                } else {
+                    stats.recordMiss(CacheSource.NETWORK);
                 }
             } else { // download failed
+                stats.recordMiss(CacheSource.NETWORK);
                 if (DroidConfig.DEBUG) {
                     failuresCounter.incrementAndGet();
                 }
@@ -369,6 +560,59 @@ public class BitmapLoader implements Callable<Bitmap> {
         }
     }
 
+    /**
+     * {@link StreamDownloader.ConditionalContentHandler} that writes the downloaded content into
+     * the disk cache, along with its validators. If the disk cache entry can't be created, the
+     * content is read into a byte array. When the cached entry is still valid, its expiration is
+     * extended.
+     */
+    @NotThreadSafe
+    private static class DiskCacheContentHandler implements
+            StreamDownloader.ConditionalContentHandler<Boolean> {
+
+        private final BitmapDiskCache mDiskCache;
+        private final String mKey;
+        @Nullable
+        byte[] imageBytes;
+        long contentBytes;
+
+        public DiskCacheContentHandler(@NonNull BitmapDiskCache diskCache, @NonNull String key) {
+            mDiskCache = diskCache;
+            mKey = key;
+        }
+
+        @Override
+        public Boolean handleContent(@NonNull InputStream content,
+                                     @Nullable HttpValidators validators) throws IOException {
+            final CountingInputStream counting = new CountingInputStream(content);
+            try {
+                if (mDiskCache.put(mKey, counting)) {
+                    if (validators != null && mDiskCache instanceof SimpleDiskCache) {
+                        ((SimpleDiskCache<?>) mDiskCache).setValidators(mKey, validators);
+                    }
+                    return true;
+                }
+                imageBytes = ByteStreams.toByteArray(counting);
+                return false;
+            } finally {
+                contentBytes = counting.getCount();
+            }
+        }
+
+        @Nullable
+        @Override
+        public Boolean handleNotModified(@Nullable HttpValidators validators) {
+            // the bitmap is then decoded from the disk cache entry
+            if (((SimpleDiskCache<?>) mDiskCache).revalidate(mKey, validators)) {
+                if (DroidConfig.DEBUG) {
+                    Log.v(TAG, mKey + " revalidated");
+                }
+                return true;
+            }
+            return null; // the entry has been removed in the meantime
+        }
+    }
+
     // for debugging purposes only
     public static void clearStatsLog() {
         final AtomicLong timer = downloaderTimer;
@@ -381,12 +625,22 @@ public class BitmapLoader implements Callable<Bitmap> {
         Log.i(TAG, counterInt + " bitmaps downloaded in average ms " + averageMs + " - "
                 + failuresPerc + "% failures");
         // reset stats
-        loaderDownloadedItems.clear();
         timer.set(0);
         counter.set(0);
         failures.set(0);
     }
 
+    private static boolean isStale(@NonNull BitmapDiskCache diskCache, @NonNull CacheUrlKey key) {
+        return diskCache instanceof SimpleBitmapDiskCache
+                && ((SimpleBitmapDiskCache) diskCache).isStale(key.hash());
+    }
+
+    @Nullable
+    private static Bitmap getFromDisk(@NonNull BitmapDiskCache diskCache, @NonNull CacheUrlKey key) {
+        return diskCache.get(key.hash(), SizedCacheUrlKey.getTargetWidth(key),
+                SizedCacheUrlKey.getTargetHeight(key));
+    }
+
     private static void saveIntoDiskCache(@Nullable BitmapDiskCache diskCache, @NonNull String key,
                                           @NonNull byte[] data) {
 
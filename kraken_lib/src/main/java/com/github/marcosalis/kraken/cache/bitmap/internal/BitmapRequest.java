@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.internal;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnBitmapRetrievalListener;
+import com.google.common.annotations.Beta;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The {@link java.util.concurrent.Future} of a single request whose listener is subscribed to a
+ * {@link BitmapLoad}, returned to the callers of the cache in place of the shared load.
+ *
+ * The request completes with the outcome of the load. Cancelling it only unsubscribes the listener
+ * of the request: the load, and the futures of the other requests subscribed to it, are unaffected
+ * (the load is cancelled only if no other request needs it).
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+class BitmapRequest extends AbstractFuture<Bitmap> implements Runnable {
+
+    private final BitmapLoad mLoad;
+    private final OnBitmapRetrievalListener mListener;
+
+    /**
+     * Creates a request for a load.
+     *
+     * @param load     The {@link BitmapLoad} the listener is subscribed to
+     * @param listener The listener subscribed by the request
+     */
+    BitmapRequest(@NonNull BitmapLoad load, @NonNull OnBitmapRetrievalListener listener) {
+        mLoad = load;
+        mListener = listener;
+        load.addListener(this, MoreExecutors.sameThreadExecutor());
+    }
+
+    @Override
+    public void run() { // the load is completed
+        try {
+            set(Uninterruptibles.getUninterruptibly(mLoad));
+        } catch (ExecutionException e) {
+            setException(e.getCause());
+        } catch (CancellationException e) {
+            super.cancel(false);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (super.cancel(mayInterruptIfRunning)) {
+            mLoad.unsubscribe(mListener);
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -21,12 +21,14 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.github.marcosalis.kraken.cache.bitmap.BitmapDecoder;
+import com.github.marcosalis.kraken.cache.bitmap.memory.BitmapPool;
+import com.github.marcosalis.kraken.utils.BitmapUtils;
 import com.github.marcosalis.kraken.utils.DroidUtils;
+import com.github.marcosalis.kraken.utils.concurrent.AdaptiveConcurrencyLimiter;
 import com.google.common.annotations.Beta;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.InputStream;
-import java.util.concurrent.Semaphore;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -34,8 +36,15 @@ import javax.annotation.concurrent.ThreadSafe;
  * Default implementation of {@link BitmapDecoder} that decodes bitmaps using the {@link
  * BitmapFactory} method.
  *
- * All the concurrent decodings are controlled by a {@link Semaphore} and limited depending on the
- * number of device CPU cores to avoid overloading the CPU and block the main thread.
+ * All the concurrent decodings of a decoder are controlled by an {@link
+ * AdaptiveConcurrencyLimiter} to avoid overloading the CPU and block the main thread. The limit
+ * starts from the number of device CPU cores minus one, and adapts between one and the number of
+ * cores to the measured decoding times and queueing (for example, when decodings get scheduled on
+ * the slower cores of a big.LITTLE device). See {@link #getDecodeLimiter()} for the limiter metrics.
+ * Bounds probing for sampled decodings only reads the image header and doesn't hold a permit.
+ *
+ * When a {@link BitmapPool} is set, the sampled decodings produce mutable bitmaps and attempt to
+ * reuse the pooled ones.
  *
  * @author Marco Salis
  * @since 1.0.1
@@ -44,20 +53,40 @@ import javax.annotation.concurrent.ThreadSafe;
 @ThreadSafe
 public final class DefaultBitmapDecoder implements BitmapDecoder {
 
-    static {
-        DECODE_SEMAPHORE = new Semaphore(calcMaxDecodingCores(), true);
+    private static final long NO_PERMIT = Long.MIN_VALUE;
+
+    @Nullable
+    private final BitmapPool mBitmapPool;
+    private final AdaptiveConcurrencyLimiter mDecodeLimiter;
+
+    /**
+     * Creates a decoder that always allocates new bitmaps.
+     */
+    public DefaultBitmapDecoder() {
+        this(null);
     }
 
-    private static final Semaphore DECODE_SEMAPHORE;
+    /**
+     * Creates a decoder that attempts to reuse the bitmaps in the passed {@link BitmapPool} for the
+     * sampled decodings, through {@link BitmapFactory.Options#inBitmap}.
+     *
+     * @param pool The (optional) pool of reusable bitmaps
+     */
+    public DefaultBitmapDecoder(@Nullable BitmapPool pool) {
+        mBitmapPool = pool;
+        mDecodeLimiter = new AdaptiveConcurrencyLimiter(1, Math.max(DroidUtils.CPU_CORES, 1),
+                calcMaxDecodingCores());
+    }
 
     @Override
     @Nullable
     public Bitmap decode(@NonNull byte[] data, @Nullable BitmapFactory.Options options) {
-        if (acquirePermit()) {
+        final long permit = acquirePermit();
+        if (permit != NO_PERMIT) {
             try {
                 return BitmapFactory.decodeByteArray(data, 0, data.length, options);
             } finally {
-                releasePermit();
+                mDecodeLimiter.release(permit);
             }
         }
         return null;
@@ -66,11 +95,12 @@ public final class DefaultBitmapDecoder implements BitmapDecoder {
     @Override
     @Nullable
     public Bitmap decode(@NonNull InputStream stream, @Nullable BitmapFactory.Options options) {
-        if (acquirePermit()) {
+        final long permit = acquirePermit();
+        if (permit != NO_PERMIT) {
             try {
                 return BitmapFactory.decodeStream(stream, null, options);
             } finally {
-                releasePermit();
+                mDecodeLimiter.release(permit);
             }
         }
         return null;
@@ -79,16 +109,115 @@ public final class DefaultBitmapDecoder implements BitmapDecoder {
     @Override
     @Nullable
     public Bitmap decode(@NonNull String pathName, @Nullable BitmapFactory.Options options) {
-        if (acquirePermit()) {
+        final long permit = acquirePermit();
+        if (permit != NO_PERMIT) {
             try {
                 return BitmapFactory.decodeFile(pathName, options);
             } finally {
-                releasePermit();
+                mDecodeLimiter.release(permit);
             }
         }
         return null;
     }
 
+    @Override
+    @Nullable
+    public Bitmap decodeSampled(@NonNull byte[] data, int reqWidth, int reqHeight) {
+        if (!isSampled(reqWidth, reqHeight) && mBitmapPool == null) {
+            return decode(data, null);
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (!prepareOptions(options, reqWidth, reqHeight)) {
+            return null; // not a valid image
+        }
+        try {
+            return decode(data, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap can't be reused for this decoding
+            options.inBitmap = null;
+            return decode(data, options);
+        }
+    }
+
+    @Override
+    @Nullable
+    public Bitmap decodeSampled(@NonNull String pathName, int reqWidth, int reqHeight) {
+        if (!isSampled(reqWidth, reqHeight) && mBitmapPool == null) {
+            return decode(pathName, null);
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(pathName, options);
+        if (!prepareOptions(options, reqWidth, reqHeight)) {
+            return null; // not a valid image
+        }
+        try {
+            return decode(pathName, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap can't be reused for this decoding
+            options.inBitmap = null;
+            return decode(pathName, options);
+        }
+    }
+
+    /**
+     * Returns the {@link BitmapPool} used by this decoder, if any.
+     */
+    @Nullable
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Returns the {@link AdaptiveConcurrencyLimiter} of this decoder, which exposes the current
+     * number of decoding permits and the time spent waiting for them.
+     */
+    @NonNull
+    public AdaptiveConcurrencyLimiter getDecodeLimiter() {
+        return mDecodeLimiter;
+    }
+
+    private static boolean isSampled(int reqWidth, int reqHeight) {
+        return reqWidth > 0 && reqHeight > 0;
+    }
+
+    /**
+     * Sets the sample size and a reusable pooled bitmap (if any) into the passed options after a
+     * bounds decoding.
+     *
+     * @return false if the probed bounds are not valid
+     */
+    private boolean prepareOptions(@NonNull BitmapFactory.Options options, int reqWidth,
+                                   int reqHeight) {
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        final int sampleSize = isSampled(reqWidth, reqHeight)
+                ? BitmapUtils.calculateInSampleSize(options, reqWidth, reqHeight) : 1;
+        options.inSampleSize = sampleSize;
+        options.inJustDecodeBounds = false;
+
+        if (mBitmapPool != null) {
+            options.inMutable = true; // allows reusing the bitmap later
+            if (sampleSize == 1) {
+                options.inBitmap = mBitmapPool.get(width, height);
+            } else if (DroidUtils.isMinimumSdkLevel(19)) { // KITKAT
+                // before KitKat, only same size bitmaps with no sampling can be reused
+                options.inBitmap = mBitmapPool.get(ceilDiv(width, sampleSize),
+                        ceilDiv(height, sampleSize));
+            }
+        }
+        return true;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
     @VisibleForTesting
     static int calcMaxDecodingCores() {
         final int cores = DroidUtils.CPU_CORES;
@@ -96,22 +225,18 @@ public final class DefaultBitmapDecoder implements BitmapDecoder {
         return cores > 1 ? cores - 1 : 1;
     }
 
-    @VisibleForTesting
-    static int getAvailablePermits() {
-        return DECODE_SEMAPHORE.availablePermits();
-    }
-
-    private static boolean acquirePermit() {
+    /**
+     * Acquires a decoding permit.
+     *
+     * @return The permit to release, or {@link #NO_PERMIT} if the thread was interrupted
+     */
+    private long acquirePermit() {
         try {
-            DECODE_SEMAPHORE.acquire();
+            return mDecodeLimiter.acquire();
         } catch (InterruptedException e) {
-            return false;
+            Thread.currentThread().interrupt();
+            return NO_PERMIT;
         }
-        return true;
-    }
-
-    private static void releasePermit() {
-        DECODE_SEMAPHORE.release();
     }
 
 }
\ No newline at end of file
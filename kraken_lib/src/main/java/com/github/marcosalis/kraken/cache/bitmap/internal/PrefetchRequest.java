@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.internal;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache.OnBitmapRetrievalListener;
+import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.google.common.annotations.Beta;
+import com.google.common.util.concurrent.AbstractFuture;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A single prefetch request subscribed to a {@link BitmapLoad}, returned by {@link
+ * BitmapCacheImpl#preloadBitmap(CacheUrlKey)}.
+ *
+ * Unlike the shared load, cancelling this future only unsubscribes the prefetch: the load is
+ * cancelled only if no other request needs it.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+class PrefetchRequest extends AbstractFuture<Bitmap> implements OnBitmapRetrievalListener {
+
+    @Nullable
+    private volatile BitmapLoad mLoad;
+
+    /**
+     * Sets the load this request is subscribed to.
+     */
+    void setLoad(@NonNull BitmapLoad load) {
+        mLoad = load;
+        if (isCancelled()) { // cancelled in the meantime
+            load.unsubscribe(this);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (super.cancel(mayInterruptIfRunning)) {
+            final BitmapLoad load = mLoad;
+            if (load != null) {
+                load.unsubscribe(this);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onBitmapRetrieved(@NonNull CacheUrlKey key, @NonNull Bitmap bitmap,
+                                  @NonNull CacheSource source) {
+        set(bitmap);
+    }
+
+    @Override
+    public void onBitmapRetrievalFailed(@NonNull CacheUrlKey key, @Nullable Exception e) {
+        set(null);
+    }
+
+}
@@ -39,6 +39,12 @@ import javax.annotation.concurrent.ThreadSafe;
  *
  * The actual cache is implemented on top of an {@code LruCache<K, Bitmap>} instance.
  *
+ * An optional {@link WeakBitmapCache} second tier can be set: on a cache miss, the bitmap is
+ * looked up there and, if still reachable, put back into the cache. The owner of the cache is
+ * responsible for putting the evicted bitmaps into the second tier (see {@link
+ * #getSecondTier()}), as some of them could be reused elsewhere (for example by a {@link
+ * BitmapPool}).
+ *
  * @author Marco Salis
  * @since 1.0
  */
@@ -51,6 +57,8 @@ public class BitmapLruCache<K> extends ContentLruCache<K, Bitmap> implements Bit
     @Nullable
     private final String mLogName;
     @Nullable
+    private final WeakBitmapCache<K> mSecondTier;
+    @Nullable
     private volatile OnEntryRemovedListener<K, Bitmap> mEntryRemovedListener;
 
     /**
@@ -62,8 +70,22 @@ public class BitmapLruCache<K> extends ContentLruCache<K, Bitmap> implements Bit
      * @param cacheLogName The (optional) name of the cache (for logging purposes)
      */
     public BitmapLruCache(@IntRange(from = 0) int maxSize, @Nullable String cacheLogName) {
+        this(maxSize, cacheLogName, null);
+    }
+
+    /**
+     * Constructor for a {@link BitmapLruCache} with a weak references second tier.
+     *
+     * @param maxSize      The max memory occupation, in bytes, that the cache will ever occupy when
+     *                     full
+     * @param cacheLogName The (optional) name of the cache (for logging purposes)
+     * @param secondTier   The (optional) {@link WeakBitmapCache} to look up on a cache miss
+     */
+    public BitmapLruCache(@IntRange(from = 0) int maxSize, @Nullable String cacheLogName,
+                          @Nullable WeakBitmapCache<K> secondTier) {
         super(maxSize);
         mLogName = cacheLogName;
+        mSecondTier = secondTier;
         if (DroidConfig.DEBUG) {
             Log.i(TAG, mLogName + ": max cache size is set to " + maxSize + " bytes");
         }
@@ -73,6 +95,26 @@ public class BitmapLruCache<K> extends ContentLruCache<K, Bitmap> implements Bit
         mEntryRemovedListener = listener;
     }
 
+    /**
+     * Returns the weak references second tier of this cache, if any.
+     */
+    @Nullable
+    public WeakBitmapCache<K> getSecondTier() {
+        return mSecondTier;
+    }
+
+    /**
+     * Called on a cache miss: revives the bitmap from the second tier, if any, so that it's put
+     * back into the cache without a disk decoding.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    @Nullable
+    protected Bitmap create(K key) {
+        return mSecondTier != null ? mSecondTier.remove(key) : null;
+    }
+
     /**
      * The cache items size is measured in terms of the Bitmap's size in bytes (see {@link
      * BitmapUtils#getSize(Bitmap)}.
@@ -93,6 +135,9 @@ public class BitmapLruCache<K> extends ContentLruCache<K, Bitmap> implements Bit
             Log.i(TAG, mLogName + " session stats: hits " + hitCount() + ", miss " + missCount());
         }
         super.clear();
+        if (mSecondTier != null) {
+            mSecondTier.clear();
+        }
     }
 
     /**
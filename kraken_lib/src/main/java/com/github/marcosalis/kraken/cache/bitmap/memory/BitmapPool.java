@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.memory;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.github.marcosalis.kraken.DroidConfig;
+import com.github.marcosalis.kraken.utils.BitmapUtils;
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.WeakHashMap;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Size-bucketed and byte-bounded pool of mutable bitmaps that can be reused for decoding through
+ * {@link BitmapFactory.Options#inBitmap}, avoiding a new allocation (and the following GC pauses)
+ * for each decoded bitmap.
+ *
+ * Bitmaps evicted from a bitmap memory cache are put into the pool only when they are not displayed
+ * anymore by any {@link ImageView} that was set by the library bitmap setters. <b>Only enable the
+ * pool if the cache bitmaps are displayed exclusively through the cache setters</b>: a bitmap that is
+ * still referenced somewhere else could be overwritten by a new decoding.
+ *
+ * Only {@link Bitmap.Config#ARGB_8888} bitmaps are pooled, bucketed by their exact size. When the
+ * pool is full, the least recently added bitmaps are dropped first.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public class BitmapPool {
+
+    private static final String TAG = BitmapPool.class.getSimpleName();
+
+    /* registry of the bitmaps currently displayed by the library setters */
+    private static final Object sDisplayedLock = new Object();
+    @GuardedBy("sDisplayedLock")
+    private static final WeakHashMap<ImageView, WeakReference<Bitmap>> sDisplayedBitmaps = new WeakHashMap<ImageView, WeakReference<Bitmap>>();
+    /* number of tracked views displaying each bitmap (bitmaps use identity equality) */
+    @GuardedBy("sDisplayedLock")
+    private static final WeakHashMap<Bitmap, int[]> sDisplayCounts = new WeakHashMap<Bitmap, int[]>();
+    private static volatile boolean sTrackDisplayedBitmaps = false;
+
+    /**
+     * Tracks the bitmap currently displayed into an {@link ImageView} by the library bitmap
+     * setters, so that it's never put into a pool. This is a no-op until a {@link BitmapPool} is
+     * created.
+     *
+     * Note that a view garbage collected while still displaying a bitmap keeps that bitmap marked
+     * as displayed, which only prevents it from being pooled.
+     *
+     * @param view   The image view
+     * @param bitmap The bitmap set into the view, or null if the view drawable was replaced
+     */
+    public static void onBitmapDisplayed(@NonNull ImageView view, @Nullable Bitmap bitmap) {
+        if (sTrackDisplayedBitmaps) {
+            synchronized (sDisplayedLock) {
+                final WeakReference<Bitmap> previous;
+                if (bitmap != null) {
+                    previous = sDisplayedBitmaps.put(view, new WeakReference<Bitmap>(bitmap));
+                    final int[] count = sDisplayCounts.get(bitmap);
+                    if (count != null) {
+                        count[0]++;
+                    } else {
+                        sDisplayCounts.put(bitmap, new int[]{1});
+                    }
+                } else {
+                    previous = sDisplayedBitmaps.remove(view);
+                }
+                final Bitmap previousBitmap = previous != null ? previous.get() : null;
+                if (previousBitmap != null) {
+                    final int[] count = sDisplayCounts.get(previousBitmap);
+                    if (count != null && --count[0] <= 0) {
+                        sDisplayCounts.remove(previousBitmap);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the passed bitmap is currently displayed into any tracked view.
+     */
+    public static boolean isDisplayed(@NonNull Bitmap bitmap) {
+        synchronized (sDisplayedLock) {
+            return sDisplayCounts.containsKey(bitmap);
+        }
+    }
+
+    private final int mMaxBytes;
+
+    @GuardedBy("this")
+    private final HashMap<Long, ArrayDeque<Bitmap>> mBuckets = new HashMap<Long, ArrayDeque<Bitmap>>();
+    @GuardedBy("this")
+    private final LinkedHashSet<Bitmap> mInsertionOrder = new LinkedHashSet<Bitmap>();
+    @GuardedBy("this")
+    private int mSize;
+    @GuardedBy("this")
+    private int mHitCount;
+    @GuardedBy("this")
+    private int mMissCount;
+
+    /**
+     * Creates a new bitmap pool.
+     *
+     * @param maxBytes The maximum size, in bytes, of the pooled bitmaps
+     */
+    public BitmapPool(@IntRange(from = 1) int maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0);
+        mMaxBytes = maxBytes;
+        sTrackDisplayedBitmaps = true;
+    }
+
+    /**
+     * Attempts to put a bitmap into the pool.
+     *
+     * @param bitmap The bitmap to pool
+     * @return true if the bitmap was pooled, false if it can't be reused
+     */
+    public boolean put(@NonNull Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return false;
+        }
+        final int size = BitmapUtils.getSize(bitmap);
+        if (size > mMaxBytes || isDisplayed(bitmap)) {
+            return false;
+        }
+        synchronized (this) {
+            if (!mInsertionOrder.add(bitmap)) {
+                return true; // already pooled
+            }
+            final Long key = getBucketKey(bitmap.getWidth(), bitmap.getHeight());
+            ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayDeque<Bitmap>();
+                mBuckets.put(key, bucket);
+            }
+            bucket.offerLast(bitmap);
+            mSize += size;
+            trimToSize(mMaxBytes);
+        }
+        return true;
+    }
+
+    /**
+     * Gets a pooled bitmap of the exact passed size, removing it from the pool.
+     *
+     * @param width  The bitmap width
+     * @param height The bitmap height
+     * @return A reusable {@link Bitmap.Config#ARGB_8888} bitmap, or null if none is available
+     */
+    @Nullable
+    public synchronized Bitmap get(int width, int height) {
+        final ArrayDeque<Bitmap> bucket = mBuckets.get(getBucketKey(width, height));
+        if (bucket != null) {
+            Bitmap bitmap;
+            while ((bitmap = bucket.pollLast()) != null) {
+                mInsertionOrder.remove(bitmap);
+                mSize -= BitmapUtils.getSize(bitmap);
+                // the bitmap could have been displayed again after being pooled
+                if (!isDisplayed(bitmap)) {
+                    mHitCount++;
+                    return bitmap;
+                }
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Removes all the bitmaps from the pool.
+     */
+    public synchronized void clear() {
+        if (DroidConfig.DEBUG) {
+            Log.i(TAG, "Pool session stats: hits " + mHitCount + ", miss " + mMissCount);
+        }
+        trimToSize(0);
+    }
+
+    /**
+     * Returns the current size of the pooled bitmaps in bytes.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the maximum size of the pool in bytes.
+     */
+    public int maxSize() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the number of times {@link #get(int, int)} returned a reusable bitmap.
+     */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of times {@link #get(int, int)} didn't find a reusable bitmap.
+     */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    @GuardedBy("this")
+    private void trimToSize(int maxBytes) {
+        final Iterator<Bitmap> iterator = mInsertionOrder.iterator();
+        while (mSize > maxBytes && iterator.hasNext()) {
+            final Bitmap eldest = iterator.next();
+            iterator.remove();
+            final Long key = getBucketKey(eldest.getWidth(), eldest.getHeight());
+            final ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+            if (bucket != null) {
+                bucket.removeFirstOccurrence(eldest); // the eldest is usually the bucket head
+                if (bucket.isEmpty()) {
+                    mBuckets.remove(key);
+                }
+            }
+            mSize -= BitmapUtils.getSize(eldest);
+        }
+    }
+
+    @NonNull
+    private static Long getBucketKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.memory;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.github.marcosalis.kraken.DroidConfig;
+import com.google.common.annotations.Beta;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Second tier of a {@link BitmapLruCache} that holds the evicted bitmaps under weak references.
+ *
+ * An evicted bitmap is often still displayed or referenced somewhere else, and it can't be
+ * garbage collected anyway: keeping a weak reference to it allows the cache to give it a second
+ * chance when it's requested again (for example when scrolling a list back) without a new disk
+ * decoding, at no cost for the memory cache budget.
+ *
+ * Entries whose bitmap has been garbage collected are purged on every access.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public class WeakBitmapCache<K> {
+
+    private static final String TAG = WeakBitmapCache.class.getSimpleName();
+
+    private final ReferenceQueue<Bitmap> mQueue = new ReferenceQueue<Bitmap>();
+    @GuardedBy("this")
+    private final HashMap<K, KeyedReference<K>> mEntries = new HashMap<K, KeyedReference<K>>();
+    @GuardedBy("this")
+    private int mHitCount;
+    @GuardedBy("this")
+    private int mMissCount;
+
+    /**
+     * Puts an evicted bitmap into the cache, replacing any previous entry for the same key.
+     *
+     * @param key    The bitmap cache key
+     * @param bitmap The evicted bitmap
+     */
+    public synchronized void put(@NonNull K key, @NonNull Bitmap bitmap) {
+        purge();
+        if (!bitmap.isRecycled()) {
+            mEntries.put(key, new KeyedReference<K>(key, bitmap, mQueue));
+        }
+    }
+
+    /**
+     * Removes the entry for the passed key, if any, and returns its bitmap if it's still
+     * reachable.
+     *
+     * @param key The bitmap cache key
+     * @return The bitmap, or null if not present or already garbage collected
+     */
+    @Nullable
+    public synchronized Bitmap remove(@NonNull K key) {
+        purge();
+        final KeyedReference<K> reference = mEntries.remove(key);
+        final Bitmap bitmap = reference != null ? reference.get() : null;
+        if (bitmap != null && !bitmap.isRecycled()) {
+            mHitCount++;
+            return bitmap;
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Removes all the entries from the cache.
+     */
+    public synchronized void clear() {
+        if (DroidConfig.DEBUG) {
+            Log.i(TAG, "Weak tier session stats: hits " + mHitCount + ", miss " + mMissCount);
+        }
+        mEntries.clear();
+        while (mQueue.poll() != null) {
+            // drain the queue, the references are already gone
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache, including the ones whose bitmap has been garbage
+     * collected but not purged yet.
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the number of times {@link #remove(Object)} returned a bitmap.
+     */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of times {@link #remove(Object)} didn't find a reachable bitmap.
+     */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    @GuardedBy("this")
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        Reference<? extends Bitmap> reference;
+        while ((reference = mQueue.poll()) != null) {
+            final KeyedReference<K> keyed = (KeyedReference<K>) reference;
+            // the key could have been mapped to a new reference in the meantime
+            if (mEntries.get(keyed.key) == keyed) {
+                mEntries.remove(keyed.key);
+            }
+        }
+    }
+
+    private static class KeyedReference<K> extends WeakReference<Bitmap> {
+
+        final K key;
+
+        KeyedReference(@NonNull K key, @NonNull Bitmap bitmap,
+                       @NonNull ReferenceQueue<Bitmap> queue) {
+            super(bitmap, queue);
+            this.key = key;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.prefetch;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.GridView;
+import android.widget.ListView;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link OnScrollListener} for a {@link ListView} or a {@link GridView} that feeds a {@link
+ * BitmapRangePrefetcher} with the visible range of the list.
+ *
+ * Since an {@link AbsListView} only supports a single scroll listener, an existing listener can be
+ * wrapped and gets all the scroll events. Note that the positions passed to the {@link
+ * BitmapRangePrefetcher.KeyProvider} include any header view of the list.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@NotThreadSafe
+public class AbsListViewPrefetchListener implements OnScrollListener {
+
+    private final BitmapRangePrefetcher mPrefetcher;
+    @Nullable
+    private final OnScrollListener mDelegate;
+
+    public AbsListViewPrefetchListener(@NonNull BitmapRangePrefetcher prefetcher) {
+        this(prefetcher, null);
+    }
+
+    /**
+     * Creates a new listener.
+     *
+     * @param prefetcher The {@link BitmapRangePrefetcher} to feed
+     * @param delegate   An (optional) {@link OnScrollListener} to forward the scroll events to
+     */
+    public AbsListViewPrefetchListener(@NonNull BitmapRangePrefetcher prefetcher,
+                                       @Nullable OnScrollListener delegate) {
+        mPrefetcher = Preconditions.checkNotNull(prefetcher);
+        mDelegate = delegate;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (mDelegate != null) {
+            mDelegate.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        if (visibleItemCount > 0) {
+            mPrefetcher.onVisibleRangeChanged(firstVisibleItem,
+                    firstVisibleItem + visibleItemCount - 1, totalItemCount);
+        }
+        if (mDelegate != null) {
+            mDelegate.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.prefetch;
+
+import android.graphics.Bitmap;
+import android.support.annotation.IntRange;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.marcosalis.kraken.cache.bitmap.BitmapCache;
+import com.github.marcosalis.kraken.cache.keys.CacheUrlKey;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.Future;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Prefetcher that keeps the bitmaps of a sliding window of list items warm in the caches, ahead of
+ * the visible items in the scroll direction.
+ *
+ * Every time the visible range of the list changes, the bitmaps of the next {@link
+ * #getLookAhead()} items in the scroll direction are prefetched with {@link
+ * BitmapCache#preloadBitmap(CacheUrlKey)}, which runs with a lower priority than the requests of
+ * the visible items, and the pending prefetches of the items that left the window are cancelled.
+ *
+ * Use an {@link AbsListViewPrefetchListener} or a {@link RecyclerViewPrefetchListener} to feed the
+ * prefetcher with the visible range of a list, or call {@link #onVisibleRangeChanged(int, int,
+ * int)} directly. All methods must be called from the UI thread.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@NotThreadSafe
+public class BitmapRangePrefetcher {
+
+    /**
+     * Provides the {@link CacheUrlKey} of the bitmap to prefetch for a list position, usually
+     * implemented by the list adapter.
+     */
+    public interface KeyProvider {
+
+        /**
+         * Returns the key of the bitmap for the passed position, or null if the item at that
+         * position doesn't have a bitmap.
+         *
+         * @param position The position of the item in the list
+         */
+        @Nullable
+        CacheUrlKey getPrefetchKey(int position);
+    }
+
+    /**
+     * Default number of items whose bitmaps are prefetched ahead of the visible ones.
+     */
+    public static final int DEFAULT_LOOK_AHEAD = 10;
+
+    private final BitmapCache mCache;
+    private final KeyProvider mKeyProvider;
+
+    /* active prefetches in the window, by key hash, nearest item first */
+    private LinkedHashMap<HashKey, Future<Bitmap>> mPrefetches;
+    private LinkedHashMap<HashKey, Future<Bitmap>> mNextPrefetches;
+
+    private int mLookAhead = DEFAULT_LOOK_AHEAD;
+    private int mFirstVisible = -1;
+    private int mLastVisible = -1;
+    private int mItemCount;
+    private boolean mForward = true;
+
+    /**
+     * Creates a new range prefetcher.
+     *
+     * @param cache       The {@link BitmapCache} to prefetch the bitmaps into
+     * @param keyProvider The {@link KeyProvider} for the bitmaps of the list items
+     */
+    public BitmapRangePrefetcher(@NonNull BitmapCache cache, @NonNull KeyProvider keyProvider) {
+        mCache = Preconditions.checkNotNull(cache);
+        mKeyProvider = Preconditions.checkNotNull(keyProvider);
+        mPrefetches = new LinkedHashMap<HashKey, Future<Bitmap>>();
+        mNextPrefetches = new LinkedHashMap<HashKey, Future<Bitmap>>();
+    }
+
+    /**
+     * Sets the number of items whose bitmaps are prefetched ahead of the visible ones. It's
+     * applied from the next visible range change.
+     */
+    @MainThread
+    public void setLookAhead(@IntRange(from = 0) int lookAhead) {
+        Preconditions.checkArgument(lookAhead >= 0, "Invalid look ahead");
+        mLookAhead = lookAhead;
+    }
+
+    public int getLookAhead() {
+        return mLookAhead;
+    }
+
+    /**
+     * Notifies the prefetcher that the visible range of the list has changed. The scroll
+     * direction is inferred from the previous visible range.
+     *
+     * @param firstVisible The position of the first visible item
+     * @param lastVisible  The position of the last visible item
+     * @param itemCount    The total number of items in the list
+     */
+    @MainThread
+    public void onVisibleRangeChanged(int firstVisible, int lastVisible, int itemCount) {
+        boolean forward = mForward;
+        if (mFirstVisible >= 0) {
+            if (firstVisible > mFirstVisible || lastVisible > mLastVisible) {
+                forward = true;
+            } else if (firstVisible < mFirstVisible || lastVisible < mLastVisible) {
+                forward = false;
+            }
+        }
+        onVisibleRangeChanged(firstVisible, lastVisible, itemCount, forward);
+    }
+
+    /**
+     * Notifies the prefetcher that the visible range of the list has changed.
+     *
+     * @param firstVisible The position of the first visible item
+     * @param lastVisible  The position of the last visible item
+     * @param itemCount    The total number of items in the list
+     * @param forward      true if the list is scrolling towards the last item, false otherwise
+     */
+    @MainThread
+    public void onVisibleRangeChanged(int firstVisible, int lastVisible, int itemCount,
+                                      boolean forward) {
+        Preconditions.checkArgument(firstVisible >= 0 && firstVisible <= lastVisible,
+                "Invalid visible range");
+        if (firstVisible == mFirstVisible && lastVisible == mLastVisible
+                && itemCount == mItemCount && forward == mForward) {
+            return; // nothing changed
+        }
+        mFirstVisible = firstVisible;
+        mLastVisible = lastVisible;
+        mItemCount = itemCount;
+        mForward = forward;
+        updateWindow();
+    }
+
+    /**
+     * Cancels all the pending prefetches and resets the visible range. Call this when the list is
+     * not displayed anymore or its content changes completely.
+     */
+    @MainThread
+    public void cancelAll() {
+        for (Future<Bitmap> prefetch : mPrefetches.values()) {
+            prefetch.cancel(false);
+        }
+        mPrefetches.clear();
+        mFirstVisible = -1;
+        mLastVisible = -1;
+        mItemCount = 0;
+        mForward = true;
+    }
+
+    private void updateWindow() {
+        final LinkedHashMap<HashKey, Future<Bitmap>> window = mNextPrefetches;
+        for (int i = 1; i <= mLookAhead; i++) {
+            final int position = mForward ? mLastVisible + i : mFirstVisible - i;
+            if (position < 0 || position >= mItemCount) {
+                break;
+            }
+            final CacheUrlKey key = mKeyProvider.getPrefetchKey(position);
+            if (key == null) {
+                continue;
+            }
+            final HashKey hash = key.hashKey();
+            if (window.containsKey(hash)) {
+                continue; // same bitmap for multiple items
+            }
+            // keep prefetches that are still in the window, including the completed ones
+            Future<Bitmap> prefetch = mPrefetches.remove(hash);
+            if (prefetch == null) {
+                prefetch = mCache.preloadBitmap(key);
+            }
+            window.put(hash, prefetch);
+        }
+        // what's left is out of the window
+        for (Future<Bitmap> prefetch : mPrefetches.values()) {
+            prefetch.cancel(false);
+        }
+        mPrefetches.clear();
+        mNextPrefetches = mPrefetches;
+        mPrefetches = window;
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.prefetch;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link RecyclerView.OnScrollListener} that feeds a {@link BitmapRangePrefetcher} with the visible
+ * range of a {@link RecyclerView}, to be added with {@code RecyclerView.addOnScrollListener()}.
+ *
+ * Only {@link LinearLayoutManager} and its subclasses (such as {@link
+ * android.support.v7.widget.GridLayoutManager}) are supported: scroll events are ignored for other
+ * layout managers.
+ *
+ * The RecyclerView support library is an optional dependency of this library, and it must be
+ * included by the application in order to use this class.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@NotThreadSafe
+public class RecyclerViewPrefetchListener extends RecyclerView.OnScrollListener {
+
+    private final BitmapRangePrefetcher mPrefetcher;
+
+    public RecyclerViewPrefetchListener(@NonNull BitmapRangePrefetcher prefetcher) {
+        mPrefetcher = Preconditions.checkNotNull(prefetcher);
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (layoutManager instanceof LinearLayoutManager) {
+            final LinearLayoutManager linearManager = (LinearLayoutManager) layoutManager;
+            final int first = linearManager.findFirstVisibleItemPosition();
+            final int last = linearManager.findLastVisibleItemPosition();
+            if (first != RecyclerView.NO_POSITION && last != RecyclerView.NO_POSITION) {
+                // the direction is inferred from the positions, to support reverse layouts
+                mPrefetcher.onVisibleRangeChanged(first, last, linearManager.getItemCount());
+            }
+        }
+    }
+
+}
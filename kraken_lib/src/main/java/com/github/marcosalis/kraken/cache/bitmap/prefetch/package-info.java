@@ -0,0 +1,25 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * This package contains the classes to prefetch the bitmaps of scrolling lists ({@link
+ * android.widget.ListView}, {@link android.widget.GridView} and {@link
+ * android.support.v7.widget.RecyclerView}) ahead of the visible items.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+package com.github.marcosalis.kraken.cache.bitmap.prefetch;
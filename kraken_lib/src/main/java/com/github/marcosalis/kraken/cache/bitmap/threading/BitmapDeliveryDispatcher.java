@@ -0,0 +1,291 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.bitmap.threading;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+
+import com.github.marcosalis.kraken.utils.DroidUtils;
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Dispatcher that delivers the bitmaps retrieved by the bitmap caches to the UI thread in batches
+ * synchronized with the display frames, to avoid applying dozens of bitmaps within the same frame
+ * (for example, during a list fling).
+ *
+ * Pending deliveries are coalesced by their target and content key (only the most recent delivery
+ * of a bitmap for a view is kept), at most {@link #getMaxDeliveriesPerFrame()} bitmaps are applied at every frame and the
+ * deliveries whose target has been rebound in the meantime are dropped without counting towards
+ * the limit. Frames are tracked through {@link Choreographer} callbacks from API level 16, with a
+ * fallback to a {@link Handler} running every {@link #FALLBACK_FRAME_MS} milliseconds otherwise.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@ThreadSafe
+public final class BitmapDeliveryDispatcher {
+
+    /**
+     * A bitmap delivery to a target, usually a view.
+     */
+    public interface Delivery {
+
+        /**
+         * Returns the target of the delivery, used to coalesce deliveries, or null if the
+         * delivery doesn't have a target.
+         */
+        @Nullable
+        Object getTarget();
+
+        /**
+         * Returns the key of the delivered content (for example, the cache key of the bitmap), or
+         * null. A pending delivery is only replaced by a delivery for the same target and key, so
+         * that a late delivery of another content can't replace a valid one.
+         */
+        @Nullable
+        Object getKey();
+
+        /**
+         * Returns the bitmap to deliver.
+         */
+        @NonNull
+        Bitmap getBitmap();
+
+        /**
+         * Returns whether the delivery is still needed, for example because its target view hasn't
+         * been rebound to another bitmap. Called from the UI thread.
+         */
+        boolean isValid();
+
+        /**
+         * Applies the delivery from the UI thread.
+         */
+        void deliver();
+    }
+
+    /**
+     * Default maximum number of bitmaps applied in a single frame.
+     */
+    public static final int DEFAULT_MAX_DELIVERIES_PER_FRAME = 4;
+
+    /**
+     * Delay between batches of deliveries when {@link Choreographer} is not available.
+     */
+    public static final long FALLBACK_FRAME_MS = 16;
+
+    private static final BitmapDeliveryDispatcher INSTANCE = new BitmapDeliveryDispatcher();
+
+    /**
+     * Returns the dispatcher shared by all the bitmap caches.
+     */
+    @NonNull
+    public static BitmapDeliveryDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onFrame();
+        }
+    };
+    @Nullable
+    private final Object mFrameCallback;
+
+    @GuardedBy("this")
+    private final LinkedHashMap<Object, Delivery> mPending = new LinkedHashMap<Object, Delivery>();
+    @GuardedBy("this")
+    private boolean mScheduled;
+
+    private volatile int mMaxDeliveriesPerFrame = DEFAULT_MAX_DELIVERIES_PER_FRAME;
+    private volatile boolean mPrepareToDraw;
+
+    private BitmapDeliveryDispatcher() {
+        mFrameCallback = DroidUtils.isMinimumSdkLevel(16) ? new FrameCallback(this) : null;
+    }
+
+    /**
+     * Sets the maximum number of bitmaps applied in a single frame.
+     */
+    public void setMaxDeliveriesPerFrame(@IntRange(from = 1) int maxDeliveries) {
+        Preconditions.checkArgument(maxDeliveries > 0, "Invalid deliveries number");
+        mMaxDeliveriesPerFrame = maxDeliveries;
+    }
+
+    public int getMaxDeliveriesPerFrame() {
+        return mMaxDeliveriesPerFrame;
+    }
+
+    /**
+     * Sets whether {@link Bitmap#prepareToDraw()} must be called on the bitmaps from the
+     * dispatching thread, so that the bitmaps can be prepared for drawing before being delivered to
+     * the UI thread. Disabled by default.
+     */
+    public void setPrepareToDraw(boolean prepareToDraw) {
+        mPrepareToDraw = prepareToDraw;
+    }
+
+    /**
+     * Enqueues a delivery to be applied at one of the next frames. If there is another pending
+     * delivery for the same target and key, it gets replaced by the passed one.
+     *
+     * @param delivery The {@link Delivery} to dispatch
+     */
+    public void dispatch(@NonNull Delivery delivery) {
+        if (mPrepareToDraw) {
+            delivery.getBitmap().prepareToDraw();
+        }
+        final Object target = delivery.getTarget();
+        final boolean schedule;
+        synchronized (this) {
+            final Object key = target != null ? new PendingKey(target, delivery.getKey())
+                    : delivery;
+            // re-insert to keep the latest deliveries at the end of the queue
+            mPending.remove(key);
+            mPending.put(key, delivery);
+            schedule = !mScheduled;
+            mScheduled = true;
+        }
+        if (schedule) {
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Applies a batch of the pending deliveries. Must be called from the UI thread.
+     */
+    void onFrame() {
+        final int maxDeliveries = mMaxDeliveriesPerFrame;
+        int delivered = 0;
+        while (delivered < maxDeliveries) {
+            final Delivery delivery;
+            synchronized (this) {
+                final Iterator<Delivery> iterator = mPending.values().iterator();
+                if (!iterator.hasNext()) {
+                    mScheduled = false;
+                    return;
+                }
+                delivery = iterator.next();
+                iterator.remove();
+            }
+            if (delivery.isValid()) { // stale deliveries are just dropped
+                delivery.deliver();
+                delivered++;
+            }
+        }
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                mScheduled = false;
+                return;
+            }
+        }
+        scheduleNextFrame();
+    }
+
+    private void scheduleFrame() {
+        if (mFrameCallback != null) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                postFrameCallback(mFrameCallback);
+            } else { // the Choreographer must be accessed from the UI thread
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        postFrameCallback(mFrameCallback);
+                    }
+                });
+            }
+        } else {
+            mHandler.post(mFrameRunnable);
+        }
+    }
+
+    private void scheduleNextFrame() {
+        if (mFrameCallback != null) {
+            postFrameCallback(mFrameCallback);
+        } else {
+            mHandler.postDelayed(mFrameRunnable, FALLBACK_FRAME_MS);
+        }
+    }
+
+    @TargetApi(16)
+    private static void postFrameCallback(@NonNull Object callback) {
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) callback);
+    }
+
+    /**
+     * Key of the pending deliveries for a target.
+     */
+    private static final class PendingKey {
+
+        private final Object mTarget;
+        @Nullable
+        private final Object mKey;
+
+        PendingKey(@NonNull Object target, @Nullable Object key) {
+            mTarget = target;
+            mKey = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PendingKey)) {
+                return false;
+            }
+            final PendingKey other = (PendingKey) o;
+            return mTarget.equals(other.mTarget) && Objects.equal(mKey, other.mKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(mTarget, mKey);
+        }
+    }
+
+    @TargetApi(16)
+    private static class FrameCallback implements Choreographer.FrameCallback {
+
+        private final BitmapDeliveryDispatcher mDispatcher;
+
+        FrameCallback(@NonNull BitmapDeliveryDispatcher dispatcher) {
+            mDispatcher = dispatcher;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mDispatcher.onFrame();
+        }
+    }
+
+}
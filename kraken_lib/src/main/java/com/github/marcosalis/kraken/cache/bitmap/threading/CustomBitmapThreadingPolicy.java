@@ -49,10 +49,26 @@ public final class CustomBitmapThreadingPolicy implements BitmapThreadingPolicy
      */
     public CustomBitmapThreadingPolicy(int executorThreadSize, int executorThreadPriority,
                                        int downloaderThreadSize, int downloaderThreadPriority) {
+        this(executorThreadSize, executorThreadPriority, downloaderThreadSize,
+                downloaderThreadPriority, 0);
+    }
+
+    /**
+     * Set custom thread pool sizes and thread priorities for the default executors, limiting the
+     * number of concurrent downloads from the same host. Only use a limit when the bitmaps come
+     * from multiple hosts: with a single host, the exceeding downloader threads stay idle.
+     *
+     * @param maxDownloadsPerHost The maximum number of concurrent downloads from the same host, or
+     *                            0 for no limits
+     * @see #CustomBitmapThreadingPolicy(int, int, int, int)
+     */
+    public CustomBitmapThreadingPolicy(int executorThreadSize, int executorThreadPriority,
+                                       int downloaderThreadSize, int downloaderThreadPriority,
+                                       int maxDownloadsPerHost) {
         mBitmapDiskExecutor = DefaultBitmapThreadingPolicy.buildDefaultDiskExecutor(
                 executorThreadSize, executorThreadPriority);
         mDownloaderExecutor = DefaultBitmapThreadingPolicy.buildDefaultDownloader(
-                downloaderThreadSize, downloaderThreadPriority);
+                downloaderThreadSize, downloaderThreadPriority, maxDownloadsPerHost);
     }
 
     /**
@@ -18,12 +18,11 @@ package com.github.marcosalis.kraken.cache.bitmap.threading;
 import android.os.Process;
 import android.support.annotation.NonNull;
 
+import com.github.marcosalis.kraken.cache.keys.HashKey;
 import com.github.marcosalis.kraken.utils.DroidUtils;
+import com.github.marcosalis.kraken.utils.concurrent.IndexedPriorityThreadPoolExecutor;
 import com.github.marcosalis.kraken.utils.concurrent.PriorityThreadFactory;
-import com.github.marcosalis.kraken.utils.concurrent.ReorderingThreadPoolExecutor;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -41,7 +40,7 @@ import javax.annotation.concurrent.ThreadSafe;
 public final class DefaultBitmapThreadingPolicy implements BitmapThreadingPolicy {
 
     private final ThreadPoolExecutor mBitmapDiskExecutor;
-    private final ReorderingThreadPoolExecutor<String> mDownloaderExecutor;
+    private final IndexedPriorityThreadPoolExecutor<HashKey> mDownloaderExecutor;
 
     public DefaultBitmapThreadingPolicy() {
         mBitmapDiskExecutor = buildDefaultDiskExecutor(getDefaultDiskExecutorSize(),
@@ -72,27 +71,52 @@ public final class DefaultBitmapThreadingPolicy implements BitmapThreadingPolicy
         return DroidUtils.getIOBoundPoolSize();
     }
 
+    /**
+     * Builds the default disk executor, an {@link IndexedPriorityThreadPoolExecutor} so that
+     * prefetches can be queued with a low priority and prioritized when needed.
+     */
     @NonNull
-    static final ThreadPoolExecutor buildDefaultDiskExecutor(int executorSize, int priority) {
-        final LinkedBlockingQueue<Runnable> executorQueue = new LinkedBlockingQueue<Runnable>();
+    static final IndexedPriorityThreadPoolExecutor<HashKey> buildDefaultDiskExecutor(
+            int executorSize, int priority) {
         // priority here is less than default to face decoding overhead
         final PriorityThreadFactory executorFactory = new PriorityThreadFactory(
                 "Bitmap caches disk executor thread", priority);
 
-        return new ThreadPoolExecutor(executorSize, executorSize, 0L, TimeUnit.MILLISECONDS,
-                executorQueue, executorFactory);
+        return new IndexedPriorityThreadPoolExecutor<HashKey>(executorSize, executorSize, 0L,
+                TimeUnit.MILLISECONDS, executorFactory);
     }
 
+    /**
+     * Builds the default downloader executor, an {@link IndexedPriorityThreadPoolExecutor} that
+     * allows reprioritizing the queued downloads in logarithmic time. The downloads from the same
+     * host are not limited, see {@link #buildDefaultDownloader(int, int, int)}.
+     */
     @NonNull
-    static final ReorderingThreadPoolExecutor<String> buildDefaultDownloader(int executorSize,
-                                                                             int priority) {
-        final BlockingQueue<Runnable> downloaderQueue = ReorderingThreadPoolExecutor
-                .createBlockingQueue();
+    static final IndexedPriorityThreadPoolExecutor<HashKey> buildDefaultDownloader(
+            int executorSize, int priority) {
+        return buildDefaultDownloader(executorSize, priority, 0);
+    }
+
+    /**
+     * Builds the default downloader executor, optionally limiting the concurrent downloads from the
+     * same host so that a slow host can't stall the others. The limit leaves threads idle when
+     * all the bitmaps come from a single host, so it's only worth it for multiple hosts.
+     *
+     * @param maxDownloadsPerHost The maximum number of concurrent downloads from the same host, or
+     *                            0 for no limits
+     */
+    @NonNull
+    static final IndexedPriorityThreadPoolExecutor<HashKey> buildDefaultDownloader(
+            int executorSize, int priority, int maxDownloadsPerHost) {
         final PriorityThreadFactory downloaderFactory = new PriorityThreadFactory(
                 "Bitmap caches downloader executor thread", priority);
 
-        return new ReorderingThreadPoolExecutor<String>(executorSize, executorSize, 0L,
-                TimeUnit.MILLISECONDS, downloaderQueue, downloaderFactory);
+        final IndexedPriorityThreadPoolExecutor<HashKey> downloader = new IndexedPriorityThreadPoolExecutor<HashKey>(
+                executorSize, executorSize, 0L, TimeUnit.MILLISECONDS, downloaderFactory);
+        if (maxDownloadsPerHost > 0) {
+            downloader.setMaxRunningPerGroup(maxDownloadsPerHost);
+        }
+        return downloader;
     }
 
 }
\ No newline at end of file
@@ -98,7 +98,7 @@ public abstract class AbstractDiskModelContentProxy<MODEL extends JsonModel> ext
             mContentLoader = loaderFactory.getContentLoader(mModelCache, mModelDisk);
         } else {
             mContentLoader = new DiskContentLoader<MODEL>(mModelCache, mModelDisk, expiration,
-                    null, null);
+                    null, null, getProxyExecutor(), getStatsRecorder());
         }
         mExpiration = expiration;
     }
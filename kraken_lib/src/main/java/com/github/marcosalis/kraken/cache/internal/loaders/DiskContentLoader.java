@@ -22,17 +22,30 @@ import android.util.Log;
 
 import com.github.marcosalis.kraken.DroidConfig;
 import com.github.marcosalis.kraken.cache.AccessPolicy;
+import com.github.marcosalis.kraken.cache.CacheStats;
+import com.github.marcosalis.kraken.cache.ContentCache.CacheSource;
 import com.github.marcosalis.kraken.cache.ContentLruCache;
 import com.github.marcosalis.kraken.cache.ModelDiskCache;
+import com.github.marcosalis.kraken.cache.requests.BaseCacheableRequest;
+import com.github.marcosalis.kraken.cache.requests.BaseCacheableRequest.ConditionalExecution;
 import com.github.marcosalis.kraken.cache.requests.CacheableRequest;
+import com.github.marcosalis.kraken.utils.android.LogUtils;
 import com.github.marcosalis.kraken.utils.concurrent.ExpirableFutureTask;
 import com.github.marcosalis.kraken.utils.concurrent.Memoizer;
+import com.github.marcosalis.kraken.utils.http.DefaultHttpRequestsManager;
+import com.github.marcosalis.kraken.utils.http.HttpValidators;
 import com.github.marcosalis.kraken.utils.network.ConnectionMonitor;
 import com.google.common.annotations.Beta;
+import com.google.common.collect.Sets;
 
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -49,6 +62,20 @@ import javax.annotation.concurrent.ThreadSafe;
  * fail, the set {@link AccessPolicy} is turned into {@link AccessPolicy#CACHE_ONLY} to allow
  * retrieving old data from the caches (if any) by ignoring expiration.
  *
+ * When a {@link BaseCacheableRequest} finds an expired disk cache entry that has HTTP validators, a
+ * conditional request is executed: if the content hasn't been modified, the entry expiration is
+ * extended and the cached model is returned without downloading it again.
+ *
+ * If a revalidation {@link Executor} is set, {@link AccessPolicy#STALE_WHILE_REVALIDATE} returns
+ * an expired model from the memory or disk cache immediately (a stale disk model is also put back
+ * into the memory cache, still expired) and refreshes it with a {@link AccessPolicy#NORMAL} load
+ * in background, notifying the passed {@link ContentUpdateCallback} with the updated model only
+ * when it's not equal to the stale one. Without an executor, it's handled as {@link
+ * AccessPolicy#NORMAL}.
+ *
+ * If a {@link CacheStats.Recorder} is set, the loader records the memory, disk and network hits
+ * and misses of the loads into it.
+ *
  * All the actions on a cache, including {@link AccessPolicy#PRE_FETCH}, are blocking for now. TODO:
  * delegate pre-fetching to a separate executor and return to the caller immediately when
  * pre-fetching.<br>
@@ -72,9 +99,15 @@ public final class DiskContentLoader<D> implements ContentLoader<CacheableReques
     private final RequestHandler mRequestHandler;
     @Nullable
     private final ConnectionMonitor mConnMonitor;
+    @Nullable
+    private final Executor mRevalidationExecutor;
+    /* keys of the background revalidations that are scheduled or running */
+    private final Set<String> mRevalidations;
+    @Nullable
+    private final CacheStats.Recorder mStats;
 
     /**
-     * Instantiates a new {@link DiskContentLoader}.
+     * Instantiates a new {@link DiskContentLoader} without a revalidation executor.
      *
      * @param memCache       The {@link ModelLruCache} to use
      * @param diskCache      The (optional) {@link ModelDiskCache} to use
@@ -86,11 +119,55 @@ public final class DiskContentLoader<D> implements ContentLoader<CacheableReques
     public DiskContentLoader(@NonNull ContentLruCache<String, ExpirableFutureTask<D>> memCache,
                              @Nullable ModelDiskCache<D> diskCache, long expiration,
                              @Nullable RequestHandler requestHandler, @Nullable ConnectionMonitor connMonitor) {
+        this(memCache, diskCache, expiration, requestHandler, connMonitor, null);
+    }
+
+    /**
+     * Instantiates a new {@link DiskContentLoader} that doesn't record statistics.
+     *
+     * @param memCache             The {@link ModelLruCache} to use
+     * @param diskCache            The (optional) {@link ModelDiskCache} to use
+     * @param expiration           Expiration offset time to use for {@link AccessPolicy}s that
+     *                             require it
+     * @param requestHandler       The (optional) {@link RequestHandler} for this loader
+     * @param connMonitor          The (optional) {@link ConnectionMonitor} for this loader
+     * @param revalidationExecutor The (optional) {@link Executor} to refresh stale content in
+     *                             background with {@link AccessPolicy#STALE_WHILE_REVALIDATE}
+     */
+    public DiskContentLoader(@NonNull ContentLruCache<String, ExpirableFutureTask<D>> memCache,
+                             @Nullable ModelDiskCache<D> diskCache, long expiration,
+                             @Nullable RequestHandler requestHandler, @Nullable ConnectionMonitor connMonitor,
+                             @Nullable Executor revalidationExecutor) {
+        this(memCache, diskCache, expiration, requestHandler, connMonitor, revalidationExecutor,
+                null);
+    }
+
+    /**
+     * Instantiates a new {@link DiskContentLoader}.
+     *
+     * @param memCache             The {@link ModelLruCache} to use
+     * @param diskCache            The (optional) {@link ModelDiskCache} to use
+     * @param expiration           Expiration offset time to use for {@link AccessPolicy}s that
+     *                             require it
+     * @param requestHandler       The (optional) {@link RequestHandler} for this loader
+     * @param connMonitor          The (optional) {@link ConnectionMonitor} for this loader
+     * @param revalidationExecutor The (optional) {@link Executor} to refresh stale content in
+     *                             background with {@link AccessPolicy#STALE_WHILE_REVALIDATE}
+     * @param stats                The (optional) {@link CacheStats.Recorder} for this loader
+     */
+    public DiskContentLoader(@NonNull ContentLruCache<String, ExpirableFutureTask<D>> memCache,
+                             @Nullable ModelDiskCache<D> diskCache, long expiration,
+                             @Nullable RequestHandler requestHandler, @Nullable ConnectionMonitor connMonitor,
+                             @Nullable Executor revalidationExecutor,
+                             @Nullable CacheStats.Recorder stats) {
         mMemCache = memCache;
         mDiskCache = diskCache;
         mExpiration = expiration;
         mRequestHandler = requestHandler;
         mConnMonitor = connMonitor;
+        mRevalidationExecutor = revalidationExecutor;
+        mRevalidations = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        mStats = stats;
     }
 
     /**
@@ -110,6 +187,16 @@ public final class DiskContentLoader<D> implements ContentLoader<CacheableReques
             mRequestHandler.validateRequest(request);
         }
 
+        if (action == AccessPolicy.STALE_WHILE_REVALIDATE) {
+            final D stale = loadStale(request, callback);
+            if (stale != null) {
+                return stale;
+            }
+            // fresh, already loading or not cached at all
+            action = AccessPolicy.NORMAL;
+        }
+
+        final long start = System.nanoTime();
         final String key = request.hash();
         // we try to retrieve item from our task cache
         ExpirableFutureTask<D> oldFutureTask = null;
@@ -140,6 +227,9 @@ public final class DiskContentLoader<D> implements ContentLoader<CacheableReques
             // build the new loading task
             final ExpirableFutureTask<D> newFutureTask = new ExpirableFutureTask<D>(
                     new IOContentLoader(action, request, callback), mExpiration);
+            if (action != AccessPolicy.REFRESH) {
+                recordMiss(CacheSource.MEMORY);
+            }
 
             if (action == AccessPolicy.REFRESH || isExpired) {
                 // invalidate cache item if any to start new task
@@ -153,11 +243,14 @@ public final class DiskContentLoader<D> implements ContentLoader<CacheableReques
                 newFutureTask.run();
             }
         }
+        final boolean memoryHit = future == oldFutureTask;
         try {
             // wait for the task execution completion
             D model = future.get();
             if (model == null) {
                 revertOnFailure(key, oldFutureTask, future, isExpired);
+            } else if (memoryHit) {
+                recordHit(CacheSource.MEMORY, start);
             }
             return model;
         } catch (CancellationException e) {
@@ -170,6 +263,139 @@ public final class DiskContentLoader<D> implements ContentLoader<CacheableReques
         return null;
     }
 
+    /**
+     * Handles a {@link AccessPolicy#STALE_WHILE_REVALIDATE} access: if the cached model is expired,
+     * it's returned and a background revalidation is scheduled.
+     *
+     * @return The stale model, or null if the access must be handled as {@link
+     * AccessPolicy#NORMAL}
+     */
+    @Nullable
+    private D loadStale(@NonNull CacheableRequest<D> request,
+                        @Nullable ContentUpdateCallback<D> callback) {
+        if (mRevalidationExecutor == null) {
+            return null;
+        }
+        final long start = System.nanoTime();
+        final String key = request.hash();
+        final ExpirableFutureTask<D> future = mMemCache.get(key);
+        if (future != null && !future.isExpired()
+                && (future.isDone() || !mRevalidations.contains(key))) {
+            return null; // fresh model or a foreground load to wait for
+        }
+        D model = getIfDone(future);
+        if (model != null) {
+            recordHit(CacheSource.MEMORY, start);
+        } else if (mDiskCache != null) {
+            final D fresh = mDiskCache.get(key, mExpiration);
+            if (fresh != null) {
+                recordHit(CacheSource.DISK, start);
+                putInMemory(key, future, fresh, mExpiration);
+                return fresh;
+            }
+            if ((model = mDiskCache.get(key)) != null) {
+                recordHit(CacheSource.DISK, start);
+                if (future == null || future.isDone()) {
+                    // the stale model expires immediately, to be revalidated on the next accesses
+                    putInMemory(key, future, model, 0);
+                }
+            }
+        }
+        if (model != null) {
+            /** cache debugging */
+            if (DroidConfig.DEBUG) {
+                Log.v(TAG, "Returning stale content for " + request.getRequestUrl());
+            }
+            /** cache debugging - END */
+            scheduleRevalidation(request, callback, model);
+        }
+        return model;
+    }
+
+    /**
+     * Replaces a completed (or missing) memory cache entry with an already loaded model.
+     */
+    private void putInMemory(@NonNull String key, @Nullable ExpirableFutureTask<D> oldTask,
+                             @NonNull D model, long expiration) {
+        final ExpirableFutureTask<D> task = new ExpirableFutureTask<D>(new ResultLoader(model),
+                expiration);
+        task.run();
+        if (oldTask != null) {
+            mMemCache.remove(key, oldTask);
+        }
+        mMemCache.putIfAbsent(key, task);
+    }
+
+    /**
+     * Refreshes a stale model in background with a {@link AccessPolicy#NORMAL} load, unless a
+     * revalidation for the same key is already scheduled. The callback is only notified if the
+     * refreshed model is not equal to the stale one.
+     */
+    private void scheduleRevalidation(@NonNull final CacheableRequest<D> request,
+                                      @Nullable final ContentUpdateCallback<D> callback,
+                                      @NonNull final D stale) {
+        final String key = request.hash();
+        if (!mRevalidations.add(key)) {
+            return; // already revalidating
+        }
+        final ContentUpdateCallback<D> updateCallback = callback == null ? null
+                : new ContentUpdateCallback<D>() {
+            @Override
+            public void onContentUpdated(@NonNull D newContent) {
+                if (!newContent.equals(stale)) {
+                    callback.onContentUpdated(newContent);
+                }
+            }
+        };
+        try {
+            mRevalidationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        load(AccessPolicy.NORMAL, request, updateCallback);
+                    } catch (Exception e) {
+                        LogUtils.logException(e);
+                    } finally {
+                        mRevalidations.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mRevalidations.remove(key);
+            LogUtils.logException(e);
+        }
+    }
+
+    private void recordHit(@NonNull CacheSource source, long startNanos) {
+        if (mStats != null) {
+            mStats.recordHit(source, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void recordMiss(@NonNull CacheSource source) {
+        if (mStats != null) {
+            mStats.recordMiss(source);
+        }
+    }
+
+    /**
+     * Returns the result of a completed future, or null if it's not completed or it failed.
+     */
+    @Nullable
+    private static <D> D getIfDone(@Nullable Future<D> future) {
+        if (future == null || !future.isDone() || future.isCancelled()) {
+            return null;
+        }
+        try {
+            return future.get(); // never blocks
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // failed load, no stale model available
+        }
+        return null;
+    }
+
     /**
      * Fallback method to handle the case when a task isn't successful and needs to be removed from
      * the cache to avoid pollution. For some {@link AccessPolicy}s, it is also needed to replace
@@ -189,6 +415,23 @@ public final class DiskContentLoader<D> implements ContentLoader<CacheableReques
         }
     }
 
+    /**
+     * Callable that returns an already loaded model
+     */
+    private class ResultLoader implements Callable<D> {
+
+        private final D mResult;
+
+        public ResultLoader(@NonNull D result) {
+            mResult = result;
+        }
+
+        @Override
+        public D call() {
+            return mResult;
+        }
+    }
+
     /**
      * Callable that executes loading of data from disk or network
      */
@@ -212,12 +455,19 @@ public final class DiskContentLoader<D> implements ContentLoader<CacheableReques
 
             final String key = mRequest.hash();
             D model = null;
+            HttpValidators validators = null;
+            long start = System.nanoTime();
 
             /** Disk cache access */
             if (mDiskCache != null) {
                 if (mAction == AccessPolicy.CACHE_ONLY) {
                     // do not take care of cache expiration
                     model = mDiskCache.get(key);
+                    if (model != null) {
+                        recordHit(CacheSource.DISK, start);
+                    } else {
+                        recordMiss(CacheSource.DISK);
+                    }
 
                     /** cache debugging */
                     if (DroidConfig.DEBUG) {
@@ -237,31 +487,60 @@ public final class DiskContentLoader<D> implements ContentLoader<CacheableReques
                 } else {
                     // check disk cache (and verify item expiration)
                     if ((model = mDiskCache.get(key, mExpiration)) != null) {
+                        recordHit(CacheSource.DISK, start);
                         return model;
                     } else {
+                        recordMiss(CacheSource.DISK);
                         /** cache debugging */
                         if (DroidConfig.DEBUG) {
                             Log.v(TAG, "Disk cache miss or expired for " + mRequest.getRequestUrl());
                         }
                         /** cache debugging - END */
+                        validators = mDiskCache.getValidators(key);
                     }
                 }
             }
 
             /** execute GET request to the server */
+            start = System.nanoTime();
+            // the validation state is per execution, as the request can be executed concurrently
+            ConditionalExecution execution = null;
             if (mRequestHandler != null) {
                 model = (D) mRequestHandler.execRequest(mRequest);
+            } else if (mDiskCache != null && mRequest instanceof BaseCacheableRequest) {
+                execution = new ConditionalExecution(validators);
+                model = ((BaseCacheableRequest<D>) mRequest).execute(
+                        DefaultHttpRequestsManager.get(), execution);
             } else {
                 model = mRequest.execute();
             }
             if (model != null) { // update caches
+                recordHit(CacheSource.NETWORK, start);
                 if (mDiskCache != null) {
                     mDiskCache.put(key, model);
+                    final HttpValidators responseValidators = execution != null
+                            ? execution.getResponseValidators() : null;
+                    if (responseValidators != null) {
+                        mDiskCache.setValidators(key, responseValidators);
+                    }
                 }
                 if (mUpdateCallback != null) {
                     mUpdateCallback.onContentUpdated(model);
                 }
-            } else if (mAction == AccessPolicy.NORMAL) {
+            } else if (validators != null && execution != null && execution.isNotModified()
+                    && mDiskCache.revalidate(key, execution.getResponseValidators())) {
+                // the expired model is still valid
+                recordHit(CacheSource.NETWORK, start);
+                model = mDiskCache.get(key);
+                /** cache debugging */
+                if (DroidConfig.DEBUG) {
+                    Log.v(TAG, "Disk cache entry revalidated for " + mRequest.getRequestUrl());
+                }
+                /** cache debugging - END */
+            } else {
+                recordMiss(CacheSource.NETWORK);
+            }
+            if (model == null && mAction == AccessPolicy.NORMAL) {
                 // fallback when request failed
                 if (mDiskCache != null) {
                     // set model to any stale data we might find
@@ -42,6 +42,13 @@ public interface CacheUrlKey extends CacheKey, Parcelable {
     @NonNull
     public String hash();
 
+    /**
+     * Gets the {@link HashKey} used to index the key in memory. Its string representation must be
+     * equal to {@link #hash()}, or at least both must identify the same resource.
+     */
+    @NonNull
+    public HashKey hashKey();
+
     /**
      * Gets the string URL hold by this {@link CacheUrlKey}
      */
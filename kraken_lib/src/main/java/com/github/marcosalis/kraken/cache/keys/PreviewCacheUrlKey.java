@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.keys;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * {@link CacheUrlKey} decorator that holds the key of a low resolution preview of the bitmap to
+ * retrieve (for example, a tiny thumbnail served by the same image backend). While the full bitmap
+ * is being loaded, the preview is displayed in its place.
+ *
+ * The preview key doesn't affect the key hash: the preview bitmap is cached with its own key.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@Immutable
+public class PreviewCacheUrlKey implements CacheUrlKey {
+
+    @NonNull
+    private final CacheUrlKey mKey;
+    @NonNull
+    private final CacheUrlKey mPreviewKey;
+
+    /**
+     * Creates a key with a preview for the passed {@link CacheUrlKey}.
+     *
+     * @param key        The key to decorate
+     * @param previewKey The key of the preview bitmap
+     */
+    public PreviewCacheUrlKey(@NonNull CacheUrlKey key, @NonNull CacheUrlKey previewKey) {
+        mKey = Preconditions.checkNotNull(key);
+        mPreviewKey = Preconditions.checkNotNull(previewKey);
+    }
+
+    public PreviewCacheUrlKey(Parcel source) {
+        // reconstruct from the Parcel
+        mKey = source.readParcelable(PreviewCacheUrlKey.class.getClassLoader());
+        mPreviewKey = source.readParcelable(PreviewCacheUrlKey.class.getClassLoader());
+    }
+
+	/*
+     * Needed for the Parcelable functionalities
+	 */
+
+    public static final Parcelable.Creator<PreviewCacheUrlKey> CREATOR = new Parcelable.Creator<PreviewCacheUrlKey>() {
+        @Override
+        public PreviewCacheUrlKey createFromParcel(Parcel source) {
+            return new PreviewCacheUrlKey(source);
+        }
+
+        @Override
+        public PreviewCacheUrlKey[] newArray(int size) {
+            return new PreviewCacheUrlKey[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return hashCode();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeParcelable(mKey, flags);
+        dest.writeParcelable(mPreviewKey, flags);
+    }
+
+    @NonNull
+    @Override
+    public String hash() {
+        return mKey.hash();
+    }
+
+    @NonNull
+    @Override
+    public HashKey hashKey() {
+        return mKey.hashKey();
+    }
+
+    @NonNull
+    @Override
+    public String getUrl() {
+        return mKey.getUrl();
+    }
+
+    /**
+     * Gets the decorated {@link CacheUrlKey}
+     */
+    @NonNull
+    public CacheUrlKey getKey() {
+        return mKey;
+    }
+
+    /**
+     * Gets the {@link CacheUrlKey} of the preview bitmap
+     */
+    @NonNull
+    public CacheUrlKey getPreviewKey() {
+        return mPreviewKey;
+    }
+
+    /**
+     * Gets the preview key for the passed key.
+     *
+     * @return The preview key, or null if the key doesn't specify it
+     */
+    @Nullable
+    public static CacheUrlKey getPreviewKey(@NonNull CacheUrlKey key) {
+        return key instanceof PreviewCacheUrlKey ? ((PreviewCacheUrlKey) key).mPreviewKey : null;
+    }
+
+}
@@ -20,7 +20,6 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
 
-import com.github.marcosalis.kraken.utils.HashUtils;
 import com.google.common.annotations.Beta;
 import com.google.common.base.Preconditions;
 import com.google.common.hash.HashFunction;
@@ -29,8 +28,9 @@ import com.google.common.hash.Hashing;
 import javax.annotation.concurrent.Immutable;
 
 /**
- * Simple class that holds either a URL string and generates a shorter file system friendly String
- * key to be used for memory and disk caches.
+ * Simple class that holds either a URL string and generates a 128-bit {@link HashKey} to be used
+ * for memory caches. Its shorter file system friendly String representation, used for disk caches,
+ * is only generated when needed.
  *
  * Prefer to {@link URICacheUrlKey} when there is no URL parameter striping needed.
  *
@@ -49,7 +49,7 @@ public class SimpleCacheUrlKey implements CacheUrlKey {
     protected static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
 
     @NonNull
-    private final String mKey;
+    private final HashKey mKey;
     @NonNull
     private final String mUrl;
 
@@ -63,13 +63,13 @@ public class SimpleCacheUrlKey implements CacheUrlKey {
         Preconditions.checkNotNull(url);
         mUrl = url;
         // process URI
-        mKey = HashUtils.getHash(HASH_FUNCTION, url);
+        mKey = HashKey.of(url);
     }
 
     public SimpleCacheUrlKey(Parcel source) {
         // reconstruct from the Parcel
         mUrl = source.readString();
-        mKey = source.readString();
+        mKey = new HashKey(source.readLong(), source.readLong());
     }
 
 	/*
@@ -96,7 +96,8 @@ public class SimpleCacheUrlKey implements CacheUrlKey {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeString(mUrl);
-        dest.writeString(mKey);
+        dest.writeLong(mKey.getH1());
+        dest.writeLong(mKey.getH2());
     }
 
     /**
@@ -105,6 +106,12 @@ public class SimpleCacheUrlKey implements CacheUrlKey {
     @NonNull
     @Override
     public String hash() {
+        return mKey.toString();
+    }
+
+    @NonNull
+    @Override
+    public HashKey hashKey() {
         return mKey;
     }
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.cache.keys;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * {@link CacheUrlKey} decorator that holds the target size of the bitmap to retrieve, so that
+ * bitmaps can be decoded into a down-sampled version as close as possible to the size of the view
+ * that displays them.
+ *
+ * The target size doesn't affect the key hash: the original encoded image is stored only once in
+ * the disk cache, while the memory cache holds the down-sampled bitmap. For this reason, when the
+ * same URLs are displayed at very different sizes, a separate bitmap cache should be used for each
+ * of them.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@Immutable
+public class SizedCacheUrlKey implements CacheUrlKey {
+
+    @NonNull
+    private final CacheUrlKey mKey;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+
+    /**
+     * Creates a sized key for the passed {@link CacheUrlKey}.
+     *
+     * @param key          The key to decorate
+     * @param targetWidth  The target width of the decoded bitmap in pixels
+     * @param targetHeight The target height of the decoded bitmap in pixels
+     * @throws IllegalArgumentException if any of the target sizes is not positive
+     */
+    public SizedCacheUrlKey(@NonNull CacheUrlKey key, @IntRange(from = 1) int targetWidth,
+                            @IntRange(from = 1) int targetHeight) {
+        Preconditions.checkArgument(targetWidth > 0 && targetHeight > 0, "Invalid target size");
+        mKey = Preconditions.checkNotNull(key);
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+    }
+
+    public SizedCacheUrlKey(Parcel source) {
+        // reconstruct from the Parcel
+        mKey = source.readParcelable(SizedCacheUrlKey.class.getClassLoader());
+        mTargetWidth = source.readInt();
+        mTargetHeight = source.readInt();
+    }
+
+	/*
+     * Needed for the Parcelable functionalities
+	 */
+
+    public static final Parcelable.Creator<SizedCacheUrlKey> CREATOR = new Parcelable.Creator<SizedCacheUrlKey>() {
+        @Override
+        public SizedCacheUrlKey createFromParcel(Parcel source) {
+            return new SizedCacheUrlKey(source);
+        }
+
+        @Override
+        public SizedCacheUrlKey[] newArray(int size) {
+            return new SizedCacheUrlKey[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return hashCode();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeParcelable(mKey, flags);
+        dest.writeInt(mTargetWidth);
+        dest.writeInt(mTargetHeight);
+    }
+
+    @NonNull
+    @Override
+    public String hash() {
+        return mKey.hash();
+    }
+
+    @NonNull
+    @Override
+    public HashKey hashKey() {
+        return mKey.hashKey();
+    }
+
+    @NonNull
+    @Override
+    public String getUrl() {
+        return mKey.getUrl();
+    }
+
+    /**
+     * Gets the decorated {@link CacheUrlKey}
+     */
+    @NonNull
+    public CacheUrlKey getKey() {
+        return mKey;
+    }
+
+    /**
+     * Gets the target width of the bitmap in pixels
+     */
+    public int getTargetWidth() {
+        return mTargetWidth;
+    }
+
+    /**
+     * Gets the target height of the bitmap in pixels
+     */
+    public int getTargetHeight() {
+        return mTargetHeight;
+    }
+
+    /**
+     * Gets the target width for the passed key.
+     *
+     * @return The target width, or 0 if the key doesn't specify it
+     */
+    public static int getTargetWidth(@NonNull CacheUrlKey key) {
+        return key instanceof SizedCacheUrlKey ? ((SizedCacheUrlKey) key).mTargetWidth : 0;
+    }
+
+    /**
+     * Gets the target height for the passed key.
+     *
+     * @return The target height, or 0 if the key doesn't specify it
+     */
+    public static int getTargetHeight(@NonNull CacheUrlKey key) {
+        return key instanceof SizedCacheUrlKey ? ((SizedCacheUrlKey) key).mTargetHeight : 0;
+    }
+
+}
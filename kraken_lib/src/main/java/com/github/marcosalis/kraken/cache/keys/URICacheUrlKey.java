@@ -20,7 +20,8 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
 
-import com.github.marcosalis.kraken.utils.HashUtils;
+import android.support.annotation.Nullable;
+
 import com.google.common.annotations.Beta;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
@@ -60,7 +61,9 @@ public class URICacheUrlKey implements CacheUrlKey, Parcelable {
     protected static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
 
     @NonNull
-    private final String mKey;
+    private final HashKey mHashKey;
+    @Nullable
+    private final String mKey; // custom key, if any
     @NonNull
     private final URI mUri;
 
@@ -74,7 +77,8 @@ public class URICacheUrlKey implements CacheUrlKey, Parcelable {
     public URICacheUrlKey(@NonNull String url) throws IllegalArgumentException {
         mUri = URI.create(url);
         // process URI
-        mKey = hashUri();
+        mHashKey = hashUri();
+        mKey = null;
     }
 
     /**
@@ -88,6 +92,7 @@ public class URICacheUrlKey implements CacheUrlKey, Parcelable {
     protected URICacheUrlKey(@NonNull String url, @NonNull String key)
             throws IllegalArgumentException {
         mUri = URI.create(url);
+        mHashKey = HashKey.of(key);
         mKey = key;
     }
 
@@ -125,9 +130,20 @@ public class URICacheUrlKey implements CacheUrlKey, Parcelable {
     /**
      * Gets the generated key for this object
      */
+    @NonNull
     @Override
     public String hash() {
-        return mKey;
+        return mKey != null ? mKey : mHashKey.toString();
+    }
+
+    /**
+     * Gets the {@link HashKey} for this object. When a custom key is set, this is generated from
+     * the custom key string.
+     */
+    @NonNull
+    @Override
+    public HashKey hashKey() {
+        return mHashKey;
     }
 
     /**
@@ -141,12 +157,12 @@ public class URICacheUrlKey implements CacheUrlKey, Parcelable {
     /**
      * Generate an unique identifier for the cache key from the path part of the given URI.
      */
-    private String hashUri() throws IllegalArgumentException {
+    private HashKey hashUri() throws IllegalArgumentException {
         String path = mUri.getPath();
         if (path == null || path.length() < MIN_KEY_SOURCE) {
             throw new IllegalArgumentException("Unsuitable URI");
         }
-        return HashUtils.getHash(HASH_FUNCTION, path);
+        return HashKey.of(path);
     }
 
 }
\ No newline at end of file
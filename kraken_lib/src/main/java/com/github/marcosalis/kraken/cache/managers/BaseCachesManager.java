@@ -19,6 +19,7 @@ package com.github.marcosalis.kraken.cache.managers;
 import android.app.Application;
 import android.support.annotation.NonNull;
 
+import com.github.marcosalis.kraken.cache.CacheStats;
 import com.github.marcosalis.kraken.cache.SecondLevelCache.ClearMode;
 import com.github.marcosalis.kraken.cache.proxies.ContentProxy;
 import com.github.marcosalis.kraken.utils.DroidUtils;
@@ -72,6 +73,19 @@ public class BaseCachesManager<E> implements CachesManager<E> {
         mContents.remove(contentId);
     }
 
+    /**
+     * @see ContentProxy#getStats()
+     */
+    @NonNull
+    @Override
+    public CacheStats getStats() {
+        CacheStats stats = CacheStats.EMPTY;
+        for (ContentProxy content : mContents.values()) {
+            stats = stats.plus(content.getStats());
+        }
+        return stats;
+    }
+
     @Override
     public void clearAllCaches() {
         clearMemoryCaches();
@@ -19,6 +19,7 @@ package com.github.marcosalis.kraken.cache.managers;
 import android.app.Application;
 import android.support.annotation.NonNull;
 
+import com.github.marcosalis.kraken.cache.CacheStats;
 import com.github.marcosalis.kraken.cache.SecondLevelCache.ClearMode;
 import com.github.marcosalis.kraken.cache.proxies.ContentProxy;
 import com.google.common.annotations.Beta;
@@ -79,4 +80,10 @@ public interface CachesManager<E> {
      */
     public void clearDiskCaches(@NonNull ClearMode mode);
 
+    /**
+     * Returns the sum of the cache statistics of all the registered content proxies.
+     */
+    @NonNull
+    public CacheStats getStats();
+
 }
\ No newline at end of file
@@ -16,6 +16,9 @@
  */
 package com.github.marcosalis.kraken.cache.proxies;
 
+import android.support.annotation.NonNull;
+
+import com.github.marcosalis.kraken.cache.CacheStats;
 import com.github.marcosalis.kraken.cache.SimpleDiskCache;
 import com.github.marcosalis.kraken.cache.internal.loaders.ContentLoader;
 import com.google.common.annotations.Beta;
@@ -60,4 +63,11 @@ public interface ContentProxy {
      */
     public void clearCache();
 
+    /**
+     * Returns a snapshot of the cache statistics collected by this content proxy since its
+     * creation.
+     */
+    @NonNull
+    public CacheStats getStats();
+
 }
\ No newline at end of file
@@ -22,11 +22,14 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.github.marcosalis.kraken.DroidConfig;
+import com.github.marcosalis.kraken.cache.CacheStats;
 import com.github.marcosalis.kraken.cache.SecondLevelCache.ClearMode;
 import com.github.marcosalis.kraken.utils.DroidUtils;
+import com.github.marcosalis.kraken.utils.android.LogUtils;
 import com.github.marcosalis.kraken.utils.concurrent.PriorityThreadFactory;
 import com.google.common.annotations.Beta;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -35,7 +38,8 @@ import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * <p> Abstract base implementation of {@link ContentProxy}. <p> Just provides some library static
- * utility methods to execute content-retrieval related tasks.
+ * utility methods to execute content-retrieval related tasks, and a {@link CacheStats.Recorder}
+ * for subclasses to collect their cache statistics into.
  *
  * @author Marco Salis
  * @since 1.0
@@ -47,6 +51,8 @@ public abstract class ContentProxyBase implements ContentProxy {
     private static final String TAG = ContentProxyBase.class.getSimpleName();
 
     static {
+        LogUtils.enableCoreLog();
+
         final int executorSize = DroidUtils.getIOBoundPoolSize();
         final int prefetchSize = (int) Math.ceil((double) executorSize / 2);
 
@@ -91,6 +97,26 @@ public abstract class ContentProxyBase implements ContentProxy {
      */
     private static final ThreadPoolExecutor LOW_PRIORITY_EXECUTOR;
 
+    /**
+     * {@link Executor} that submits its tasks to the main thread pool, see {@link
+     * #execute(Runnable)}.
+     */
+    private static final Executor PROXY_EXECUTOR_FACADE = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable runnable) {
+            ContentProxyBase.execute(runnable);
+        }
+    };
+
+    /**
+     * Returns an {@link Executor} for the main, standard priority common thread pool, to be passed
+     * to the components that execute background tasks on behalf of a content proxy.
+     */
+    @NonNull
+    protected static Executor getProxyExecutor() {
+        return PROXY_EXECUTOR_FACADE;
+    }
+
     /**
      * Executes a task in the main, standard priority common thread pool.
      *
@@ -140,6 +166,22 @@ public abstract class ContentProxyBase implements ContentProxy {
         }
     }
 
+    private final CacheStats.Recorder mStatsRecorder = new CacheStats.Recorder();
+
+    /**
+     * Returns the recorder of the statistics returned by {@link #getStats()}.
+     */
+    @NonNull
+    protected final CacheStats.Recorder getStatsRecorder() {
+        return mStatsRecorder;
+    }
+
+    @NonNull
+    @Override
+    public CacheStats getStats() {
+        return mStatsRecorder.snapshot();
+    }
+
     @Override
     @CallSuper
     public void clearCache() {
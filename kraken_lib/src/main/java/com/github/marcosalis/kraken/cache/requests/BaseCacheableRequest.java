@@ -21,11 +21,12 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.github.marcosalis.kraken.DroidConfig;
-import com.github.marcosalis.kraken.utils.HashUtils;
+import com.github.marcosalis.kraken.cache.keys.HashKey;
 import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
 import com.github.marcosalis.kraken.utils.concurrent.PriorityThreadFactory;
 import com.github.marcosalis.kraken.utils.http.DefaultHttpRequestsManager;
 import com.github.marcosalis.kraken.utils.http.HttpRequestsManager;
+import com.github.marcosalis.kraken.utils.http.HttpValidators;
 import com.google.api.client.http.HttpMethods;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpResponse;
@@ -61,7 +62,13 @@ import javax.annotation.concurrent.ThreadSafe;
  * interface specifications, the content can be stored in a cache map by using an hashed
  * representation of its URL by calling {@link #hash()} or its static equivalent {@link
  * #hashUrl(String)} by passing the URL of any request.</li> <li>A thread pool executor ({@link
- * #REQUESTS_EXECUTOR}) that can be used by subclasses to directly execute requests</li> </ul>
+ * #REQUESTS_EXECUTOR}) that can be used by subclasses to directly execute requests</li>
+ * <li>Conditional GET requests: a cache can pass the {@link HttpValidators} of its expired copy of
+ * the content to {@link #execute(HttpRequestsManager, ConditionalExecution)}. If the server
+ * replies with a <code>304 Not Modified</code>, the request is successful but returns null (the
+ * callback {@link ResponseAsyncCallback#onSuccess(Object)} method gets null too) and {@link
+ * ConditionalExecution#isNotModified()} returns true, so that the cached copy can be used
+ * again.</li> </ul>
  *
  * Note that most of the implemented methods perform network connections so they can't be called
  * from the UI thread. Callers must implement their own task mechanism to handle UI updates
@@ -204,6 +211,24 @@ public abstract class BaseCacheableRequest<E> implements CacheableRequest<E> {
     @Nullable
     @NotForUIThread
     public E execute(@NonNull HttpRequestsManager connManager) throws Exception {
+        return execute(connManager, null);
+    }
+
+    /**
+     * Executes the request, making it conditional to the validators of the passed execution. The
+     * execution holds the outcome of the validation, so that concurrent executions of the same
+     * request never share it.
+     *
+     * @param connManager The {@link HttpRequestsManager} to build the request
+     * @param execution   The (optional) {@link ConditionalExecution} state, whose validators are
+     *                    only used for GET requests
+     * @return The response model, or null if the request failed or the content wasn't modified
+     * @throws Exception if the request threw an exception
+     */
+    @Nullable
+    @NotForUIThread
+    public E execute(@NonNull HttpRequestsManager connManager,
+                     @Nullable ConditionalExecution execution) throws Exception {
         // TODO: refactor this
         HttpResponse response = null;
         final String requestUrl = mRequestUrl;
@@ -215,6 +240,11 @@ public abstract class BaseCacheableRequest<E> implements CacheableRequest<E> {
             // set request custom parameters and content
             configRequest(request);
             request.setUnsuccessfulResponseHandler(getHttpUnsuccessfulResponseHandler());
+            final HttpValidators validators = execution != null
+                    && HttpMethods.GET.equals(mHttpMethod) ? execution.mValidators : null;
+            if (validators != null) {
+                validators.applyTo(request);
+            }
 
             if (DroidConfig.DEBUG) {
                 Log.w(getTag(), "Executing " + mHttpMethod + " request to: " + requestUrl);
@@ -227,6 +257,15 @@ public abstract class BaseCacheableRequest<E> implements CacheableRequest<E> {
             if (DroidConfig.DEBUG) {
                 Log.w(getTag(), "Response status code: " + statusCode);
             }
+            if (validators != null && HttpValidators.isNotModified(response)) {
+                // the cached content is still valid, nothing to parse
+                execution.mNotModified = true;
+                execution.mResponseValidators = HttpValidators.fromResponse(response);
+                if (mCallback != null) {
+                    mCallback.onSuccess(null);
+                }
+                return null;
+            }
 
             // set parser and proceed with parsing the response content
             request.setParser(getObjectParser());
@@ -238,6 +277,9 @@ public abstract class BaseCacheableRequest<E> implements CacheableRequest<E> {
 				 * will be thrown and caught into the outer try-catch
 				 */
                 final E model = parseResponse(response);
+                if (execution != null) {
+                    execution.mResponseValidators = HttpValidators.fromResponse(response);
+                }
 
                 if (DroidConfig.DEBUG) {
                     Log.v(getTag(), "Parsed response: " + model);
@@ -376,6 +418,46 @@ public abstract class BaseCacheableRequest<E> implements CacheableRequest<E> {
         return mHash;
     }
 
+    /**
+     * State of a single execution of a conditional request: it holds the validators of the cached
+     * copy of the content to send, and gets the outcome of the validation.
+     */
+    @ThreadSafe
+    public static final class ConditionalExecution {
+
+        @Nullable
+        private final HttpValidators mValidators;
+        @Nullable
+        private volatile HttpValidators mResponseValidators;
+        private volatile boolean mNotModified;
+
+        /**
+         * Creates the state of a new execution.
+         *
+         * @param validators The validators of the cached copy, or null for an unconditional
+         *                   request
+         */
+        public ConditionalExecution(@Nullable HttpValidators validators) {
+            mValidators = validators;
+        }
+
+        /**
+         * Returns the validators of the response (either successful or not modified), or null if
+         * the response had none.
+         */
+        @Nullable
+        public HttpValidators getResponseValidators() {
+            return mResponseValidators;
+        }
+
+        /**
+         * Returns whether the request got a <code>304 Not Modified</code> response.
+         */
+        public boolean isNotModified() {
+            return mNotModified;
+        }
+    }
+
     /**
      * Returns a 128-bit unique hash code string representation for the given URL. The returned hash
      * will match the hash dynamically generated for a request with the same URL.
@@ -389,7 +471,7 @@ public abstract class BaseCacheableRequest<E> implements CacheableRequest<E> {
      */
     @NonNull
     public static String hashUrl(@NonNull String url) {
-        return HashUtils.getHash(HASH_FUNCTION, url);
+        return HashKey.of(url).toString();
     }
 
 }
\ No newline at end of file
@@ -37,11 +37,13 @@ import java.io.IOException;
 public interface ResponseAsyncCallback<E> {
 
     /**
-     * Called when the request is successful (2xx response code).
+     * Called when the request is successful (2xx response code), or when a conditional request
+     * gets a <code>304 Not Modified</code> response (see {@link
+     * BaseCacheableRequest.ConditionalExecution#isNotModified()}).
      *
-     * @param object The model object containing the requested data
+     * @param object The model object containing the requested data, or null if not modified
      */
-    public void onSuccess(E object);
+    public void onSuccess(@Nullable E object);
 
     /**
      * Called when the server returned an error status code to the request
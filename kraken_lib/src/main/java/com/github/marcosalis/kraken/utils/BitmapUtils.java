@@ -168,6 +168,35 @@ public class BitmapUtils {
         return inSampleSize;
     }
 
+    /**
+     * Scales the passed bitmap down to the smallest size, keeping its aspect ratio, that is still
+     * big enough to fit the required passed size. A required size of 0 means no constraint on that
+     * side.
+     *
+     * The bitmap is never scaled up: when no scaling is needed, the same {@link Bitmap} instance
+     * is returned.
+     *
+     * @param bitmap    The bitmap to scale
+     * @param reqWidth
+     * @param reqHeight
+     * @return The scaled {@link Bitmap}, or the same instance if no scaling is needed
+     */
+    @NonNull
+    public static Bitmap scaleDownToFit(@NonNull Bitmap bitmap, @IntRange(from = 0) int reqWidth,
+                                        @IntRange(from = 0) int reqHeight) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final float widthScale = reqWidth > 0 ? reqWidth / (float) width : 0f;
+        final float heightScale = reqHeight > 0 ? reqHeight / (float) height : 0f;
+        final float scale = Math.max(widthScale, heightScale);
+        if (scale <= 0f || scale >= 1f) {
+            return bitmap; // no constraints, or already small enough
+        }
+        final int scaledWidth = Math.max(1, Math.round(width * scale));
+        final int scaledHeight = Math.max(1, Math.round(height * scale));
+        return Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true);
+    }
+
     @VisibleForTesting
     static boolean isPowerOfTwo(@IntRange(from = 0) @NonNull int number) {
         Preconditions.checkArgument(number > 0);
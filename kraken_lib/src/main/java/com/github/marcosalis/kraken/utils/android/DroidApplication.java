@@ -82,6 +82,7 @@ public class DroidApplication extends Application {
 
         // collect "debuggable" attribute value from application info
         mIsDebuggable = (0 != (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE));
+        LogUtils.enableCoreLog();
         if (DroidConfig.DEBUG) {
             Log.e(TAG, "The application is running in DEBUG mode!");
             Log.i(TAG, "Debuggable flag in Manifest: " + mIsDebuggable);
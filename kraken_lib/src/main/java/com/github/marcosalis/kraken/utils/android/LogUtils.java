@@ -16,9 +16,12 @@
  */
 package com.github.marcosalis.kraken.utils.android;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.github.marcosalis.kraken.DroidConfig;
+import com.github.marcosalis.kraken.utils.CoreLog;
 import com.google.common.annotations.Beta;
 
 /**
@@ -33,10 +36,32 @@ public class LogUtils {
     @SuppressWarnings("unused")
     private static final String TAG = LogUtils.class.getSimpleName();
 
+    private static final CoreLog.Printer LOGCAT_PRINTER = new CoreLog.Printer() {
+        @Override
+        public void println(int priority, @NonNull String tag, @NonNull String message,
+                            @Nullable Throwable throwable) {
+            if (throwable != null) {
+                Log.println(priority, tag, message + '\n' + Log.getStackTraceString(throwable));
+            } else {
+                Log.println(priority, tag, message);
+            }
+        }
+    };
+
     private LogUtils() {
         // hidden constructor, no instantiation needed
     }
 
+    /**
+     * Prints the {@link CoreLog} messages of the platform independent library classes on LogCat,
+     * only if library debugging is active. The library caches call this when first loaded.
+     */
+    public static void enableCoreLog() {
+        if (DroidConfig.DEBUG) {
+            CoreLog.setPrinter(LOGCAT_PRINTER);
+        }
+    }
+
     /**
      * Logs a message in LogCat, only if library debugging is active.
      *
@@ -16,6 +16,7 @@
  */
 package com.github.marcosalis.kraken.utils.http;
 
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -54,6 +55,13 @@ public final class ByteArrayDownloader implements Callable<byte[]> {
 
     private static final String TAG = ByteArrayDownloader.class.getSimpleName();
 
+    private static final StreamDownloader.ContentHandler<byte[]> BYTE_ARRAY_HANDLER = new StreamDownloader.ContentHandler<byte[]>() {
+        @Override
+        public byte[] handleContent(@NonNull InputStream content) throws IOException {
+            return ByteStreams.toByteArray(content);
+        }
+    };
+
     private final HttpRequestFactory mRequestFactory;
     private final String mUrl;
 
@@ -120,4 +128,23 @@ public final class ByteArrayDownloader implements Callable<byte[]> {
         return bytes;
     }
 
+    /**
+     * Directly downloads the byte array, limiting the response content to a maximum size.
+     *
+     * @param factory  The {@link HttpRequestFactory}
+     * @param url      The string URL to download from
+     * @param maxBytes The maximum allowed size of the response content
+     * @return The byte array from the stream or null if an error occurred
+     * @throws IOException              if the request failed or the content is larger than
+     *                                  maxBytes
+     * @throws IllegalArgumentException
+     */
+    @Nullable
+    @NotForUIThread
+    public static byte[] downloadByteArray(@NonNull HttpRequestFactory factory, @NonNull String url,
+                                           @IntRange(from = 0) long maxBytes)
+            throws IOException, IllegalArgumentException {
+        return StreamDownloader.download(factory, url, maxBytes, BYTE_ARRAY_HANDLER);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.http;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import com.google.common.annotations.Beta;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link InputStream} wrapper that throws an {@link IOException} as soon as more than a maximum
+ * number of bytes are read from the wrapped stream, to avoid that an unexpectedly huge network
+ * response is entirely buffered in memory or on disk.
+ *
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+@NotThreadSafe
+public class LimitedInputStream extends FilterInputStream {
+
+    private final long mMaxBytes;
+    private long mCount;
+
+    /**
+     * @param inputStream The stream to wrap
+     * @param maxBytes    The maximum number of bytes that can be read
+     */
+    public LimitedInputStream(@NonNull InputStream inputStream, @IntRange(from = 0) long maxBytes) {
+        super(inputStream);
+        mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = in.read();
+        if (b != -1) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+        final int read = in.read(buffer, offset, count);
+        if (read > 0) {
+            count(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long skipped = in.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long read) throws IOException {
+        mCount += read;
+        if (mCount > mMaxBytes) {
+            throw new IOException("Content exceeds the maximum size of " + mMaxBytes + " bytes");
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 Marco Salis - fast3r(at)gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcosalis.kraken.utils.http;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.github.marcosalis.kraken.DroidConfig;
+import com.github.marcosalis.kraken.utils.android.LogUtils;
+import com.github.marcosalis.kraken.utils.annotations.NotForUIThread;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.common.annotations.Beta;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helper class to execute a GET request and hand over the response content stream to a {@link
+ * ContentHandler}, without buffering the whole response body in memory. The content length is
+ * limited to a maximum number of bytes.
+ *
+ * Requests can be made conditional with the {@link HttpValidators} of a cached response (see {@link
+ * #download(HttpRequestFactory, String, long, HttpValidators, ConditionalContentHandler)}), so that
+ * the content isn't downloaded again if it didn't change.
+ *
+
+ * @author Marco Salis
+ * @since 2.0
+ */
+@Beta
+public final class StreamDownloader {
+
+    private static final String TAG = StreamDownloader.class.getSimpleName();
+
+    /**
+     * Handler for the content stream of a successful response.
+     *
+     * @param <T> The type of the handled content
+     */
+    public interface ContentHandler<T> {
+
+        /**
+         * Handles the response content. The stream is closed by the caller.
+         *
+         * @param content The response content stream
+         * @return The handled content (can be null)
+         * @throws IOException if the stream couldn't be read or exceeds the maximum size
+         */
+        @Nullable
+        public T handleContent(@NonNull InputStream content) throws IOException;
+    }
+
+    /**
+     * Handler for the response of a conditional request.
+     *
+     * @param <T> The type of the handled content
+     */
+    public interface ConditionalContentHandler<T> {
+
+        /**
+         * Handles the response content, which has changed since the response the passed
+         * validators were sent for. The stream is closed by the caller.
+         *
+         * @param content    The response content stream
+         * @param validators The validators of the new content, or null if the response has none
+         * @return The handled content (can be null)
+         * @throws IOException if the stream couldn't be read or exceeds the maximum size
+         */
+        @Nullable
+        public T handleContent(@NonNull InputStream content, @Nullable HttpValidators validators)
+                throws IOException;
+
+        /**
+         * Handles a <code>304 Not Modified</code> response: the cached content is still valid.
+         *
+         * @param validators The (possibly updated) validators of the response, or null if the
+         *                   response has none
+         * @return The handled content (can be null)
+         */
+        @Nullable
+        public T handleNotModified(@Nullable HttpValidators validators);
+    }
+
+    private StreamDownloader() {
+        // no instantiation needed
+    }
+
+    /**
+     * Executes a GET request to the passed URL and passes the content stream to the handler when
+     * the response is successful.
+     *
+     * @param factory  The {@link HttpRequestFactory}
+     * @param url      The string URL to download from
+     * @param maxBytes The maximum allowed size of the response content
+     * @param handler  The {@link ContentHandler} for the content stream
+     * @return The value returned by the handler, or null if the response was not successful
+     * @throws IOException              if the request failed or the content is larger than
+     *                                  maxBytes
+     * @throws IllegalArgumentException
+     */
+    @Nullable
+    @NotForUIThread
+    public static <T> T download(@NonNull HttpRequestFactory factory, @NonNull String url,
+                                 @IntRange(from = 0) long maxBytes,
+                                 @NonNull final ContentHandler<T> handler)
+            throws IOException, IllegalArgumentException {
+        return download(factory, url, maxBytes, null, new ConditionalContentHandler<T>() {
+            @Override
+            public T handleContent(@NonNull InputStream content,
+                                   @Nullable HttpValidators validators) throws IOException {
+                return handler.handleContent(content);
+            }
+
+            @Override
+            public T handleNotModified(@Nullable HttpValidators validators) {
+                return null; // unconditional request
+            }
+        });
+    }
+
+    /**
+     * Executes a GET request to the passed URL, conditional to the passed validators of a cached
+     * response, and passes the result to the handler: the content stream when the response is
+     * successful, or the validators when the content has not been modified.
+     *
+     * @param factory    The {@link HttpRequestFactory}
+     * @param url        The string URL to download from
+     * @param maxBytes   The maximum allowed size of the response content
+     * @param validators The validators of the cached response, or null for an unconditional
+     *                   request
+     * @param handler    The {@link ConditionalContentHandler} for the response
+     * @return The value returned by the handler, or null if the response was not successful
+     * @throws IOException              if the request failed or the content is larger than
+     *                                  maxBytes
+     * @throws IllegalArgumentException
+     */
+    @Nullable
+    @NotForUIThread
+    public static <T> T download(@NonNull HttpRequestFactory factory, @NonNull String url,
+                                 @IntRange(from = 0) long maxBytes,
+                                 @Nullable HttpValidators validators,
+                                 @NonNull ConditionalContentHandler<T> handler)
+            throws IOException, IllegalArgumentException {
+        HttpResponse response = null;
+
+        if (DroidConfig.DEBUG) {
+            Log.d(TAG, "Executing " + (validators != null ? "conditional " : "")
+                    + "GET request to: " + url);
+        }
+
+        try {
+            final HttpRequest request = factory.buildRequest(HttpMethods.GET, new GenericUrl(url),
+                    null);
+            if (validators != null) {
+                validators.applyTo(request);
+            }
+            response = request.execute();
+
+            if (validators != null && HttpValidators.isNotModified(response)) {
+                if (DroidConfig.DEBUG) {
+                    Log.v(TAG, "GET request not modified: " + url);
+                }
+                return handler.handleNotModified(HttpValidators.fromResponse(response));
+            }
+            if (response.isSuccessStatusCode()) {
+                final Long contentLength = response.getHeaders().getContentLength();
+                if (contentLength != null && contentLength > maxBytes) {
+                    throw new IOException("Content length " + contentLength + " exceeds "
+                            + maxBytes + " bytes: " + url);
+                }
+                final InputStream stream = new LimitedInputStream(new BufferedInputStream(
+                        response.getContent()), maxBytes);
+                try {
+                    final T content = handler.handleContent(stream,
+                            HttpValidators.fromResponse(response));
+                    if (DroidConfig.DEBUG) {
+                        Log.v(TAG, "GET request successful to: " + url);
+                    }
+                    return content;
+                } finally {
+                    stream.close();
+                }
+            }
+            return null;
+        } finally {
+            if (response != null) {
+                try {
+                    response.disconnect();
+                } catch (IOException e) { // just an attempt to close the stream
+                    LogUtils.logException(e);
+                }
+            }
+        }
+    }
+
+}